@@ -0,0 +1,5 @@
+CREATE INDEX IF NOT EXISTS task_journal_id_idx ON task (journal_id);
+CREATE INDEX IF NOT EXISTS ingredient_journal_id_idx ON ingredient (journal_id);
+CREATE INDEX IF NOT EXISTS journal_event_id_idx ON journal (event_id);
+CREATE INDEX IF NOT EXISTS event_start_end_idx ON event (start, end);
+CREATE INDEX IF NOT EXISTS journal_event_event_id_idx ON journal_event (event_id);
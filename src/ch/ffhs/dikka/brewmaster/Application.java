@@ -18,14 +18,15 @@
  */
 package ch.ffhs.dikka.brewmaster;
 
-import java.io.File;
 import java.sql.Connection;
 import java.sql.SQLException;
 
+import ch.ffhs.dikka.brewmaster.mapper.AsyncRepository;
 import ch.ffhs.dikka.brewmaster.mapper.Repository;
 import ch.ffhs.dikka.brewmaster.mapper.ConnectionFactory;
+import ch.ffhs.dikka.brewmaster.mapper.ConnectionPool;
+import ch.ffhs.dikka.brewmaster.mapper.migration.SchemaMigrator;
 import ch.ffhs.dikka.brewmaster.ui.main.MainLogic;
-import ch.ffhs.dikka.brewmaster.util.InitDB;
 
 
 /**
@@ -36,6 +37,9 @@ public class Application
     /** The mappers */
     private Repository repository = null;
 
+    /** The mappers worked on by the database thread */
+    private AsyncRepository asyncRepository = null;
+
     /** The connection */
     private Connection connection = null;
     
@@ -49,11 +53,11 @@ public class Application
      */
     public Application bootstrap () throws BrewMasterException
     {
-        if (needToCreateDatabase ()) {
-            new InitDB ();
-        }
-        connection = ConnectionFactory.create ();
-        repository = new Repository (connection);
+        ConnectionPool pool = ConnectionFactory.createPool ();
+        connection = pool.getWriter ();
+        new SchemaMigrator (connection).migrate ();
+        repository = new Repository (pool);
+        asyncRepository = new AsyncRepository (repository);
 
         return this;
     }
@@ -66,17 +70,25 @@ public class Application
     public Application shutdown () throws BrewMasterException
     {
         try {
-            repository = null;
-
-            if (connection != null) {
+            if (asyncRepository != null) {
+                asyncRepository.close ();
+            }
+            if (repository != null) {
+                repository.close ();
+            }
+            else if (connection != null) {
                 connection.close ();
             }
-            connection = null;
         }
         catch (SQLException e) {
             throw new BrewMasterException (
                     "Cannot close the database connection.", e);
         }
+        finally {
+            asyncRepository = null;
+            repository = null;
+            connection = null;
+        }
 
         return this;
     }
@@ -102,6 +114,13 @@ public class Application
      */
     public Repository getRepository ()
     { return repository; }
+
+    /**
+     * Returns the repository to work on off the event dispatch thread.
+     * @return the repository worked on by the database thread
+     */
+    public AsyncRepository getAsyncRepository ()
+    { return asyncRepository; }
     
     /**
      * Returns the main logic of the front-end.
@@ -126,18 +145,4 @@ public class Application
             super.finalize ();
         }
     }
-
-    /**
-     * Whether we need to create and initialize the database.
-     * @return true if we need to create and initialize the database
-     * @throws BrewMasterException if the working directory does not exist and cannot be created
-     */
-    private boolean needToCreateDatabase () throws BrewMasterException
-    {
-        String path = ConnectionFactory.getDefaultDatabasePath ();
-
-        File dbFile = new File (path);
-
-        return (!dbFile.exists () || dbFile.length () < 10);
-    }
 }
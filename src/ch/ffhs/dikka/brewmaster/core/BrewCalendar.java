@@ -23,17 +23,20 @@ import ch.ffhs.dikka.brewmaster.util.ReadOnlyIterator;
 import java.util.Date;
 import java.util.Calendar;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.HashSet;
 
 /**
  * Represents a range of date containing the according events.
+ *
+ * The events are kept in an interval index and ordered by their start.
+ *
  * @author David Daniel <david.daniel@students.ffhs.ch>
  * @since 2012-12-13
  */
 public class BrewCalendar
 {
     /** All relevant events */
-    private ArrayList<BrewingEvent> events = new ArrayList<BrewingEvent> ();
+    private EventIntervalIndex events = new EventIntervalIndex ();
 
     /** The starting date of the calendar */
     private Date startingDate = getDefaultStartingDate ();
@@ -41,6 +44,9 @@ public class BrewCalendar
     /** The ending date of the calendar */
     private Date endingDate = getDefaultEndingDate ();
 
+    /** The empty list of events to notify */
+    private static final ArrayList<BrewingEvent> NO_EVENTS = new ArrayList<BrewingEvent> (0);
+
     /** All listeners */
     private ArrayList<BrewCalendarListener> listeners = new ArrayList<BrewCalendarListener> ();
 
@@ -60,16 +66,10 @@ public class BrewCalendar
         }
 
         startingDate = start;
-        Iterator<BrewingEvent> eventIterator = events.iterator ();
+        ArrayList<BrewingEvent> removed
+            = events.retainOverlapping (startingDate.getTime (), endingDate.getTime ());
 
-        while (eventIterator.hasNext ()) {
-            BrewingEvent event = eventIterator.next ();
-            if ( ! validateEventDateRange (event)) {
-                eventIterator.remove ();
-            }
-        }
-
-        notifyCalendarChanged ();
+        notifyCalendarChanged (NO_EVENTS, removed, NO_EVENTS, true);
 
         return this;
     }
@@ -100,16 +100,10 @@ public class BrewCalendar
         }
 
         endingDate = end;
-        Iterator<BrewingEvent> eventIterator = events.iterator ();
-
-        while (eventIterator.hasNext ()) {
-            BrewingEvent event = eventIterator.next ();
-            if ( ! validateEventDateRange (event)) {
-                eventIterator.remove ();
-            }
-        }
+        ArrayList<BrewingEvent> removed
+            = events.retainOverlapping (startingDate.getTime (), endingDate.getTime ());
 
-        notifyCalendarChanged ();
+        notifyCalendarChanged (NO_EVENTS, removed, NO_EVENTS, true);
 
         return this;
     }
@@ -126,6 +120,9 @@ public class BrewCalendar
 
     /**
      * Sets the date range of the calendar.
+     *
+     * Events that do not take place within the new range are removed.
+     *
      * @param begin the begin of the range
      * @param end the end of the range
      * @return this calendar
@@ -145,33 +142,64 @@ public class BrewCalendar
 
         startingDate = begin;
         endingDate = end;
+        ArrayList<BrewingEvent> removed
+            = events.retainOverlapping (startingDate.getTime (), endingDate.getTime ());
 
-        notifyCalendarChanged ();
+        notifyCalendarChanged (NO_EVENTS, removed, NO_EVENTS, true);
 
         return this;
     }
 
     /**
      * Sets the relevant events.
+     *
+     * Only the difference to the current events is applied and notified:
+     * missing events are removed, new ones added and known events whose
+     * dates have changed are updated.
+     *
      * @param events the events this calendar should know about
      * @sa BrewCalendar::addEvent
      */
     public BrewCalendar setEvents (ArrayList<BrewingEvent> events)
     {
-        boolean changed = false;
-        if ( ! this.events.isEmpty ()) {
-            changed = true;
-            this.events.clear ();
-        }
+        HashSet<BrewingEvent> validEvents = new HashSet<BrewingEvent> (events.size () * 2);
+        ArrayList<BrewingEvent> added = new ArrayList<BrewingEvent> ();
+        ArrayList<BrewingEvent> changed = new ArrayList<BrewingEvent> ();
+
         for (BrewingEvent event : events) {
+            if ( ! validateEventDateRange (event) || ! validEvents.add (event)) continue;
 
-            if (validateEventDateRange (event)) {
-                this.events.add (event);
-                changed = true;
+            if ( ! this.events.contains (event)) {
+                added.add (event);
+            }
+            else if (this.events.isMoved (event)) {
+                changed.add (event);
             }
         }
 
-        if (changed) notifyCalendarChanged ();
+        ArrayList<BrewingEvent> removed = new ArrayList<BrewingEvent> ();
+        for (BrewingEvent event : this.events) {
+            if ( ! validEvents.contains (event)) {
+                removed.add (event);
+            }
+        }
+
+        if (added.isEmpty () && removed.isEmpty () && changed.isEmpty ()) {
+            return this;
+        }
+
+        // every stage is notified right after applying it, so the listeners
+        // never see events of a later stage within the calendar
+        this.events.removeAll (removed);
+        notifyCalendarChanged (NO_EVENTS, removed, NO_EVENTS, false, false);
+
+        for (BrewingEvent event : changed) {
+            this.events.update (event);
+        }
+        notifyCalendarChanged (NO_EVENTS, NO_EVENTS, changed, false, false);
+
+        this.events.addAll (added);
+        notifyCalendarChanged (added, NO_EVENTS, NO_EVENTS, false, true);
 
         return this;
     }
@@ -184,7 +212,7 @@ public class BrewCalendar
     { return events.size (); }
 
     /**
-     * Returns the event at the given index.
+     * Returns the event at the given index in start order.
      * @param the index of the requested event
      * @return the event at the given index
      */
@@ -201,7 +229,24 @@ public class BrewCalendar
     { return events.indexOf (event); }
 
     /**
-     * Returns a read only iterator to the registered events.
+     * Returns the events taking place in between the given dates ordered by start.
+     * @param begin the begin of the requested range
+     * @param end the end of the requested range
+     * @return the events overlapping the given range, both dates inclusive
+     */
+    public ArrayList<BrewingEvent> getEventsInBetween (Date begin, Date end)
+    { return events.findOverlapping (begin.getTime (), end.getTime ()); }
+
+    /**
+     * Returns the events running at the given date ordered by start.
+     * @param date the date in question
+     * @return the events that have started but not ended at the given date
+     */
+    public ArrayList<BrewingEvent> getEventsAt (Date date)
+    { return events.findRunningAt (date.getTime ()); }
+
+    /**
+     * Returns a read only iterator to the registered events ordered by start.
      * @return a read only iterator to the registered events
      */
     public ReadOnlyIterator<BrewingEvent> iterator ()
@@ -212,24 +257,22 @@ public class BrewCalendar
      */
     public BrewCalendar clearCalendar ()
     {
-        boolean changed = false;
-        if ( ! events.isEmpty ()) {
-            events.clear ();
-            changed = true;
-        }
+        ArrayList<BrewingEvent> removed = events.toList ();
+        events.clear ();
 
         Date nextStartingDate = getDefaultStartingDate ();
         Date nextEndingDate = getDefaultEndingDate ();
+        boolean rangeChanged = false;
 
-        if (nextEndingDate.compareTo (startingDate) != 0 
+        if (nextStartingDate.compareTo (startingDate) != 0
             || nextEndingDate.compareTo (endingDate) != 0) {
 
-            changed = true;
+            rangeChanged = true;
             startingDate = nextStartingDate;
             endingDate = nextEndingDate;
         }
 
-        if (changed) notifyCalendarChanged ();
+        notifyCalendarChanged (NO_EVENTS, removed, NO_EVENTS, rangeChanged);
 
         return this;
     }
@@ -242,21 +285,58 @@ public class BrewCalendar
      */
     public boolean addEvent (BrewingEvent event)
     {
-        if (events.contains (event)) return false;
         if ( ! validateEventDateRange (event)) return false;
+        if ( ! events.add (event)) return false;
 
-        events.add (event);
-        notifyCalendarChanged ();
+        notifyCalendarChanged (singleton (event), NO_EVENTS, NO_EVENTS, false);
 
         return true;
     }
 
     /**
-     * Returns a copy of all registered events.
+     * Removes the given event.
+     * @param event the event to remove
+     * @return true if the event has been removed
+     */
+    public boolean removeEvent (BrewingEvent event)
+    {
+        if ( ! events.remove (event)) return false;
+
+        notifyCalendarChanged (NO_EVENTS, singleton (event), NO_EVENTS, false);
+
+        return true;
+    }
+
+    /**
+     * Updates the given event after its dates have changed.
+     *
+     * The event is added if it is not known yet and removed if it does not
+     * take place within this calendar range anymore.
+     *
+     * @param event the changed event
+     * @return this calendar
+     */
+    public BrewCalendar updateEvent (BrewingEvent event)
+    {
+        if ( ! events.contains (event)) {
+            addEvent (event);
+        }
+        else if ( ! validateEventDateRange (event)) {
+            removeEvent (event);
+        }
+        else if (events.update (event)) {
+            notifyCalendarChanged (NO_EVENTS, NO_EVENTS, singleton (event), false);
+        }
+
+        return this;
+    }
+
+    /**
+     * Returns a copy of all registered events ordered by start.
      * @return the events this calendar knows about
      */
     public ArrayList<BrewingEvent> getEvents ()
-    { return new ArrayList<BrewingEvent> (events); }
+    { return events.toList (); }
 
     /**
      * Adds the given listener.
@@ -282,14 +362,60 @@ public class BrewCalendar
 
     /**
      * Notifies all listeners about a change.
+     *
+     * Nothing is notified if neither the events nor the range have changed.
+     *
+     * @param added the added events
+     * @param removed the removed events
+     * @param changed the events whose dates have changed
+     * @param rangeChanged whether the date range has changed
      */
-    protected void notifyCalendarChanged ()
+    protected void notifyCalendarChanged (ArrayList<BrewingEvent> added,
+            ArrayList<BrewingEvent> removed, ArrayList<BrewingEvent> changed,
+            boolean rangeChanged)
+    {
+        if (added.isEmpty () && removed.isEmpty () && changed.isEmpty () && ! rangeChanged) {
+            return;
+        }
+
+        notifyCalendarChanged (added, removed, changed, rangeChanged, true);
+    }
+
+    /**
+     * Notifies all listeners about a part of a change.
+     *
+     * @param added the added events
+     * @param removed the removed events
+     * @param changed the events whose dates have changed
+     * @param rangeChanged whether the date range has changed
+     * @param complete whether the change is complete and calendarChanged is notified
+     */
+    private void notifyCalendarChanged (ArrayList<BrewingEvent> added,
+            ArrayList<BrewingEvent> removed, ArrayList<BrewingEvent> changed,
+            boolean rangeChanged, boolean complete)
     {
         for (BrewCalendarListener l : listeners) {
-            l.calendarChanged ();
+            if (rangeChanged) l.rangeChanged (startingDate, endingDate);
+            if ( ! removed.isEmpty ()) l.eventsRemoved (removed);
+            if ( ! changed.isEmpty ()) l.eventsChanged (changed);
+            if ( ! added.isEmpty ()) l.eventsAdded (added);
+            if (complete) l.calendarChanged ();
         }
     }
 
+    /**
+     * Returns a list containing the given event only.
+     * @param event the event of the list
+     * @return a list containing the given event only
+     */
+    private static ArrayList<BrewingEvent> singleton (BrewingEvent event)
+    {
+        ArrayList<BrewingEvent> list = new ArrayList<BrewingEvent> (1);
+        list.add (event);
+
+        return list;
+    }
+
     /**
      * Whether the given event is within the calendar range.
      * @return true if the given event is within the calendar range
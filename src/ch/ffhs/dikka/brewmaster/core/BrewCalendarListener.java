@@ -18,8 +18,15 @@
  */
 package ch.ffhs.dikka.brewmaster.core;
 
+import java.util.ArrayList;
+import java.util.Date;
+
 /**
  * Listener for a brewing calendar.
+ *
+ * A change of the calendar is reported by the notifications about the
+ * affected events and the range first, followed by calendarChanged.
+ *
  * @author David Daniel <david.daniel@students.ffhs.ch>
  * @since 2012-12-13
  */
@@ -29,5 +36,30 @@ public interface BrewCalendarListener
      * Indicates that the calendar has changed.
      */
     public void calendarChanged ();
+
+    /**
+     * Indicates that events have been added to the calendar.
+     * @param events the added events
+     */
+    public void eventsAdded (ArrayList<BrewingEvent> events);
+
+    /**
+     * Indicates that events have been removed from the calendar.
+     * @param events the removed events
+     */
+    public void eventsRemoved (ArrayList<BrewingEvent> events);
+
+    /**
+     * Indicates that the dates of events within the calendar have changed.
+     * @param events the changed events
+     */
+    public void eventsChanged (ArrayList<BrewingEvent> events);
+
+    /**
+     * Indicates that the date range of the calendar has changed.
+     * @param start the new starting date
+     * @param end the new ending date
+     */
+    public void rangeChanged (Date start, Date end);
 }
 
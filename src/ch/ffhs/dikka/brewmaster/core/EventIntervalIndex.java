@@ -0,0 +1,593 @@
+/* 
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+
+/**
+ * Keeps brewing events ordered by their start for fast date range queries.
+ *
+ * The events are held in a balanced search tree ordered by start. Each node
+ * knows the latest end within its subtree, so a query only descends into
+ * subtrees that can contain an overlapping event, and the number of events
+ * within its subtree, so positions are found without walking the events.
+ * Finding the k events overlapping a range takes O(log n + k), adding,
+ * removing and updating an event O(log n).
+ *
+ * The dates of an event are recorded when it is added, an event whose dates
+ * have changed since is reported by isMoved and has to be updated.
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+public class EventIntervalIndex
+    implements Iterable<BrewingEvent>
+{
+    /**
+     * A node of the tree holding one event.
+     */
+    private static class Node
+    {
+        /** The event */
+        private BrewingEvent event;
+
+        /** The recorded start of the event */
+        private long start;
+
+        /** The recorded end of the event */
+        private long end;
+
+        /** Orders events with an equal start by the time they have been added */
+        private long sequence;
+
+        /** The latest end within the subtree */
+        private long maxEnd;
+
+        /** The number of events within the subtree */
+        private int size = 1;
+
+        /** The height of the subtree */
+        private int height = 1;
+
+        /** The subtree of the events before this one */
+        private Node left = null;
+
+        /** The subtree of the events after this one */
+        private Node right = null;
+
+        /**
+         * Constructs a node recording the current dates of the given event.
+         * @param event the event
+         * @param sequence the number of events added before
+         */
+        private Node (BrewingEvent event, long sequence)
+        {
+            this.event = event;
+            this.start = event.getStart ().getTime ();
+            this.end = event.getEnd ().getTime ();
+            this.sequence = sequence;
+            this.maxEnd = end;
+        }
+
+        /**
+         * Compares the position of this node with the given one.
+         * @param other the other node
+         * @return less than, equal to or greater than 0 if this node comes before, is or comes after the other
+         */
+        private int compareTo (Node other)
+        {
+            if (start != other.start) return start < other.start ? -1 : 1;
+            if (sequence != other.sequence) return sequence < other.sequence ? -1 : 1;
+
+            return 0;
+        }
+    }
+
+    /** The root of the tree or null if there are no events */
+    private Node root = null;
+
+    /** The node of every event */
+    private HashMap<BrewingEvent, Node> members = new HashMap<BrewingEvent, Node> ();
+
+    /** The number of events added so far */
+    private long sequence = 0;
+
+    /**
+     * Adds the given event.
+     * @param event the event to add
+     * @return true if the event has not been added before
+     */
+    public boolean add (BrewingEvent event)
+    {
+        if (members.containsKey (event)) return false;
+
+        // events with an equal start keep the order they have been added in
+        Node node = new Node (event, sequence++);
+        members.put (event, node);
+        root = insert (root, node);
+
+        return true;
+    }
+
+    /**
+     * Adds all given events that have not been added before.
+     * @param events the events to add
+     * @return the number of added events
+     */
+    public int addAll (Collection<BrewingEvent> events)
+    {
+        int added = 0;
+        for (BrewingEvent event : events) {
+            if (add (event)) {
+                ++added;
+            }
+        }
+
+        return added;
+    }
+
+    /**
+     * Removes the given event.
+     * @param event the event to remove
+     * @return true if the event has been removed
+     */
+    public boolean remove (BrewingEvent event)
+    {
+        Node node = members.remove (event);
+        if (node == null) return false;
+
+        root = delete (root, node);
+
+        return true;
+    }
+
+    /**
+     * Removes all given events.
+     * @param events the events to remove
+     * @return the number of removed events
+     */
+    public int removeAll (Collection<BrewingEvent> events)
+    {
+        int removed = 0;
+        for (BrewingEvent event : events) {
+            if (remove (event)) {
+                ++removed;
+            }
+        }
+
+        return removed;
+    }
+
+    /**
+     * Whether the dates of the given event have changed since they were recorded.
+     * @param event the event in question
+     * @return true if the event has been added and its dates have changed since
+     */
+    public boolean isMoved (BrewingEvent event)
+    {
+        Node node = members.get (event);
+        if (node == null) return false;
+
+        return node.start != event.getStart ().getTime ()
+            || node.end != event.getEnd ().getTime ();
+    }
+
+    /**
+     * Records the current dates of the given event.
+     * @param event the event to update
+     * @return true if the event has been added before
+     */
+    public boolean update (BrewingEvent event)
+    {
+        if ( ! remove (event)) return false;
+
+        return add (event);
+    }
+
+    /**
+     * Removes all events.
+     */
+    public void clear ()
+    {
+        root = null;
+        members.clear ();
+    }
+
+    /**
+     * Whether the given event has been added.
+     * @param event the event in question
+     * @return true if the given event has been added
+     */
+    public boolean contains (BrewingEvent event)
+    { return members.containsKey (event); }
+
+    /**
+     * Returns the position of the given event in start order.
+     * @param event the event the position is requested of
+     * @return the position of the given event or -1 if it has not been added
+     */
+    public int indexOf (BrewingEvent event)
+    {
+        Node node = members.get (event);
+        if (node == null) return -1;
+
+        int position = 0;
+        Node current = root;
+        while (current != null) {
+            int order = node.compareTo (current);
+            if (order < 0) {
+                current = current.left;
+            }
+            else if (order > 0) {
+                position += size (current.left) + 1;
+                current = current.right;
+            }
+            else {
+                return position + size (current.left);
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the event at the given position in start order.
+     * @param index the position of the requested event
+     * @return the event at the given position
+     */
+    public BrewingEvent get (int index)
+        throws IndexOutOfBoundsException
+    {
+        if (index < 0 || index >= size ()) {
+            throw new IndexOutOfBoundsException ("Index: " + index + ", Size: " + size ());
+        }
+
+        Node current = root;
+        while (true) {
+            int leftSize = size (current.left);
+            if (index < leftSize) {
+                current = current.left;
+            }
+            else if (index > leftSize) {
+                index -= leftSize + 1;
+                current = current.right;
+            }
+            else {
+                return current.event;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of events.
+     * @return the number of events
+     */
+    public int size ()
+    { return size (root); }
+
+    /**
+     * Whether no event has been added.
+     * @return true if no event has been added
+     */
+    public boolean isEmpty ()
+    { return root == null; }
+
+    /**
+     * Returns a copy of all events ordered by start.
+     * @return all events ordered by start
+     */
+    public ArrayList<BrewingEvent> toList ()
+    {
+        ArrayList<Node> nodes = new ArrayList<Node> (size ());
+        collectNodes (root, nodes);
+
+        ArrayList<BrewingEvent> events = new ArrayList<BrewingEvent> (nodes.size ());
+        for (Node node : nodes) {
+            events.add (node.event);
+        }
+
+        return events;
+    }
+
+    /**
+     * Returns an iterator over all events ordered by start.
+     *
+     * The iterator walks a copy, so the index may be changed meanwhile.
+     *
+     * @return an iterator over all events ordered by start
+     */
+    @Override
+    public Iterator<BrewingEvent> iterator ()
+    { return Collections.unmodifiableList (toList ()).iterator (); }
+
+    /**
+     * Returns all events overlapping the given range ordered by start.
+     * @param begin the begin of the range in milliseconds
+     * @param end the end of the range in milliseconds
+     * @return all events that take place in between begin and end, both inclusive
+     */
+    public ArrayList<BrewingEvent> findOverlapping (long begin, long end)
+    {
+        ArrayList<BrewingEvent> found = new ArrayList<BrewingEvent> ();
+        collectOverlapping (root, begin, end, found);
+
+        return found;
+    }
+
+    /**
+     * Returns all events running at the given time ordered by start.
+     * @param time the time in milliseconds
+     * @return all events that have started but not ended at the given time
+     */
+    public ArrayList<BrewingEvent> findRunningAt (long time)
+    { return findOverlapping (time, time); }
+
+    /**
+     * Removes all events that do not overlap the given range.
+     *
+     * The tree is rebuilt from the kept events, which takes O(n).
+     *
+     * @param begin the begin of the range in milliseconds
+     * @param end the end of the range in milliseconds
+     * @return the removed events ordered by start
+     */
+    public ArrayList<BrewingEvent> retainOverlapping (long begin, long end)
+    {
+        ArrayList<BrewingEvent> removed = new ArrayList<BrewingEvent> ();
+        ArrayList<BrewingEvent> kept = findOverlapping (begin, end);
+        if (kept.size () == size ()) return removed;
+
+        IdentityHashMap<BrewingEvent, Boolean> keptEvents = new IdentityHashMap<BrewingEvent, Boolean> ();
+        ArrayList<Node> keptNodes = new ArrayList<Node> (kept.size ());
+        for (BrewingEvent event : kept) {
+            keptEvents.put (event, Boolean.TRUE);
+            keptNodes.add (members.get (event));
+        }
+
+        for (BrewingEvent event : toList ()) {
+            if ( ! keptEvents.containsKey (event)) {
+                removed.add (event);
+                members.remove (event);
+            }
+        }
+        root = build (keptNodes, 0, keptNodes.size ());
+
+        return removed;
+    }
+
+    /**
+     * Collects the overlapping events of the given subtree in start order.
+     * @param node the root of the subtree
+     * @param begin the begin of the queried range
+     * @param end the end of the queried range
+     * @param found the list to add the overlapping events to
+     */
+    private static void collectOverlapping (Node node, long begin, long end,
+            ArrayList<BrewingEvent> found)
+    {
+        if (node == null || node.maxEnd < begin) return;
+
+        collectOverlapping (node.left, begin, end, found);
+
+        if (node.start > end) return;
+
+        if (node.end >= begin) {
+            found.add (node.event);
+        }
+
+        collectOverlapping (node.right, begin, end, found);
+    }
+
+    /**
+     * Collects the nodes of the given subtree in start order.
+     * @param node the root of the subtree
+     * @param nodes the list to add the nodes to
+     */
+    private static void collectNodes (Node node, ArrayList<Node> nodes)
+    {
+        if (node == null) return;
+
+        collectNodes (node.left, nodes);
+        nodes.add (node);
+        collectNodes (node.right, nodes);
+    }
+
+    /**
+     * Inserts a node into the given subtree.
+     * @param node the root of the subtree or null
+     * @param added the node to insert
+     * @return the new root of the subtree
+     */
+    private static Node insert (Node node, Node added)
+    {
+        if (node == null) return added;
+
+        if (added.compareTo (node) < 0) {
+            node.left = insert (node.left, added);
+        }
+        else {
+            node.right = insert (node.right, added);
+        }
+
+        return balance (node);
+    }
+
+    /**
+     * Deletes a node from the given subtree.
+     * @param node the root of the subtree holding the node
+     * @param removed the node to delete
+     * @return the new root of the subtree
+     */
+    private static Node delete (Node node, Node removed)
+    {
+        int order = removed.compareTo (node);
+        if (order < 0) {
+            node.left = delete (node.left, removed);
+        }
+        else if (order > 0) {
+            node.right = delete (node.right, removed);
+        }
+        else {
+            if (node.left == null) return node.right;
+            if (node.right == null) return node.left;
+
+            Node successor = node.right;
+            while (successor.left != null) {
+                successor = successor.left;
+            }
+            successor.right = deleteFirst (node.right);
+            successor.left = node.left;
+            node = successor;
+        }
+
+        return balance (node);
+    }
+
+    /**
+     * Deletes the first node from the given subtree.
+     * @param node the root of the subtree
+     * @return the new root of the subtree
+     */
+    private static Node deleteFirst (Node node)
+    {
+        if (node.left == null) return node.right;
+
+        node.left = deleteFirst (node.left);
+
+        return balance (node);
+    }
+
+    /**
+     * Builds a balanced subtree of the given nodes.
+     * @param nodes the nodes in start order
+     * @param low the first position of the nodes of the subtree
+     * @param high the position after the nodes of the subtree
+     * @return the root of the subtree or null if it is empty
+     */
+    private static Node build (ArrayList<Node> nodes, int low, int high)
+    {
+        if (low >= high) return null;
+
+        int middle = (low + high) >>> 1;
+        Node node = nodes.get (middle);
+        node.left = build (nodes, low, middle);
+        node.right = build (nodes, middle + 1, high);
+        refresh (node);
+
+        return node;
+    }
+
+    /**
+     * Restores the balance of the given subtree whose children differ in height by two at most.
+     * @param node the root of the subtree
+     * @return the new root of the subtree
+     */
+    private static Node balance (Node node)
+    {
+        refresh (node);
+
+        int factor = height (node.left) - height (node.right);
+        if (factor > 1) {
+            if (height (node.left.left) < height (node.left.right)) {
+                node.left = rotateLeft (node.left);
+            }
+            return rotateRight (node);
+        }
+        if (factor < -1) {
+            if (height (node.right.right) < height (node.right.left)) {
+                node.right = rotateRight (node.right);
+            }
+            return rotateLeft (node);
+        }
+
+        return node;
+    }
+
+    /**
+     * Rotates the given subtree to the right.
+     * @param node the root of the subtree
+     * @return the new root of the subtree
+     */
+    private static Node rotateRight (Node node)
+    {
+        Node pivot = node.left;
+        node.left = pivot.right;
+        pivot.right = node;
+        refresh (node);
+        refresh (pivot);
+
+        return pivot;
+    }
+
+    /**
+     * Rotates the given subtree to the left.
+     * @param node the root of the subtree
+     * @return the new root of the subtree
+     */
+    private static Node rotateLeft (Node node)
+    {
+        Node pivot = node.right;
+        node.right = pivot.left;
+        pivot.left = node;
+        refresh (node);
+        refresh (pivot);
+
+        return pivot;
+    }
+
+    /**
+     * Recomputes the size, height and latest end of the given node from its children.
+     * @param node the node to refresh
+     */
+    private static void refresh (Node node)
+    {
+        node.size = 1 + size (node.left) + size (node.right);
+        node.height = 1 + Math.max (height (node.left), height (node.right));
+        node.maxEnd = Math.max (node.end, Math.max (maxEnd (node.left), maxEnd (node.right)));
+    }
+
+    /**
+     * Returns the number of events within the given subtree.
+     * @param node the root of the subtree or null
+     * @return the number of events within the subtree
+     */
+    private static int size (Node node)
+    { return node == null ? 0 : node.size; }
+
+    /**
+     * Returns the height of the given subtree.
+     * @param node the root of the subtree or null
+     * @return the height of the subtree
+     */
+    private static int height (Node node)
+    { return node == null ? 0 : node.height; }
+
+    /**
+     * Returns the latest end within the given subtree.
+     * @param node the root of the subtree or null
+     * @return the latest end within the subtree
+     */
+    private static long maxEnd (Node node)
+    { return node == null ? Long.MIN_VALUE : node.maxEnd; }
+}
@@ -0,0 +1,274 @@
+/* 
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.mapper;
+
+import java.awt.EventQueue;
+
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Runs the work on a repository on a database thread of its own.
+ *
+ * The work is executed in submission order within a unit of work of the
+ * database thread. Its futures get completed through the callback executor,
+ * by default on the event dispatch thread, so a front-end may update its
+ * views within the callbacks.
+ * Work submitted with a key supersedes the unfinished work of the same key:
+ * the earlier future gets cancelled and its work skipped if it has not
+ * started yet.
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+public class AsyncRepository
+{
+    /**
+     * Work executed on the database thread.
+     */
+    public interface Query<Result>
+    {
+        /**
+         * Executes the work on the given repository.
+         * @param repository the repository to work on
+         * @return the result of the work
+         * @throws MapperException if the work fails
+         */
+        public Result execute (Repository repository) throws MapperException;
+    }
+
+    /** Hands the results over to the event dispatch thread */
+    private static final Executor EVENT_DISPATCH_THREAD = new Executor ()
+    {
+        @Override
+        public void execute (Runnable runnable)
+        { EventQueue.invokeLater (runnable); }
+    };
+
+    /** The repository to work on */
+    private Repository repository;
+
+    /** Completes the futures */
+    private Executor callbackExecutor;
+
+    /** The unfinished work of every key */
+    private HashMap<String, CompletableFuture<?>> pending
+        = new HashMap<String, CompletableFuture<?>> ();
+
+    /** The database thread */
+    private ExecutorService executor;
+
+    /**
+     * Constructs a facade completing its futures on the event dispatch thread.
+     * @param repository the repository to work on
+     */
+    public AsyncRepository (Repository repository)
+    { this (repository, EVENT_DISPATCH_THREAD); }
+
+    /**
+     * Constructs a new facade.
+     * @param repository the repository to work on
+     * @param callbackExecutor the executor completing the futures
+     */
+    public AsyncRepository (final Repository repository, Executor callbackExecutor)
+    {
+        this.repository = repository;
+        this.callbackExecutor = callbackExecutor;
+        this.executor = Executors.newSingleThreadExecutor (new ThreadFactory ()
+        {
+            @Override
+            public Thread newThread (final Runnable runnable)
+            {
+                Thread thread = new Thread (new Runnable ()
+                {
+                    @Override
+                    public void run ()
+                    { runInUnitOfWork (runnable); }
+                }, "database");
+                thread.setDaemon (true);
+
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Returns the repository worked on.
+     * @return the repository worked on
+     */
+    public Repository getRepository ()
+    { return repository; }
+
+    /**
+     * Executes the given query on the database thread.
+     * @param query the query to execute
+     * @return the future result of the query
+     */
+    public <Result> CompletableFuture<Result> query (Query<Result> query)
+    { return submit (null, query, false); }
+
+    /**
+     * Executes the given query on the database thread superseding the unfinished query of the same key.
+     * @param key the key of the query
+     * @param query the query to execute
+     * @return the future result of the query
+     */
+    public <Result> CompletableFuture<Result> query (String key, Query<Result> query)
+    { return submit (key, query, false); }
+
+    /**
+     * Executes the given work on the database thread and flushes the repository afterwards.
+     *
+     * The changes of failing work are rolled back.
+     *
+     * @param work the work to execute
+     * @return the future result of the work
+     */
+    public <Result> CompletableFuture<Result> write (Query<Result> work)
+    { return submit (null, work, true); }
+
+    /**
+     * Stops the database thread after the submitted work.
+     */
+    public void close ()
+    {
+        executor.shutdown ();
+        try {
+            executor.awaitTermination (10, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread ().interrupt ();
+        }
+    }
+
+    /**
+     * Submits the given work to the database thread.
+     * @param key the key of the work or null
+     * @param work the work to execute
+     * @param flush whether to flush the repository after the work
+     * @return the future result of the work
+     */
+    private <Result> CompletableFuture<Result> submit (
+            final String key, final Query<Result> work, final boolean flush)
+    {
+        final CompletableFuture<Result> result = new CompletableFuture<Result> ();
+
+        if (key != null) {
+            CompletableFuture<?> superseded;
+            synchronized (pending) {
+                superseded = pending.put (key, result);
+            }
+            if (superseded != null) {
+                superseded.cancel (false);
+            }
+        }
+
+        final Future<?> task = executor.submit (new Runnable ()
+        {
+            @Override
+            public void run ()
+            {
+                if (result.isDone ()) return;
+
+                try {
+                    final Result value = work.execute (repository);
+                    if (flush) {
+                        repository.flush ();
+                    }
+                    callbackExecutor.execute (new Runnable ()
+                    {
+                        @Override
+                        public void run ()
+                        { result.complete (value); }
+                    });
+                }
+                catch (final Exception e) {
+                    // only written work is rolled back, a failing query leaves
+                    // the changes of the unit of work to the next write
+                    if (flush) {
+                        repository.rollback ();
+                    }
+                    callbackExecutor.execute (new Runnable ()
+                    {
+                        @Override
+                        public void run ()
+                        { result.completeExceptionally (e); }
+                    });
+                }
+            }
+        });
+
+        result.whenComplete (new BiConsumer<Result, Throwable> ()
+        {
+            @Override
+            public void accept (Result value, Throwable failure)
+            {
+                if (result.isCancelled ()) {
+                    task.cancel (false);
+                }
+                if (key != null) {
+                    synchronized (pending) {
+                        if (pending.get (key) == result) {
+                            pending.remove (key);
+                        }
+                    }
+                }
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Runs the database thread within a unit of work.
+     *
+     * A repository on a single connection cannot begin units of work,
+     * the database thread shares its connection then.
+     *
+     * @param runnable the loop of the database thread
+     */
+    private void runInUnitOfWork (Runnable runnable)
+    {
+        boolean unitOfWork = false;
+        try {
+            repository.beginUnitOfWork ();
+            unitOfWork = true;
+        }
+        catch (MapperException e) {}
+
+        try {
+            runnable.run ();
+        }
+        finally {
+            if (unitOfWork) {
+                try {
+                    repository.endUnitOfWork ();
+                }
+                catch (MapperException e) {}
+            }
+        }
+    }
+}
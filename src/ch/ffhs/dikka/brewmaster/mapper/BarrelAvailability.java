@@ -0,0 +1,479 @@
+/* 
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.mapper;
+
+import ch.ffhs.dikka.brewmaster.core.Barrel;
+import ch.ffhs.dikka.brewmaster.core.BrewingEvent;
+import ch.ffhs.dikka.brewmaster.core.EventIntervalIndex;
+import ch.ffhs.dikka.brewmaster.mapper.base.CommitNotifyable;
+import ch.ffhs.dikka.brewmaster.mapper.base.TransactionLocal;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * Knows which barrels are booked by events at which time.
+ *
+ * The committed bookings of every barrel are kept in an interval index of
+ * their events, so whether a barrel is free within a time range is
+ * answered without looking at its other bookings. The bookings are loaded
+ * on the first request from the committed state of the database.
+ *
+ * The event and event barrel mappers report the changed dates and
+ * bookings of a transaction when they are saved. They are kept apart for
+ * every transaction and only count for the transaction itself until it
+ * commits, when they are applied to the indexes. A rollback drops the
+ * changes of its transaction only.
+ *
+ * The indexes hold copies of the booked time ranges, so they are not
+ * affected by events being edited but not saved.
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+public class BarrelAvailability
+    implements CommitNotifyable
+{
+    /** The repository to load the bookings from */
+    private Repository repository;
+
+    /** Whether the bookings have been loaded */
+    private boolean loaded = false;
+
+    /** The committed bookings of every barrel by its id */
+    private HashMap<Integer, EventIntervalIndex> bookings = new HashMap<Integer, EventIntervalIndex> ();
+
+    /** The committed time range of every booking event by its id */
+    private HashMap<Integer, BrewingEvent> ranges = new HashMap<Integer, BrewingEvent> ();
+
+    /** The id of the event of every booked time range */
+    private HashMap<BrewingEvent, Integer> eventIds = new HashMap<BrewingEvent, Integer> ();
+
+    /** The ids of the barrels booked by every event by its id */
+    private HashMap<Integer, HashSet<Integer>> barrelIds = new HashMap<Integer, HashSet<Integer>> ();
+
+    /** The uncommitted changes of every transaction */
+    private TransactionLocal<Changes> changes = new TransactionLocal<Changes> ()
+    {
+        @Override
+        protected Changes initialValue ()
+        { return new Changes (); }
+
+        @Override
+        protected Connection getConnection ()
+        { return repository.getConnection (); }
+    };
+
+    /**
+     * Constructs the availability of the barrels of the given repository.
+     * @param repository the repository to load the bookings from
+     */
+    public BarrelAvailability (Repository repository)
+    { this.repository = repository; }
+
+    /**
+     * Whether the given barrel is free in between the given dates.
+     *
+     * The committed bookings count, together with the changes of the
+     * current transaction.
+     *
+     * @param barrelId the id of the barrel
+     * @param start the begin of the time range, inclusive
+     * @param end the end of the time range, exclusive
+     * @param exceptEventId the id of an event whose bookings do not count or -1
+     * @return whether no other event books the barrel within the time range
+     * @throws MapperException if the bookings cannot be loaded
+     */
+    public synchronized boolean isFree (int barrelId, Date start, Date end, int exceptEventId)
+        throws MapperException
+    {
+        load ();
+
+        final long begin = start.getTime ();
+        final long until = end.getTime ();
+        Changes own = changes.get ();
+
+        // the committed bookings are found by their committed dates, the
+        // events changed by the transaction are checked in addition
+        HashSet<Integer> candidates = new HashSet<Integer> (own.ranges.keySet ());
+        HashMap<Integer, Boolean> changedBookings = own.bookings.get (barrelId);
+        if (changedBookings != null) {
+            candidates.addAll (changedBookings.keySet ());
+        }
+
+        EventIntervalIndex index = bookings.get (barrelId);
+        if (index != null) {
+            for (BrewingEvent range : index.findOverlapping (begin, until)) {
+                candidates.add (eventIds.get (range));
+            }
+        }
+
+        for (Integer eventId : candidates) {
+            if (eventId == exceptEventId || ! isBooked (own, eventId, barrelId)) continue;
+
+            BrewingEvent range = getRange (own, eventId);
+            if (range != null
+                && range.getStart ().getTime () < until && range.getEnd ().getTime () > begin) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the given barrels that are free for the given event.
+     *
+     * The barrels booked by the event itself count as free. All barrels are
+     * free for an event without dates.
+     *
+     * @param barrels the barrels to choose from
+     * @param event the event in question
+     * @return the barrels not booked by another event running at the same time
+     * @throws MapperException if the bookings cannot be loaded
+     */
+    public ArrayList<Barrel> findFreeBarrels (Collection<Barrel> barrels, BrewingEvent event)
+        throws MapperException
+    {
+        ArrayList<Barrel> free = new ArrayList<Barrel> ();
+
+        if (event == null || event.getStart () == null || event.getEnd () == null) {
+            free.addAll (barrels);
+            return free;
+        }
+
+        EventMapper events = repository.events ();
+        BarrelMapper barrelMapper = repository.barrels ();
+        final int eventId = events.hasEntity (event) ? events.getEntityKey (event) : -1;
+
+        for (Barrel barrel : barrels) {
+            if ( ! barrelMapper.hasEntity (barrel)
+                || isFree (barrelMapper.getEntityKey (barrel), event.getStart (), event.getEnd (), eventId)) {
+                free.add (barrel);
+            }
+        }
+
+        return free;
+    }
+
+    /**
+     * Takes the new dates of a saved event for the current transaction.
+     * @param eventId the id of the event
+     * @param event the event
+     */
+    public synchronized void eventChanged (int eventId, BrewingEvent event)
+    {
+        changes ().ranges.put (eventId, copy (event));
+    }
+
+    /**
+     * Drops the bookings of a removed event for the current transaction.
+     * @param eventId the id of the event
+     */
+    public synchronized void eventRemoved (int eventId)
+    {
+        changes ().ranges.put (eventId, null);
+    }
+
+    /**
+     * Adds the booking of a barrel by an event for the current transaction.
+     * @param eventId the id of the event
+     * @param barrelId the id of the barrel
+     * @param event the event
+     */
+    public synchronized void booked (int eventId, int barrelId, BrewingEvent event)
+    {
+        Changes own = changes ();
+        own.setBooked (eventId, barrelId, true);
+
+        if ( ! own.ranges.containsKey (eventId) && ! ranges.containsKey (eventId)) {
+            own.ranges.put (eventId, copy (event));
+        }
+    }
+
+    /**
+     * Removes the booking of a barrel by an event for the current transaction.
+     * @param eventId the id of the event
+     * @param barrelId the id of the barrel
+     */
+    public synchronized void unbooked (int eventId, int barrelId)
+    {
+        changes ().setBooked (eventId, barrelId, false);
+    }
+
+    /**
+     * Applies the changes of the committed transaction to the bookings.
+     */
+    @Override
+    public synchronized void afterCommit ()
+    {
+        Changes own = changes.get ();
+
+        if (loaded) {
+            for (Map.Entry<Integer, HashMap<Integer, Boolean>> barrel : own.bookings.entrySet ()) {
+                for (Map.Entry<Integer, Boolean> booking : barrel.getValue ().entrySet ()) {
+                    final int eventId = booking.getKey ();
+                    if ( ! booking.getValue ()) {
+                        unbook (eventId, barrel.getKey ());
+                    }
+                    else if (getRange (own, eventId) != null) {
+                        book (eventId, barrel.getKey (), getRange (own, eventId));
+                    }
+                }
+            }
+
+            for (Map.Entry<Integer, BrewingEvent> range : own.ranges.entrySet ()) {
+                move (range.getKey (), range.getValue ());
+            }
+        }
+
+        own.clear ();
+    }
+
+    /**
+     * Drops the changes of the transaction rolled back.
+     *
+     * If the bookings have been loaded with the uncommitted changes of the
+     * transaction, they are dropped as well to be loaded again.
+     */
+    @Override
+    public synchronized void afterRollback ()
+    {
+        Changes own = changes.get ();
+
+        if (own.loadedUncommitted) {
+            bookings.clear ();
+            ranges.clear ();
+            eventIds.clear ();
+            barrelIds.clear ();
+            loaded = false;
+        }
+
+        own.clear ();
+    }
+
+    /**
+     * Returns the changes of the current transaction and gets notified about its end.
+     * @return the changes of the current transaction
+     */
+    private Changes changes ()
+    {
+        repository.addCommitNotifyable (this);
+
+        return changes.get ();
+    }
+
+    /**
+     * Whether the given event books the given barrel within the given changes.
+     * @param own the changes of the transaction
+     * @param eventId the id of the event
+     * @param barrelId the id of the barrel
+     * @return whether the booking exists for the transaction
+     */
+    private boolean isBooked (Changes own, int eventId, int barrelId)
+    {
+        HashMap<Integer, Boolean> changedBookings = own.bookings.get (barrelId);
+        if (changedBookings != null && changedBookings.containsKey (eventId)) {
+            return changedBookings.get (eventId);
+        }
+
+        HashSet<Integer> booked = barrelIds.get (eventId);
+
+        return booked != null && booked.contains (barrelId);
+    }
+
+    /**
+     * Returns the time range of the given event within the given changes.
+     * @param own the changes of the transaction
+     * @param eventId the id of the event
+     * @return the time range of the event or null if it has none
+     */
+    private BrewingEvent getRange (Changes own, int eventId)
+    {
+        return own.ranges.containsKey (eventId) ? own.ranges.get (eventId) : ranges.get (eventId);
+    }
+
+    /**
+     * Loads all committed bookings unless they have been loaded.
+     * @throws MapperException if the bookings cannot be loaded
+     */
+    private void load () throws MapperException
+    {
+        if (loaded) return;
+
+        ConnectionPool pool = repository.getConnectionPool ();
+        EventMapper events = repository.events ();
+        EventBarrelMapper links = repository.eventsBarrels ();
+
+        pool.beginCommittedRead ();
+        try {
+            if (pool.getReadConnection () == pool.getWriteConnection ()) {
+                // without read-only connections the changes of the transaction are read too
+                changes ().loadedUncommitted = true;
+            }
+
+            for (Map.Entry<Integer, BrewingEvent> event : events.findBookedRanges ().entrySet ()) {
+                for (Integer barrelId : links.findBarrelIds (event.getKey ())) {
+                    book (event.getKey (), barrelId, event.getValue ());
+                }
+            }
+        }
+        finally {
+            pool.endRead ();
+        }
+
+        loaded = true;
+    }
+
+    /**
+     * Adds a booking to the index of its barrel unless it is known.
+     * @param eventId the id of the event
+     * @param barrelId the id of the barrel
+     * @param event the event
+     */
+    private void book (int eventId, int barrelId, BrewingEvent event)
+    {
+        if (event.getStart () == null || event.getEnd () == null) return;
+
+        BrewingEvent range = ranges.get (eventId);
+        if (range == null) {
+            range = copy (event);
+            ranges.put (eventId, range);
+            eventIds.put (range, eventId);
+            barrelIds.put (eventId, new HashSet<Integer> ());
+        }
+
+        EventIntervalIndex index = bookings.get (barrelId);
+        if (index == null) {
+            index = new EventIntervalIndex ();
+            bookings.put (barrelId, index);
+        }
+
+        index.add (range);
+        barrelIds.get (eventId).add (barrelId);
+    }
+
+    /**
+     * Removes a booking from the index of its barrel.
+     * @param eventId the id of the event
+     * @param barrelId the id of the barrel
+     */
+    private void unbook (int eventId, int barrelId)
+    {
+        BrewingEvent range = ranges.get (eventId);
+        EventIntervalIndex index = bookings.get (barrelId);
+        if (range == null || index == null) return;
+
+        index.remove (range);
+        if (index.isEmpty ()) bookings.remove (barrelId);
+
+        HashSet<Integer> booked = barrelIds.get (eventId);
+        booked.remove (barrelId);
+        if (booked.isEmpty ()) {
+            barrelIds.remove (eventId);
+            eventIds.remove (range);
+            ranges.remove (eventId);
+        }
+    }
+
+    /**
+     * Moves the bookings of an event to its new time range.
+     * @param eventId the id of the event
+     * @param moved the new time range or null to drop the bookings
+     */
+    private void move (int eventId, BrewingEvent moved)
+    {
+        BrewingEvent range = ranges.get (eventId);
+        if (range == null) return;
+
+        if (moved == null) {
+            for (Integer barrelId : new ArrayList<Integer> (barrelIds.get (eventId))) {
+                unbook (eventId, barrelId);
+            }
+            return;
+        }
+
+        range.setStart (new Date (moved.getStart ().getTime ()));
+        range.setEnd (new Date (moved.getEnd ().getTime ()));
+
+        for (Integer barrelId : barrelIds.get (eventId)) {
+            bookings.get (barrelId).update (range);
+        }
+    }
+
+    /**
+     * Copies the time range of the given event.
+     * @param event the event
+     * @return a copy of the time range or null if the event has no dates
+     */
+    private static BrewingEvent copy (BrewingEvent event)
+    {
+        if (event.getStart () == null || event.getEnd () == null) return null;
+
+        return new BrewingEvent (event.getName (), "",
+                new Date (event.getStart ().getTime ()), new Date (event.getEnd ().getTime ()));
+    }
+
+    /**
+     * The uncommitted changes of a transaction.
+     */
+    private static class Changes
+    {
+        /** The changed time range of every event by its id, null if it has none anymore */
+        private HashMap<Integer, BrewingEvent> ranges = new HashMap<Integer, BrewingEvent> ();
+
+        /** Whether every changed booking is booked, by the ids of its barrel and its event */
+        private HashMap<Integer, HashMap<Integer, Boolean>> bookings
+            = new HashMap<Integer, HashMap<Integer, Boolean>> ();
+
+        /** Whether the bookings have been loaded from the write connection of the transaction */
+        private boolean loadedUncommitted = false;
+
+        /**
+         * Sets whether an event books a barrel.
+         * @param eventId the id of the event
+         * @param barrelId the id of the barrel
+         * @param booked whether the booking exists
+         */
+        private void setBooked (int eventId, int barrelId, boolean booked)
+        {
+            HashMap<Integer, Boolean> changed = bookings.get (barrelId);
+            if (changed == null) {
+                changed = new HashMap<Integer, Boolean> ();
+                bookings.put (barrelId, changed);
+            }
+            changed.put (eventId, booked);
+        }
+
+        /**
+         * Forgets all changes.
+         */
+        private void clear ()
+        {
+            ranges.clear ();
+            bookings.clear ();
+            loadedUncommitted = false;
+        }
+    }
+}
@@ -36,6 +36,24 @@ import java.sql.ResultSet;
 public class BarrelMapper
     extends AbstractMapper<Integer, Barrel>
 {
+    /** The ordinal of the serial number within a row of the barrel table */
+    private final int serialNumberColumn;
+
+    /** The ordinal of the type id within a row of the barrel table */
+    private final int typeIdColumn;
+
+    /** The ordinal of the volume within a row of the barrel table */
+    private final int volumeColumn;
+
+    /** The ordinal of the weight within a row of the barrel table */
+    private final int weightColumn;
+
+    /** The ordinal of the manufacturer within a row of the barrel table */
+    private final int manufacturerColumn;
+
+    /** The ordinal of the build year within a row of the barrel table */
+    private final int buildYearColumn;
+
     /**
      * Constructs a new BarrelMapper.
      */
@@ -58,6 +76,13 @@ public class BarrelMapper
         table.setIncludePrimaryKeyAtInsert (false);
 
         setTable (table);
+
+        serialNumberColumn = table.getColumnIndex ("barrel_sn");
+        typeIdColumn = table.getColumnIndex ("barrel_type_id");
+        volumeColumn = table.getColumnIndex ("barrel_volume");
+        weightColumn = table.getColumnIndex ("barrel_weight");
+        manufacturerColumn = table.getColumnIndex ("barrel_manufacturer");
+        buildYearColumn = table.getColumnIndex ("barrel_build_year");
     }
 
     /**
@@ -123,14 +148,14 @@ public class BarrelMapper
         Barrel barrel = new Barrel ();
 
         barrel.setType (
-                getRepository ().barrelTypes ().find (
-                    result.getInt ("barrel_type_id")));
+                getRepository ().referenceData ().getBarrelType (
+                    result.getInt (typeIdColumn)));
         barrel
-            .setSerialNumber(result.getString("barrel_sn"))
-            .setVolume(result.getInt("barrel_volume"))
-            .setWeight(result.getInt("barrel_weight"))
-            .setManufacturer(result.getString("barrel_manufacturer"))
-            .setBuildYear(result.getInt("barrel_build_year"));
+            .setSerialNumber(result.getString(serialNumberColumn))
+            .setVolume(result.getInt(volumeColumn))
+            .setWeight(result.getInt(weightColumn))
+            .setManufacturer(result.getString(manufacturerColumn))
+            .setBuildYear(result.getInt(buildYearColumn));
 
         return barrel;
     }
@@ -20,7 +20,6 @@ package ch.ffhs.dikka.brewmaster.mapper;
 
 import ch.ffhs.dikka.brewmaster.core.BarrelType;
 import ch.ffhs.dikka.brewmaster.mapper.base.EntityTable;
-import ch.ffhs.dikka.brewmaster.mapper.base.AbstractMapper;
 
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
@@ -33,8 +32,11 @@ import java.sql.ResultSet;
  * @since 2012-11-21
  */
 public class BarrelTypeMapper
-    extends AbstractMapper<Integer, BarrelType>
+    extends ReferenceDataMapper<BarrelType>
 {
+    /** The ordinal of the name within a row of the barrel type table */
+    private final int nameColumn;
+
     /**
      * Constructs a new barrel type mapper.
      */
@@ -52,6 +54,8 @@ public class BarrelTypeMapper
         table.setIncludePrimaryKeyAtInsert (false);
 
         setTable (table);
+
+        nameColumn = table.getColumnIndex ("barrel_type_name");
     }
 
     /**
@@ -104,7 +108,7 @@ public class BarrelTypeMapper
         throws SQLException
     {
         BarrelType barrel_type = new BarrelType (
-                result.getString("barrel_type_name"));
+                result.getString(nameColumn));
 
         return barrel_type;
     }
@@ -27,9 +27,13 @@ import ch.ffhs.dikka.brewmaster.core.BrewingEvent;
 import ch.ffhs.dikka.brewmaster.core.Task;
 import ch.ffhs.dikka.brewmaster.core.Ingredient;
 import ch.ffhs.dikka.brewmaster.mapper.base.*;
+import ch.ffhs.dikka.brewmaster.mapper.base.statement.Condition;
 
 import java.util.Iterator;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
@@ -38,12 +42,58 @@ import java.sql.ResultSet;
 /**
  * Maps the brewing journals.
  *
+ * Journals are loaded together with their ingredients, tasks and events.
+ * With set-based hydration (the default) the children of all journals
+ * loaded by one find or findAll are queried at once, chunked by the batch
+ * size, instead of three queries per journal.
+ *
  * @author David Daniel <david.daniel@students.ffhs.ch>
  * @since 2012-11-08
  */
 public class BrewingJournalMapper
     extends AbstractMapper<Integer, BrewingJournal>
 {
+    /** The ordinal of the description within a row of the journal table */
+    private final int descriptionColumn;
+
+    /** The ordinal of the attendees within a row of the journal table */
+    private final int attendeesColumn;
+
+    /** The ordinal of the expected color within a row of the journal table */
+    private final int expectedColorColumn;
+
+    /** The ordinal of the expected bitterness within a row of the journal table */
+    private final int expectedBitternessColumn;
+
+    /** The ordinal of the expected misc within a row of the journal table */
+    private final int expectedMiscColumn;
+
+    /** The ordinal of the received color within a row of the journal table */
+    private final int receivedColorColumn;
+
+    /** The ordinal of the received bitterness within a row of the journal table */
+    private final int receivedBitternessColumn;
+
+    /** The ordinal of the received misc within a row of the journal table */
+    private final int receivedMiscColumn;
+
+    /** Whether the children of journals are loaded set-based */
+    private boolean setBasedHydration = true;
+
+    /** The loaded journals of each thread whose children are not loaded yet, null if not deferring */
+    private ThreadLocal<LinkedHashMap<Integer, BrewingJournal>> pendingHydration
+        = new ThreadLocal<LinkedHashMap<Integer, BrewingJournal>> ();
+
+    /** The mapper of the relations to events, created on first use */
+    private JournalEventMapper journalEvents = null;
+
+    /** The number of queries issued by the last set-based find or findAll of each thread */
+    private ThreadLocal<Integer> hydrationQueryCount = new ThreadLocal<Integer> () {
+        @Override
+        protected Integer initialValue ()
+        { return 0; }
+    };
+
     public BrewingJournalMapper () throws MapperException
     {
         EntityTable table = new EntityTable ("journal");
@@ -65,6 +115,15 @@ public class BrewingJournalMapper
         table.setIncludePrimaryKeyAtInsert (false);
 
         setTable (table);
+
+        descriptionColumn = table.getColumnIndex ("journal_description");
+        attendeesColumn = table.getColumnIndex ("journal_attendees");
+        expectedColorColumn = table.getColumnIndex ("journal_expected_color");
+        expectedBitternessColumn = table.getColumnIndex ("journal_expected_bitterness");
+        expectedMiscColumn = table.getColumnIndex ("journal_expected_misc");
+        receivedColorColumn = table.getColumnIndex ("journal_received_color");
+        receivedBitternessColumn = table.getColumnIndex ("journal_received_bitterness");
+        receivedMiscColumn = table.getColumnIndex ("journal_received_misc");
     }
 
     /**
@@ -80,15 +139,92 @@ public class BrewingJournalMapper
         return result.getInt (index);
     }
 
+    /**
+     * Sets whether the children of journals are loaded set-based.
+     * @param active whether the children of journals are loaded set-based
+     * @return this mapper
+     */
+    public BrewingJournalMapper setSetBasedHydration (boolean active)
+    {
+        setBasedHydration = active;
+        return this;
+    }
+
+    /**
+     * Whether the children of journals are loaded set-based.
+     * @return whether the children of journals are loaded set-based
+     */
+    public boolean isSetBasedHydrationActive ()
+    { return setBasedHydration; }
+
+    /**
+     * Returns the number of queries issued by the last set-based find or
+     * findAll of the current thread, including the journal query itself.
+     * @return the number of queries issued by the last set-based lookup
+     */
+    public int getHydrationQueryCount ()
+    { return hydrationQueryCount.get (); }
+
+    /**
+     * Returns the journal that relates to the given id.
+     * @param id the identifier of the searched journal
+     * @return the searched journal or null if it does not exist
+     */
+    @Override
+    public BrewingJournal find (Integer id) throws MapperException
+    {
+        if ( ! setBasedHydration || getRegistry ().hasEntity (id)) {
+            return super.find (id);
+        }
+
+        boolean outermost = beginHydration ();
+        beginRead ();
+        try {
+            hydrationQueryCount.set (hydrationQueryCount.get () + 1);
+            BrewingJournal journal = super.find (id);
+            if (outermost) hydratePending ();
+
+            return journal;
+        }
+        finally {
+            endRead ();
+            if (outermost) pendingHydration.remove ();
+        }
+    }
+
+    /**
+     * Loads all journals stored in the database.
+     * @return all journals stored in the database
+     */
+    @Override
+    public ArrayList<BrewingJournal> findAll () throws MapperException
+    {
+        if ( ! setBasedHydration || hasAllEntitiesLoaded ()) {
+            return super.findAll ();
+        }
+
+        boolean outermost = beginHydration ();
+        beginRead ();
+        try {
+            hydrationQueryCount.set (hydrationQueryCount.get () + 1);
+            ArrayList<BrewingJournal> journals = super.findAll ();
+            if (outermost) hydratePending ();
+
+            return journals;
+        }
+        finally {
+            endRead ();
+            if (outermost) pendingHydration.remove ();
+        }
+    }
+
     @Override
     public BrewingJournalMapper remove (BrewingJournal journal) throws MapperException
     {
         getRepository ().tasks ().removeAllOfJournal (journal);
         getRepository ().ingredients ().removeAllOfJournal (journal);
 
-        JournalEventMapper journalEvents = new JournalEventMapper (
-                getRepository ().events ());
-        journalEvents.removeEvents (getEntityKey (journal), journal);
+        journalEvents ().removeEvents (getEntityKey (journal), journal);
 
         super.remove (journal);
 
@@ -98,6 +234,8 @@ public class BrewingJournalMapper
     @Override
     public BrewingJournalMapper persist (BrewingJournal journal) throws MapperException
     {
+        if (hasEntity (journal)) return update (journal);
+
         super.persist (journal);
         syncRelations (journal); 
 
@@ -123,9 +261,7 @@ public class BrewingJournalMapper
         getRepository ().tasks ().persistAllOfJournal (journal);
         getRepository ().ingredients ().persistAllOfJournal (journal);
 
-        JournalEventMapper journalEvents = new JournalEventMapper (
-                getRepository ().events ());
-        journalEvents.persistEvents (getEntityKey (journal), journal);
+        journalEvents ().persistEvents (getEntityKey (journal), journal);
     }
 
     /**
@@ -180,24 +316,251 @@ public class BrewingJournalMapper
         BrewingJournal journal = new BrewingJournal ();
 
         journal
-            .setDescription (result.getString ("journal_description"))
-            .setExpectedColor (result.getString ("journal_expected_color"))
-            .setExpectedBitterness (result.getString ("journal_expected_bitterness"))
-            .setExpectedMisc (result.getString ("journal_expected_misc"))
-            .setReceivedColor (result.getString ("journal_received_color"))
-            .setReceivedBitterness (result.getString ("journal_received_bitterness"))
-            .setReceivedMisc (result.getString ("journal_received_misc"))
-            .setAttendees (result.getString ("journal_attendees"));
+            .setDescription (result.getString (descriptionColumn))
+            .setExpectedColor (result.getString (expectedColorColumn))
+            .setExpectedBitterness (result.getString (expectedBitternessColumn))
+            .setExpectedMisc (result.getString (expectedMiscColumn))
+            .setReceivedColor (result.getString (receivedColorColumn))
+            .setReceivedBitterness (result.getString (receivedBitternessColumn))
+            .setReceivedMisc (result.getString (receivedMiscColumn))
+            .setAttendees (result.getString (attendeesColumn));
+
+        if (pendingHydration.get () != null) {
+            pendingHydration.get ().put (id, journal);
+            return journal;
+        }
+
+        if (setBasedHydration) {
+            LinkedHashMap<Integer, BrewingJournal> single
+                = new LinkedHashMap<Integer, BrewingJournal> ();
+            single.put (id, journal);
+            hydrate (single);
+
+            return journal;
+        }
 
         loadIngredients (id, journal).loadTasks (id, journal);
 
-        JournalEventMapper journalEvents = new JournalEventMapper (
-                getRepository ().events ());
-        journalEvents.loadEvents (id, journal);
+        journalEvents ().loadEvents (id, journal);
 
         return journal;
     }
 
+    /**
+     * Returns the mapper of the relations between journals and events.
+     * @return the mapper of the relations between journals and events
+     */
+    private synchronized JournalEventMapper journalEvents () throws MapperException
+    {
+        if (journalEvents == null) {
+            journalEvents = new JournalEventMapper (
+                    getRepository ().events (), getRepository ().getConnectionPool ());
+        }
+
+        return journalEvents;
+    }
+
+    /**
+     * Starts deferring the hydration of loaded journals.
+     * @return whether this is the outermost lookup that has to hydrate the journals
+     */
+    private boolean beginHydration ()
+    {
+        if (pendingHydration.get () != null) return false;
+
+        pendingHydration.set (new LinkedHashMap<Integer, BrewingJournal> ());
+        hydrationQueryCount.set (0);
+
+        return true;
+    }
+
+    /**
+     * Loads the children of all pending journals.
+     */
+    private void hydratePending () throws MapperException
+    {
+        LinkedHashMap<Integer, BrewingJournal> journals = pendingHydration.get ();
+        pendingHydration.remove ();
+
+        try {
+            hydrate (journals);
+        }
+        catch (SQLException e) {
+            throw new MapperException (
+                    "Cannot load the related entities of the journals.", e);
+        }
+    }
+
+    /**
+     * Loads the ingredients, tasks and events of all given journals set-based.
+     * @param journals the journals to load the children of by their ids
+     */
+    protected void hydrate (Map<Integer, BrewingJournal> journals)
+        throws SQLException, MapperException
+    {
+        if (journals.isEmpty ()) return;
+
+        /* Ingredients look up their scale unit - make sure the reference
+         * data are loaded so that every lookup is served from memory. */
+        ReferenceData referenceData = getRepository ().referenceData ();
+        if ( ! referenceData.isLoaded ()) {
+            referenceData.load ();
+            hydrationQueryCount.set (hydrationQueryCount.get () + 1);
+        }
+
+        ArrayList<Integer> ids = new ArrayList<Integer> (journals.keySet ());
+        int chunkSize = getBatchSize ();
+
+        for (int from = 0; from < ids.size (); from += chunkSize) {
+            List<Integer> chunk = ids.subList (from, Math.min (ids.size (), from + chunkSize));
+
+            hydrateIngredients (chunk, journals);
+            hydrateTasks (chunk, journals);
+            hydrateEvents (chunk, journals);
+        }
+    }
+
+    /**
+     * Loads the ingredients of all given journals with one query.
+     * @param ids the ids of the journals
+     * @param journals the journals by their ids
+     */
+    private void hydrateIngredients (List<Integer> ids, Map<Integer, BrewingJournal> journals)
+        throws SQLException, MapperException
+    {
+        IngredientMapper ingredientMapper = getRepository ().ingredients ();
+
+        EntityTable table = ingredientMapper.getTable ();
+        EntityStatementFactory statements = beginRead ();
+        try {
+            PreparedStatement select = statements.prepare (
+                    StatementBuilder.select ()
+                        .from (table)
+                        .where (Condition.in (table, "journal_id", ids.size ()))
+                        .orderBy ("id", table)
+                        .toString ());
+
+            try {
+                StatementBuilder.bindAll (select, 1, ids);
+
+                ResultSet result = select.executeQuery ();
+                hydrationQueryCount.set (hydrationQueryCount.get () + 1);
+
+                int journalIdColumn = table.getColumnIndex ("journal_id");
+                int keyColumn = table.getPrimaryKeyColumnStartIndex ();
+
+                while (result.next ()) {
+                    journals.get (result.getInt (journalIdColumn)).addIngredient (
+                            ingredientMapper.loadEntity (
+                                ingredientMapper.loadKey (result, keyColumn), result));
+                }
+                result.close ();
+            }
+            finally {
+                statements.release (select);
+            }
+        }
+        finally {
+            endRead ();
+        }
+    }
+
+    /**
+     * Loads the tasks of all given journals with one query.
+     * @param ids the ids of the journals
+     * @param journals the journals by their ids
+     */
+    private void hydrateTasks (List<Integer> ids, Map<Integer, BrewingJournal> journals)
+        throws SQLException, MapperException
+    {
+        TaskMapper taskMapper = getRepository ().tasks ();
+
+        EntityTable table = taskMapper.getTable ();
+        EntityStatementFactory statements = beginRead ();
+        try {
+            PreparedStatement select = statements.prepare (
+                    StatementBuilder.select ()
+                        .from (table)
+                        .where (Condition.in (table, "journal_id", ids.size ()))
+                        .orderBy ("id", table)
+                        .toString ());
+
+            try {
+                StatementBuilder.bindAll (select, 1, ids);
+
+                ResultSet result = select.executeQuery ();
+                hydrationQueryCount.set (hydrationQueryCount.get () + 1);
+
+                int journalIdColumn = table.getColumnIndex ("journal_id");
+                int keyColumn = table.getPrimaryKeyColumnStartIndex ();
+
+                while (result.next ()) {
+                    journals.get (result.getInt (journalIdColumn)).addTask (
+                            taskMapper.loadEntity (taskMapper.loadKey (result, keyColumn), result));
+                }
+                result.close ();
+            }
+            finally {
+                statements.release (select);
+            }
+        }
+        finally {
+            endRead ();
+        }
+    }
+
+    /**
+     * Loads the events of all given journals with one query.
+     * @param ids the ids of the journals
+     * @param journals the journals by their ids
+     */
+    private void hydrateEvents (List<Integer> ids, Map<Integer, BrewingJournal> journals)
+        throws SQLException, MapperException
+    {
+        EventMapper eventMapper = getRepository ().events ();
+        EntityTable eventTable = eventMapper.getTable ();
+
+        Table journalEventTable = new Table ("journal_event");
+        journalEventTable.addColumn ("journal_id journal_event_journal_id");
+
+        ForeignColumn joinColumn = new ForeignColumn ("id");
+        joinColumn.setTable (journalEventTable).setColumn ("event_id");
+
+        EntityStatementFactory statements = beginRead ();
+        try {
+            PreparedStatement select = statements.prepare (
+                    StatementBuilder
+                        .select ()
+                        .from (eventTable)
+                        .from (journalEventTable)
+                        .where (new EntityKey (joinColumn), eventTable)
+                        .where (Condition.in (journalEventTable, "journal_id", ids.size ()))
+                        .toString ());
+
+            try {
+                StatementBuilder.bindAll (select, 1, ids);
+
+                ResultSet result = select.executeQuery ();
+                hydrationQueryCount.set (hydrationQueryCount.get () + 1);
+
+                int primaryKeyIndex = eventTable.getPrimaryKeyColumnStartIndex ();
+                int journalIdColumn = result.findColumn ("journal_event_journal_id");
+                while (result.next ()) {
+                    journals.get (result.getInt (journalIdColumn)).addEvent (
+                            eventMapper.loadEntity (
+                                eventMapper.loadKey (result, primaryKeyIndex), result));
+                }
+                result.close ();
+            }
+            finally {
+                statements.release (select);
+            }
+        }
+        finally {
+            endRead ();
+        }
+    }
+
     /**
      * Loads the ingredients of the given journal.
      * @param id the id to load with
@@ -212,15 +575,16 @@ public class BrewingJournalMapper
             .select ()
             .from (ingredientMapper.getTable ())
             .where ("journal_id", ingredientMapper.getTable ())
-            .prepare (getConnection ());
+            .prepare (getReadConnection ());
 
         select.setInt (1, id);
 
         ResultSet result = select.executeQuery ();
+        int keyColumn = ingredientMapper.getTable ().getPrimaryKeyColumnStartIndex ();
         while (result.next ()) {
             journal.addIngredient (
                     ingredientMapper.loadEntity (
-                        result.getInt ("ingredient_id"), result));
+                        ingredientMapper.loadKey (result, keyColumn), result));
         }
         select.close ();
 
@@ -240,13 +604,14 @@ public class BrewingJournalMapper
             .select ()
             .from (table)
             .where ("journal_id", table)
-            .prepare (getConnection ());
+            .prepare (getReadConnection ());
 
         statement.setInt (1, id);
         ResultSet result = statement.executeQuery ();
+        int keyColumn = table.getPrimaryKeyColumnStartIndex ();
 
         while (result.next ()) {
-            journal.addTask (taskMapper.loadEntity (result.getInt ("task_id"), result));
+            journal.addTask (taskMapper.loadEntity (taskMapper.loadKey (result, keyColumn), result));
         }
         statement.close ();
 
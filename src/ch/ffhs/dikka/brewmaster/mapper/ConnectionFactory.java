@@ -23,6 +23,8 @@ import ch.ffhs.dikka.brewmaster.core.WorkingDirectory;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
 import org.sqlite.SQLiteConfig;
 
 /**
@@ -38,6 +40,12 @@ public abstract class ConnectionFactory
 
     private static final String DATABASE_FILE = "brew-master-pro.sqlite";
 
+    /** The default number of read-only connections within a pool */
+    public static final int DEFAULT_READERS = 2;
+
+    /** The time to wait for a lock held by another connection in seconds */
+    public static final int BUSY_TIMEOUT = 10;
+
     /**
      * Creates a new Database connection on the given path.
      * @param path the full path to the database
@@ -45,6 +53,91 @@ public abstract class ConnectionFactory
      * @throws MapperException if the driver cannot be found or the database path is invalid
      */
     public static Connection create (String path) throws MapperException
+    {
+        SQLiteConfig config = new SQLiteConfig();
+        config.enforceForeignKeys(true);
+
+        return open (path, config, false);
+    }
+
+    /**
+     * Creates a pool of connections to the database on the given path.
+     *
+     * Switches the database to WAL mode, so the read-only connections
+     * do not block the writer and vice versa. The pragma is issued directly,
+     * as the bundled driver does not know the WAL journal mode.
+     *
+     * @param path the full path to the database
+     * @param readers the number of read-only connections
+     * @return a new pool with one writer and the given number of readers
+     * @throws MapperException if a connection cannot be created
+     */
+    public static ConnectionPool createPool (String path, int readers) throws MapperException
+    {
+        SQLiteConfig writerConfig = new SQLiteConfig();
+        writerConfig.enforceForeignKeys(true);
+
+        Connection writer = open (path, writerConfig, true);
+        ArrayList<Connection> readerConnections = new ArrayList<Connection> ();
+
+        try {
+            Statement walStatement = writer.createStatement ();
+            walStatement.execute ("PRAGMA journal_mode = WAL");
+            walStatement.close ();
+            writer.setAutoCommit (false);
+
+            for (int i = 0; i < readers; ++i) {
+                SQLiteConfig readerConfig = new SQLiteConfig();
+                readerConfig.setReadOnly(true);
+                readerConnections.add (open (path, readerConfig, true));
+            }
+
+            return new ConnectionPool (writer, readerConnections, path);
+        }
+        catch (SQLException e) {
+            closeAll (writer, readerConnections);
+            throw new MapperException (
+                    "Cannot switch the database to WAL mode: " + e.getMessage (), e);
+        }
+        catch (MapperException e) {
+            closeAll (writer, readerConnections);
+            throw e;
+        }
+    }
+
+    /**
+     * Creates the default pool of connections for the application.
+     * @see ConnectionFactory.createPool (String path, int readers)
+     * @return a new pool with one writer and the default number of readers
+     */
+    public static ConnectionPool createPool () throws MapperException
+    { return createPool (getDefaultDatabasePath (), DEFAULT_READERS); }
+
+    /**
+     * Closes the given connections quietly.
+     * @param writer the writer connection
+     * @param readers the read-only connections
+     */
+    private static void closeAll (Connection writer, ArrayList<Connection> readers)
+    {
+        readers.add (writer);
+        for (Connection connection : readers) {
+            try {
+                connection.close ();
+            }
+            catch (SQLException ignored) {}
+        }
+    }
+
+    /**
+     * Opens a new connection.
+     * @param path the full path to the database
+     * @param config the configuration of the connection
+     * @param autoCommit whether every statement gets committed on its own
+     * @return the new connection
+     */
+    private static Connection open (String path, SQLiteConfig config, boolean autoCommit)
+        throws MapperException
     {
         Connection connection = null;
         try {
@@ -52,10 +145,14 @@ public abstract class ConnectionFactory
                 Class.forName ("org.sqlite.JDBC");
             }
 
-            SQLiteConfig config = new SQLiteConfig();
-            config.enforceForeignKeys(true);
             connection = config.createConnection("jdbc:sqlite:" + path);
-            connection.setAutoCommit (false);
+
+            // The driver applies the query timeout as busy timeout of the connection
+            Statement timeoutStatement = connection.createStatement ();
+            timeoutStatement.setQueryTimeout (BUSY_TIMEOUT);
+            timeoutStatement.close ();
+
+            connection.setAutoCommit (autoCommit);
         }
         catch (SQLException e) {
             throw new MapperException(
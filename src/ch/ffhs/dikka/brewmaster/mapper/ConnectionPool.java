@@ -0,0 +1,563 @@
+/* 
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.mapper;
+
+import ch.ffhs.dikka.brewmaster.mapper.base.ConnectionRouter;
+import ch.ffhs.dikka.brewmaster.mapper.base.StatementCache;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One writer connection and a number of read-only connections to the same
+ * database.
+ *
+ * The database runs in WAL mode, so the read-only connections see the last
+ * commit while the writer goes on changing data. As long as the writer has
+ * uncommitted changes, reads are sent to the writer instead so they see these
+ * changes as well. The mappers mark a writer before they write on it, a commit
+ * or rollback clears the mark again. The read-only connection used last is handed out first,
+ * so its statement cache stays warm.
+ *
+ * The writer belongs to the thread that owns the repository (usually the
+ * user interface). Any other thread begins its own unit of work, which gives
+ * it a writer connection and a transaction of its own until the unit of work
+ * ends. SQLite still commits one transaction at a time; a writer waits for
+ * the others up to the busy timeout of its connection.
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+public class ConnectionPool
+    implements ConnectionRouter
+{
+    /** The default time to wait for a read-only connection in milliseconds */
+    public static final long DEFAULT_ACQUIRE_TIMEOUT = 30000;
+
+    /** The connection for writes */
+    private Connection writer;
+
+    /** The path to the database or null if units of work are not available */
+    private String path;
+
+    /** All read-only connections */
+    private ArrayList<Connection> readers;
+
+    /** The read-only connections not in use, the last used one first */
+    private LinkedBlockingDeque<Connection> idleReaders;
+
+    /** All connections opened for units of work */
+    private ArrayList<Connection> unitConnections = new ArrayList<Connection> ();
+
+    /** The connections of units of work not in use */
+    private LinkedBlockingDeque<Connection> idleUnitConnections
+        = new LinkedBlockingDeque<Connection> ();
+
+    /** The statement caches of all connections */
+    private IdentityHashMap<Connection, StatementCache> statementCaches
+        = new IdentityHashMap<Connection, StatementCache> ();
+
+    /** The writing connections holding uncommitted changes */
+    private Set<Connection> uncommitted
+        = Collections.newSetFromMap (new ConcurrentHashMap<Connection, Boolean> ());
+
+    /** The read of each thread */
+    private ThreadLocal<Read> reads = new ThreadLocal<Read> ();
+
+    /** The connection of the unit of work of each thread */
+    private ThreadLocal<Connection> units = new ThreadLocal<Connection> ();
+
+    /** The time to wait for a read-only connection in milliseconds */
+    private long acquireTimeout = DEFAULT_ACQUIRE_TIMEOUT;
+
+    /** Whether this pool has been closed */
+    private volatile boolean closed = false;
+
+    /** The time this pool has been opened */
+    private long openedAt = System.nanoTime ();
+
+    /** The number of reads that got a read-only connection */
+    private long acquisitions = 0;
+
+    /** The number of reads that had to wait for a read-only connection */
+    private long waits = 0;
+
+    /** The summed up time spent waiting for read-only connections */
+    private long waitNanos = 0;
+
+    /** The longest time spent waiting for a read-only connection */
+    private long maxWaitNanos = 0;
+
+    /** The number of reads sent to the writer */
+    private long writerReads = 0;
+
+    /** The summed up time read-only connections have been in use */
+    private long busyNanos = 0;
+
+    /** The number of units of work begun */
+    private long unitsOfWork = 0;
+
+    /**
+     * Constructs a pool without read-only connections.
+     * @param writer the connection for writes and reads
+     */
+    public ConnectionPool (Connection writer) throws MapperException
+    { this (writer, new ArrayList<Connection> (), null); }
+
+    /**
+     * Constructs a new pool.
+     * @param writer the connection for writes
+     * @param readers the read-only connections to the same database
+     * @param path the path to the database to open connections for units of
+     *     work or null if units of work are not available
+     */
+    public ConnectionPool (Connection writer, List<Connection> readers, String path)
+        throws MapperException
+    {
+        this.writer = writer;
+        this.path = path;
+        this.readers = new ArrayList<Connection> (readers);
+        idleReaders = new LinkedBlockingDeque<Connection> (readers);
+
+        for (Connection reader : readers) {
+            statementCaches.put (reader, new StatementCache (reader));
+        }
+        addWriter (writer);
+    }
+
+    /**
+     * Returns the connection for writes of the owning thread.
+     * @return the connection for writes of the owning thread
+     */
+    public Connection getWriter ()
+    { return writer; }
+
+    /**
+     * Returns the path to the database.
+     * @return the path to the database or null if not known
+     */
+    public String getPath ()
+    { return path; }
+
+    /**
+     * Returns the number of read-only connections.
+     * @return the number of read-only connections
+     */
+    public int getReaderCount ()
+    { return readers.size (); }
+
+    /**
+     * Sets the time to wait for a read-only connection.
+     * @param timeout the time to wait in milliseconds
+     * @return this pool
+     */
+    public ConnectionPool setAcquireTimeout (long timeout)
+    {
+        acquireTimeout = timeout;
+        return this;
+    }
+
+    /**
+     * Returns the time to wait for a read-only connection.
+     * @return the time to wait in milliseconds
+     */
+    public long getAcquireTimeout ()
+    { return acquireTimeout; }
+
+    /**
+     * Begins a unit of work of the current thread.
+     *
+     * Until the unit of work ends, the thread writes on a connection of its
+     * own and commits and rolls back independently of other threads.
+     *
+     * @throws MapperException if the thread has begun a unit of work already
+     *     or no connection can be opened
+     */
+    public void beginUnitOfWork () throws MapperException
+    {
+        if (units.get () != null) {
+            throw new MapperException ("The unit of work has already begun.");
+        }
+        if (path == null) {
+            throw new MapperException (
+                    "Units of work need a pool opened by the connection factory.");
+        }
+        if (closed) {
+            throw new MapperException ("Cannot begin a unit of work on a closed pool.");
+        }
+
+        Connection connection = idleUnitConnections.pollFirst ();
+        if (connection == null) {
+            connection = ConnectionFactory.create (path);
+
+            synchronized (this) {
+                unitConnections.add (connection);
+            }
+            addWriter (connection);
+        }
+
+        synchronized (this) {
+            ++unitsOfWork;
+        }
+        units.set (connection);
+    }
+
+    /**
+     * Ends the unit of work of the current thread.
+     *
+     * Uncommitted changes of the unit of work are rolled back.
+     *
+     * @throws MapperException if the changes cannot be rolled back
+     */
+    public void endUnitOfWork () throws MapperException
+    {
+        Connection connection = units.get ();
+        if (connection == null) return;
+
+        units.remove ();
+
+        try {
+            connection.rollback ();
+            uncommitted.remove (connection);
+        }
+        catch (SQLException e) {
+            throw new MapperException (
+                    "Cannot roll the unit of work back.", e);
+        }
+        finally {
+            idleUnitConnections.offerFirst (connection);
+        }
+    }
+
+    /**
+     * Whether the current thread has begun a unit of work.
+     * @return whether the current thread has begun a unit of work
+     */
+    public boolean hasUnitOfWork ()
+    { return units.get () != null; }
+
+    /**
+     * Begins a read of the current thread.
+     *
+     * The read gets a read-only connection, or the write connection of the
+     * thread if it has uncommitted changes or there are no read-only
+     * connections.
+     *
+     * @return the connection to read from until the read ends
+     * @throws MapperException if no read-only connection gets available in time
+     */
+    @Override
+    public Connection beginRead () throws MapperException
+    { return beginRead (false); }
+
+    /**
+     * Begins a read of the committed changes only.
+     *
+     * The read gets a read-only connection even if the write connection of
+     * the thread has uncommitted changes, so background reads neither see
+     * nor write the changes of a transaction. Without read-only connections
+     * the writer is read from.
+     *
+     * @return the connection to read from until the read ends
+     * @throws MapperException if no read-only connection gets available in time
+     */
+    @Override
+    public Connection beginCommittedRead () throws MapperException
+    { return beginRead (true); }
+
+    /**
+     * Whether the current read of the thread only sees committed changes.
+     * @return whether the outermost read has been begun by beginCommittedRead ()
+     */
+    @Override
+    public boolean isReadingCommitted ()
+    {
+        Read read = reads.get ();
+
+        return read != null && read.committed;
+    }
+
+    /**
+     * Begins a read of the current thread.
+     * @param committed whether the read has to go to a read-only connection
+     * @return the connection to read from until the read ends
+     * @throws MapperException if no read-only connection gets available in time
+     */
+    private Connection beginRead (boolean committed) throws MapperException
+    {
+        Read read = reads.get ();
+        if (read != null) {
+            ++read.depth;
+            return read.connection;
+        }
+
+        if (closed) {
+            throw new MapperException ("Cannot read from a closed connection pool.");
+        }
+
+        Connection connection = getWriteConnection ();
+
+        if ( ! readers.isEmpty () && (committed || ! hasPendingWrites ())) {
+            connection = acquireReader ();
+        }
+        else {
+            synchronized (this) {
+                ++writerReads;
+            }
+        }
+
+        read = new Read (connection);
+        read.committed = committed;
+        reads.set (read);
+
+        return connection;
+    }
+
+    /**
+     * Ends the last read begun by the current thread.
+     *
+     * The read-only connection is given back at the end of the outermost read.
+     */
+    @Override
+    public void endRead ()
+    {
+        Read read = reads.get ();
+        if (read == null || --read.depth > 0) return;
+
+        reads.remove ();
+        if ( ! read.fromReader) return;
+
+        synchronized (this) {
+            busyNanos += System.nanoTime () - read.since;
+        }
+        idleReaders.offerFirst (read.connection);
+    }
+
+    /**
+     * Returns the connection the current thread reads from.
+     * @return the connection of the current read or the write connection if none has begun
+     */
+    @Override
+    public Connection getReadConnection ()
+    {
+        Read read = reads.get ();
+
+        return read == null ? getWriteConnection () : read.connection;
+    }
+
+    /**
+     * Returns the connection the current thread writes to.
+     * @return the connection of the unit of work of the thread or the writer
+     */
+    @Override
+    public Connection getWriteConnection ()
+    {
+        Connection connection = units.get ();
+
+        return connection == null ? writer : connection;
+    }
+
+    /**
+     * Returns the statement cache of the given connection.
+     * @param connection a connection of this pool
+     * @return the statement cache of the connection or null if it is unknown
+     */
+    @Override
+    public synchronized StatementCache getStatementCache (Connection connection)
+    { return statementCaches.get (connection); }
+
+    /**
+     * Marks the write connection of the current thread as holding uncommitted changes.
+     */
+    @Override
+    public void markUncommitted ()
+    { uncommitted.add (getWriteConnection ()); }
+
+    /**
+     * Whether the write connection of the current thread has uncommitted changes.
+     *
+     * Only the writes marked by the mappers since the last commit or rollback
+     * are known, the database is not asked.
+     *
+     * @return whether the write connection has uncommitted changes
+     */
+    public boolean hasPendingWrites ()
+    { return uncommitted.contains (getWriteConnection ()); }
+
+    /**
+     * Commits the changes of the write connection of the current thread.
+     * @throws SQLException if the commit fails
+     */
+    public void commit () throws SQLException
+    {
+        Connection connection = getWriteConnection ();
+        connection.commit ();
+        uncommitted.remove (connection);
+    }
+
+    /**
+     * Rolls the changes of the write connection of the current thread back.
+     * @throws SQLException if the rollback fails
+     */
+    public void rollback () throws SQLException
+    {
+        Connection connection = getWriteConnection ();
+        connection.rollback ();
+        uncommitted.remove (connection);
+    }
+
+    /**
+     * Returns a snapshot of the usage of this pool.
+     * @return a snapshot of the usage of this pool
+     */
+    public synchronized PoolStatistics getStatistics ()
+    {
+        return new PoolStatistics (
+                readers.size (), readers.size () - idleReaders.size (),
+                acquisitions, waits, waitNanos, maxWaitNanos, writerReads,
+                busyNanos, System.nanoTime () - openedAt, unitsOfWork,
+                unitConnections.size () - idleUnitConnections.size ());
+    }
+
+    /**
+     * Closes all cached statements and connections.
+     * @throws MapperException if a connection cannot be closed
+     */
+    public synchronized void close () throws MapperException
+    {
+        if (closed) return;
+        closed = true;
+
+        for (StatementCache cache : statementCaches.values ()) {
+            cache.close ();
+        }
+
+        SQLException failure = null;
+
+        ArrayList<Connection> connections = new ArrayList<Connection> (readers);
+        connections.addAll (unitConnections);
+        connections.add (writer);
+
+        for (Connection connection : connections) {
+            try {
+                connection.close ();
+            }
+            catch (SQLException e) {
+                if (failure == null) failure = e;
+            }
+        }
+
+        if (failure != null) {
+            throw new MapperException (
+                    "Cannot close the database connections.", failure);
+        }
+    }
+
+    /**
+     * Whether this pool has been closed.
+     * @return whether this pool has been closed
+     */
+    public boolean isClosed ()
+    { return closed; }
+
+    /**
+     * Adds a connection that writes.
+     * @param connection the writing connection
+     */
+    private synchronized void addWriter (Connection connection)
+    { statementCaches.put (connection, new StatementCache (connection)); }
+
+    /**
+     * Takes an idle read-only connection, waiting for one if necessary.
+     * @return the read-only connection
+     * @throws MapperException if no read-only connection gets available in time
+     */
+    private Connection acquireReader () throws MapperException
+    {
+        long start = System.nanoTime ();
+        Connection reader = idleReaders.pollFirst ();
+        boolean waited = reader == null;
+
+        try {
+            if (reader == null) {
+                reader = idleReaders.pollFirst (acquireTimeout, TimeUnit.MILLISECONDS);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread ().interrupt ();
+        }
+
+        long waitTime = System.nanoTime () - start;
+
+        synchronized (this) {
+            if (waited) ++waits;
+            waitNanos += waitTime;
+            maxWaitNanos = Math.max (maxWaitNanos, waitTime);
+
+            if (reader != null) ++acquisitions;
+        }
+
+        if (reader == null) {
+            throw new MapperException (
+                    "No read-only connection has become available in time.");
+        }
+
+        return reader;
+    }
+
+    /**
+     * The read of a thread.
+     */
+    private class Read
+    {
+        /** The connection to read from */
+        private Connection connection;
+
+        /** Whether the connection is a read-only connection */
+        private boolean fromReader;
+
+        /** Whether the read only sees committed changes */
+        private boolean committed;
+
+        /** The number of nested reads */
+        private int depth = 1;
+
+        /** The time the connection has been taken */
+        private long since = System.nanoTime ();
+
+        /**
+         * Constructs a new read.
+         * @param connection the connection to read from
+         */
+        private Read (Connection connection)
+        {
+            this.connection = connection;
+            fromReader = readers.contains (connection);
+        }
+    }
+}
@@ -20,103 +20,603 @@ package ch.ffhs.dikka.brewmaster.mapper;
 
 import ch.ffhs.dikka.brewmaster.core.BrewingEvent;
 import ch.ffhs.dikka.brewmaster.mapper.base.AbstractMapper;
+import ch.ffhs.dikka.brewmaster.mapper.base.CommitNotifyable;
+import ch.ffhs.dikka.brewmaster.mapper.base.CompoundKey2;
+import ch.ffhs.dikka.brewmaster.mapper.base.EntityKey;
+import ch.ffhs.dikka.brewmaster.mapper.base.EntityStatementFactory;
 import ch.ffhs.dikka.brewmaster.mapper.base.EntityTable;
+import ch.ffhs.dikka.brewmaster.mapper.base.StatementBuilder;
+import ch.ffhs.dikka.brewmaster.mapper.base.TransactionLocal;
 import ch.ffhs.dikka.brewmaster.core.EventBarrel;
 
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
 
 /**
- * Maps events.
+ * Maps the bookings of barrels by events.
+ *
+ * A booking is identified by the ids of its event and its barrel. Which
+ * barrels an event books and which events book a barrel is kept in memory
+ * in both directions, loaded from the committed bookings by one query on
+ * the first lookup. The persisted and removed bookings are kept apart for
+ * their transaction and only count for it until it commits, when they are
+ * applied to the bookings in memory. A rollback drops them.
  *
  * @author Christof Kälin <christof.kaelin@students.ffhs.ch>
  * @since 2012-12-04
  */
-public class EventBarrelMapper extends AbstractMapper<Integer, EventBarrel> {
+public class EventBarrelMapper extends AbstractMapper<CompoundKey2<Integer, Integer>, EventBarrel> {
+
+    /** The ids of the barrels booked by every event */
+    private HashMap<Integer, LinkedHashSet<Integer>> barrelsByEvent
+        = new HashMap<Integer, LinkedHashSet<Integer>> ();
+
+    /** The ids of the events booking every barrel */
+    private HashMap<Integer, LinkedHashSet<Integer>> eventsByBarrel
+        = new HashMap<Integer, LinkedHashSet<Integer>> ();
+
+    /** Whether the bookings have been loaded into memory */
+    private boolean indexed = false;
+
+    /** Whether every booking changed within the current transaction exists */
+    private TransactionLocal<LinkedHashMap<CompoundKey2<Integer, Integer>, Boolean>> changedLinks
+        = new TransactionLocal<LinkedHashMap<CompoundKey2<Integer, Integer>, Boolean>> () {
+            @Override
+            protected LinkedHashMap<CompoundKey2<Integer, Integer>, Boolean> initialValue () {
+                return new LinkedHashMap<CompoundKey2<Integer, Integer>, Boolean> ();
+            }
+
+            @Override
+            protected Connection getConnection () {
+                return getTransactionConnection ();
+            }
+        };
+
+    /** The transactions that have loaded the bookings from their own uncommitted state */
+    private TransactionLocal<boolean[]> loadedUncommitted = new TransactionLocal<boolean[]> () {
+            @Override
+            protected boolean[] initialValue () {
+                return new boolean[1];
+            }
+
+            @Override
+            protected Connection getConnection () {
+                return getTransactionConnection ();
+            }
+        };
+
+    /** Applies the changed bookings on commit and drops them on rollback */
+    private CommitNotifyable applyChangedLinks = new CommitNotifyable () {
+            @Override
+            public void afterCommit () {
+                synchronized (barrelsByEvent) {
+                    if (indexed) {
+                        for (Map.Entry<CompoundKey2<Integer, Integer>, Boolean> change
+                                : changedLinks.get ().entrySet ()) {
+                            if (change.getValue ()) {
+                                addLink (change.getKey ());
+                            }
+                            else {
+                                removeLink (change.getKey ());
+                            }
+                        }
+                    }
+                }
+                changedLinks.get ().clear ();
+                loadedUncommitted.get ()[0] = false;
+            }
+
+            @Override
+            public void afterRollback () {
+                synchronized (barrelsByEvent) {
+                    if (loadedUncommitted.get ()[0]) {
+                        barrelsByEvent.clear ();
+                        eventsByBarrel.clear ();
+                        indexed = false;
+                    }
+                }
+                changedLinks.get ().clear ();
+                loadedUncommitted.get ()[0] = false;
+            }
+        };
 
     /**
-     * Constructs a new event mapper.
+     * Constructs a new event barrel mapper.
      */
     public EventBarrelMapper() throws MapperException {
         EntityTable table = new EntityTable ("event_barrel");
 
-        table.addColumn("          event_id");
-        table.addColumn("         barrel_id");
+        table.addColumn("event_id");
+        table.addColumn("barrel_id");
 
-        // TODO: Use composite key as primary key
-        //table.setPrimaryKey("id");
+        table.setPrimaryKey(new EntityKey("event_id").addColumn("barrel_id"));
         table.setAutoKeyGenerationActive(false);
-        table.setIncludePrimaryKeyAtInsert(false);
+        table.setIncludePrimaryKeyAtInsert(true);
 
         setTable (table);
     }
 
+    /**
+     * Returns the ids of the barrels booked by the given event.
+     *
+     * The bookings changed within the current transaction count, unless
+     * the committed changes are read only.
+     *
+     * @param eventId the id of the event
+     * @return the ids of the booked barrels in booking order
+     * @throws MapperException if the bookings cannot be loaded
+     */
+    public ArrayList<Integer> findBarrelIds (int eventId) throws MapperException {
+        LinkedHashSet<Integer> barrelIds;
+        synchronized (barrelsByEvent) {
+            loadIndex ();
+            barrelIds = copy (barrelsByEvent.get (eventId));
+        }
+
+        if ( ! isReadingCommitted ()) {
+            for (Map.Entry<CompoundKey2<Integer, Integer>, Boolean> change : changedLinks.get ().entrySet ()) {
+                if (change.getKey ().getKey1 () == eventId) {
+                    apply (barrelIds, change.getKey ().getKey2 (), change.getValue ());
+                }
+            }
+        }
+
+        return new ArrayList<Integer> (barrelIds);
+    }
+
+    /**
+     * Returns the ids of the events booking the given barrel.
+     *
+     * The bookings changed within the current transaction count, unless
+     * the committed changes are read only.
+     *
+     * @param barrelId the id of the barrel
+     * @return the ids of the booking events in booking order
+     * @throws MapperException if the bookings cannot be loaded
+     */
+    public ArrayList<Integer> findEventIds (int barrelId) throws MapperException {
+        LinkedHashSet<Integer> eventIds;
+        synchronized (barrelsByEvent) {
+            loadIndex ();
+            eventIds = copy (eventsByBarrel.get (barrelId));
+        }
+
+        if ( ! isReadingCommitted ()) {
+            for (Map.Entry<CompoundKey2<Integer, Integer>, Boolean> change : changedLinks.get ().entrySet ()) {
+                if (change.getKey ().getKey2 () == barrelId) {
+                    apply (eventIds, change.getKey ().getKey1 (), change.getValue ());
+                }
+            }
+        }
+
+        return new ArrayList<Integer> (eventIds);
+    }
+
+    /**
+     * Whether the given event books the given barrel.
+     *
+     * The bookings changed within the current transaction count.
+     *
+     * @param eventId the id of the event
+     * @param barrelId the id of the barrel
+     * @return whether the booking exists
+     * @throws MapperException if the bookings cannot be loaded
+     */
+    public boolean isLinked (int eventId, int barrelId) throws MapperException {
+        Boolean changed = changedLinks.get ().get (new CompoundKey2<Integer, Integer> (eventId, barrelId));
+        if (changed != null) return changed;
+
+        synchronized (barrelsByEvent) {
+            loadIndex ();
+            LinkedHashSet<Integer> barrels = barrelsByEvent.get (eventId);
+            return barrels != null && barrels.contains (barrelId);
+        }
+    }
+
+    /**
+     * Returns the bookings of the given event.
+     *
+     * @param eventId the id of the event
+     * @return the bookings of the event
+     * @throws MapperException if the bookings cannot be loaded
+     */
+    public ArrayList<EventBarrel> findByEvent (int eventId) throws MapperException {
+        ArrayList<EventBarrel> links = new ArrayList<EventBarrel> ();
+
+        for (Integer barrelId : findBarrelIds (eventId)) {
+            EventBarrel link = find (new CompoundKey2<Integer, Integer> (eventId, barrelId));
+            if (link != null) links.add (link);
+        }
+
+        return links;
+    }
+
+    /**
+     * Books the given barrels for an event.
+     *
+     * Barrels already booked by the event are skipped, all others are
+     * inserted in batches.
+     *
+     * @param eventId the id of the event
+     * @param barrelIds the ids of the barrels to book
+     * @return this mapper
+     * @throws MapperException if the bookings cannot be persisted
+     */
+    public EventBarrelMapper link (int eventId, Collection<Integer> barrelIds) throws MapperException {
+        ArrayList<EventBarrel> links = new ArrayList<EventBarrel> ();
+
+        for (Integer barrelId : new LinkedHashSet<Integer> (barrelIds)) {
+            if ( ! isLinked (eventId, barrelId)) {
+                links.add (new EventBarrel ().setEventID (eventId).setBarrelID (barrelId));
+            }
+        }
+
+        if ( ! links.isEmpty ()) persistAll (links);
+
+        return this;
+    }
+
+    /**
+     * Cancels the bookings of the given barrels by an event.
+     *
+     * The bookings are deleted in batches, whether they are loaded or not.
+     *
+     * @param eventId the id of the event
+     * @param barrelIds the ids of the barrels to release
+     * @return this mapper
+     * @throws MapperException if the bookings cannot be removed
+     */
+    public EventBarrelMapper unlink (int eventId, Collection<Integer> barrelIds) throws MapperException {
+        ArrayList<CompoundKey2<Integer, Integer>> keys = new ArrayList<CompoundKey2<Integer, Integer>> ();
+
+        for (Integer barrelId : new LinkedHashSet<Integer> (barrelIds)) {
+            if (isLinked (eventId, barrelId)) {
+                keys.add (new CompoundKey2<Integer, Integer> (eventId, barrelId));
+            }
+        }
+        if (keys.isEmpty ()) return this;
+
+        try {
+            PreparedStatement removeStmt = statementFactory.createDeleteStatement ();
+            markUncommitted ();
+
+            try {
+                int pending = 0;
+                for (CompoundKey2<Integer, Integer> key : keys) {
+                    loadKeyStatement (removeStmt, 1, key);
+                    removeStmt.addBatch ();
+
+                    if (++pending == getBatchSize ()) {
+                        removeStmt.executeBatch ();
+                        pending = 0;
+                    }
+                }
+
+                if (pending > 0) removeStmt.executeBatch ();
+                statementFactory.release (removeStmt);
+            }
+            catch (SQLException e) {
+                statementFactory.release (removeStmt);
+                throw e;
+            }
+        }
+        catch (SQLException e) {
+            throw new MapperException (
+                    "Cannot cancel the bookings of the given barrels.", e);
+        }
+
+        for (CompoundKey2<Integer, Integer> key : keys) {
+            markWritten (key);
+            EventBarrel link = getRegistry ().lookup (key);
+            if (link != null) getRegistry ().deRegister (key, link);
+            unlinked (key);
+        }
+
+        return this;
+    }
+
+    /**
+     * Persists the booking and adds it to the bookings in memory.
+     *
+     * @param eventBarrel the booking to persist
+     * @return this mapper
+     */
+    @Override
+    public AbstractMapper<CompoundKey2<Integer, Integer>, EventBarrel> persist (EventBarrel eventBarrel)
+            throws MapperException {
+        super.persist (eventBarrel);
+        linked (getKeyByEntity (eventBarrel));
+
+        return this;
+    }
+
+    /**
+     * Persists the bookings and adds them to the bookings in memory.
+     *
+     * @param eventBarrels the bookings to persist
+     * @return this mapper
+     */
+    @Override
+    public AbstractMapper<CompoundKey2<Integer, Integer>, EventBarrel> persistAll (
+            Collection<EventBarrel> eventBarrels) throws MapperException {
+        super.persistAll (eventBarrels);
+        for (EventBarrel eventBarrel : eventBarrels) {
+            linked (getKeyByEntity (eventBarrel));
+        }
+
+        return this;
+    }
+
+    /**
+     * Removes the booking and drops it from the bookings in memory.
+     *
+     * @param eventBarrel the booking to remove
+     * @return this mapper
+     */
+    @Override
+    public AbstractMapper<CompoundKey2<Integer, Integer>, EventBarrel> remove (EventBarrel eventBarrel)
+            throws MapperException {
+        super.remove (eventBarrel);
+        unlinked (getKeyByEntity (eventBarrel));
+
+        return this;
+    }
+
+    /**
+     * Removes the bookings and drops them from the bookings in memory.
+     *
+     * @param eventBarrels the bookings to remove
+     * @return this mapper
+     */
+    @Override
+    public AbstractMapper<CompoundKey2<Integer, Integer>, EventBarrel> removeAll (
+            Collection<EventBarrel> eventBarrels) throws MapperException {
+        super.removeAll (eventBarrels);
+        for (EventBarrel eventBarrel : eventBarrels) {
+            unlinked (getKeyByEntity (eventBarrel));
+        }
+
+        return this;
+    }
+
     // And here come the mandatory overwrites of AbstractMapper methods:
 
     /**
-     * Loads the primary key of the BrewingEvent that corresponds to the given result set.
+     * Loads the key of the booking that corresponds to the given result set.
      *
      * @param result the result set to load the key from
-     * @param index  the index to load the key of the result set
-     * @return Integer the primary key of the event that corresponds to the given result set
+     * @param index  the index of the event id, followed by the barrel id
+     * @return the key of the booking
      */
     @Override
-    public Integer loadKey(ResultSet result, int index) throws SQLException {
-        return result.getInt(index);
+    public CompoundKey2<Integer, Integer> loadKey(ResultSet result, int index) throws SQLException {
+        return new CompoundKey2<Integer, Integer> (result.getInt(index), result.getInt(index + 1));
     }
 
     /**
-     * Loads the BrewingEvent into the statement.
+     * Loads the booking into the statement.
      * <p/>
-     * Used for updates and inserts.
+     * Both columns are part of the key, so there is nothing else to set.
      *
-     * @param statement the statement to set the BrewingEvent to
-     * @param index     the index within the statment where the BrewingEvent should be set
-     * @param eventBarrel     the BrewingEvent
+     * @param statement the statement to set the booking to
+     * @param index     the index within the statment where the booking should be set
+     * @param eventBarrel the booking
      */
     @Override
     protected void loadEntityStatement(PreparedStatement statement, int index, EventBarrel eventBarrel)
             throws SQLException, MapperException {
-        // Violates willingly law of demeter
-
-        statement.setInt(index++, eventBarrel.getEventID());
-        statement.setInt(index++, eventBarrel.getBarrelID());
     }
 
     /**
-     * Loads the key from the BrewingEvent into the statement.
-     * <p/>
-     * Used for updates and inserts.
+     * Loads the key of the booking into the statement.
      *
      * @param statement the statement to set the key to
-     * @param index     the index within the statment where the key should be set
-     * @param id        the id of the corresponding BrewingEvent
+     * @param index     the index within the statment of the event id, followed by the barrel id
+     * @param id        the key of the booking
      */
     @Override
-    protected void loadKeyStatement(PreparedStatement statement, int index, Integer id)
+    protected void loadKeyStatement(PreparedStatement statement, int index, CompoundKey2<Integer, Integer> id)
             throws SQLException {
-        statement.setInt(index, id);
+        statement.setInt(index, id.getKey1());
+        statement.setInt(index + 1, id.getKey2());
+    }
+
+    /**
+     * Loads a booking from its key.
+     *
+     * @param id the key of the booking
+     * @param result the result set of the booking
+     * @return the loaded booking
+     */
+    @Override
+    protected EventBarrel doLoad(CompoundKey2<Integer, Integer> id, ResultSet result)
+            throws SQLException, MapperException {
+        return new EventBarrel()
+                .setEventID(id.getKey1())
+                .setBarrelID(id.getKey2());
     }
 
     /**
-     * Loads a BrewingEvent from the given result set.
+     * Returns the key of the given booking, made of its event and barrel ids.
      *
-     * @param result the result set to load the BrewingEvent from
-     * @return the loaded BrewingEvent from the result set
+     * @param eventBarrel the booking
+     * @return the key of the booking
      */
     @Override
-    protected EventBarrel doLoad(Integer id, ResultSet result) throws SQLException, MapperException {
-        EventBarrel eventBarrel = new EventBarrel();
-        // I'm not a big fan of method-chaining in Java, but I will follow the lead-developer ;-)
+    protected CompoundKey2<Integer, Integer> getKeyByEntity(EventBarrel eventBarrel) {
+        return new CompoundKey2<Integer, Integer> (eventBarrel.getEventID(), eventBarrel.getBarrelID());
+    }
+
+    /**
+     * Loads all committed bookings into memory unless they have been loaded.
+     *
+     * Without a read-only connection the uncommitted bookings of the current
+     * transaction are loaded too, they are dropped again on its rollback.
+     */
+    private void loadIndex () throws MapperException {
+        if (indexed) return;
+
+        EntityStatementFactory statements = beginCommittedRead ();
+        try {
+            if (statements.getConnection () == getTransactionConnection ()) {
+                loadedUncommitted.get ()[0] = true;
+                if (hasRepository ()) getRepository ().addCommitNotifyable (applyChangedLinks);
+            }
+
+            PreparedStatement findStatement = statements.prepare (
+                StatementBuilder.select ().from (getTable ()).toString ());
+
+            try {
+                ResultSet result = findStatement.executeQuery ();
+                int keyIndex = getTable ().getPrimaryKeyColumnStartIndex ();
+                while (result.next ()) {
+                    addLink (loadKey (result, keyIndex));
+                }
+                result.close ();
+            }
+            finally {
+                statements.release (findStatement);
+            }
+        }
+        catch (SQLException e) {
+            barrelsByEvent.clear ();
+            eventsByBarrel.clear ();
+            throw new MapperException (
+                    "Cannot retrieve the bookings of the barrels.", e);
+        }
+        finally {
+            endRead ();
+        }
+
+        indexed = true;
+    }
+
+    /**
+     * Records a persisted booking for the current transaction and the barrel availability.
+     *
+     * Without a repository there are no commits to wait for, the booking is
+     * added to the bookings in memory at once.
+     *
+     * @param key the key of the booking
+     */
+    private void linked (CompoundKey2<Integer, Integer> key) throws MapperException {
+        changed (key, true);
 
+        if (hasRepository ()) {
+            BrewingEvent event = getRepository ().events ().find (key.getKey1 ());
+            if (event != null) {
+                getRepository ().barrelAvailability ().booked (key.getKey1 (), key.getKey2 (), event);
+            }
+        }
+    }
+
+    /**
+     * Records a removed booking for the current transaction and the barrel availability.
+     *
+     * @param key the key of the booking
+     */
+    private void unlinked (CompoundKey2<Integer, Integer> key) throws MapperException {
+        changed (key, false);
+
+        if (hasRepository ()) {
+            getRepository ().barrelAvailability ().unbooked (key.getKey1 (), key.getKey2 ());
+        }
+    }
+
+    /**
+     * Records a changed booking for the current transaction.
+     *
+     * @param key the key of the booking
+     * @param linked whether the booking exists now
+     */
+    private void changed (CompoundKey2<Integer, Integer> key, boolean linked) throws MapperException {
+        if ( ! hasRepository ()) {
+            synchronized (barrelsByEvent) {
+                if ( ! indexed) return;
+
+                if (linked) {
+                    addLink (key);
+                }
+                else {
+                    removeLink (key);
+                }
+            }
+            return;
+        }
+
+        LinkedHashMap<CompoundKey2<Integer, Integer>, Boolean> changes = changedLinks.get ();
+        changes.remove (key);
+        changes.put (key, linked);
+        getRepository ().addCommitNotifyable (applyChangedLinks);
+    }
+
+    /**
+     * Adds a booking to both directions of the bookings in memory.
+     *
+     * @param key the key of the booking
+     */
+    private void addLink (CompoundKey2<Integer, Integer> key) {
+        addTo (barrelsByEvent, key.getKey1 (), key.getKey2 ());
+        addTo (eventsByBarrel, key.getKey2 (), key.getKey1 ());
+    }
 
-        eventBarrel
-                .setEventID(result.getInt("event_id"))
-                .setBarrelID(result.getInt("barrel_id"));
+    /**
+     * Removes a booking from both directions of the bookings in memory.
+     *
+     * @param key the key of the booking
+     */
+    private void removeLink (CompoundKey2<Integer, Integer> key) {
+        removeFrom (barrelsByEvent, key.getKey1 (), key.getKey2 ());
+        removeFrom (eventsByBarrel, key.getKey2 (), key.getKey1 ());
+    }
+
+    /**
+     * Adds or removes an id of the given ids.
+     */
+    private static void apply (LinkedHashSet<Integer> ids, Integer id, boolean linked) {
+        if (linked) {
+            ids.add (id);
+        }
+        else {
+            ids.remove (id);
+        }
+    }
 
-        return eventBarrel;
+    /**
+     * Adds an id to the ids of the given owner.
+     */
+    private static void addTo (HashMap<Integer, LinkedHashSet<Integer>> index, Integer owner, Integer id) {
+        LinkedHashSet<Integer> ids = index.get (owner);
+        if (ids == null) {
+            ids = new LinkedHashSet<Integer> ();
+            index.put (owner, ids);
+        }
+        ids.add (id);
+    }
+
+    /**
+     * Removes an id from the ids of the given owner.
+     */
+    private static void removeFrom (HashMap<Integer, LinkedHashSet<Integer>> index, Integer owner, Integer id) {
+        LinkedHashSet<Integer> ids = index.get (owner);
+        if (ids == null) return;
+
+        ids.remove (id);
+        if (ids.isEmpty ()) index.remove (owner);
+    }
+
+    /**
+     * Copies the given ids.
+     */
+    private static LinkedHashSet<Integer> copy (LinkedHashSet<Integer> ids) {
+        return ids == null ? new LinkedHashSet<Integer> () : new LinkedHashSet<Integer> (ids);
     }
 }
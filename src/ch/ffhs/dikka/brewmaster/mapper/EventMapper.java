@@ -19,12 +19,18 @@
 package ch.ffhs.dikka.brewmaster.mapper;
 
 import ch.ffhs.dikka.brewmaster.mapper.base.AbstractMapper;
+import ch.ffhs.dikka.brewmaster.mapper.base.EntityCursor;
+import ch.ffhs.dikka.brewmaster.mapper.base.EntityStatementFactory;
 import ch.ffhs.dikka.brewmaster.mapper.base.EntityTable;
 import ch.ffhs.dikka.brewmaster.mapper.base.StatementBuilder;
+import ch.ffhs.dikka.brewmaster.mapper.base.Table;
+import ch.ffhs.dikka.brewmaster.mapper.base.statement.Condition;
 
 import ch.ffhs.dikka.brewmaster.core.BrewingEvent;
 
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
@@ -39,6 +45,27 @@ import java.util.ArrayList;
  */
 public class EventMapper extends AbstractMapper<Integer, BrewingEvent> {
 
+    /** The ordinal of the name within a row of the event table */
+    private final int nameColumn;
+
+    /** The ordinal of the description within a row of the event table */
+    private final int descriptionColumn;
+
+    /** The ordinal of the start within a row of the event table */
+    private final int startColumn;
+
+    /** The ordinal of the end within a row of the event table */
+    private final int endColumn;
+
+    /** The query of the events in between two dates, ordered by start */
+    private final String eventsInBetweenQuery;
+
+    /** The query of the events in between two dates without a journal */
+    private final String nonBrewingEventsQuery;
+
+    /** The query of the events booking at least one barrel */
+    private final String bookedEventsQuery;
+
     /**
      * Constructs a new event mapper.
      */
@@ -57,6 +84,38 @@ public class EventMapper extends AbstractMapper<Integer, BrewingEvent> {
         table.setIncludePrimaryKeyAtInsert(false);
 
         setTable (table);
+
+        nameColumn = table.getColumnIndex("event_name");
+        descriptionColumn = table.getColumnIndex("event_description");
+        startColumn = table.getColumnIndex("event_start");
+        endColumn = table.getColumnIndex("event_end");
+
+        Table journal = new Table ("journal");
+        Table eventBarrel = new Table ("event_barrel");
+
+        eventsInBetweenQuery = StatementBuilder.select ()
+            .from (table)
+            .where (Condition.range (table, "start").or (
+                        Condition.compare (table, "end", "<=")
+                        .and (Condition.compare (table, "end", ">"))))
+            .orderBy ("start", table)
+            .toString ();
+
+        nonBrewingEventsQuery = StatementBuilder.select ()
+            .from (table)
+            .where (Condition.compare (table, "start", ">="))
+            .where (Condition.compare (table, "end", "<"))
+            .where (Condition.notExists (StatementBuilder.select ()
+                        .from (journal)
+                        .where (Condition.sameAs (journal, "event_id", table, "id"))))
+            .toString ();
+
+        bookedEventsQuery = StatementBuilder.select ()
+            .from (table)
+            .where (Condition.exists (StatementBuilder.select ()
+                        .from (eventBarrel)
+                        .where (Condition.sameAs (eventBarrel, "event_id", table, "id"))))
+            .toString ();
     }
 
     // And here come the mandatory overwrites of AbstractMapper methods:
@@ -77,34 +136,27 @@ public class EventMapper extends AbstractMapper<Integer, BrewingEvent> {
             throws MapperException
     {
         ArrayList<BrewingEvent> events = new ArrayList<BrewingEvent> ();
+        EntityStatementFactory statements = beginRead ();
         try {
-            PreparedStatement findStatement = getConnection ().prepareStatement (
-                StatementBuilder.select ().from (getTable ()).toString ()
-                + " WHERE event.start >= ? AND event.end < ?"
-                + " AND NOT EXISTS "
-                + "     (SELECT 1 FROM journal WHERE event.id = journal.event_id)");
-
-            findStatement.setDate (1, new java.sql.Date (from.getTime ()));
-            findStatement.setDate (2, new java.sql.Date (to.getTime ()));
-
-            ResultSet result = findStatement.executeQuery ();
-            while (result.next ()) {
-                Integer key = loadKey (result, 1);
-                if (getRegistry ().hasEntity (key)) {
-                    events.add (getRegistry ().getEntity (key));
-                }
-                else {
-                    BrewingEvent event = loadEntity (key, result);
-                    getRegistry ().register (key, event);
-                    events.add (event);
-                }
+            PreparedStatement findStatement = statements.prepare (nonBrewingEventsQuery);
+
+            try {
+                findStatement.setDate (1, new java.sql.Date (from.getTime ()));
+                findStatement.setDate (2, new java.sql.Date (to.getTime ()));
+
+                loadAll (findStatement, events);
+            }
+            finally {
+                statements.release (findStatement);
             }
-            findStatement.close ();
         }
         catch (SQLException e) {
             throw new MapperException (
                     "Cannot retrieve all non brewing events.", e);
         }
+        finally {
+            endRead ();
+        }
 
         return events;
     }
@@ -113,43 +165,235 @@ public class EventMapper extends AbstractMapper<Integer, BrewingEvent> {
         throws MapperException
     {
         ArrayList<BrewingEvent> events = new ArrayList<BrewingEvent> ();
+        EntityStatementFactory statements = beginRead ();
         try {
-            PreparedStatement findStatement = getConnection ().prepareStatement (
-                StatementBuilder.select ().from (getTable ()).toString ()
-                + " WHERE "
-                + "(event.start >= ? AND event.start < ?) "
-                + "OR "
-                + "(event.end <= ? AND event.end > ?) "
-                + "ORDER BY event.start ASC"
-                );
-
-            findStatement.setDate (1, new java.sql.Date (begin.getTime ()));
-            findStatement.setDate (2, new java.sql.Date (end.getTime ()));
-            findStatement.setDate (3, new java.sql.Date (end.getTime ()));
-            findStatement.setDate (4, new java.sql.Date (begin.getTime ()));
-
-            ResultSet result = findStatement.executeQuery ();
-            while (result.next ()) {
-                Integer key = loadKey (result, 1);
-                if (getRegistry ().hasEntity (key)) {
-                    events.add (getRegistry ().getEntity (key));
-                }
-                else {
-                    BrewingEvent event = loadEntity (key, result);
-                    getRegistry ().register (key, event);
-                    events.add (event);
-                }
+            PreparedStatement findStatement = statements.prepare (eventsInBetweenQuery);
+
+            try {
+                bindEventsInBetween (findStatement, begin, end);
+                loadAll (findStatement, events);
+            }
+            finally {
+                statements.release (findStatement);
             }
-            findStatement.close ();
         }
         catch (SQLException e) {
             throw new MapperException (
                     "Cannot retrieve all non brewing events.", e);
         }
+        finally {
+            endRead ();
+        }
+
+        return events;
+    }
+
+    /**
+     * Loads the stored dates of all events that book at least one barrel.
+     *
+     * The events are neither registered nor taken from the registered ones,
+     * so they hold the dates of the database even while a registered event
+     * is edited.
+     *
+     * @return a copy of every event booking a barrel by its id
+     * @throws MapperException if the events cannot be loaded
+     */
+    public HashMap<Integer, BrewingEvent> findBookedRanges () throws MapperException
+    {
+        HashMap<Integer, BrewingEvent> events = new HashMap<Integer, BrewingEvent> ();
+        EntityStatementFactory statements = beginRead ();
+        try {
+            PreparedStatement findStatement = statements.prepare (bookedEventsQuery);
+
+            try {
+                ResultSet result = findStatement.executeQuery ();
+                int keyIndex = getTable ().getPrimaryKeyColumnStartIndex ();
+                while (result.next ()) {
+                    Integer id = loadKey (result, keyIndex);
+                    events.put (id, doLoad (id, result));
+                }
+                result.close ();
+            }
+            finally {
+                statements.release (findStatement);
+            }
+        }
+        catch (SQLException e) {
+            throw new MapperException (
+                    "Cannot retrieve the booking events.", e);
+        }
+        finally {
+            endRead ();
+        }
 
         return events;
     }
 
+    /**
+     * Updates the given event and passes its dates to the barrel availability.
+     * @param event the event to update
+     * @return this mapper
+     */
+    @Override
+    public AbstractMapper<Integer, BrewingEvent> update (BrewingEvent event) throws MapperException
+    {
+        super.update (event);
+        eventChanged (event);
+
+        return this;
+    }
+
+    /**
+     * Updates the given events and passes their dates to the barrel availability.
+     * @param events the events to update
+     * @return this mapper
+     */
+    @Override
+    public AbstractMapper<Integer, BrewingEvent> updateAll (Collection<BrewingEvent> events)
+        throws MapperException
+    {
+        super.updateAll (events);
+        for (BrewingEvent event : events) {
+            eventChanged (event);
+        }
+
+        return this;
+    }
+
+    /**
+     * Removes the given event and drops its bookings from the barrel availability.
+     * @param event the event to remove
+     * @return this mapper
+     */
+    @Override
+    public AbstractMapper<Integer, BrewingEvent> remove (BrewingEvent event) throws MapperException
+    {
+        Integer id = hasEntity (event) ? getEntityKey (event) : null;
+        super.remove (event);
+        if (id != null && hasRepository ()) {
+            getRepository ().barrelAvailability ().eventRemoved (id);
+        }
+
+        return this;
+    }
+
+    /**
+     * Removes the given events and drops their bookings from the barrel availability.
+     * @param events the events to remove
+     * @return this mapper
+     */
+    @Override
+    public AbstractMapper<Integer, BrewingEvent> removeAll (Collection<BrewingEvent> events)
+        throws MapperException
+    {
+        ArrayList<Integer> ids = new ArrayList<Integer> ();
+        for (BrewingEvent event : events) {
+            if (hasEntity (event)) ids.add (getEntityKey (event));
+        }
+
+        super.removeAll (events);
+        if (hasRepository ()) {
+            for (Integer id : ids) {
+                getRepository ().barrelAvailability ().eventRemoved (id);
+            }
+        }
+
+        return this;
+    }
+
+    /**
+     * Opens a cursor over the events in between the given dates.
+     *
+     * Streams the same events as findAllEventsInBetween without holding all
+     * of them in memory.
+     *
+     * @param begin the begin of the period
+     * @param end the end of the period
+     * @param fetchSize the number of rows to fetch at once
+     * @param register whether the loaded events get registered
+     * @return a cursor over the events ordered by start - needs to be closed
+     */
+    public EntityCursor<Integer, BrewingEvent> openCursorInBetween (
+            Date begin, Date end, int fetchSize, boolean register)
+        throws MapperException
+    {
+        beginRead ();
+        try {
+            return openCursor (prepareEventsInBetween (begin, end), fetchSize, register);
+        }
+        catch (SQLException e) {
+            throw new MapperException (
+                    "Cannot retrieve the events in between.", e);
+        }
+        finally {
+            endRead ();
+        }
+    }
+
+    /**
+     * Passes the dates of a managed event to the barrel availability.
+     * @param event the updated event
+     */
+    private void eventChanged (BrewingEvent event) throws MapperException
+    {
+        if (hasRepository () && hasEntity (event)) {
+            getRepository ().barrelAvailability ().eventChanged (getEntityKey (event), event);
+        }
+    }
+
+    /**
+     * Prepares the query of the events in between the given dates.
+     * @param begin the begin of the period
+     * @param end the end of the period
+     * @return the prepared query with bound parameters
+     */
+    private PreparedStatement prepareEventsInBetween (Date begin, Date end)
+        throws SQLException, MapperException
+    {
+        PreparedStatement findStatement = getReadConnection ().prepareStatement (
+                eventsInBetweenQuery);
+
+        try {
+            bindEventsInBetween (findStatement, begin, end);
+        }
+        catch (SQLException e) {
+            findStatement.close ();
+            throw e;
+        }
+
+        return findStatement;
+    }
+
+    /**
+     * Binds the dates to the query of the events in between.
+     * @param findStatement the query of the events in between
+     * @param begin the begin of the period
+     * @param end the end of the period
+     */
+    private static void bindEventsInBetween (PreparedStatement findStatement, Date begin, Date end)
+        throws SQLException
+    {
+        findStatement.setDate (1, new java.sql.Date (begin.getTime ()));
+        findStatement.setDate (2, new java.sql.Date (end.getTime ()));
+        findStatement.setDate (3, new java.sql.Date (end.getTime ()));
+        findStatement.setDate (4, new java.sql.Date (begin.getTime ()));
+    }
+
+    /**
+     * Loads all events queried by the given statement.
+     * @param findStatement the query of the events
+     * @param events the list to add the events to
+     */
+    private void loadAll (PreparedStatement findStatement, ArrayList<BrewingEvent> events)
+        throws SQLException, MapperException
+    {
+        ResultSet result = findStatement.executeQuery ();
+        while (result.next ()) {
+            events.add (loadEntity (loadKey (result, 1), result));
+        }
+        result.close ();
+    }
+
     /**
      * Loads the BrewingEvent into the statement.
      * <p/>
@@ -198,10 +442,10 @@ public class EventMapper extends AbstractMapper<Integer, BrewingEvent> {
 
 
         event
-                .setName(result.getString("event_name"))
-                .setDescription(result.getString("event_description"))
-                .setStart(new Date(result.getDate("event_start").getTime())) // use unix time
-                .setEnd(new Date(result.getDate("event_end").getTime())); // use unix time
+                .setName(result.getString(nameColumn))
+                .setDescription(result.getString(descriptionColumn))
+                .setStart(new Date(result.getDate(startColumn).getTime())) // use unix time
+                .setEnd(new Date(result.getDate(endColumn).getTime())); // use unix time
 
         return event;
     }
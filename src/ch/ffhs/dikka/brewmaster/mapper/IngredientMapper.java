@@ -21,6 +21,7 @@ package ch.ffhs.dikka.brewmaster.mapper;
 import ch.ffhs.dikka.brewmaster.mapper.base.AbstractMapper;
 import ch.ffhs.dikka.brewmaster.mapper.base.EntityTable;
 import ch.ffhs.dikka.brewmaster.mapper.base.EntityKey;
+import ch.ffhs.dikka.brewmaster.mapper.base.EntityStatementFactory;
 
 import ch.ffhs.dikka.brewmaster.core.BrewingJournal;
 import ch.ffhs.dikka.brewmaster.core.Ingredient;
@@ -39,9 +40,27 @@ import java.sql.ResultSet;
 public class IngredientMapper
     extends AbstractMapper<Integer, Ingredient>
 {
+    /** The ordinal of the journal id within a row of the ingredient table */
+    private final int journalIdColumn;
+
+    /** The ordinal of the name within a row of the ingredient table */
+    private final int nameColumn;
+
+    /** The ordinal of the quantity within a row of the ingredient table */
+    private final int quantityColumn;
+
+    /** The ordinal of the remarks within a row of the ingredient table */
+    private final int remarksColumn;
+
+    /** The ordinal of the scale unit id within a row of the ingredient table */
+    private final int scaleUnitIdColumn;
+
     /** The column name identifying the owning journal */
     private static final String JOURNAL_ID = "journal_id";
 
+    /** The id of the journal whose ingredients are currently saved or loaded by the current thread */
+    private ThreadLocal<Integer> owningJournalId = new ThreadLocal<Integer> ();
+
     /**
      * Constructs a new ingredient mapper.
      */
@@ -62,6 +81,12 @@ public class IngredientMapper
         table.setIncludePrimaryKeyAtInsert (false);
 
         setTable (table);
+
+        journalIdColumn = table.getColumnIndex ("journal_id");
+        nameColumn = table.getColumnIndex ("ingredient_name");
+        quantityColumn = table.getColumnIndex ("ingredient_quantity");
+        remarksColumn = table.getColumnIndex ("ingredient_remarks");
+        scaleUnitIdColumn = table.getColumnIndex ("scale_unit_id");
     }
 
     /**
@@ -72,8 +97,9 @@ public class IngredientMapper
     {
         ArrayList<Ingredient> allIngredients = new ArrayList<Ingredient> ();
 
+        EntityStatementFactory statements = beginRead ();
         try {
-            PreparedStatement findStatement = statementFactory.createSelectStatement (
+            PreparedStatement findStatement = statements.createSelectStatement (
                     new EntityKey (JOURNAL_ID));
 
             findStatement.setInt (1, getRepository ().journals ().getEntityKey (journal));
@@ -84,96 +110,56 @@ public class IngredientMapper
                 allIngredients.add (loadEntity (loadKey (result, 1), result));
             }
 
-            findStatement.close ();
+            statements.release (findStatement);
         }
         catch (SQLException e) {
             throw new MapperException (
                     "Cannot query for the ingredients of the given journal.", e);
         }
+        finally {
+            endRead ();
+        }
 
         return allIngredients;
     }
 
     /**
      * Removes all ingredients owned by the given journal.
-     * @param journal the journal that of all ingredients should be removed
+     * @param journal the journal that all ingredients of should be deleted
      */
     public void removeAllOfJournal (BrewingJournal journal) throws MapperException
     {
-        try {
-            removeJournalZombies (journal);
-
-            BrewingJournalMapper journals = getRepository ().journals ();
-            PreparedStatement removeStatement = statementFactory.createDeleteStatement ();
-                    
-            Iterator<Ingredient> ingredientIterator = journal.getIngredients ();
-            while (ingredientIterator.hasNext ()) {
-                Ingredient ingredient = ingredientIterator.next ();
-                Integer id = getEntityKey (ingredient);
-
-                removeStatement.setInt (1, id);
-                removeStatement.executeUpdate ();
-
-                getRegistry ().deRegister (id, ingredient);
-            }
-            removeStatement.close ();
-        }
-        catch (SQLException e) {
-            throw new MapperException (
-                    "Cannot remove all ingredients of the given journal.", e);
-        }
+        removeAllOfOwnerExcept (
+                JOURNAL_ID, getRepository ().journals ().getEntityKey (journal),
+                new ArrayList<Ingredient> ());
     }
 
     /**
-     * Persists or updates the ingredients of the given journal.
-     * All non related tasks of the given journal that haven been related to
-     * it before are removed.
-     * @param journal the journal to persist all tasks of
+     * Saves or updates all ingredients of the given journal.
+     *
+     * All non related ingredients of the given journal that have been related
+     * to it before are removed. The remaining ingredients are written in batches.
+     *
+     * @param journal the journal of all ingredients should get saved or updated
      */
     public void persistAllOfJournal (BrewingJournal journal) throws MapperException
     {
-        try {
-            removeJournalZombies (journal);
-
-            PreparedStatement insertStatement = statementFactory.createInsertStatement ();
-            PreparedStatement updateStatement = statementFactory.createUpdateStatement ();
-            Integer journalId = getRepository ().journals ().getEntityKey (journal);
-            Integer keyIndex = getTable ().getValueColumnStartIndex ();
-
-            Iterator<Ingredient> ingredients = journal.getIngredients ();
-            while (ingredients.hasNext ()) {
-                Ingredient ingredient = ingredients.next ();
-
-                if (hasEntity (ingredient)) {
-                    loadEntityStatement (updateStatement, 1, ingredient);
-                    loadKeyStatement (updateStatement, keyIndex, getEntityKey (ingredient));
-                    updateStatement.setInt (1, journalId);
-                    updateStatement.executeUpdate ();
-                    updateStatement.clearParameters ();
-                }
-                else {
-                    insertStatement.setInt (1, journalId);
-                    loadEntityStatement (insertStatement, 1, ingredient);
-                    insertStatement.executeUpdate ();
-
-                    ResultSet key = insertStatement.getGeneratedKeys ();
-                    if ( ! key.next ()) {
-                        throw new MapperException (
-                                "Cannot get the generated key of the inserted ingredient.");
-                    }
-
-                    Integer id = key.getInt (1);
-
-                    getRegistry ().register (id, ingredient);
-                    insertStatement.clearParameters ();
-                }
-            }
+        removeJournalZombies (journal);
 
-            insertStatement.close ();
-            updateStatement.close ();
+        ArrayList<Ingredient> ingredients = new ArrayList<Ingredient> ();
+        Iterator<Ingredient> ingredientIterator = journal.getIngredients ();
+        while (ingredientIterator.hasNext ()) {
+            ingredients.add (ingredientIterator.next ());
         }
-        catch (SQLException e) {
-            throw new MapperException ("Cannot save all ingredients of the given journal.", e);
+
+        if (ingredients.isEmpty ()) return;
+
+        owningJournalId.set (getRepository ().journals ().getEntityKey (journal));
+        try {
+            persistAll (ingredients);
+        }
+        finally {
+            owningJournalId.remove ();
         }
     }
 
@@ -195,30 +181,45 @@ public class IngredientMapper
      */
     protected void removeJournalZombies (BrewingJournal journal) throws MapperException
     {
-        try {
-            ArrayList<Ingredient> toRemove = findAllByJournal (journal);
-            Iterator<Ingredient> ingredients = journal.getIngredients ();
-
-            while (ingredients.hasNext ()) {
-                toRemove.remove (ingredients.next ());
-            }
-
-            if ( ! toRemove.isEmpty ()) {
-                PreparedStatement removeStatement = statementFactory.createDeleteStatement ();
+        ArrayList<Ingredient> kept = new ArrayList<Ingredient> ();
+        Iterator<Ingredient> ingredients = journal.getIngredients ();
+        while (ingredients.hasNext ()) {
+            kept.add (ingredients.next ());
+        }
 
-                for (Ingredient ingredient : toRemove) {
-                    Integer id = getEntityKey (ingredient);
+        removeAllOfOwnerExcept (
+                JOURNAL_ID, getRepository ().journals ().getEntityKey (journal), kept);
+    }
 
-                    removeStatement.setInt (1, id);
-                    removeStatement.executeUpdate ();
+    /**
+     * Loads the ingredient with the given result set and registers it.
+     *
+     * The snapshot of a newly loaded ingredient knows its journal as well, so
+     * saving the unchanged journal does not write it again.
+     *
+     * @param id the id of the ingredient
+     * @param row the result set containing the columns of the ingredient
+     * @return the ingredient that represents the given result set
+     */
+    @Override
+    public Ingredient loadEntity (Integer id, ResultSet row) throws MapperException
+    {
+        Integer owner = owningJournalId.get ();
 
-                    getRegistry ().deRegister (id, ingredient);
-                }
-            }
+        try {
+            int journalId = row.getInt (journalIdColumn);
+            owningJournalId.set (row.wasNull () ? null : journalId);
         }
         catch (SQLException e) {
             throw new MapperException (
-                    "Cannot remove the lost ingredients of the given task.", e);
+                    "Cannot load the journal of the ingredient.", e);
+        }
+
+        try {
+            return super.loadEntity (id, row);
+        }
+        finally {
+            owningJournalId.set (owner);
         }
     }
 
@@ -235,7 +236,10 @@ public class IngredientMapper
     protected void loadEntityStatement (PreparedStatement statement, int index, Ingredient ingredient)
         throws SQLException, MapperException
     {
-        ++index; // don't care about journal_id
+        if (owningJournalId.get () != null) {
+            statement.setInt (index, owningJournalId.get ());
+        }
+        ++index; // journal_id is only known while saving the journal
         ScaleUnitMapper scaleUnits = getRepository ().scaleUnits ();
 
         if ( ! scaleUnits.hasEntity (ingredient.getScaleUnit ())) {
@@ -276,13 +280,13 @@ public class IngredientMapper
         Ingredient ingredient = new Ingredient ();
 
         ingredient
-            .setName (result.getString ("ingredient_name"))
-            .setQuantity (result.getDouble ("ingredient_quantity"))
-            .setRemarks (result.getString ("ingredient_remarks"));
+            .setName (result.getString (nameColumn))
+            .setQuantity (result.getDouble (quantityColumn))
+            .setRemarks (result.getString (remarksColumn));
 
         ingredient.setScaleUnit (
-                getRepository ().scaleUnits ().find (
-                    result.getInt ("scale_unit_id")));
+                getRepository ().referenceData ().getScaleUnit (
+                    result.getInt (scaleUnitIdColumn)));
 
         return ingredient;
     }
@@ -21,20 +21,29 @@ package ch.ffhs.dikka.brewmaster.mapper;
 import ch.ffhs.dikka.brewmaster.core.BrewingEvent;
 import ch.ffhs.dikka.brewmaster.core.BrewingJournal;
 
-import ch.ffhs.dikka.brewmaster.mapper.base.Table;
+import ch.ffhs.dikka.brewmaster.mapper.base.ConnectionRouter;
+import ch.ffhs.dikka.brewmaster.mapper.base.EntityStatementFactory;
 import ch.ffhs.dikka.brewmaster.mapper.base.EntityTable;
 import ch.ffhs.dikka.brewmaster.mapper.base.EntityKey;
 import ch.ffhs.dikka.brewmaster.mapper.base.StatementBuilder;
-import ch.ffhs.dikka.brewmaster.mapper.base.Column;
+import ch.ffhs.dikka.brewmaster.mapper.base.Table;
 import ch.ffhs.dikka.brewmaster.mapper.base.ForeignColumn;
 
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 
 /**
  * Maps the relations between journals and events.
+ *
+ * The table description and the statements are set up once and the
+ * statements are taken from the statement cache of the connection. Saving
+ * the relations of a journal only deletes the relations that are gone and
+ * inserts the new ones, each kind in one batch.
+ *
  * @author David Daniel <david.daniel@students.ffhs.ch>
  * @since 2012-12-11
  */
@@ -43,15 +52,66 @@ public class JournalEventMapper
     /** The event mapper */
     private EventMapper eventMapper;
 
+    /** The relation table, keyed by the journal and the event */
+    private EntityTable journalEventTable;
+
+    /** The key of all relations of a journal */
+    private EntityKey journalKey;
+
+    /** The statements on the relation table */
+    private EntityStatementFactory statements;
+
+    /** The router deciding on the connection of the current thread */
+    private ConnectionRouter router;
+
+    /** The query of the events of a journal */
+    private String loadEventsQuery;
+
     /**
      * Constructs a new relation mapper for journal events.
      * @param eventMapper the event mapper to use
+     * @param router the router deciding on the connection of the current thread
      */
-    public JournalEventMapper (EventMapper eventMapper)
-    { this.eventMapper = eventMapper; }
+    public JournalEventMapper (EventMapper eventMapper, ConnectionRouter router)
+        throws MapperException
+    {
+        this.eventMapper = eventMapper;
+        this.router = router;
+
+        journalEventTable = new EntityTable ("journal_event");
+        journalEventTable.addColumn ("journal_id").addColumn ("event_id");
+        journalEventTable.setPrimaryKey (new EntityKey ("journal_id").addColumn ("event_id"));
+        journalEventTable.setAutoKeyGenerationActive (false);
+        journalEventTable.setIncludePrimaryKeyAtInsert (true);
+
+        journalKey = new EntityKey ("journal_id");
+
+        statements = new EntityStatementFactory ()
+            .setTable (journalEventTable)
+            .setConnection (eventMapper.getConnection ())
+            .setConnectionRouter (router);
+
+        // the relations only join, their columns are not selected
+        Table joinTable = new Table ("journal_event");
+        EntityTable eventTable = eventMapper.getTable ();
+        ForeignColumn joinColumn = new ForeignColumn ("id");
+        joinColumn.setTable (joinTable).setColumn ("event_id");
+
+        loadEventsQuery = StatementBuilder
+            .select ()
+            .from (eventTable)
+            .from (joinTable)
+            .where (new EntityKey (joinColumn), eventTable)
+            .where ("journal_id", joinTable)
+            .toString ();
+    }
 
     /**
      * Loads all journal events to the journal.
+     *
+     * Queried on the connection written to, so pending relations count.
+     * The statement is taken from the statement cache of the connection.
+     *
      * @param id the id of the given journal
      * @param journal the journal all events of should get loaded
      * @return this mapper
@@ -59,31 +119,25 @@ public class JournalEventMapper
     public JournalEventMapper loadEvents (Integer id, BrewingJournal journal)
         throws MapperException
     {
-        Table journalEventTable = new Table ("journal_event");
-        EntityTable eventTable = eventMapper.getTable ();
-
-        ForeignColumn joinColumn = new ForeignColumn ("id");
-        joinColumn.setTable (journalEventTable).setColumn ("event_id");
         try {
-            PreparedStatement statement = StatementBuilder
-                .select ()
-                .from (eventTable)
-                .from (journalEventTable)
-                .where (new EntityKey (joinColumn), eventTable)
-                .where ("journal_id", journalEventTable)
-                .prepare (eventMapper.getConnection ());
-
-            statement.setInt (1, id);
-
-            ResultSet result = statement.executeQuery ();
-            Integer primaryKeyIndex = eventTable.getPrimaryKeyColumnStartIndex ();
-
-            while (result.next ()) {
-                journal.addEvent (
-                        eventMapper.loadEntity (
-                            eventMapper.loadKey (result, primaryKeyIndex),result));
+            PreparedStatement statement = statements.prepare (loadEventsQuery);
+
+            try {
+                statement.setInt (1, id);
+
+                ResultSet result = statement.executeQuery ();
+                Integer primaryKeyIndex = eventMapper.getTable ().getPrimaryKeyColumnStartIndex ();
+
+                while (result.next ()) {
+                    journal.addEvent (
+                            eventMapper.loadEntity (
+                                eventMapper.loadKey (result, primaryKeyIndex),result));
+                }
+                result.close ();
+            }
+            finally {
+                statements.release (statement);
             }
-            statement.close ();
         }
         catch (SQLException e) {
             throw new MapperException (
@@ -95,6 +149,11 @@ public class JournalEventMapper
 
     /**
      * Persists or updates all event relations of the given journal.
+     *
+     * Only the difference to the stored relations is written: relations to
+     * events the journal does not have anymore are deleted, relations to
+     * new events inserted.
+     *
      * @param id the id of the given journal
      * @param journal the journal all events of should get persisted or updated
      * @return this mapper
@@ -102,35 +161,69 @@ public class JournalEventMapper
     public JournalEventMapper persistEvents (Integer id, BrewingJournal journal)
         throws MapperException
     {
-        removeEvents (id, journal);
+        LinkedHashSet<Integer> added = new LinkedHashSet<Integer> ();
         Iterator<BrewingEvent> events = journal.getEvents ();
-        if ( ! events.hasNext ()) return this;
+        while (events.hasNext ()) {
+            added.add (eventMapper.getEntityKey (events.next ()));
+        }
 
-        Table joinTable = new Table ("journal_event");
-        Column journal_id = new Column ("journal_id");
-        Column event_id = new Column ("event_id");
+        LinkedHashSet<Integer> removed = findEventIds (id);
+        LinkedHashSet<Integer> kept = new LinkedHashSet<Integer> (removed);
+        kept.retainAll (added);
+        removed.removeAll (kept);
+        added.removeAll (kept);
+
+        try {
+            if ( ! removed.isEmpty ()) {
+                executeBatch (statements.createDeleteStatement (), id, removed);
+            }
+            if ( ! added.isEmpty ()) {
+                executeBatch (statements.createInsertStatement (), id, added);
+            }
+        }
+        catch (SQLException e) {
+            throw new MapperException (
+                    "Cannot persist all events of the given journal.", e);
+        }
 
-        joinTable.addColumn (journal_id).addColumn (event_id);
+        return this;
+    }
+
+    /**
+     * Returns the ids of all events related to the given journal.
+     *
+     * Queried on the connection written to, so pending relations count.
+     *
+     * @param id the id of the given journal
+     * @return the ids of all related events
+     */
+    private LinkedHashSet<Integer> findEventIds (Integer id) throws MapperException
+    {
+        LinkedHashSet<Integer> eventIds = new LinkedHashSet<Integer> ();
 
         try {
-            PreparedStatement insertStatement = StatementBuilder
-                .insert (joinTable)
-                .prepare (eventMapper.getConnection ());
+            PreparedStatement statement = statements.createSelectStatement (journalKey);
 
-            insertStatement.setInt (1, id);
+            try {
+                statement.setInt (1, id);
 
-            while (events.hasNext ()) {
-                insertStatement.setInt (2, eventMapper.getEntityKey (events.next ()));
-                insertStatement.executeUpdate ();
+                ResultSet result = statement.executeQuery ();
+                int eventIdColumn = journalEventTable.getColumnIndex ("event_id");
+                while (result.next ()) {
+                    eventIds.add (result.getInt (eventIdColumn));
+                }
+                result.close ();
+            }
+            finally {
+                statements.release (statement);
             }
-            insertStatement.close ();
         }
         catch (SQLException e) {
             throw new MapperException (
-                    "Cannot persist all events of the given journal.", e);
+                    "Cannot query the events of the given journal.", e);
         }
 
-        return this;
+        return eventIds;
     }
 
     /**
@@ -142,17 +235,17 @@ public class JournalEventMapper
     public JournalEventMapper removeEvents (Integer id, BrewingJournal journal)
         throws MapperException
     {
-        Table journalEventTable = new Table ("journal_event");
-
         try {
-            PreparedStatement removeStatement = StatementBuilder
-                .delete (journalEventTable)
-                .where (new EntityKey ("journal_id"), journalEventTable)
-                .prepare (eventMapper.getConnection ());
-
-            removeStatement.setInt (1, id);
-            removeStatement.executeUpdate ();
-            removeStatement.close ();
+            PreparedStatement removeStatement = statements.createDeleteStatement (journalKey);
+
+            try {
+                removeStatement.setInt (1, id);
+                markUncommitted ();
+                removeStatement.executeUpdate ();
+            }
+            finally {
+                statements.release (removeStatement);
+            }
         }
         catch (SQLException e) {
             throw new MapperException (
@@ -161,4 +254,35 @@ public class JournalEventMapper
 
         return this;
     }
+
+    /**
+     * Executes the given statement on the relation of the journal to each event in one batch.
+     * @param statement the statement taking the journal id and the event id
+     * @param id the id of the journal
+     * @param eventIds the ids of the events
+     */
+    private void executeBatch (PreparedStatement statement, Integer id, Collection<Integer> eventIds)
+        throws SQLException
+    {
+        try {
+            for (Integer eventId : eventIds) {
+                statement.setInt (1, id);
+                statement.setInt (2, eventId);
+                statement.addBatch ();
+            }
+            markUncommitted ();
+            statement.executeBatch ();
+        }
+        finally {
+            statements.release (statement);
+        }
+    }
+
+    /**
+     * Marks the connection written to as holding uncommitted changes.
+     */
+    private void markUncommitted ()
+    {
+        if (router != null) router.markUncommitted ();
+    }
 }
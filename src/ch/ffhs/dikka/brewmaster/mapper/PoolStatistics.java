@@ -0,0 +1,168 @@
+/* 
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.mapper;
+
+/**
+ * A snapshot of the usage of a connection pool.
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+public class PoolStatistics
+{
+    /** The number of read-only connections */
+    private int readers;
+
+    /** The number of read-only connections in use */
+    private int busyReaders;
+
+    /** The number of reads that got a read-only connection */
+    private long acquisitions;
+
+    /** The number of reads that had to wait for a read-only connection */
+    private long waits;
+
+    /** The summed up time spent waiting for read-only connections */
+    private long waitNanos;
+
+    /** The longest time spent waiting for a read-only connection */
+    private long maxWaitNanos;
+
+    /** The number of reads sent to the writer */
+    private long writerReads;
+
+    /** The summed up time read-only connections have been in use */
+    private long busyNanos;
+
+    /** The time since the pool has been opened */
+    private long uptimeNanos;
+
+    /** The number of units of work begun */
+    private long unitsOfWork;
+
+    /** The number of units of work in progress */
+    private int activeUnitsOfWork;
+
+    /**
+     * Constructs a new snapshot.
+     */
+    public PoolStatistics (
+            int readers, int busyReaders, long acquisitions, long waits,
+            long waitNanos, long maxWaitNanos, long writerReads,
+            long busyNanos, long uptimeNanos, long unitsOfWork,
+            int activeUnitsOfWork)
+    {
+        this.readers = readers;
+        this.busyReaders = busyReaders;
+        this.acquisitions = acquisitions;
+        this.waits = waits;
+        this.waitNanos = waitNanos;
+        this.maxWaitNanos = maxWaitNanos;
+        this.writerReads = writerReads;
+        this.busyNanos = busyNanos;
+        this.uptimeNanos = uptimeNanos;
+        this.unitsOfWork = unitsOfWork;
+        this.activeUnitsOfWork = activeUnitsOfWork;
+    }
+
+    /**
+     * Returns the number of read-only connections.
+     * @return the number of read-only connections
+     */
+    public int getReaders ()
+    { return readers; }
+
+    /**
+     * Returns the number of read-only connections in use.
+     * @return the number of read-only connections in use
+     */
+    public int getBusyReaders ()
+    { return busyReaders; }
+
+    /**
+     * Returns the number of reads that got a read-only connection.
+     * @return the number of reads that got a read-only connection
+     */
+    public long getAcquisitionCount ()
+    { return acquisitions; }
+
+    /**
+     * Returns the number of reads that had to wait for a read-only connection.
+     * @return the number of reads that had to wait for a read-only connection
+     */
+    public long getWaitCount ()
+    { return waits; }
+
+    /**
+     * Returns the summed up time spent waiting for read-only connections.
+     * @return the summed up waiting time in milliseconds
+     */
+    public double getTotalWaitMillis ()
+    { return waitNanos / 1000000.0; }
+
+    /**
+     * Returns the average time a read waited for a read-only connection.
+     * @return the average waiting time in milliseconds
+     */
+    public double getAverageWaitMillis ()
+    { return acquisitions == 0 ? 0 : getTotalWaitMillis () / acquisitions; }
+
+    /**
+     * Returns the longest time a read waited for a read-only connection.
+     * @return the longest waiting time in milliseconds
+     */
+    public double getMaxWaitMillis ()
+    { return maxWaitNanos / 1000000.0; }
+
+    /**
+     * Returns the number of reads sent to the writer.
+     *
+     * Reads go to the writer while it has uncommitted changes, so they see
+     * these changes.
+     *
+     * @return the number of reads sent to the writer
+     */
+    public long getWriterReadCount ()
+    { return writerReads; }
+
+    /**
+     * Returns the share of time the read-only connections have been in use.
+     * @return the utilization of the read-only connections between 0 and 1
+     */
+    public double getUtilization ()
+    {
+        if (readers == 0 || uptimeNanos == 0) return 0;
+
+        return Math.min (1.0, (double) busyNanos / ((double) uptimeNanos * readers));
+    }
+
+    /**
+     * Returns the number of units of work begun.
+     * @return the number of units of work begun
+     */
+    public long getUnitOfWorkCount ()
+    { return unitsOfWork; }
+
+    /**
+     * Returns the number of units of work in progress.
+     * @return the number of units of work in progress
+     */
+    public int getActiveUnitsOfWork ()
+    { return activeUnitsOfWork; }
+}
@@ -0,0 +1,207 @@
+/* 
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.mapper;
+
+import ch.ffhs.dikka.brewmaster.core.BarrelType;
+import ch.ffhs.dikka.brewmaster.core.ScaleUnit;
+import ch.ffhs.dikka.brewmaster.mapper.base.CommitNotifyable;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the scale units and barrel types in memory.
+ *
+ * Both tables are small and hardly ever change, but every loaded ingredient
+ * and barrel refers to one of their rows. They are loaded as a whole when the
+ * repository is set up and indexed in immutable hash maps, so hydrating
+ * ingredients and barrels never queries them row by row.
+ *
+ * The indexes are replaced after every commit that wrote to one of the
+ * tables and dropped on a rollback or when the mappers get unloaded. They
+ * hold the same instances as the registries of the mappers.
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+public class ReferenceData
+    implements CommitNotifyable
+{
+    /** The repository to load the reference data from */
+    private Repository repository;
+
+    /** The currently loaded reference data or null if not loaded */
+    private volatile Snapshot snapshot = null;
+
+    /**
+     * Constructs the reference data of the given repository.
+     * @param repository the repository to load the reference data from
+     */
+    public ReferenceData (Repository repository)
+    { this.repository = repository; }
+
+    /**
+     * Returns the scale unit of the given id.
+     * @param id the id of the scale unit
+     * @return the scale unit of the given id or null if it doesn't exist
+     * @throws MapperException if the reference data cannot be loaded
+     */
+    public ScaleUnit getScaleUnit (int id) throws MapperException
+    {
+        ScaleUnit unit = getSnapshot ().unitsById.get (id);
+
+        return unit != null ? unit : repository.scaleUnits ().find (id);
+    }
+
+    /**
+     * Returns the scale unit of the given short name.
+     * @param shortName the short name of the scale unit
+     * @return the stored scale unit of the given short name or null if there is none
+     * @throws MapperException if the reference data cannot be loaded
+     */
+    public ScaleUnit getScaleUnitByShortName (String shortName) throws MapperException
+    { return getSnapshot ().unitsByShortName.get (shortName); }
+
+    /**
+     * Returns the barrel type of the given id.
+     * @param id the id of the barrel type
+     * @return the barrel type of the given id or null if it doesn't exist
+     * @throws MapperException if the reference data cannot be loaded
+     */
+    public BarrelType getBarrelType (int id) throws MapperException
+    {
+        BarrelType type = getSnapshot ().typesById.get (id);
+
+        return type != null ? type : repository.barrelTypes ().find (id);
+    }
+
+    /**
+     * Whether the reference data are loaded.
+     * @return whether the reference data are loaded
+     */
+    public boolean isLoaded ()
+    { return snapshot != null; }
+
+    /**
+     * Loads all scale units and barrel types.
+     * @return this reference data
+     * @throws MapperException if the tables cannot be queried
+     */
+    public synchronized ReferenceData load () throws MapperException
+    {
+        ScaleUnitMapper scaleUnits = repository.scaleUnits ();
+        BarrelTypeMapper barrelTypes = repository.barrelTypes ();
+
+        HashMap<Integer, ScaleUnit> unitsById = new HashMap<Integer, ScaleUnit> ();
+        HashMap<String, ScaleUnit> unitsByShortName = new HashMap<String, ScaleUnit> ();
+        for (ScaleUnit unit : scaleUnits.findAll ()) {
+            unitsById.put (scaleUnits.getEntityKey (unit), unit);
+            unitsByShortName.put (unit.getShortName (), unit);
+        }
+
+        HashMap<Integer, BarrelType> typesById = new HashMap<Integer, BarrelType> ();
+        for (BarrelType type : barrelTypes.findAll ()) {
+            typesById.put (barrelTypes.getEntityKey (type), type);
+        }
+
+        snapshot = new Snapshot (unitsById, unitsByShortName, typesById);
+
+        return this;
+    }
+
+    /**
+     * Drops the reference data to be loaded again on the next request.
+     * @return this reference data
+     */
+    public ReferenceData invalidate ()
+    {
+        snapshot = null;
+
+        return this;
+    }
+
+    /**
+     * Reloads the reference data after a commit that wrote to their tables.
+     */
+    @Override
+    public void afterCommit ()
+    {
+        try {
+            load ();
+        }
+        catch (MapperException e) {
+            invalidate ();
+        }
+    }
+
+    /**
+     * Drops the reference data after a rollback that undid writes to their tables.
+     */
+    @Override
+    public void afterRollback ()
+    { invalidate (); }
+
+    /**
+     * Returns the loaded reference data, loading them if needed.
+     * @return the loaded reference data
+     * @throws MapperException if the reference data cannot be loaded
+     */
+    private Snapshot getSnapshot () throws MapperException
+    {
+        Snapshot current = snapshot;
+        if (current == null) {
+            synchronized (this) {
+                if (snapshot == null) load ();
+                current = snapshot;
+            }
+        }
+
+        return current;
+    }
+
+    /**
+     * The immutable indexes of the reference data at one point in time.
+     */
+    private static final class Snapshot
+    {
+        /** The scale units by their id */
+        final Map<Integer, ScaleUnit> unitsById;
+
+        /** The scale units by their short name */
+        final Map<String, ScaleUnit> unitsByShortName;
+
+        /** The barrel types by their id */
+        final Map<Integer, BarrelType> typesById;
+
+        /**
+         * Constructs the indexes of the given reference data.
+         * @param unitsById the scale units by their id
+         * @param unitsByShortName the scale units by their short name
+         * @param typesById the barrel types by their id
+         */
+        Snapshot (Map<Integer, ScaleUnit> unitsById, Map<String, ScaleUnit> unitsByShortName,
+                Map<Integer, BarrelType> typesById)
+        {
+            this.unitsById = Collections.unmodifiableMap (unitsById);
+            this.unitsByShortName = Collections.unmodifiableMap (unitsByShortName);
+            this.typesById = Collections.unmodifiableMap (typesById);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/* 
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.mapper;
+
+import ch.ffhs.dikka.brewmaster.mapper.base.AbstractMapper;
+
+import java.util.Collection;
+
+/**
+ * Base of the mappers of the tables kept as reference data.
+ *
+ * Every write registers the reference data to be reloaded once the
+ * transaction is committed, unloading the mapper drops them.
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+public abstract class ReferenceDataMapper<Entity>
+    extends AbstractMapper<Integer, Entity>
+{
+    @Override
+    public AbstractMapper<Integer, Entity> persist (Entity entity) throws MapperException
+    {
+        super.persist (entity);
+        touched ();
+
+        return this;
+    }
+
+    @Override
+    public AbstractMapper<Integer, Entity> persistAll (Collection<Entity> entities)
+        throws MapperException
+    {
+        super.persistAll (entities);
+        touched ();
+
+        return this;
+    }
+
+    @Override
+    public AbstractMapper<Integer, Entity> update (Entity entity) throws MapperException
+    {
+        super.update (entity);
+        touched ();
+
+        return this;
+    }
+
+    @Override
+    public AbstractMapper<Integer, Entity> updateAll (Collection<Entity> entities)
+        throws MapperException
+    {
+        super.updateAll (entities);
+        touched ();
+
+        return this;
+    }
+
+    @Override
+    public AbstractMapper<Integer, Entity> remove (Entity entity) throws MapperException
+    {
+        super.remove (entity);
+        touched ();
+
+        return this;
+    }
+
+    @Override
+    public AbstractMapper<Integer, Entity> removeAll (Collection<Entity> entities)
+        throws MapperException
+    {
+        super.removeAll (entities);
+        touched ();
+
+        return this;
+    }
+
+    @Override
+    public AbstractMapper<Integer, Entity> unloadAll ()
+    {
+        super.unloadAll ();
+
+        if (hasRepository ()) {
+            try {
+                getRepository ().referenceData ().invalidate ();
+            }
+            catch (MapperException e) {}
+        }
+
+        return this;
+    }
+
+    /**
+     * Lets the reference data be reloaded after the current transaction.
+     */
+    protected void touched () throws MapperException
+    {
+        Repository repository = getRepository ();
+        repository.addCommitNotifyable (repository.referenceData ());
+    }
+}
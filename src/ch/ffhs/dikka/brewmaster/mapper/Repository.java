@@ -20,8 +20,12 @@ package ch.ffhs.dikka.brewmaster.mapper;
 
 import ch.ffhs.dikka.brewmaster.mapper.base.CommitNotifyable;
 import ch.ffhs.dikka.brewmaster.mapper.base.AbstractMapper;
+import ch.ffhs.dikka.brewmaster.mapper.base.SecondLevelCache;
+import ch.ffhs.dikka.brewmaster.mapper.base.StatementCache;
+import ch.ffhs.dikka.brewmaster.mapper.base.TransactionLocal;
 
 import java.util.ArrayList;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import java.sql.Connection;
 import java.sql.SQLException;
@@ -29,19 +33,44 @@ import java.sql.SQLException;
 /**
  * The Registry of all mappers.
  *
+ * The registry may be used by several threads: every thread besides the
+ * owning one begins its own unit of work first.
+ *
  * @author David Daniel <david.daniel@students.ffhs.ch>
  * @since 2012-11-12
  */
 public class Repository {
     /**
-     * The connection to use
+     * The pool of the connections to use
+     */
+    private ConnectionPool pool;
+
+    /**
+     * All commit events of each transaction
+     */
+    private TransactionLocal<ArrayList<CommitNotifyable>> commitNotifyables
+        = new TransactionLocal<ArrayList<CommitNotifyable>>() {
+            @Override
+            protected ArrayList<CommitNotifyable> initialValue() {
+                return new ArrayList<CommitNotifyable>();
+            }
+
+            @Override
+            protected Connection getConnection() {
+                return pool.getWriteConnection();
+            }
+        };
+
+    /**
+     * The handlers notified after the commits and rollbacks of every thread
      */
-    private Connection connection;
+    private CopyOnWriteArrayList<CommitNotifyable> commitObservers
+        = new CopyOnWriteArrayList<CommitNotifyable>();
 
     /**
-     * All commit events
+     * All mappers of this registry
      */
-    private ArrayList<CommitNotifyable> commitNotifyables = new ArrayList<CommitNotifyable>();
+    private ArrayList<AbstractMapper<?, ?>> mappers = new ArrayList<AbstractMapper<?, ?>>();
 
     /**
      * The journal mapper
@@ -84,12 +113,34 @@ public class Repository {
     private EventMapper events = new EventMapper();
 
     /**
-     * Constructs a new mapper registry.
+     * The bookings of the barrels
+     */
+    private BarrelAvailability barrelAvailability = new BarrelAvailability(this);
+
+    /**
+     * The scale units and barrel types kept in memory
+     */
+    private ReferenceData referenceData = new ReferenceData(this);
+
+    /**
+     * Constructs a new mapper registry that reads and writes on one connection.
      *
      * @param connection the connection to use
      */
     public Repository(Connection connection) throws MapperException {
-        this.connection = connection;
+        this(new ConnectionPool(connection));
+    }
+
+    /**
+     * Constructs a new mapper registry.
+     *
+     * Writes and flushes use the writer of the pool, finds are sent to its
+     * read-only connections.
+     *
+     * @param pool the pool of connections to use
+     */
+    public Repository(ConnectionPool pool) throws MapperException {
+        this.pool = pool;
         setUp();
     }
 
@@ -166,14 +217,32 @@ public class Repository {
     }
 
     /**
-     * Adds an event handler for an after commit or rollback event.
+     * Returns the bookings of the barrels.
+     *
+     * @return the bookings of the barrels
+     */
+    public BarrelAvailability barrelAvailability() {
+        return barrelAvailability;
+    }
+
+    /**
+     * Returns the scale units and barrel types kept in memory.
+     *
+     * @return the reference data
+     */
+    public ReferenceData referenceData() {
+        return referenceData;
+    }
+
+    /**
+     * Adds an event handler for an after commit or rollback event of the current transaction.
      *
      * @param event an event handler for an after commit or rollback event
      * @return this registry
      */
     public Repository addCommitNotifyable (CommitNotifyable event) {
-        if (!commitNotifyables.contains(event)) {
-            commitNotifyables.add(event);
+        if (!commitNotifyables.get().contains(event)) {
+            commitNotifyables.get().add(event);
         }
 
         return this;
@@ -186,15 +255,57 @@ public class Repository {
      * @return this registry
      */
     public Repository removeCommitNotifyable (CommitNotifyable event) {
-        if (commitNotifyables.contains(event)) {
-            commitNotifyables.remove(event);
+        commitNotifyables.get().remove(event);
+
+        return this;
+    }
+
+    /**
+     * Adds a handler notified after every commit or rollback of any thread.
+     *
+     * Unlike the handlers added by addCommitNotifyable, an observer stays
+     * registered until it gets removed. It is called by the committing thread.
+     *
+     * @param observer the handler to add
+     * @return this registry
+     */
+    public Repository addCommitObserver (CommitNotifyable observer) {
+        commitObservers.addIfAbsent(observer);
+
+        return this;
+    }
+
+    /**
+     * Removes the given handler notified after every commit or rollback.
+     *
+     * @param observer the handler to remove
+     * @return this registry
+     */
+    public Repository removeCommitObserver (CommitNotifyable observer) {
+        commitObservers.remove(observer);
+
+        return this;
+    }
+
+    /**
+     * Writes the changes of all entities updated within the current transaction without committing them.
+     *
+     * @return this registry
+     * @throws MapperException if the changes cannot be written
+     */
+    public Repository writeChanges() throws MapperException {
+        for (AbstractMapper<?, ?> mapper : mappers) {
+            mapper.writePendingChanges();
         }
 
         return this;
     }
 
     /**
-     * Commits all pending statements.
+     * Writes the changes of all updated entities and commits all pending statements.
+     *
+     * The changes of the current transaction are written, whichever thread
+     * sharing its connection has updated the entities.
      *
      * @return this registry
      * @throws MapperException if the commit fails
@@ -202,16 +313,26 @@ public class Repository {
     public Repository flush() throws MapperException {
         Exception ex = null;
         try {
-            connection.commit();
+            writeChanges();
 
-            for (CommitNotifyable event : commitNotifyables) {
+            pool.commit();
+
+            for (AbstractMapper<?, ?> mapper : mappers) {
+                mapper.commitChanges();
+            }
+
+            for (CommitNotifyable event : commitNotifyables.get()) {
                 event.afterCommit();
             }
+
+            for (CommitNotifyable observer : commitObservers) {
+                observer.afterCommit();
+            }
         } catch (Exception e) {
             ex = e;
             rollback();
         } finally {
-            commitNotifyables.clear();
+            commitNotifyables.get().clear();
         }
 
         if (ex != null) {
@@ -223,28 +344,166 @@ public class Repository {
     }
 
     /**
-     * Returns the connection used by this mapper.
+     * Begins a unit of work of the current thread.
+     *
+     * Until the unit of work ends, the thread writes, flushes and rolls back
+     * on a connection of its own, so it does not interfere with the
+     * transactions of other threads. Loaded entities are still shared by
+     * all threads.
      *
-     * @return the connection used by this mapper
+     * @return this registry
+     * @throws MapperException if the unit of work cannot be begun
+     */
+    public Repository beginUnitOfWork() throws MapperException {
+        pool.beginUnitOfWork();
+
+        return this;
+    }
+
+    /**
+     * Ends the unit of work of the current thread.
+     *
+     * Changes not flushed yet are rolled back. A unit of work that has
+     * not written anything ends without notifying a rollback to the
+     * observers of all threads.
+     *
+     * @return this registry
+     * @throws MapperException if the changes cannot be rolled back
+     */
+    public Repository endUnitOfWork() throws MapperException {
+        try {
+            if (pool.hasUnitOfWork()) {
+                rollback();
+            }
+        } finally {
+            commitNotifyables.get().clear();
+            pool.endUnitOfWork();
+        }
+
+        return this;
+    }
+
+    /**
+     * Whether the current thread has begun a unit of work.
+     *
+     * @return whether the current thread has begun a unit of work
+     */
+    public boolean hasUnitOfWork() {
+        return pool.hasUnitOfWork();
+    }
+
+    /**
+     * Returns the connection the current thread writes to.
+     *
+     * @return the connection the current thread writes to
      */
     public Connection getConnection() {
-        return connection;
+        return pool.getWriteConnection();
+    }
+
+    /**
+     * Returns the statement cache of the connection the current thread writes to.
+     *
+     * @return the statement cache of the connection
+     */
+    public StatementCache getStatementCache() {
+        return pool.getStatementCache(pool.getWriteConnection());
+    }
+
+    /**
+     * Returns the pool of the connection.
+     *
+     * @return the pool of the connection
+     */
+    public ConnectionPool getConnectionPool() {
+        return pool;
+    }
+
+    /**
+     * Shares the rows loaded by the mappers with other repositories.
+     *
+     * Mappers look up rows within the given cache before querying the
+     * database and evict the rows they write after a commit or rollback.
+     *
+     * @param cache the second level cache or null to stop sharing rows
+     * @return this registry
+     */
+    public Repository setSecondLevelCache(SecondLevelCache cache) {
+        for (AbstractMapper<?, ?> mapper : mappers) {
+            mapper.setSecondLevelCache(cache);
+        }
+
+        return this;
+    }
+
+    /**
+     * Shares the rows loaded by the mappers with all repositories of the
+     * same database within this process.
+     *
+     * @return this registry
+     * @throws MapperException if the path to the database is not known
+     */
+    public Repository useSharedCache() throws MapperException {
+        if (pool.getPath() == null) {
+            throw new MapperException(
+                    "Cannot share rows without knowing the path to the database.");
+        }
+
+        return setSecondLevelCache(SecondLevelCache.forDatabase(pool.getPath()));
+    }
+
+    /**
+     * Returns the usage of the connection pool.
+     *
+     * @return a snapshot of the usage of the connection pool
+     */
+    public PoolStatistics getPoolStatistics() {
+        return pool.getStatistics();
+    }
+
+    /**
+     * Closes all cached statements and connections.
+     *
+     * @throws MapperException if a connection cannot be closed
+     */
+    public void close() throws MapperException {
+        pool.close();
     }
 
     /**
      * Trys to rollback the current transaction.
      *
+     * The pending changes of all mappers are discarded and the event handlers
+     * of the transaction are removed. If the transaction has not written
+     * anything, the connection is not rolled back and the observers of all
+     * threads are not notified.
+     *
      * @return true if the rollback has succeeded.
      */
-    private boolean rollback() {
+    boolean rollback() {
+        for (AbstractMapper<?, ?> mapper : mappers) {
+            mapper.discardChanges();
+        }
+
         try {
-            connection.rollback();
+            boolean written = pool.hasPendingWrites();
+            if (written) {
+                pool.rollback();
+            }
 
-            for (CommitNotifyable event : commitNotifyables) {
+            for (CommitNotifyable event : commitNotifyables.get()) {
                 event.afterRollback();
             }
+
+            if (written) {
+                for (CommitNotifyable observer : commitObservers) {
+                    observer.afterRollback();
+                }
+            }
         } catch (SQLException e) {
             return false;
+        } finally {
+            commitNotifyables.get().clear();
         }
 
         return true;
@@ -264,6 +523,8 @@ public class Repository {
         initMapper(events);
         initMapper(eventsBarrels);
 
+        referenceData.load();
+
         return this;
     }
 
@@ -275,8 +536,11 @@ public class Repository {
      */
     private <Key, Entity> Repository
     initMapper(AbstractMapper<Key, Entity> mapper) {
+        mappers.add(mapper);
         mapper.setRepository(this);
-        mapper.setConnection(connection);
+        mapper.setConnection(pool.getWriter());
+        mapper.setStatementCache(pool.getStatementCache(pool.getWriter()));
+        mapper.setConnectionRouter(pool);
 
         return this;
     }
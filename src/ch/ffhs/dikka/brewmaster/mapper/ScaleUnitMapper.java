@@ -18,18 +18,24 @@
  */
 package ch.ffhs.dikka.brewmaster.mapper;
 
-import ch.ffhs.dikka.brewmaster.mapper.base.AbstractMapper;
 import ch.ffhs.dikka.brewmaster.mapper.base.EntityTable;
 import ch.ffhs.dikka.brewmaster.core.ScaleUnit;
 import ch.ffhs.dikka.brewmaster.mapper.base.EntityKey;
+import ch.ffhs.dikka.brewmaster.mapper.base.EntityStatementFactory;
 
 import java.sql.SQLException;
 import java.sql.ResultSet;
 import java.sql.PreparedStatement;
 
 public class ScaleUnitMapper
-    extends AbstractMapper<Integer, ScaleUnit>
+    extends ReferenceDataMapper<ScaleUnit>
 {
+    /** The ordinal of the name within a row of the scale unit table */
+    private final int nameColumn;
+
+    /** The ordinal of the short name within a row of the scale unit table */
+    private final int shortNameColumn;
+
     /**
      * Constructs a new scale unit mapper.
      */
@@ -47,6 +53,9 @@ public class ScaleUnitMapper
         table.setIncludePrimaryKeyAtInsert (false);
 
         setTable (table);
+
+        nameColumn = table.getColumnIndex ("scale_unit_name");
+        shortNameColumn = table.getColumnIndex ("scale_unit_short_name");
     }
 
     /**
@@ -57,16 +66,11 @@ public class ScaleUnitMapper
      */
     public ScaleUnit findByShortName (String name) throws MapperException
     {
-        ScaleUnit unit = null;
-        for (ScaleUnit currentUnit : getRegistry ().getAllEntities ()) {
-            if (currentUnit.getShortName ().equals (name)) {
-                unit = currentUnit;
-                break;
-            }
-        }
+        ScaleUnit unit = getRepository ().referenceData ().getScaleUnitByShortName (name);
         if (unit == null) {
+            EntityStatementFactory statements = beginRead ();
             try {
-                PreparedStatement findStatement = statementFactory.createSelectStatement (
+                PreparedStatement findStatement = statements.createSelectStatement (
                         new EntityKey ("short_name"));
 
                 findStatement.setString (1, name);
@@ -78,13 +82,16 @@ public class ScaleUnitMapper
                             result);
                 }
 
-                findStatement.close ();
+                statements.release (findStatement);
             }
             catch (SQLException e) {
                 throw new MapperException (
                         "Cannot query the database for the scale unit with the given name.",
                         e);
             }
+            finally {
+                endRead ();
+            }
         }
 
         return unit;
@@ -147,8 +154,8 @@ public class ScaleUnitMapper
     protected ScaleUnit doLoad (Integer id, ResultSet result) throws SQLException
     {
         ScaleUnit unit = new ScaleUnit (
-                result.getString ("scale_unit_short_name"),
-                result.getString ("scale_unit_name"));
+                result.getString (shortNameColumn),
+                result.getString (nameColumn));
 
         return unit;
     }
@@ -21,6 +21,7 @@ package ch.ffhs.dikka.brewmaster.mapper;
 import ch.ffhs.dikka.brewmaster.mapper.base.AbstractMapper;
 import ch.ffhs.dikka.brewmaster.mapper.base.EntityTable;
 import ch.ffhs.dikka.brewmaster.mapper.base.EntityKey;
+import ch.ffhs.dikka.brewmaster.mapper.base.EntityStatementFactory;
 
 import ch.ffhs.dikka.brewmaster.core.Task;
 import ch.ffhs.dikka.brewmaster.core.BrewingJournal;
@@ -41,6 +42,27 @@ import java.sql.ResultSet;
 public class TaskMapper
     extends AbstractMapper<Integer, Task>
 {
+    /** The ordinal of the journal id within a row of the task table */
+    private final int journalIdColumn;
+
+    /** The ordinal of the name within a row of the task table */
+    private final int nameColumn;
+
+    /** The ordinal of the start within a row of the task table */
+    private final int startColumn;
+
+    /** The ordinal of the end within a row of the task table */
+    private final int endColumn;
+
+    /** The ordinal of the degree within a row of the task table */
+    private final int degreeColumn;
+
+    /** The ordinal of the remarks within a row of the task table */
+    private final int remarksColumn;
+
+    /** The id of the journal whose tasks are currently saved or loaded by the current thread */
+    private ThreadLocal<Integer> owningJournalId = new ThreadLocal<Integer> ();
+
     /**
      * Constructs a new task mapper.
      */
@@ -64,6 +86,13 @@ public class TaskMapper
         table.setIncludePrimaryKeyAtInsert (false);
 
         setTable (table);
+
+        journalIdColumn = table.getColumnIndex ("journal_id");
+        nameColumn = table.getColumnIndex ("task_name");
+        startColumn = table.getColumnIndex ("task_start");
+        endColumn = table.getColumnIndex ("task_end");
+        degreeColumn = table.getColumnIndex ("task_degree");
+        remarksColumn = table.getColumnIndex ("task_remarks");
     }
 
     /**
@@ -74,9 +103,10 @@ public class TaskMapper
     {
         ArrayList<Task> allTasks = new ArrayList<Task> ();
 
+        EntityStatementFactory statements = beginRead ();
         try {
             BrewingJournalMapper journalMapper = getRepository ().journals ();
-            PreparedStatement findStatement = statementFactory.createSelectStatement (
+            PreparedStatement findStatement = statements.createSelectStatement (
                     new EntityKey ("journal_id"));
 
             findStatement.setInt (1, journalMapper.getEntityKey (journal));
@@ -87,68 +117,45 @@ public class TaskMapper
                 allTasks.add (loadEntity (loadKey (result, 1), result));
             }
 
-            findStatement.close ();
+            statements.release (findStatement);
         }
         catch (SQLException e) {
             throw new MapperException (
                     "Cannot query for the tasks of the given journal.", e);
         }
+        finally {
+            endRead ();
+        }
 
         return allTasks;
     }
 
     /**
      * Saves or updates all tasks of the given journal.
+     *
+     * All non related tasks of the given journal that have been related
+     * to it before are removed. The remaining tasks are written in batches.
+     *
      * @param journal the journal of all tasks should get saved or updated
      */
     public void persistAllOfJournal (BrewingJournal journal) throws MapperException
     {
+        removeJournalZombies (journal);
+
+        ArrayList<Task> tasks = new ArrayList<Task> ();
+        Iterator<Task> taskIterator = journal.getTasks ();
+        while (taskIterator.hasNext ()) {
+            tasks.add (taskIterator.next ());
+        }
+
+        if (tasks.isEmpty ()) return;
+
+        owningJournalId.set (getRepository ().journals ().getEntityKey (journal));
         try {
-            removeJournalZombies (journal);
-
-            Iterator<Task> tasks = journal.getTasks ();
-            if (tasks.hasNext ()) {
-
-                PreparedStatement insertStatement = statementFactory.createInsertStatement ();
-                PreparedStatement updateStatement = statementFactory.createUpdateStatement ();
-                Integer journalId = getRepository ().journals ().getEntityKey (journal);
-                Integer keyId = getTable ().getValueColumnStartIndex ();
-
-                while (tasks.hasNext ()) {
-                    Task task = tasks.next ();
-
-                    if (hasEntity (task)) {
-                        updateStatement.setInt (1, journalId);
-                        loadEntityStatement (updateStatement, 1, task);
-                        loadKeyStatement (updateStatement, keyId, getEntityKey (task));
-
-                        updateStatement.executeUpdate ();
-                        updateStatement.clearParameters ();
-                    }
-                    else {
-                        insertStatement.setInt (1, journalId);
-                        loadEntityStatement (insertStatement, 1, task);
-
-                        insertStatement.executeUpdate ();
-                        ResultSet key = insertStatement.getGeneratedKeys ();
-                        if ( ! key.next ()) {
-                            throw new MapperException (
-                                    "Cannot get the new id for the saved task.");
-                        }
-
-                        getRegistry ().register (key.getInt (1), task);
-                        insertStatement.clearParameters ();
-                    }
-
-                }
-
-                insertStatement.close ();
-                updateStatement.close ();
-            }
+            persistAll (tasks);
         }
-        catch (SQLException e) {
-            throw new MapperException (
-                    "Cannot save the tasks of the given journal.", e);
+        finally {
+            owningJournalId.remove ();
         }
     }
 
@@ -158,28 +165,9 @@ public class TaskMapper
      */
     public void removeAllOfJournal (BrewingJournal journal) throws MapperException
     {
-        try {
-            removeJournalZombies (journal);
-
-            PreparedStatement removeStatement = statementFactory.createDeleteStatement ();
-            Iterator<Task> taskIterator = journal.getTasks ();
-
-            while (taskIterator.hasNext ()) {
-                Task task = taskIterator.next ();
-                Integer id = getEntityKey (task);
-
-                removeStatement.setInt (1, id);
-                removeStatement.executeUpdate ();
-
-                getRegistry ().deRegister (id, task);
-            }
-
-            removeStatement.close ();
-        }
-        catch (SQLException e) {
-            throw new MapperException (
-                    "Cannot remove all ingredients of the given journal.", e);
-        }
+        removeAllOfOwnerExcept (
+                "journal_id", getRepository ().journals ().getEntityKey (journal),
+                new ArrayList<Task> ());
     }
 
     /**
@@ -200,31 +188,45 @@ public class TaskMapper
      */
     protected void removeJournalZombies (BrewingJournal journal) throws MapperException
     {
-        try {
-            ArrayList<Task> toRemove = findAllByJournal (journal);
-            Iterator<Task> tasks = journal.getTasks ();
-
-            while (tasks.hasNext ()) {
-                toRemove.remove (tasks.next ());
-            }
-
-            if ( ! toRemove.isEmpty ()) {
-                PreparedStatement removeStatement = statementFactory
-                    .createDeleteStatement ();
+        ArrayList<Task> kept = new ArrayList<Task> ();
+        Iterator<Task> tasks = journal.getTasks ();
+        while (tasks.hasNext ()) {
+            kept.add (tasks.next ());
+        }
 
-                for (Task task : toRemove) {
-                    Integer id = getEntityKey (task);
+        removeAllOfOwnerExcept (
+                "journal_id", getRepository ().journals ().getEntityKey (journal), kept);
+    }
 
-                    removeStatement.setInt (1, id);
-                    removeStatement.executeUpdate ();
+    /**
+     * Loads the task with the given result set and registers it.
+     *
+     * The snapshot of a newly loaded task knows its journal as well, so
+     * saving the unchanged journal does not write it again.
+     *
+     * @param id the id of the task
+     * @param row the result set containing the columns of the task
+     * @return the task that represents the given result set
+     */
+    @Override
+    public Task loadEntity (Integer id, ResultSet row) throws MapperException
+    {
+        Integer owner = owningJournalId.get ();
 
-                    getRegistry ().deRegister (id, task);
-                }
-            }
+        try {
+            int journalId = row.getInt (journalIdColumn);
+            owningJournalId.set (row.wasNull () ? null : journalId);
         }
         catch (SQLException e) {
             throw new MapperException (
-                    "Cannot remove all lost tasks of the given journal.", e);
+                    "Cannot load the journal of the task.", e);
+        }
+
+        try {
+            return super.loadEntity (id, row);
+        }
+        finally {
+            owningJournalId.set (owner);
         }
     }
 
@@ -241,7 +243,10 @@ public class TaskMapper
     protected void loadEntityStatement (PreparedStatement statement, int index, Task task)
         throws SQLException, MapperException
     {
-        ++index; // don't care about journal_id
+        if (owningJournalId.get () != null) {
+            statement.setInt (index, owningJournalId.get ());
+        }
+        ++index; // journal_id is only known while saving the journal
         statement.setString (index++, task.getName ());
         statement.setDate (index++, new java.sql.Date (task.getStart ().getTime ()));
         statement.setDate (index++, new java.sql.Date (task.getEnd ().getTime ()));
@@ -276,11 +281,11 @@ public class TaskMapper
         Task task = new Task ();
 
         task
-            .setName (result.getString ("task_name"))
-            .setStart (new Date (result.getDate ("task_start").getTime ()))
-            .setEnd (new Date (result.getDate ("task_end").getTime ()))
-            .setDegree (result.getDouble ("task_degree"))
-            .setRemarks (result.getString ("task_remarks"));
+            .setName (result.getString (nameColumn))
+            .setStart (new Date (result.getDate (startColumn).getTime ()))
+            .setEnd (new Date (result.getDate (endColumn).getTime ()))
+            .setDegree (result.getDouble (degreeColumn))
+            .setRemarks (result.getString (remarksColumn));
 
         return task;
     }
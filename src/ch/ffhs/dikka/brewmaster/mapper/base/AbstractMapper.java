@@ -20,13 +20,23 @@ package ch.ffhs.dikka.brewmaster.mapper.base;
 
 import ch.ffhs.dikka.brewmaster.mapper.MapperException;
 import ch.ffhs.dikka.brewmaster.mapper.Repository;
+import ch.ffhs.dikka.brewmaster.mapper.base.statement.Condition;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.ResultSet;
+import java.sql.Types;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * An abstraction of a mapper.
@@ -51,7 +61,18 @@ import java.util.ArrayList;
  * - loadEntityStatement: Loads the entity values to the given statement.
  *
  * Every mapper that implements the above methods may be used to find,
- * remove, update and persist the according entities.
+ * remove, update and persist the according entities - either one by one
+ * or whole collections at once using batched statements.
+ *
+ * Updates are deferred: the mapper takes a snapshot of every entity it
+ * loads or persists and an update only remembers the entity as changed.
+ * writeChanges diffs the changed entities against their snapshots and
+ * writes the changed columns of the modified ones in batches, so an
+ * unmodified entity costs no write at all. The changes belong to the
+ * transaction of the connection written to, not to the updating thread, so
+ * a flush writes them from any thread sharing the connection. A query of the
+ * mapper writes the changes of all mappers of the transaction first, so it
+ * never sees stale columns, even of joined tables.
  *
  * In addition to finding, persisting, removing and updating, the mapper
  * may also be used to create statements that query for entities by any
@@ -74,7 +95,70 @@ public abstract class AbstractMapper<Key, Entity>
     private Repository repository = null;
 
     /** Whether all entities have been loaded yet */
-    private boolean allEntitiesLoaded = false;
+    private volatile boolean allEntitiesLoaded = false;
+
+    /** The default number of entities sent to the database within one batch */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    /** The number of entities sent to the database within one batch */
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    /** Decides on the connections of the current thread or null to use the connection */
+    private ConnectionRouter router = null;
+
+    /** The statement factories of the read connections */
+    private IdentityHashMap<Connection, EntityStatementFactory> readStatementFactories
+        = new IdentityHashMap<Connection, EntityStatementFactory> ();
+
+    /** The entities updated within the current transaction with their snapshots taken on update */
+    private TransactionLocal<IdentityHashMap<Entity, EntitySnapshot>> pendingChanges
+        = new TransactionLocal<IdentityHashMap<Entity, EntitySnapshot>> () {
+            @Override
+            protected IdentityHashMap<Entity, EntitySnapshot> initialValue ()
+            { return new IdentityHashMap<Entity, EntitySnapshot> (); }
+
+            @Override
+            protected Connection getConnection ()
+            { return getTransactionConnection (); }
+        };
+
+    /** The rows shared with the mappers of other repositories or null */
+    private SecondLevelCache secondLevelCache = null;
+
+    /** The keys of the rows written within the current transaction to evict from the second level cache */
+    private TransactionLocal<HashSet<Key>> writtenKeys
+        = new TransactionLocal<HashSet<Key>> () {
+            @Override
+            protected HashSet<Key> initialValue ()
+            { return new HashSet<Key> (); }
+
+            @Override
+            protected Connection getConnection ()
+            { return getTransactionConnection (); }
+        };
+
+    /** Evicts the written rows from the second level cache once the transaction ends */
+    private CommitNotifyable evictWrittenRows = new CommitNotifyable () {
+            @Override
+            public void afterCommit ()
+            { evictWrittenKeys (); }
+
+            @Override
+            public void afterRollback ()
+            { evictWrittenKeys (); }
+        };
+
+    /** The snapshots of the changes written within the current transaction but not committed yet */
+    private TransactionLocal<LinkedHashMap<Key, EntitySnapshot>> writtenChanges
+        = new TransactionLocal<LinkedHashMap<Key, EntitySnapshot>> () {
+            @Override
+            protected LinkedHashMap<Key, EntitySnapshot> initialValue ()
+            { return new LinkedHashMap<Key, EntitySnapshot> (); }
+
+            @Override
+            protected Connection getConnection ()
+            { return getTransactionConnection (); }
+        };
 
     /**
      * Sets the connection to use.
@@ -88,6 +172,164 @@ public abstract class AbstractMapper<Key, Entity>
         return this;
     }
 
+    /**
+     * Sets the statement cache of the connection to use.
+     * @param cache the statement cache of the connection or null to disable caching
+     * @return this Mapper
+     */
+    public AbstractMapper<Key, Entity> setStatementCache (StatementCache cache)
+    {
+        statementFactory.setStatementCache (cache);
+
+        return this;
+    }
+
+    /**
+     * Sets the router that decides on the connections of the current thread.
+     * @param router the router or null to read and write on the connection
+     * @return this Mapper
+     */
+    public AbstractMapper<Key, Entity> setConnectionRouter (ConnectionRouter router)
+    {
+        this.router = router;
+        statementFactory.setConnectionRouter (router);
+
+        synchronized (readStatementFactories) {
+            readStatementFactories.clear ();
+        }
+
+        return this;
+    }
+
+    /**
+     * Returns the connection reads of the current thread go to.
+     *
+     * Outside of beginRead () and endRead () it is the connection of the mapper.
+     *
+     * @return the connection reads of the current thread go to
+     */
+    public Connection getReadConnection () throws MapperException
+    { return router == null ? getConnection () : router.getReadConnection (); }
+
+    /**
+     * Begins a read that may be sent to another connection than writes.
+     *
+     * The changes of the entities updated within the current transaction
+     * are written first by all mappers of the repository, so the read sees
+     * them within joined tables as well. Every call has to be followed by a
+     * call to endRead (). Within a read of committed changes only nothing
+     * is written.
+     *
+     * @return the statement factory of the connection to read from
+     */
+    protected EntityStatementFactory beginRead () throws MapperException
+    {
+        if ( ! isReadingCommitted ()) {
+            if (hasRepository ()) {
+                getRepository ().writeChanges ();
+            }
+            else {
+                writePendingChanges ();
+            }
+        }
+
+        if (router == null) return statementFactory;
+
+        return getStatementFactory (router.beginRead ());
+    }
+
+    /**
+     * Begins a read of the committed changes only.
+     *
+     * Nothing is written and the read goes to a read-only connection if
+     * there is one. Every call has to be followed by a call to endRead ().
+     *
+     * @return the statement factory of the connection to read from
+     */
+    protected EntityStatementFactory beginCommittedRead () throws MapperException
+    {
+        if (router == null) return statementFactory;
+
+        return getStatementFactory (router.beginCommittedRead ());
+    }
+
+    /**
+     * Whether the current read of the thread only sees committed changes.
+     * @return whether the current read has been begun by beginCommittedRead ()
+     */
+    protected boolean isReadingCommitted ()
+    { return router != null && router.isReadingCommitted (); }
+
+    /**
+     * Returns the statement factory of the given connection.
+     * @param connection the connection to read from
+     * @return the statement factory of the connection
+     */
+    private EntityStatementFactory getStatementFactory (Connection connection) throws MapperException
+    {
+        if (connection == statementFactory.getConnection ()) return statementFactory;
+
+        synchronized (readStatementFactories) {
+            EntityStatementFactory factory = readStatementFactories.get (connection);
+            if (factory == null) {
+                factory = new EntityStatementFactory ()
+                    .setConnection (connection)
+                    .setTable (getTable ())
+                    .setStatementCache (router.getStatementCache (connection));
+                readStatementFactories.put (connection, factory);
+            }
+
+            return factory;
+        }
+    }
+
+    /**
+     * Ends the read begun last.
+     */
+    protected void endRead ()
+    {
+        if (router != null) router.endRead ();
+    }
+
+    /**
+     * Writes the changes of the entities updated within the current transaction, if any.
+     * @return this mapper
+     */
+    public AbstractMapper<Key, Entity> writePendingChanges () throws MapperException
+    {
+        if ( ! pendingChanges.get ().isEmpty ()) writeChanges ();
+
+        return this;
+    }
+
+    /**
+     * Returns the connection of the current transaction.
+     * @return the connection the current thread writes to or null if there is none
+     */
+    protected Connection getTransactionConnection ()
+    {
+        if (router != null) return router.getWriteConnection ();
+        if ( ! statementFactory.hasConnection ()) return null;
+
+        try {
+            return statementFactory.getConnection ();
+        }
+        catch (MapperException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Marks the connection written to as holding uncommitted changes.
+     *
+     * Has to be called before every write, so the reads of the current
+     * thread go to that connection until the next commit or rollback.
+     */
+    protected void markUncommitted ()
+    {
+        if (router != null) router.markUncommitted ();
+    }
+
     /**
      * Returns whether this mapper has a connection assigned.
      * @return true if this mapper has a connection assigned
@@ -102,6 +344,24 @@ public abstract class AbstractMapper<Key, Entity>
     public Connection getConnection () throws MapperException
     { return statementFactory.getConnection (); }
 
+    /**
+     * Sets the cache of rows shared with the mappers of other repositories.
+     * @param cache the second level cache or null to not share any rows
+     * @return this mapper
+     */
+    public AbstractMapper<Key, Entity> setSecondLevelCache (SecondLevelCache cache)
+    {
+        secondLevelCache = cache;
+        return this;
+    }
+
+    /**
+     * Returns the cache of rows shared with the mappers of other repositories.
+     * @return the second level cache or null if no rows are shared
+     */
+    public SecondLevelCache getSecondLevelCache ()
+    { return secondLevelCache; }
+
     /**
      * Sets the repository to use.
      * @param repository the repository to use
@@ -137,12 +397,15 @@ public abstract class AbstractMapper<Key, Entity>
 
     /**
      * Sets the entity table.
+     *
+     * The table gets frozen, so its column layouts are computed only once.
+     *
      * @param table the entity table to set
      * @return this mapper
      */
     public AbstractMapper<Key, Entity> setTable (EntityTable table)
     {
-        statementFactory.setTable (table);
+        statementFactory.setTable (table.freeze ());
         return this;
     }
 
@@ -161,6 +424,42 @@ public abstract class AbstractMapper<Key, Entity>
     public EntityTable getTable () throws MapperException
     { return statementFactory.getTable (); }
 
+    /**
+     * Sets the number of entities sent to the database within one batch.
+     * @param size the number of entities within one batch (at least 1)
+     * @return this mapper
+     */
+    public AbstractMapper<Key, Entity> setBatchSize (int size)
+    {
+        batchSize = size < 1 ? 1 : size;
+        return this;
+    }
+
+    /**
+     * Returns the number of entities sent to the database within one batch.
+     * @return the number of entities sent to the database within one batch
+     */
+    public int getBatchSize ()
+    { return batchSize; }
+
+    /**
+     * Sets the policy that decides how long loaded entities are kept.
+     * @param policy the eviction policy of the entity registry
+     * @return this mapper
+     */
+    public AbstractMapper<Key, Entity> setEvictionPolicy (EvictionPolicy policy)
+    {
+        registry.setEvictionPolicy (policy);
+        return this;
+    }
+
+    /**
+     * Returns a snapshot of the usage of the entity registry.
+     * @return a snapshot of the usage of the entity registry
+     */
+    public RegistryStatistics getRegistryStatistics ()
+    { return registry.getStatistics (); }
+
     /**
      * Whether the given entity has already been registered.
      * @return whether the given entity has already been registered
@@ -191,22 +490,36 @@ public abstract class AbstractMapper<Key, Entity>
     @Override
     public Entity find (Key id) throws MapperException
     {
-        if (getRegistry ().hasEntity (id)) return getRegistry ().getEntity (id);
+        Entity entity = getRegistry ().lookup (id);
+        if (entity != null) return entity;
+
+        SecondLevelCache shared = secondLevelCache;
+        String tableName = getTable ().getName ();
+        long version = 0;
+        if (shared != null) {
+            ResultSet cached = shared.get (tableName, id);
+            if (cached != null) return loadEntity (id, cached);
 
-        Entity entity = null;
+            version = shared.getVersion (tableName);
+        }
+
+        EntityStatementFactory statements = beginRead ();
         try {
-            PreparedStatement findStatement = statementFactory.createSelectStatement ();
+            PreparedStatement findStatement = statements.createSelectStatement ();
             loadKeyStatement (findStatement, 1, id);
 
             try {
                 ResultSet result = findStatement.executeQuery ();
                 if (result.next ()) {
+                    if (shared != null) {
+                        shared.put (tableName, id, result, getTable ().size (), version);
+                    }
                     entity = loadEntity (id, result);
                 }
-                findStatement.close ();
+                statements.release (findStatement);
             }
             catch (SQLException e) {
-                findStatement.close ();
+                statements.release (findStatement);
                 throw e;
             }
         }
@@ -214,6 +527,9 @@ public abstract class AbstractMapper<Key, Entity>
             throw new MapperException (
                     "Cannot query the database with the given key.", e);
         }
+        finally {
+            endRead ();
+        }
 
         return entity;
     }
@@ -225,31 +541,33 @@ public abstract class AbstractMapper<Key, Entity>
     @Override
     public ArrayList<Entity> findAll () throws MapperException
     {
-        if (allEntitiesLoaded) {
+        if (hasAllEntitiesLoaded ()) {
             return getRegistry ().getAllEntities ();
         }
 
         ArrayList<Entity> allEntities = new ArrayList<Entity> ();
 
+        SecondLevelCache shared = secondLevelCache;
+        String tableName = getTable ().getName ();
+        long version = shared == null ? 0 : shared.getVersion (tableName);
+
+        EntityStatementFactory statements = beginRead ();
         try {
-            PreparedStatement findStatement = statementFactory.createSelectAllStatement ();
+            PreparedStatement findStatement = statements.createSelectAllStatement ();
 
             ResultSet result = findStatement.executeQuery ();
 
             while (result.next ()) {
                 Key key = loadKey (
                         result, getTable ().getPrimaryKeyColumnStartIndex ());
-                Entity entity;
 
-                if (getRegistry ().hasEntity (key)) {
-                    entity = getRegistry ().getEntity (key);
-                }
-                else {
-                    entity = loadEntity (key, result);
+                if (shared != null) {
+                    shared.put (tableName, key, result, getTable ().size (), version);
                 }
 
-                allEntities.add (entity);
+                allEntities.add (loadEntity (key, result));
             }
+            statements.release (findStatement);
 
             allEntitiesLoaded = true;
         }
@@ -257,10 +575,189 @@ public abstract class AbstractMapper<Key, Entity>
             throw new MapperException (
                     "Cannot retrieve all items of requested entity.", e);
         }
+        finally {
+            endRead ();
+        }
 
         return allEntities;
     }
 
+    /**
+     * Opens a cursor over all entities stored in the database.
+     *
+     * Use it instead of findAll to walk through many entities without
+     * holding all of them in memory.
+     *
+     * @param fetchSize the number of rows to fetch at once
+     * @param register whether the loaded entities get registered
+     * @return a cursor over all entities - needs to be closed
+     */
+    @Override
+    public EntityCursor<Key, Entity> openCursor (int fetchSize, boolean register)
+        throws MapperException
+    {
+        beginRead ();
+        try {
+            return openCursor (
+                    StatementBuilder.select ().from (getTable ()).prepare (getReadConnection ()),
+                    fetchSize, register);
+        }
+        finally {
+            endRead ();
+        }
+    }
+
+    /**
+     * Opens a cursor over the entities queried by the given statement.
+     *
+     * The cursor keeps reading from the connection of the statement, so a
+     * read begun for it lasts until the cursor is closed.
+     *
+     * @param statement the query - gets closed with the cursor
+     * @param fetchSize the number of rows to fetch at once
+     * @param register whether the loaded entities get registered
+     * @return a cursor over the queried entities - needs to be closed
+     */
+    protected EntityCursor<Key, Entity> openCursor (
+            PreparedStatement statement, int fetchSize, boolean register)
+        throws MapperException
+    {
+        beginRead ();
+
+        return new EntityCursor<Key, Entity> (this, statement, fetchSize, register);
+    }
+
+    /**
+     * Finds the first page of entities ordered by primary key.
+     * @param size the maximum number of entities on a page
+     * @return the first page of entities
+     */
+    @Override
+    public Page<Entity> findFirstPage (int size) throws MapperException
+    { return findPage (null, null, size); }
+
+    /**
+     * Finds the first page of entities ordered by the given column.
+     *
+     * Entities with equal values in the sort column are ordered by primary
+     * key. An index on the sort column keeps every page as cheap as the first.
+     *
+     * @param sortColumn the name of the column to order by
+     * @param size the maximum number of entities on a page
+     * @return the first page of entities
+     */
+    @Override
+    public Page<Entity> findFirstPage (String sortColumn, int size) throws MapperException
+    {
+        if (sortColumn == null) {
+            throw new MapperException ("Cannot order by a missing column.");
+        }
+
+        return findPage (sortColumn, null, size);
+    }
+
+    /**
+     * Finds the page of entities following the given page key.
+     * @param after the key of the page to find, taken from the previous page
+     * @param size the maximum number of entities on a page
+     * @return the page following the given page key
+     */
+    @Override
+    public Page<Entity> findNextPage (PageKey after, int size) throws MapperException
+    {
+        if (after == null) {
+            throw new MapperException ("Cannot find a next page without a page key.");
+        }
+
+        return findPage (after.getSortColumn (), after.getValues (), size);
+    }
+
+    /**
+     * Finds a page of entities by seeking right after the given values.
+     * @param sortColumn the name of the column to order by or null
+     * @param after the values of the seek columns or null for the first page
+     * @param size the maximum number of entities on a page
+     * @return the found page
+     */
+    private Page<Entity> findPage (String sortColumn, Object[] after, int size)
+        throws MapperException
+    {
+        if (size < 1) {
+            throw new MapperException ("The size of a page has to be positive.");
+        }
+
+        EntityTable table = getTable ();
+        ArrayList<String> seekColumns = new ArrayList<String> ();
+        if (sortColumn != null) seekColumns.add (sortColumn);
+
+        Iterator<Column> keyColumns = table.getPrimaryKey ().getColumns ();
+        while (keyColumns.hasNext ()) {
+            String name = keyColumns.next ().getName ();
+            if ( ! seekColumns.contains (name)) seekColumns.add (name);
+        }
+
+        if (after != null && after.length != seekColumns.size ()) {
+            throw new MapperException ("The page key does not fit the table.");
+        }
+
+        int[] seekIndexes = new int[seekColumns.size ()];
+        int index = 1;
+        Iterator<Column> columns = table.getColumns ();
+        while (columns.hasNext ()) {
+            int position = seekColumns.indexOf (columns.next ().getName ());
+            if (position > -1) seekIndexes[position] = index;
+            ++index;
+        }
+
+        for (int i = 0; i < seekIndexes.length; ++i) {
+            if (seekIndexes[i] == 0) {
+                throw new MapperException (
+                        "Cannot order by the unknown column '" + seekColumns.get (i) + "'.");
+            }
+        }
+
+        ArrayList<Entity> entities = new ArrayList<Entity> ();
+        Object[] last = null;
+        boolean morePages = false;
+
+        EntityStatementFactory statements = beginRead ();
+        try {
+            PreparedStatement pageStatement
+                = statements.createPageStatement (seekColumns, after, size + 1);
+
+            try {
+                ResultSet result = pageStatement.executeQuery ();
+
+                while (result.next ()) {
+                    if (entities.size () == size) {
+                        morePages = true;
+                        break;
+                    }
+
+                    Key key = loadKey (result, table.getPrimaryKeyColumnStartIndex ());
+                    entities.add (loadEntity (key, result));
+
+                    last = new Object[seekIndexes.length];
+                    for (int i = 0; i < seekIndexes.length; ++i) {
+                        last[i] = result.getObject (seekIndexes[i]);
+                    }
+                }
+            }
+            finally {
+                statements.release (pageStatement);
+            }
+        }
+        catch (SQLException e) {
+            throw new MapperException ("Cannot retrieve a page of entities.", e);
+        }
+        finally {
+            endRead ();
+        }
+
+        return new Page<Entity> (
+                entities, morePages ? new PageKey (sortColumn, last) : null);
+    }
+
     /**
      * Removes the given entity from the database and deregisters it.
      * @param entity the entity to remove
@@ -279,12 +776,15 @@ public abstract class AbstractMapper<Key, Entity>
             loadKeyStatement (removeStmt, 1, key);
 
             try {
+                markUncommitted ();
                 removeStmt.executeUpdate ();
-                removeStmt.close ();
+                statementFactory.release (removeStmt);
+                markWritten (key);
                 getRegistry ().deRegister (key, entity);
+                pendingChanges.get ().remove (entity);
             }
             catch (SQLException e) {
-                removeStmt.close ();
+                statementFactory.release (removeStmt);
                 throw e;
             }
         }
@@ -298,6 +798,11 @@ public abstract class AbstractMapper<Key, Entity>
 
     /**
      * Updates the given entity within the database.
+     *
+     * The entity is only remembered as changed, its modified columns are
+     * written by writeChanges. The next query of this mapper on the current
+     * thread or the next flush calls it, whichever comes first.
+     *
      * @param entity the entity to update within the database
      * @return this mapper
      */
@@ -308,80 +813,182 @@ public abstract class AbstractMapper<Key, Entity>
             return persist (entity);
         }
 
-        try {
-            EntityTable table = getTable ();
+        trackChanges (entity);
 
-            PreparedStatement updateStmt = statementFactory.createUpdateStatement ();
-            loadEntityStatement (updateStmt, 1, entity);
-            loadKeyStatement (
-                    updateStmt,
-                    table.getUpdateColumnSize () + 1,
-                    getRegistry ().getEntityKey (entity));
+        return this;
+    }
 
-            try {
-                updateStmt.executeUpdate ();
-                updateStmt.close ();
-            }
-            catch (SQLException e) {
-                updateStmt.close ();
-                throw e;
-            }
-        }
-        catch (SQLException e) {
-            throw new MapperException (
-                    "Cannot update the given entity on the database.", e);
-        }
+    /**
+     * Whether the given entity differs from the state stored within the database.
+     *
+     * Changes not written by writeChanges yet count as well.
+     *
+     * @param entity the entity to check
+     * @return whether the entity has changes to write
+     */
+    public boolean hasChanges (Entity entity) throws MapperException
+    {
+        if ( ! getRegistry ().hasEntityKey (entity)) return true;
 
-        return this;
+        EntitySnapshot stored = getRegistry ().getSnapshot (getEntityKey (entity));
+        EntitySnapshot current = takeSnapshot (entity);
+
+        EntitySnapshot pending = pendingChanges.get ().get (entity);
+        if (pending != null) current = pending.merge (current);
+
+        return stored == null || stored.getChangedIndexes (current).length > 0;
     }
 
     /**
-     * Persists the given entity within the database.
-     * @param entity the entity to persist.
+     * Writes the changed columns of all entities updated within the current transaction.
+     *
+     * Entities with the same changed columns are updated in batches of the
+     * configured batch size. The written state becomes the new snapshot once
+     * the transaction is committed.
+     *
      * @return this mapper
      */
-    @Override
-    public AbstractMapper<Key, Entity> persist (Entity entity) throws MapperException
+    public AbstractMapper<Key, Entity> writeChanges () throws MapperException
     {
-        if (getRegistry ().hasEntityKey (entity)) return update (entity);
+        IdentityHashMap<Entity, EntitySnapshot> pending = pendingChanges.get ();
+        if (pending.isEmpty ()) return this;
 
-        try {
-            EntityTable table = getTable ();
-            PreparedStatement insertStmt = statementFactory.createInsertStatement ();
+        LinkedHashMap<String, int[]> groupIndexes = new LinkedHashMap<String, int[]> ();
+        LinkedHashMap<String, ArrayList<Key>> groups = new LinkedHashMap<String, ArrayList<Key>> ();
+        LinkedHashMap<Key, EntitySnapshot> currents = new LinkedHashMap<Key, EntitySnapshot> ();
 
-            int entityPosition
-                = table.includePrimaryKeyAtInsert ()
-                ? table.getValueColumnStartIndex ()
-                : 1;
+        for (Map.Entry<Entity, EntitySnapshot> change : pending.entrySet ()) {
+            Entity entity = change.getKey ();
+            if ( ! getRegistry ().hasEntityKey (entity)) continue;
 
-            loadEntityStatement (insertStmt, entityPosition, entity);
+            Key key = getRegistry ().getEntityKey (entity);
+            EntitySnapshot current = change.getValue ().merge (takeSnapshot (entity));
+            EntitySnapshot stored = getRegistry ().getSnapshot (key);
 
-            Key id = getNextEntityKey (entity);
+            int[] changed = stored == null
+                ? current.getBoundIndexes ()
+                : stored.getChangedIndexes (current);
 
-            if (id == null) {
-                id = getKeyByEntity (entity);
+            if (changed.length == 0) {
+                getRegistry ().markClean (key);
+                continue;
             }
 
-            if (table.includePrimaryKeyAtInsert ()) {
-                loadKeyStatement (
-                        insertStmt,
-                        table.getPrimaryKeyColumnStartIndex (), id);
+            String group = Arrays.toString (changed);
+            if ( ! groups.containsKey (group)) {
+                groups.put (group, new ArrayList<Key> ());
+                groupIndexes.put (group, changed);
             }
+            groups.get (group).add (key);
+            currents.put (key, stored == null ? current : stored.merge (current));
+        }
+        pending.clear ();
 
-            try {
-                insertStmt.executeUpdate ();
+        for (String group : groups.keySet ()) {
+            writeColumns (groupIndexes.get (group), groups.get (group), currents);
+        }
 
-                if (table.isAutoKeyGenerationActive ()) {
-                    try {
-                        ResultSet generatedKeys = insertStmt.getGeneratedKeys ();
+        writtenChanges.get ().putAll (currents);
 
-                        if (generatedKeys.next ()) {
+        return this;
+    }
 
-                            id = loadKey (generatedKeys, 1);
+    /**
+     * Takes the written changes of the current transaction as stored within the database.
+     *
+     * Called after the transaction has been committed.
+     *
+     * @return this mapper
+     */
+    public AbstractMapper<Key, Entity> commitChanges ()
+    {
+        LinkedHashMap<Key, EntitySnapshot> written = writtenChanges.get ();
+
+        for (Map.Entry<Key, EntitySnapshot> change : written.entrySet ()) {
+            getRegistry ().setSnapshot (change.getKey (), change.getValue ());
+            getRegistry ().markClean (change.getKey ());
+        }
+        written.clear ();
+
+        return this;
+    }
+
+    /**
+     * Forgets all changes of the current transaction, written or not.
+     *
+     * Called after the transaction has been rolled back. The snapshots stay
+     * as they are, so updating the entities again finds their changes.
+     *
+     * @return this mapper
+     */
+    public AbstractMapper<Key, Entity> discardChanges ()
+    {
+        for (Entity entity : pendingChanges.get ().keySet ()) {
+            try {
+                getRegistry ().markClean (getRegistry ().getEntityKey (entity));
+            }
+            catch (MapperException e) {}
+        }
+        pendingChanges.get ().clear ();
+
+        for (Key key : writtenChanges.get ().keySet ()) {
+            getRegistry ().markClean (key);
+        }
+        writtenChanges.get ().clear ();
+
+        return this;
+    }
+
+    /**
+     * Persists the given entity within the database.
+     * @param entity the entity to persist.
+     * @return this mapper
+     */
+    @Override
+    public AbstractMapper<Key, Entity> persist (Entity entity) throws MapperException
+    {
+        if (getRegistry ().hasEntityKey (entity)) return update (entity);
+
+        try {
+            EntityTable table = getTable ();
+            PreparedStatement insertStmt = statementFactory.createInsertStatement ();
+
+            int entityPosition
+                = table.includePrimaryKeyAtInsert ()
+                ? table.getValueColumnStartIndex ()
+                : 1;
+
+            loadEntityStatement (insertStmt, entityPosition, entity);
+
+            Key id = getNextEntityKey (entity);
+
+            if (id == null) {
+                id = getKeyByEntity (entity);
+            }
+
+            if (table.includePrimaryKeyAtInsert ()) {
+                loadKeyStatement (
+                        insertStmt,
+                        table.getPrimaryKeyColumnStartIndex (), id);
+            }
+
+            try {
+                markUncommitted ();
+                insertStmt.executeUpdate ();
+
+                if (table.isAutoKeyGenerationActive ()) {
+                    try {
+                        ResultSet generatedKeys = insertStmt.getGeneratedKeys ();
+
+                        if (generatedKeys.next ()) {
+
+                            id = loadKey (generatedKeys, 1);
                             if (id != null) {
                                 onKeyAutoCreated (id, entity);
                             }
                         }
+                        // An open result keeps a statement in progress, which blocks a rollback
+                        generatedKeys.close ();
                     }
                     catch (SQLException e) {
                         throw new MapperException (
@@ -389,10 +996,10 @@ public abstract class AbstractMapper<Key, Entity>
                                 + "it is activated.");
                     }
                 }
-                insertStmt.close ();
+                statementFactory.release (insertStmt);
             }
             catch (SQLException e) {
-                insertStmt.close ();
+                statementFactory.release (insertStmt);
                 throw e;
             }
 
@@ -402,6 +1009,7 @@ public abstract class AbstractMapper<Key, Entity>
             }
 
             getRegistry ().register (id, entity);
+            rememberSnapshot (id, entity);
         }
         catch (SQLException e) {
             throw new MapperException ("Cannot persist the given entity within the database.", e);
@@ -410,6 +1018,124 @@ public abstract class AbstractMapper<Key, Entity>
         return this;
     }
 
+    /**
+     * Persists all given entities within the database.
+     *
+     * Already managed entities are updated, all others are inserted. Both
+     * happens in batches of the configured batch size.
+     *
+     * @param entities the entities to persist
+     * @return this mapper
+     */
+    @Override
+    public AbstractMapper<Key, Entity> persistAll (Collection<Entity> entities) throws MapperException
+    {
+        ArrayList<Entity> managed = new ArrayList<Entity> ();
+        ArrayList<Entity> fresh = new ArrayList<Entity> ();
+        IdentityHashMap<Entity, Boolean> seen = new IdentityHashMap<Entity, Boolean> ();
+
+        for (Entity entity : entities) {
+            if (seen.put (entity, Boolean.TRUE) != null) continue;
+
+            if (getRegistry ().hasEntityKey (entity)) {
+                managed.add (entity);
+            }
+            else {
+                fresh.add (entity);
+            }
+        }
+
+        if ( ! managed.isEmpty ()) updateAll (managed);
+        if ( ! fresh.isEmpty ()) insertAll (fresh);
+
+        return this;
+    }
+
+    /**
+     * Updates all given entities within the database.
+     *
+     * Managed entities are only remembered as changed, their modified
+     * columns are written by writeChanges. Entities that are not managed
+     * yet get persisted.
+     *
+     * @param entities the entities to update
+     * @return this mapper
+     */
+    @Override
+    public AbstractMapper<Key, Entity> updateAll (Collection<Entity> entities) throws MapperException
+    {
+        ArrayList<Entity> fresh = new ArrayList<Entity> ();
+
+        for (Entity entity : entities) {
+            if (getRegistry ().hasEntityKey (entity)) {
+                trackChanges (entity);
+            }
+            else {
+                fresh.add (entity);
+            }
+        }
+
+        if ( ! fresh.isEmpty ()) persistAll (fresh);
+
+        return this;
+    }
+
+    /**
+     * Removes all given entities from the database and deregisters them.
+     * @param entities the entities to remove
+     * @return this mapper
+     */
+    @Override
+    public AbstractMapper<Key, Entity> removeAll (Collection<Entity> entities) throws MapperException
+    {
+        for (Entity entity : entities) {
+            if ( ! getRegistry ().hasEntityKey (entity)) {
+                throw new MapperException ("Cannot remove a non managed entity");
+            }
+        }
+
+        try {
+            PreparedStatement removeStmt = statementFactory.createDeleteStatement ();
+            ArrayList<Entity> chunk = new ArrayList<Entity> ();
+            markUncommitted ();
+
+            try {
+                for (Entity entity : entities) {
+                    if ( ! getRegistry ().hasEntityKey (entity)) continue;
+
+                    loadKeyStatement (removeStmt, 1, getRegistry ().getEntityKey (entity));
+                    removeStmt.addBatch ();
+                    chunk.add (entity);
+
+                    if (chunk.size () == batchSize) {
+                        removeStmt.executeBatch ();
+                        deRegisterAll (chunk);
+                    }
+                }
+
+                if ( ! chunk.isEmpty ()) {
+                    removeStmt.executeBatch ();
+                    deRegisterAll (chunk);
+                }
+                statementFactory.release (removeStmt);
+            }
+            catch (SQLException e) {
+                statementFactory.release (removeStmt);
+                throw e;
+            }
+            catch (MapperException e) {
+                statementFactory.release (removeStmt);
+                throw e;
+            }
+        }
+        catch (SQLException e) {
+            throw new MapperException (
+                    "Cannot remove the given entities from the database.", e);
+        }
+
+        return this;
+    }
+
     /**
      * Unloads the given entity from the cache.
      * @param entity the entity to unload
@@ -419,6 +1145,8 @@ public abstract class AbstractMapper<Key, Entity>
         if (hasEntity (entity)) {
             try {
                 getRegistry ().deRegister (getEntityKey (entity), entity);
+                pendingChanges.get ().remove (entity);
+                allEntitiesLoaded = false;
             }
             catch (MapperException e) {}
         }
@@ -433,12 +1161,28 @@ public abstract class AbstractMapper<Key, Entity>
     public AbstractMapper<Key, Entity> unloadAll ()
     {
         getRegistry ().deRegisterAll ();
+        pendingChanges.get ().clear ();
+        allEntitiesLoaded = false;
         return this;
     }
 
+    /**
+     * Whether all entities have been loaded by findAll and are still registered.
+     * @return whether all entities are available without querying the database
+     */
+    public boolean hasAllEntitiesLoaded ()
+    {
+        return allEntitiesLoaded
+            && ! getRegistry ().getEvictionPolicy ().isBounded ();
+    }
+
     /**
      * Loads the entity with the given result set and registers it.
      *
+     * The row has to start with the columns of the entity table in their
+     * order, so doLoad can read them by their ordinals (see
+     * EntityTable.getColumnIndex). Columns of joined tables may follow.
+     *
      * @param id the id of the entity
      * @param row the result set containing the column values for the entity to be loaded
      * @return the entity that represents the given resultset
@@ -447,13 +1191,14 @@ public abstract class AbstractMapper<Key, Entity>
     @Override
     public Entity loadEntity (Key id, ResultSet row) throws MapperException
     {
-        if (getRegistry ().hasEntity (id)) return getRegistry ().getEntity (id);
-
-        Entity entity = null;
+        Entity entity = getRegistry ().lookup (id);
+        if (entity != null) return entity;
 
         try {
-            entity = doLoad (id, row);
-            getRegistry ().register (id, entity);
+            Entity loaded = doLoad (id, row);
+
+            entity = getRegistry ().registerIfAbsent (id, loaded);
+            if (entity == loaded) rememberSnapshot (id, entity);
         }
         catch (SQLException e) {
             throw new MapperException (
@@ -537,7 +1282,7 @@ public abstract class AbstractMapper<Key, Entity>
      * protected MyEntity doLoad (Long id, ResultSet row) throws SQLException {
      *
      *     return new MyEntity (
-     *          id, row.getString ("name"), new java.util.Date (row.getDate (3).getTime ())
+     *          id, row.getString (nameColumn), new java.util.Date (row.getDate (3).getTime ())
      *     );
      * }
      *  ...
@@ -550,6 +1295,106 @@ public abstract class AbstractMapper<Key, Entity>
      */
     abstract protected Entity doLoad (Key id, ResultSet row) throws SQLException, MapperException;
 
+    /**
+     * Removes all stored entities of an owner except the given ones.
+     *
+     * Only the keys of the stored entities are queried. The others are
+     * deleted by one statement per batch size and evicted from the registry
+     * at once. The delete always takes batch size keys, the slots of the
+     * last batch not needed are bound to null, so a single statement gets
+     * cached. Requires a primary key of a single column.
+     *
+     * @param ownerColumn the column referencing the owner
+     * @param ownerId the id of the owner
+     * @param kept the entities of the owner to keep
+     * @return the number of removed entities
+     */
+    protected int removeAllOfOwnerExcept (String ownerColumn, Object ownerId, Collection<Entity> kept)
+        throws MapperException
+    {
+        HashSet<Key> keptKeys = new HashSet<Key> ();
+        for (Entity entity : kept) {
+            if (getRegistry ().hasEntityKey (entity)) {
+                keptKeys.add (getRegistry ().getEntityKey (entity));
+            }
+        }
+
+        EntityTable table = getTable ();
+        Iterator<Column> keyColumns = table.getPrimaryKey ().getColumns ();
+        if (table.getPrimaryKey ().size () != 1) {
+            throw new MapperException (
+                    "Cannot remove entities by a primary key of several columns.");
+        }
+        String keyColumn = keyColumns.next ().getName ();
+
+        Table keyTable = new Table (table.getName ()).addColumn (keyColumn);
+        int size = batchSize;
+
+        writePendingChanges ();
+
+        ArrayList<Key> removed = new ArrayList<Key> ();
+        try {
+            PreparedStatement findStatement = statementFactory.prepare (
+                    StatementBuilder.select ()
+                        .from (keyTable)
+                        .where (Condition.compare (keyTable, ownerColumn, "="))
+                        .toString ());
+
+            try {
+                findStatement.setObject (1, ownerId);
+
+                ResultSet result = findStatement.executeQuery ();
+                while (result.next ()) {
+                    Key key = loadKey (result, 1);
+                    if ( ! keptKeys.contains (key)) removed.add (key);
+                }
+                result.close ();
+            }
+            finally {
+                statementFactory.release (findStatement);
+            }
+
+            if (removed.isEmpty ()) return 0;
+
+            PreparedStatement removeStatement = statementFactory.prepare (
+                    StatementBuilder.delete (keyTable)
+                        .where (Condition.in (keyTable, keyColumn, size))
+                        .toString ());
+            try {
+                for (int start = 0; start < removed.size (); start += size) {
+                    List<Key> chunk = removed.subList (start, Math.min (removed.size (), start + size));
+
+                    for (int i = 0; i < size; ++i) {
+                        if (i < chunk.size ()) {
+                            loadKeyStatement (removeStatement, i + 1, chunk.get (i));
+                        }
+                        else {
+                            removeStatement.setNull (i + 1, Types.NULL);
+                        }
+                    }
+                    markUncommitted ();
+                    removeStatement.executeUpdate ();
+                }
+            }
+            finally {
+                statementFactory.release (removeStatement);
+            }
+        }
+        catch (SQLException e) {
+            throw new MapperException (
+                    "Cannot remove the entities of the given owner.", e);
+        }
+
+        for (Key key : removed) {
+            markWritten (key);
+        }
+        for (Entity entity : getRegistry ().deRegisterAll (removed)) {
+            pendingChanges.get ().remove (entity);
+        }
+
+        return removed.size ();
+    }
+
     /**
      * Hook to use if auto key creation is used and the persisted entity needs to know about the
      * newly created id.
@@ -577,6 +1422,297 @@ public abstract class AbstractMapper<Key, Entity>
     protected Key getKeyByEntity (Entity entity)
     { return null; }
 
+    /**
+     * Inserts all given entities in batches and registers them.
+     * @param entities the entities to insert, none of them managed yet
+     */
+    private void insertAll (ArrayList<Entity> entities) throws MapperException
+    {
+        try {
+            EntityTable table = getTable ();
+            PreparedStatement insertStmt = statementFactory.createInsertStatement ();
+
+            int entityPosition
+                = table.includePrimaryKeyAtInsert ()
+                ? table.getValueColumnStartIndex ()
+                : 1;
+
+            try {
+                ArrayList<Entity> chunk = new ArrayList<Entity> ();
+                ArrayList<Key> keys = new ArrayList<Key> ();
+
+                for (Entity entity : entities) {
+                    loadEntityStatement (insertStmt, entityPosition, entity);
+
+                    Key id = getNextEntityKey (entity);
+                    if (id == null) {
+                        id = getKeyByEntity (entity);
+                    }
+
+                    if (table.includePrimaryKeyAtInsert ()) {
+                        loadKeyStatement (
+                                insertStmt,
+                                table.getPrimaryKeyColumnStartIndex (), id);
+                    }
+
+                    insertStmt.addBatch ();
+                    chunk.add (entity);
+                    keys.add (id);
+
+                    if (chunk.size () == batchSize) {
+                        executeInsertBatch (insertStmt, chunk, keys);
+                    }
+                }
+
+                if ( ! chunk.isEmpty ()) {
+                    executeInsertBatch (insertStmt, chunk, keys);
+                }
+                statementFactory.release (insertStmt);
+            }
+            catch (SQLException e) {
+                statementFactory.release (insertStmt);
+                throw e;
+            }
+            catch (MapperException e) {
+                statementFactory.release (insertStmt);
+                throw e;
+            }
+        }
+        catch (SQLException e) {
+            throw new MapperException (
+                    "Cannot persist the given entities within the database.", e);
+        }
+    }
+
+    /**
+     * Executes a pending insert batch and registers its entities.
+     *
+     * Auto generated keys are read back by the row id range of the batch:
+     * all rows of one batch are inserted by the same statement within the
+     * same transaction, so sqlite assigns them consecutive row ids ending at
+     * the last inserted row id.
+     *
+     * @param insertStmt the insert statement holding the batch
+     * @param chunk the entities of the batch - gets cleared
+     * @param keys the keys of the entities if known in advance - gets cleared
+     */
+    private void executeInsertBatch (PreparedStatement insertStmt, ArrayList<Entity> chunk, ArrayList<Key> keys)
+        throws SQLException, MapperException
+    {
+        EntityTable table = getTable ();
+        markUncommitted ();
+        insertStmt.executeBatch ();
+
+        if (table.isAutoKeyGenerationActive ()) {
+            ResultSet generatedKeys = insertStmt.getGeneratedKeys ();
+            if ( ! generatedKeys.next ()) {
+                throw new MapperException (
+                        "Cannot retrieve auto created keys, even though it is activated.");
+            }
+            long lastRowId = generatedKeys.getLong (1);
+            generatedKeys.close ();
+
+            PreparedStatement keyStmt = statementFactory.createGeneratedKeysStatement ();
+            try {
+                keyStmt.setLong (1, lastRowId - chunk.size ());
+                keyStmt.setLong (2, lastRowId);
+
+                ResultSet result = keyStmt.executeQuery ();
+                keys.clear ();
+                while (result.next ()) {
+                    keys.add (loadKey (result, 1));
+                }
+                statementFactory.release (keyStmt);
+            }
+            catch (SQLException e) {
+                statementFactory.release (keyStmt);
+                throw e;
+            }
+
+            if (keys.size () != chunk.size ()) {
+                throw new MapperException (
+                        "Cannot map the auto created keys to the inserted entities.");
+            }
+        }
+
+        for (int i = 0; i < chunk.size (); ++i) {
+            Key id = keys.get (i);
+            Entity entity = chunk.get (i);
+
+            if (id == null) {
+                throw new MapperException (
+                        "Cannot register the persisted entity - no primary key available.");
+            }
+
+            if (table.isAutoKeyGenerationActive ()) {
+                onKeyAutoCreated (id, entity);
+            }
+            getRegistry ().register (id, entity);
+            rememberSnapshot (id, entity);
+        }
+
+        chunk.clear ();
+        keys.clear ();
+    }
+
+    /**
+     * Deregisters all given entities and clears the list.
+     * @param entities the entities to deregister
+     */
+    private void deRegisterAll (ArrayList<Entity> entities) throws MapperException
+    {
+        for (Entity entity : entities) {
+            Key key = getRegistry ().getEntityKey (entity);
+            markWritten (key);
+            getRegistry ().deRegister (key, entity);
+            pendingChanges.get ().remove (entity);
+        }
+        entities.clear ();
+    }
+
+    /**
+     * Remembers the row of the given key as written within the current transaction.
+     *
+     * The row is evicted from the second level cache once the transaction
+     * is committed or rolled back.
+     *
+     * @param key the key of the written row
+     */
+    protected void markWritten (Key key) throws MapperException
+    {
+        if (secondLevelCache == null) return;
+
+        writtenKeys.get ().add (key);
+        getRepository ().addCommitNotifyable (evictWrittenRows);
+    }
+
+    /**
+     * Evicts the rows written within the current transaction from the second level cache.
+     */
+    private void evictWrittenKeys ()
+    {
+        HashSet<Key> keys = writtenKeys.get ();
+        SecondLevelCache shared = secondLevelCache;
+
+        if (shared != null && ! keys.isEmpty () && hasTable ()) {
+            try {
+                shared.evictAll (getTable ().getName (), keys);
+            }
+            catch (MapperException e) {}
+        }
+        keys.clear ();
+    }
+
+    /**
+     * Remembers the given entity as changed within the current transaction.
+     * @param entity the managed entity to remember
+     */
+    private void trackChanges (Entity entity) throws MapperException
+    {
+        Key key = getRegistry ().getEntityKey (entity);
+        IdentityHashMap<Entity, EntitySnapshot> pending = pendingChanges.get ();
+
+        // Parameters only bound while updating (like owning keys) are kept until written
+        EntitySnapshot current = takeSnapshot (entity);
+        if (pending.containsKey (entity)) {
+            current = pending.get (entity).merge (current);
+        }
+
+        EntitySnapshot stored = getRegistry ().getSnapshot (key);
+        if (stored != null && stored.getChangedIndexes (current).length == 0) {
+            if (pending.remove (entity) != null) getRegistry ().markClean (key);
+            return;
+        }
+
+        pending.put (entity, current);
+        getRegistry ().markDirty (key);
+    }
+
+    /**
+     * Writes the given columns of the given entities in batches.
+     * @param indexes the indexes of the value columns to write, starting with 1
+     * @param keys the keys of the entities to write
+     * @param snapshots the snapshots holding the values to write by key
+     */
+    private void writeColumns (int[] indexes, ArrayList<Key> keys, Map<Key, EntitySnapshot> snapshots)
+        throws MapperException
+    {
+        try {
+            PreparedStatement updateStmt = statementFactory.createUpdateStatement (indexes);
+            markUncommitted ();
+
+            try {
+                int pending = 0;
+
+                for (Key key : keys) {
+                    EntitySnapshot snapshot = snapshots.get (key);
+
+                    for (int i = 0; i < indexes.length; ++i) {
+                        snapshot.bind (updateStmt, i + 1, indexes[i]);
+                    }
+                    loadKeyStatement (updateStmt, indexes.length + 1, key);
+                    updateStmt.addBatch ();
+                    markWritten (key);
+
+                    if (++pending == batchSize) {
+                        updateStmt.executeBatch ();
+                        pending = 0;
+                    }
+                }
+
+                if (pending > 0) {
+                    updateStmt.executeBatch ();
+                }
+                statementFactory.release (updateStmt);
+            }
+            catch (SQLException e) {
+                statementFactory.release (updateStmt);
+                throw e;
+            }
+            catch (MapperException e) {
+                statementFactory.release (updateStmt);
+                throw e;
+            }
+        }
+        catch (SQLException e) {
+            throw new MapperException (
+                    "Cannot update the changed entities on the database.", e);
+        }
+    }
+
+    /**
+     * Takes a snapshot of the column values of the given entity.
+     * @param entity the entity to take a snapshot of
+     * @return the snapshot of the entity
+     */
+    private EntitySnapshot takeSnapshot (Entity entity) throws MapperException
+    {
+        try {
+            return EntitySnapshot.record (this, entity);
+        }
+        catch (SQLException e) {
+            throw new MapperException (
+                    "Cannot take a snapshot of the given entity.", e);
+        }
+    }
+
+    /**
+     * Remembers the column values of an entity as stored within the database.
+     *
+     * An entity that cannot be recorded has no snapshot, so all its known
+     * columns get written on its next update.
+     *
+     * @param id the key of the entity
+     * @param entity the registered entity
+     */
+    private void rememberSnapshot (Key id, Entity entity)
+    {
+        try {
+            getRegistry ().setSnapshot (id, takeSnapshot (entity));
+        }
+        catch (MapperException e) {}
+    }
+
     /**
      * Returns the entity registry.
      * @return the entity registry
@@ -123,11 +123,16 @@ public class Column
 
     /**
      * Returns whether this column equals another one.
-     * @param other the other column to compare with
+     * @param object the other column to compare with
      * @return true if the other column equals this column
      */
-    public boolean equals (Column other)
+    @Override
+    public boolean equals (Object object)
     {
+        if (this == object) return true;
+        if ( ! (object instanceof Column)) return false;
+
+        Column other = (Column) object;
         if ( ! name.equals (other.name)) return false;
         if ( ! alias.equals (other.alias)) return false;
 
@@ -82,16 +82,29 @@ public class CompoundKey2<Key1, Key2>
 
     /**
      * Whether this compound key equals the given one.
-     * @param other the compound key to compare to
+     * @param object the compound key to compare to
      */
-    public boolean equals (CompoundKey2<Key1, Key2> other)
+    @Override
+    public boolean equals (Object object)
     {
+        if (this == object) return true;
+        if ( ! (object instanceof CompoundKey2)) return false;
+
+        CompoundKey2<?, ?> other = (CompoundKey2<?, ?>) object;
         if ( ! getKey1 ().equals (other.getKey1 ())) return false;
         if ( ! getKey2 ().equals (other.getKey2 ())) return false;
 
         return true;
     }
 
+    /**
+     * Returns both key parts for logging.
+     * @return both key parts
+     */
+    @Override
+    public String toString ()
+    { return "(" + key1 + ", " + key2 + ")"; }
+
     /**
      * Returns a suitable hash code for this key.
      * @return a suitable hash code for this key
@@ -100,7 +113,7 @@ public class CompoundKey2<Key1, Key2>
     public int hashCode ()
     {
         int code = key1.hashCode ();
-        code += key2.hashCode () * code;
+        code = 31 * code + key2.hashCode ();
 
         return code;
     }
@@ -0,0 +1,95 @@
+/* 
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.mapper.base;
+
+import ch.ffhs.dikka.brewmaster.mapper.MapperException;
+
+import java.sql.Connection;
+
+/**
+ * Decides on which connection the queries of a thread are run.
+ *
+ * Writes use the write connection of the current thread. Reads are wrapped
+ * within beginRead () and endRead () and may be sent to another connection
+ * for that time. Reads may nest; the outermost read decides the connection.
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+public interface ConnectionRouter
+{
+    /**
+     * Begins a read of the current thread.
+     * @return the connection to read from until the read ends
+     * @throws MapperException if no connection is available
+     */
+    public Connection beginRead () throws MapperException;
+
+    /**
+     * Ends the last read begun by the current thread.
+     */
+    public void endRead ();
+
+    /**
+     * Begins a read of the committed changes only.
+     *
+     * The read does not see the uncommitted changes of the current thread
+     * if there is a connection to read them from apart.
+     *
+     * @return the connection to read from until the read ends
+     * @throws MapperException if no connection is available
+     */
+    public Connection beginCommittedRead () throws MapperException;
+
+    /**
+     * Whether the current read of the thread only sees committed changes.
+     *
+     * The pending changes of the transaction are not written for such reads.
+     *
+     * @return whether the current read only sees committed changes
+     */
+    public boolean isReadingCommitted ();
+
+    /**
+     * Returns the connection the current thread reads from.
+     * @return the connection of the current read or the write connection if none has begun
+     */
+    public Connection getReadConnection ();
+
+    /**
+     * Returns the connection the current thread writes to.
+     * @return the connection the current thread writes to
+     */
+    public Connection getWriteConnection ();
+
+    /**
+     * Marks the write connection of the current thread as holding uncommitted changes.
+     *
+     * Called before every write, so reads of the thread see the changes
+     * until they get committed or rolled back.
+     */
+    public void markUncommitted ();
+
+    /**
+     * Returns the statement cache of the given connection.
+     * @param connection a connection handed out by this router
+     * @return the statement cache of the connection or null if there is none
+     */
+    public StatementCache getStatementCache (Connection connection);
+}
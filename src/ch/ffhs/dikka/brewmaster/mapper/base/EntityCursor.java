@@ -0,0 +1,181 @@
+/* 
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.mapper.base;
+
+import ch.ffhs.dikka.brewmaster.mapper.MapperException;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Walks the rows of a query one entity at a time.
+ *
+ * Rows are fetched from the database while moving the cursor, so only the
+ * current entity is held - unless the cursor registers the entities with
+ * its mapper. An unregistered entity is only the managed instance if it has
+ * been registered before.
+ *
+ * E.g.
+ * @code
+ * EntityCursor<Integer, Task> cursor = repository.tasks ().openCursor (500, false);
+ * try {
+ *     while (cursor.next ()) {
+ *         export (cursor.get ());
+ *     }
+ * }
+ * finally {
+ *     cursor.close ();
+ * }
+ * @endcode
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+public class EntityCursor<Key, Entity>
+    implements AutoCloseable
+{
+    /** The mapper that loads the entities */
+    private AbstractMapper<Key, Entity> mapper;
+
+    /** The statement of the query */
+    private PreparedStatement statement;
+
+    /** The rows of the query */
+    private ResultSet result;
+
+    /** Whether loaded entities get registered */
+    private boolean register;
+
+    /** The index of the primary key within the rows */
+    private int keyIndex;
+
+    /** The entity of the current row */
+    private Entity current = null;
+
+    /** Whether this cursor has been closed */
+    private boolean closed = false;
+
+    /**
+     * Constructs a new cursor over the rows of the given statement.
+     *
+     * Has to be called within a read begun at the mapper, which the cursor
+     * ends when it gets closed.
+     *
+     * @param mapper the mapper that loads the entities
+     * @param statement the statement to execute - gets closed with the cursor
+     * @param fetchSize the number of rows to fetch at once
+     * @param register whether loaded entities get registered with the mapper
+     */
+    public EntityCursor (
+            AbstractMapper<Key, Entity> mapper, PreparedStatement statement,
+            int fetchSize, boolean register)
+        throws MapperException
+    {
+        this.mapper = mapper;
+        this.statement = statement;
+        this.register = register;
+
+        try {
+            keyIndex = mapper.getTable ().getPrimaryKeyColumnStartIndex ();
+            statement.setFetchSize (fetchSize);
+            result = statement.executeQuery ();
+        }
+        catch (SQLException e) {
+            close ();
+            throw new MapperException ("Cannot open the cursor.", e);
+        }
+    }
+
+    /**
+     * Moves the cursor to the next entity.
+     * @return false if there is no further entity - the cursor is closed then
+     */
+    public boolean next () throws MapperException
+    {
+        current = null;
+        if (closed) return false;
+
+        try {
+            if ( ! result.next ()) {
+                close ();
+                return false;
+            }
+
+            Key key = mapper.loadKey (result, keyIndex);
+
+            if (register) {
+                current = mapper.loadEntity (key, result);
+            }
+            else {
+                current = mapper.getRegistry ().lookup (key);
+                if (current == null) {
+                    current = mapper.doLoad (key, result);
+                }
+            }
+        }
+        catch (SQLException e) {
+            close ();
+            throw new MapperException ("Cannot move the cursor.", e);
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the entity the cursor points to.
+     * @return the entity the cursor points to
+     * @throws MapperException if the cursor does not point to an entity
+     */
+    public Entity get () throws MapperException
+    {
+        if (current == null) {
+            throw new MapperException ("The cursor does not point to an entity.");
+        }
+
+        return current;
+    }
+
+    /**
+     * Whether this cursor has been closed.
+     * @return whether this cursor has been closed
+     */
+    public boolean isClosed ()
+    { return closed; }
+
+    /**
+     * Closes the cursor and its statement.
+     */
+    @Override
+    public void close () throws MapperException
+    {
+        if (closed) return;
+        closed = true;
+
+        try {
+            statement.close ();
+        }
+        catch (SQLException e) {
+            throw new MapperException ("Cannot close the cursor.", e);
+        }
+        finally {
+            mapper.endRead ();
+        }
+    }
+}
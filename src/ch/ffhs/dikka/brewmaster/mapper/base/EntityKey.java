@@ -105,10 +105,16 @@ public class EntityKey
 
     /**
      * Whether this key equals the given one.
+     * @param object the other key to compare with
      * @return whether this key equals the given one
      */
-    public boolean equals (EntityKey other)
+    @Override
+    public boolean equals (Object object)
     {
+        if (this == object) return true;
+        if ( ! (object instanceof EntityKey)) return false;
+
+        EntityKey other = (EntityKey) object;
         if (columns.size () != other.columns.size ()) return false;
 
         return columns.equals (other.columns);
@@ -21,6 +21,7 @@ package ch.ffhs.dikka.brewmaster.mapper.base;
 import ch.ffhs.dikka.brewmaster.mapper.MapperException;
 
 import java.util.ArrayList;
+import java.util.Collection;
 
 import java.sql.ResultSet;
 
@@ -45,6 +46,38 @@ public interface EntityMapper<Key, Entity>
      */
     public ArrayList<Entity> findAll () throws MapperException;
 
+    /**
+     * Opens a cursor over all entities stored in the database.
+     * @param fetchSize the number of rows to fetch at once
+     * @param register whether the loaded entities get registered
+     * @return a cursor over all entities - needs to be closed
+     */
+    public EntityCursor<Key, Entity> openCursor (int fetchSize, boolean register)
+        throws MapperException;
+
+    /**
+     * Finds the first page of entities ordered by primary key.
+     * @param size the maximum number of entities on a page
+     * @return the first page of entities
+     */
+    public Page<Entity> findFirstPage (int size) throws MapperException;
+
+    /**
+     * Finds the first page of entities ordered by the given column.
+     * @param sortColumn the name of the column to order by
+     * @param size the maximum number of entities on a page
+     * @return the first page of entities
+     */
+    public Page<Entity> findFirstPage (String sortColumn, int size) throws MapperException;
+
+    /**
+     * Finds the page of entities following the given page key.
+     * @param after the key of the page to find, taken from the previous page
+     * @param size the maximum number of entities on a page
+     * @return the page following the given page key
+     */
+    public Page<Entity> findNextPage (PageKey after, int size) throws MapperException;
+
     /**
      * Removes the given entity from the database and deregisters it.
      * @param entity the entity to remove
@@ -65,6 +98,27 @@ public interface EntityMapper<Key, Entity>
      */
     public EntityMapper<Key, Entity> persist (Entity entity) throws MapperException;
 
+    /**
+     * Persists all given entities within the database.
+     * @param entities the entities to persist
+     * @return this mapper
+     */
+    public EntityMapper<Key, Entity> persistAll (Collection<Entity> entities) throws MapperException;
+
+    /**
+     * Updates all given entities within the database.
+     * @param entities the entities to update
+     * @return this mapper
+     */
+    public EntityMapper<Key, Entity> updateAll (Collection<Entity> entities) throws MapperException;
+
+    /**
+     * Removes all given entities from the database and deregisters them.
+     * @param entities the entities to remove
+     * @return this mapper
+     */
+    public EntityMapper<Key, Entity> removeAll (Collection<Entity> entities) throws MapperException;
+
     /**
      * Loads the entity with the given result set and registers it.
      *
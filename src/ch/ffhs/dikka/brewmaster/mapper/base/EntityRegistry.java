@@ -20,43 +20,149 @@ package ch.ffhs.dikka.brewmaster.mapper.base;
 
 import ch.ffhs.dikka.brewmaster.mapper.MapperException;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.ArrayList;
 
 /**
  * A registry that keeps track of key entity pairs.
+ *
+ * The registry never holds two instances for the same key: as long as an
+ * entity is in use, it stays registered. How long unused entities are kept
+ * is decided by the eviction policy - by default all of them are kept.
+ *
+ * The registry is shared by all threads, so all its methods are synchronized.
+ *
  * @author David Daniel <david.daniel@students.ffhs.ch>
  * @since 2012-12-03
  */
 public class EntityRegistry<Key, Entity>
 {
     /** All loaded entities */
-    private HashMap<Key, Entity> entities = new HashMap<Key, Entity> ();
+    private HashMap<Key, Reference<Entity>> entities = new HashMap<Key, Reference<Entity>> ();
 
     /** All loaded entity identities */
-    private IdentityHashMap<Entity, Key> entityIdentities = new IdentityHashMap<Entity, Key> ();
+    private HashMap<IdentityReference<Entity>, Key> entityIdentities
+        = new HashMap<IdentityReference<Entity>, Key> ();
+
+    /** The recently used entities that are held strongly, least recently used first */
+    private LinkedHashMap<Key, Entity> recentlyUsed = new LinkedHashMap<Key, Entity> (16, 0.75f, true);
+
+    /** The dirty entities that must not be evicted */
+    private HashMap<Key, Entity> dirtyEntities = new HashMap<Key, Entity> ();
+
+    /** The column values of the registered entities as stored within the database */
+    private HashMap<Key, EntitySnapshot> snapshots = new HashMap<Key, EntitySnapshot> ();
+
+    /** The identities of reclaimed entities */
+    private ReferenceQueue<Entity> reclaimed = new ReferenceQueue<Entity> ();
+
+    /** The eviction policy */
+    private EvictionPolicy policy = EvictionPolicy.unbounded ();
+
+    /** The number of entities evicted from the strongly held ones */
+    private long evictions = 0;
+
+    /** The number of entities reclaimed by the garbage collector */
+    private long collected = 0;
+
+    /** The number of lookups served by this registry */
+    private long hits = 0;
+
+    /** The number of lookups not served by this registry */
+    private long misses = 0;
+
+    /**
+     * Sets the eviction policy.
+     *
+     * Strongly held entities beyond the limit of the new policy are evicted.
+     *
+     * @param policy the eviction policy to use
+     * @return this registry
+     */
+    public synchronized EntityRegistry<Key, Entity> setEvictionPolicy (EvictionPolicy policy)
+    {
+        HashMap<Key, Entity> alive = new HashMap<Key, Entity> ();
+        for (Key key : entities.keySet ()) {
+            Entity entity = entities.get (key).get ();
+            if (entity != null) alive.put (key, entity);
+        }
+
+        this.policy = policy;
+        for (Key key : alive.keySet ()) {
+            entities.put (key, policy.createReference (alive.get (key)));
+        }
+        evictExceeding ();
+
+        return this;
+    }
+
+    /**
+     * Returns the eviction policy.
+     * @return the eviction policy
+     */
+    public synchronized EvictionPolicy getEvictionPolicy ()
+    { return policy; }
 
     /**
      * Returns all currently registered entities.
      * @return all currently registered entities
      */
-    public ArrayList<Entity> getAllEntities ()
-    { return new ArrayList<Entity> (entities.values ()); }
+    public synchronized ArrayList<Entity> getAllEntities ()
+    {
+        expungeReclaimed ();
+
+        ArrayList<Entity> all = new ArrayList<Entity> (entities.size ());
+        for (Reference<Entity> reference : entities.values ()) {
+            Entity entity = reference.get ();
+            if (entity != null) all.add (entity);
+        }
+
+        return all;
+    }
+
+    /**
+     * Looks up the entity to the given key and counts the lookup.
+     * @param id the id of the questioned entity
+     * @return the entity to the given key or null if it is not registered
+     */
+    public synchronized Entity lookup (Key id)
+    {
+        Entity entity = get (id);
+
+        if (entity == null) {
+            ++misses;
+        }
+        else {
+            ++hits;
+            touch (id, entity);
+        }
+
+        return entity;
+    }
 
     /**
      * Returns the entity to the given key.
      * @param id the id of the questioned entity
      * @return the entity to the given key
      */
-    public Entity getEntity (Key id) throws MapperException
+    public synchronized Entity getEntity (Key id) throws MapperException
     {
-        if ( ! entities.containsKey (id)) {
+        Entity entity = get (id);
+
+        if (entity == null) {
             throw new MapperException (
                     "The requested entity is not available.");
         }
+        touch (id, entity);
 
-        return entities.get (id);
+        return entity;
     }
 
     /**
@@ -64,21 +170,23 @@ public class EntityRegistry<Key, Entity>
      * @param id the key of the questioned entity
      * @return true if this registry contains the entity that corresponds to the given key
      */
-    public boolean hasEntity (Key id)
-    { return entities.containsKey (id); }
+    public synchronized boolean hasEntity (Key id)
+    { return get (id) != null; }
 
     /**
      * Returns the key to the given entity from the reverse loaded map.
      * @return the key of the registered entity
      */
-    public Key getEntityKey (Entity entity) throws MapperException
+    public synchronized Key getEntityKey (Entity entity) throws MapperException
     {
-        if ( ! entityIdentities.containsKey (entity)) {
+        Key key = entityIdentities.get (new IdentityReference<Entity> (entity));
+
+        if (key == null) {
             throw new MapperException (
                     "The requested entity key is not available.");
         }
 
-        return entityIdentities.get (entity);
+        return key;
     }
 
     /**
@@ -86,8 +194,8 @@ public class EntityRegistry<Key, Entity>
      * @param entity the entity
      * @return true if this registry contains the key that corresponds to the given entity
      */
-    public boolean hasEntityKey (Entity entity)
-    { return entityIdentities.containsKey (entity); }
+    public synchronized boolean hasEntityKey (Entity entity)
+    { return entityIdentities.containsKey (new IdentityReference<Entity> (entity)); }
 
     /**
      * Registers an entity.
@@ -95,40 +203,284 @@ public class EntityRegistry<Key, Entity>
      * @param entity the entity to register
      * @return this registry
      */
-    public EntityRegistry<Key, Entity> register (Key id, Entity entity)
+    public synchronized EntityRegistry<Key, Entity> register (Key id, Entity entity)
     {
         if ( ! hasEntity (id)) {
-            entities.put (id, entity);
-            entityIdentities.put (entity, id);
+            entities.put (id, policy.createReference (entity));
+            entityIdentities.put (new IdentityReference<Entity> (entity, reclaimed), id);
+            touch (id, entity);
         }
 
         return this;
     }
 
+    /**
+     * Registers an entity unless another one has been registered for its key.
+     *
+     * Used when threads may load the same entity at once, so all of them
+     * go on with the same instance.
+     *
+     * @param id the key of the entity to register
+     * @param entity the entity to register
+     * @return the registered entity for the key
+     */
+    public synchronized Entity registerIfAbsent (Key id, Entity entity)
+    {
+        Entity registered = get (id);
+        if (registered != null) return registered;
+
+        register (id, entity);
+
+        return entity;
+    }
+
     /**
      * Deregisters an entity.
      * @param id the key of the entity to deregister
      * @return this registry
      */
-    public EntityRegistry<Key, Entity> deRegister (Key id, Entity entity)
+    public synchronized EntityRegistry<Key, Entity> deRegister (Key id, Entity entity)
     {
         if (hasEntity (id)) {
             entities.remove (id);
-            entityIdentities.remove (entity);
+            entityIdentities.remove (new IdentityReference<Entity> (entity));
+            recentlyUsed.remove (id);
+            dirtyEntities.remove (id);
+            snapshots.remove (id);
         }
 
         return this;
     }
 
+    /**
+     * Deregisters the entities of all given keys at once.
+     * @param ids the keys of the entities to deregister
+     * @return the deregistered entities that were still loaded
+     */
+    public synchronized ArrayList<Entity> deRegisterAll (Collection<Key> ids)
+    {
+        ArrayList<Entity> removed = new ArrayList<Entity> ();
+
+        for (Key id : ids) {
+            Reference<Entity> reference = entities.remove (id);
+            Entity entity = reference == null ? null : reference.get ();
+            if (entity != null) {
+                entityIdentities.remove (new IdentityReference<Entity> (entity));
+                removed.add (entity);
+            }
+            recentlyUsed.remove (id);
+            dirtyEntities.remove (id);
+            snapshots.remove (id);
+        }
+
+        return removed;
+    }
+
     /**
      * Clears the entire cache.
      * @return this registry
      */
-    public EntityRegistry<Key, Entity> deRegisterAll ()
+    public synchronized EntityRegistry<Key, Entity> deRegisterAll ()
     {
         entities.clear ();
         entityIdentities.clear ();
+        recentlyUsed.clear ();
+        dirtyEntities.clear ();
+        snapshots.clear ();
+
+        return this;
+    }
+
+    /**
+     * Marks the entity of the given key as dirty - it will not be evicted
+     * until it is marked clean again.
+     * @param id the key of the dirty entity
+     * @return this registry
+     */
+    public synchronized EntityRegistry<Key, Entity> markDirty (Key id)
+    {
+        Entity entity = get (id);
+        if (entity != null) {
+            dirtyEntities.put (id, entity);
+        }
+
+        return this;
+    }
+
+    /**
+     * Marks the entity of the given key as clean - it may get evicted again.
+     * @param id the key of the clean entity
+     * @return this registry
+     */
+    public synchronized EntityRegistry<Key, Entity> markClean (Key id)
+    {
+        dirtyEntities.remove (id);
+        return this;
+    }
+
+    /**
+     * Whether the entity of the given key is marked as dirty.
+     * @param id the key of the questioned entity
+     * @return whether the entity of the given key is marked as dirty
+     */
+    public synchronized boolean isDirty (Key id)
+    { return dirtyEntities.containsKey (id); }
+
+    /**
+     * Sets the column values of a registered entity as stored within the database.
+     * @param id the key of the entity
+     * @param snapshot the snapshot of the entity
+     * @return this registry
+     */
+    public synchronized EntityRegistry<Key, Entity> setSnapshot (Key id, EntitySnapshot snapshot)
+    {
+        if (get (id) != null) {
+            snapshots.put (id, snapshot);
+        }
 
         return this;
     }
+
+    /**
+     * Returns the column values of a registered entity as stored within the database.
+     * @param id the key of the entity
+     * @return the snapshot of the entity or null if none has been taken
+     */
+    public synchronized EntitySnapshot getSnapshot (Key id)
+    { return snapshots.get (id); }
+
+    /**
+     * Returns the number of registered entities.
+     * @return the number of registered entities
+     */
+    public synchronized int size ()
+    {
+        expungeReclaimed ();
+        return entities.size ();
+    }
+
+    /**
+     * Returns a snapshot of the usage of this registry.
+     * @return a snapshot of the usage of this registry
+     */
+    public synchronized RegistryStatistics getStatistics ()
+    {
+        return new RegistryStatistics (
+                size (), recentlyUsed.size (), evictions, collected, hits, misses);
+    }
+
+    /**
+     * Returns the registered entity to the given key.
+     * @param id the key of the entity
+     * @return the registered entity or null if none is registered
+     */
+    private Entity get (Key id)
+    {
+        expungeReclaimed ();
+
+        Reference<Entity> reference = entities.get (id);
+        return reference == null ? null : reference.get ();
+    }
+
+    /**
+     * Marks the given entity as recently used.
+     * @param id the key of the entity
+     * @param entity the entity
+     */
+    private void touch (Key id, Entity entity)
+    {
+        if (policy.getMaxStrongEntries () == 0) return;
+
+        recentlyUsed.put (id, entity);
+        evictExceeding ();
+    }
+
+    /**
+     * Evicts the least recently used entities beyond the limit of the policy.
+     */
+    private void evictExceeding ()
+    {
+        int exceeding = recentlyUsed.size () - policy.getMaxStrongEntries ();
+        Iterator<Key> keys = recentlyUsed.keySet ().iterator ();
+
+        while (exceeding-- > 0 && keys.hasNext ()) {
+            keys.next ();
+            keys.remove ();
+            ++evictions;
+        }
+    }
+
+    /**
+     * Removes all entities reclaimed by the garbage collector.
+     */
+    private void expungeReclaimed ()
+    {
+        Reference<? extends Entity> reference;
+
+        while ((reference = reclaimed.poll ()) != null) {
+            Key key = entityIdentities.remove (reference);
+            if (key == null) continue;
+
+            Reference<Entity> current = entities.get (key);
+            if (current != null && current.get () == null) {
+                entities.remove (key);
+                snapshots.remove (key);
+                ++collected;
+            }
+        }
+    }
+
+    /**
+     * A weak reference that compares its referent by identity.
+     */
+    private static class IdentityReference<Referent>
+        extends WeakReference<Referent>
+    {
+        /** The identity hash code of the referent */
+        private final int hash;
+
+        /**
+         * Constructs a reference used to look up an identity.
+         * @param referent the referenced object
+         */
+        public IdentityReference (Referent referent)
+        {
+            super (referent);
+            hash = System.identityHashCode (referent);
+        }
+
+        /**
+         * Constructs a reference that is enqueued when its referent is reclaimed.
+         * @param referent the referenced object
+         * @param queue the queue to enqueue this reference to
+         */
+        public IdentityReference (Referent referent, ReferenceQueue<? super Referent> queue)
+        {
+            super (referent, queue);
+            hash = System.identityHashCode (referent);
+        }
+
+        /**
+         * Whether the other reference refers to the same object.
+         * @param other the other reference
+         * @return whether the other reference refers to the same object
+         */
+        @Override
+        public boolean equals (Object other)
+        {
+            if (this == other) return true;
+            if ( ! (other instanceof IdentityReference)) return false;
+
+            Object referent = get ();
+            return referent != null && referent == ((IdentityReference<?>) other).get ();
+        }
+
+        /**
+         * Returns the identity hash code of the referent.
+         * @return the identity hash code of the referent
+         */
+        @Override
+        public int hashCode ()
+        { return hash; }
+    }
 }
@@ -0,0 +1,267 @@
+/*
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.mapper.base;
+
+import ch.ffhs.dikka.brewmaster.mapper.MapperException;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The column values of an entity at one point in time.
+ *
+ * A snapshot is recorded by handing a recording statement to the
+ * loadEntityStatement method of a mapper, so every mapper gets snapshots
+ * without further code. Each parameter remembers the setter that bound it
+ * and can be bound again to another statement at another position.
+ * Parameters a mapper leaves unbound are unknown to the snapshot.
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+public class EntitySnapshot
+{
+    /** The bindings of the parameters, null where a parameter is unbound */
+    private Binding[] bindings;
+
+    /**
+     * Constructs an empty snapshot.
+     * @param size the number of parameters
+     */
+    private EntitySnapshot (int size)
+    { bindings = new Binding[size]; }
+
+    /**
+     * Returns the number of parameters.
+     * @return the number of parameters
+     */
+    public int size ()
+    { return bindings.length; }
+
+    /**
+     * Whether the parameter of the given index has been bound.
+     * @param index the index of the parameter, starting with 1
+     * @return whether the parameter of the given index has been bound
+     */
+    public boolean isBound (int index)
+    { return bindings[index - 1] != null; }
+
+    /**
+     * Returns the indexes of all parameters that differ from this snapshot.
+     *
+     * Parameters unbound within the given snapshot are not compared, those
+     * unknown to this snapshot always differ.
+     *
+     * @param current the snapshot to compare with
+     * @return the indexes of all differing parameters, starting with 1
+     */
+    public int[] getChangedIndexes (EntitySnapshot current)
+    {
+        ArrayList<Integer> changed = new ArrayList<Integer> ();
+
+        for (int i = 0; i < current.bindings.length; ++i) {
+            Binding binding = current.bindings[i];
+            if (binding == null) continue;
+
+            if (i >= bindings.length || bindings[i] == null
+                    || ! bindings[i].hasValue (binding.getValue ())) {
+                changed.add (i + 1);
+            }
+        }
+
+        int[] indexes = new int[changed.size ()];
+        for (int i = 0; i < indexes.length; ++i) {
+            indexes[i] = changed.get (i);
+        }
+
+        return indexes;
+    }
+
+    /**
+     * Returns the indexes of all bound parameters.
+     * @return the indexes of all bound parameters, starting with 1
+     */
+    public int[] getBoundIndexes ()
+    { return new EntitySnapshot (0).getChangedIndexes (this); }
+
+    /**
+     * Creates a snapshot of this one with the bound parameters of the given one.
+     * @param other the snapshot whose bound parameters win or null
+     * @return the merged snapshot
+     */
+    public EntitySnapshot merge (EntitySnapshot other)
+    {
+        if (other == null) return this;
+
+        EntitySnapshot merged = new EntitySnapshot (
+                Math.max (bindings.length, other.bindings.length));
+
+        for (int i = 0; i < merged.bindings.length; ++i) {
+            Binding binding = i < other.bindings.length ? other.bindings[i] : null;
+            if (binding == null && i < bindings.length) binding = bindings[i];
+            merged.bindings[i] = binding;
+        }
+
+        return merged;
+    }
+
+    /**
+     * Binds a parameter of this snapshot to the given statement.
+     * @param statement the statement to bind the parameter to
+     * @param position the position within the statement
+     * @param index the index of the parameter, starting with 1
+     */
+    public void bind (PreparedStatement statement, int position, int index)
+        throws SQLException
+    { bindings[index - 1].bind (statement, position); }
+
+    /**
+     * Records the parameters bound by the given mapper for the given entity.
+     * @param mapper the mapper of the entity
+     * @param entity the entity to take a snapshot of
+     * @return the snapshot of the entity
+     */
+    static <Key, Entity> EntitySnapshot record (AbstractMapper<Key, Entity> mapper, Entity entity)
+        throws SQLException, MapperException
+    {
+        EntitySnapshot snapshot = new EntitySnapshot (mapper.getTable ().getUpdateColumnSize ());
+        Recorder recorder = snapshot.new Recorder ();
+
+        PreparedStatement statement = (PreparedStatement) Proxy.newProxyInstance (
+                PreparedStatement.class.getClassLoader (),
+                new Class<?>[] { PreparedStatement.class },
+                recorder);
+
+        mapper.loadEntityStatement (statement, 1, entity);
+
+        return snapshot;
+    }
+
+    /**
+     * A setter call that bound one parameter.
+     */
+    private static class Binding
+    {
+        /** The setter of the statement */
+        private Method setter;
+
+        /** The arguments of the setter */
+        private Object[] arguments;
+
+        /**
+         * Constructs a new binding.
+         * @param setter the setter of the statement
+         * @param arguments the arguments of the setter, led by the position
+         */
+        public Binding (Method setter, Object[] arguments)
+        {
+            this.setter = setter;
+            this.arguments = arguments.clone ();
+        }
+
+        /**
+         * Returns the bound value.
+         * @return the bound value, null for setNull
+         */
+        public Object getValue ()
+        { return setter.getName ().equals ("setNull") ? null : arguments[1]; }
+
+        /**
+         * Whether the given value equals the bound value.
+         * @param value the value to compare with
+         * @return whether the given value equals the bound value
+         */
+        public boolean hasValue (Object value)
+        {
+            Object own = getValue ();
+
+            if (own == null || value == null) return own == value;
+            if (own instanceof byte[] && value instanceof byte[]) {
+                return Arrays.equals ((byte[]) own, (byte[]) value);
+            }
+
+            return own.equals (value);
+        }
+
+        /**
+         * Binds the value to the given statement.
+         * @param statement the statement to bind the value to
+         * @param position the position within the statement
+         */
+        public void bind (PreparedStatement statement, int position) throws SQLException
+        {
+            Object[] boundArguments = arguments.clone ();
+            boundArguments[0] = position;
+
+            try {
+                setter.invoke (statement, boundArguments);
+            }
+            catch (InvocationTargetException e) {
+                if (e.getCause () instanceof SQLException) {
+                    throw (SQLException) e.getCause ();
+                }
+                throw new SQLException ("Cannot bind a recorded value.", e.getCause ());
+            }
+            catch (IllegalAccessException e) {
+                throw new SQLException ("Cannot bind a recorded value.", e);
+            }
+        }
+    }
+
+    /**
+     * Records the setter calls on a statement into this snapshot.
+     */
+    private class Recorder
+        implements InvocationHandler
+    {
+        @Override
+        public Object invoke (Object proxy, Method method, Object[] arguments)
+        {
+            boolean setter = method.getName ().startsWith ("set")
+                && arguments != null && arguments.length > 1
+                && method.getParameterTypes ()[0] == int.class;
+
+            if (setter) {
+                int index = (Integer) arguments[0];
+
+                if (index > bindings.length) {
+                    bindings = Arrays.copyOf (bindings, index);
+                }
+                if (index > 0) {
+                    bindings[index - 1] = new Binding (method, arguments);
+                }
+            }
+
+            Class<?> type = method.getReturnType ();
+            if (type == boolean.class) return Boolean.FALSE;
+            if (type == int.class) return 0;
+            if (type == long.class) return 0L;
+
+            return null;
+        }
+    }
+}
@@ -20,15 +20,23 @@ package ch.ffhs.dikka.brewmaster.mapper.base;
 
 import ch.ffhs.dikka.brewmaster.mapper.MapperException;
 
+import ch.ffhs.dikka.brewmaster.mapper.base.statement.Condition;
 import ch.ffhs.dikka.brewmaster.mapper.base.statement.Insert;
+import ch.ffhs.dikka.brewmaster.mapper.base.statement.Select;
 
 import java.sql.Connection;
 import java.sql.Statement;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+
 /**
  * Creates statements suitable for mapping entities.
+ *
+ * If a statement cache for the used connection is available, the created
+ * statements are taken from it and have to be given back by release ().
  * @author David Daniel <david.daniel@students.ffhs.ch>
  * @since 2012-12-04
  */
@@ -40,6 +48,39 @@ public class EntityStatementFactory
     /** The entity entityTable */
     private EntityTable entityTable = null;
 
+    /** The statement cache of the connection */
+    private StatementCache statementCache = null;
+
+    /** Statement kind: select by key */
+    private static final String KIND_SELECT = "select";
+
+    /** Statement kind: select all */
+    private static final String KIND_SELECT_ALL = "select-all";
+
+    /** Statement kind: insert */
+    private static final String KIND_INSERT = "insert";
+
+    /** Statement kind: update by key */
+    private static final String KIND_UPDATE = "update";
+
+    /** Statement kind: update of some value columns by primary key */
+    private static final String KIND_UPDATE_COLUMNS = "update-columns";
+
+    /** Statement kind: delete by key */
+    private static final String KIND_DELETE = "delete";
+
+    /** Statement kind: select the primary keys of a row id range */
+    private static final String KIND_GENERATED_KEYS = "generated-keys";
+
+    /** Kind of statements selecting a page of entities */
+    private static final String KIND_PAGE = "page";
+
+    /** The key prefix of statements prepared from a given sql string */
+    private static final String KIND_QUERY = "query";
+
+    /** Decides on the connection of the current thread or null */
+    private ConnectionRouter router = null;
+
     /**
      * Sets the connection to use.
      * @param connnection the connection that this statement may use
@@ -52,12 +93,28 @@ public class EntityStatementFactory
         return this;
     }
 
+    /**
+     * Sets the router that decides on the connection of the current thread.
+     *
+     * If set, statements are created on the write connection of the current
+     * thread and taken from its statement cache instead of the set ones.
+     *
+     * @param router the router or null to use the set connection
+     * @return this statement factory
+     */
+    public EntityStatementFactory setConnectionRouter (ConnectionRouter router)
+    {
+        this.router = router;
+
+        return this;
+    }
+
     /**
      * Returns whether this statement has a connection assigned.
      * @return true if this statement has a connection assigned
      */
     public boolean hasConnection ()
-    { return connection != null; }
+    { return router != null || connection != null; }
 
     /**
      * Returns the connection used by this statement.
@@ -65,6 +122,8 @@ public class EntityStatementFactory
      */
     public Connection getConnection () throws MapperException
     {
+        if (router != null) return router.getWriteConnection ();
+
         if ( ! hasConnection ()) {
             throw new MapperException ("No connection available");
         }
@@ -72,6 +131,57 @@ public class EntityStatementFactory
         return connection;
     }
 
+    /**
+     * Sets the statement cache to take statements from.
+     * @param cache the statement cache of the connection or null to disable caching
+     * @return this statement factory
+     */
+    public EntityStatementFactory setStatementCache (StatementCache cache)
+    {
+        statementCache = cache;
+        return this;
+    }
+
+    /**
+     * Whether a statement cache is used.
+     * @return whether a statement cache is used
+     */
+    public boolean hasStatementCache ()
+    { return getStatementCache () != null; }
+
+    /**
+     * Returns the statement cache.
+     * @return the statement cache or null if none is used
+     */
+    public StatementCache getStatementCache ()
+    {
+        if (router != null) return router.getStatementCache (router.getWriteConnection ());
+
+        return statementCache;
+    }
+
+    /**
+     * Gives a statement created by this factory back.
+     *
+     * Cached statements are kept for reuse, all others are closed.
+     *
+     * @param statement the statement to give back
+     * @throws SQLException if the statement cannot be reset or closed
+     */
+    public void release (PreparedStatement statement) throws SQLException
+    {
+        StatementCache cache = router == null
+            ? statementCache
+            : router.getStatementCache (statement.getConnection ());
+
+        if (cache != null) {
+            cache.release (statement);
+        }
+        else {
+            statement.close ();
+        }
+    }
+
     /**
      * Sets the entity table.
      * @param table the entity table to set
@@ -111,12 +221,18 @@ public class EntityStatementFactory
      */
     public PreparedStatement createSelectStatement (EntityKey where) throws MapperException
     {
-        return
+        String key = createCacheKey (KIND_SELECT, where);
+        PreparedStatement statement = takeCached (key);
+        if (statement != null) return statement;
+
+        statement =
             StatementBuilder
             .select ()
             .from (getTable ())
             .where (where, getTable ())
             .prepare (getConnection ());
+
+        return putCached (key, statement);
     }
 
     /**
@@ -125,11 +241,17 @@ public class EntityStatementFactory
      */
     public PreparedStatement createSelectAllStatement () throws MapperException
     {
-        return
+        String key = createCacheKey (KIND_SELECT_ALL, null);
+        PreparedStatement statement = takeCached (key);
+        if (statement != null) return statement;
+
+        statement =
             StatementBuilder
             .select ()
             .from (getTable ())
             .prepare (getConnection ());
+
+        return putCached (key, statement);
     }
 
     /**
@@ -145,6 +267,10 @@ public class EntityStatementFactory
      */
     public PreparedStatement createInsertStatement () throws MapperException
     {
+        String key = createCacheKey (KIND_INSERT, null);
+        PreparedStatement statement = takeCached (key);
+        if (statement != null) return statement;
+
         EntityTable table = getTable ();
         Insert inserter = StatementBuilder.insert (table);
 
@@ -153,7 +279,6 @@ public class EntityStatementFactory
             inserter.setExcludeKeyColumns (true);
         }
 
-        PreparedStatement statement = null;
         try {
             if (getTable ().isAutoKeyGenerationActive ()) {
 
@@ -170,7 +295,7 @@ public class EntityStatementFactory
                     "Cannot create an update statement for the requested entity.", e);
         }
 
-        return statement;
+        return putCached (key, statement);
     }
 
     /**
@@ -180,13 +305,19 @@ public class EntityStatementFactory
      */
     public PreparedStatement createUpdateStatement (EntityKey where) throws MapperException
     {
+        String key = createCacheKey (KIND_UPDATE, where);
+        PreparedStatement statement = takeCached (key);
+        if (statement != null) return statement;
+
         EntityTable table = getTable ();
 
-        return StatementBuilder
+        statement = StatementBuilder
             .update (table)
             .where (where, table)
             .setExcludeKeyColumns ( ! table.includePrimaryKeyAtUpdate ())
             .prepare (getConnection ());
+
+        return putCached (key, statement);
     }
 
     /**
@@ -196,6 +327,43 @@ public class EntityStatementFactory
     public PreparedStatement createUpdateStatement () throws MapperException
     { return createUpdateStatement (getPrimaryKey ()); }
 
+    /**
+     * Creates an update statement of some value columns that acts on the primary key.
+     *
+     * The value columns are numbered like the parameters of the full update
+     * statement, the primary key follows the given columns.
+     *
+     * @param indexes the indexes of the value columns to update, starting with 1
+     * @return an update statement of the given value columns
+     */
+    public PreparedStatement createUpdateStatement (int[] indexes) throws MapperException
+    {
+        StringBuilder kind = new StringBuilder (KIND_UPDATE_COLUMNS);
+        for (int index : indexes) {
+            kind.append (' ').append (index);
+        }
+
+        String key = createCacheKey (kind.toString (), null);
+        PreparedStatement statement = takeCached (key);
+        if (statement != null) return statement;
+
+        EntityTable table = getTable ();
+        EntityKey primaryKey = getPrimaryKey ();
+
+        Table updated = new Table (table.getName ());
+        for (int index : indexes) {
+            updated.addColumn (table.getValueColumn (index).getName ());
+        }
+
+        statement = StatementBuilder
+            .update (updated)
+            .where (primaryKey, updated)
+            .setExcludeKeyColumns (true)
+            .prepare (getConnection ());
+
+        return putCached (key, statement);
+    }
+
     /**
      * Creates an delete statement that acts on the given key.
      * @param key the key that the statement acts on
@@ -203,10 +371,16 @@ public class EntityStatementFactory
      */
     public PreparedStatement createDeleteStatement (EntityKey key) throws MapperException
     {
-        return StatementBuilder
+        String cacheKey = createCacheKey (KIND_DELETE, key);
+        PreparedStatement statement = takeCached (cacheKey);
+        if (statement != null) return statement;
+
+        statement = StatementBuilder
             .delete (getTable ())
             .where (key, getTable ())
             .prepare (getConnection ());
+
+        return putCached (cacheKey, statement);
     }
 
     /**
@@ -216,10 +390,247 @@ public class EntityStatementFactory
     public PreparedStatement createDeleteStatement () throws MapperException
     { return createDeleteStatement (getPrimaryKey ()); }
 
+    /**
+     * Prepares the given sql string, e.g. of a statement builder.
+     *
+     * The statement is cached by its sql string, so queries built once and
+     * kept by a mapper are prepared only once per connection.
+     *
+     * @param sql the sql string of the statement
+     * @return the prepared statement - has to be given back by release ()
+     */
+    public PreparedStatement prepare (String sql) throws MapperException
+    {
+        String key = hasStatementCache () ? KIND_QUERY + ' ' + sql : null;
+        PreparedStatement statement = takeCached (key);
+        if (statement != null) return statement;
+
+        try {
+            statement = getConnection ().prepareStatement (sql);
+        }
+        catch (SQLException e) {
+            throw new MapperException (
+                    "Cannot prepare the statement for the given sql string.", e);
+        }
+
+        return putCached (key, statement);
+    }
+
+    /**
+     * Creates a statement that selects the primary keys of all rows within
+     * a row id range, ordered by row id.
+     *
+     * The lower bound (exclusive) and the upper bound (inclusive) are the
+     * two parameters of the statement.
+     *
+     * @return a statement that selects the primary keys of a row id range
+     */
+    public PreparedStatement createGeneratedKeysStatement () throws MapperException
+    {
+        String key = createCacheKey (KIND_GENERATED_KEYS, null);
+        PreparedStatement statement = takeCached (key);
+        if (statement != null) return statement;
+
+        ArrayList<String> columns = new ArrayList<String> ();
+        Iterator<Column> keyColumns = getPrimaryKey ().getColumns ();
+        while (keyColumns.hasNext ()) {
+            columns.add (keyColumns.next ().getName ());
+        }
+
+        StringBuilder sql = new StringBuilder ("SELECT ");
+        for (int i = 0; i < columns.size (); ++i) {
+            if (i > 0) sql.append (", ");
+            sql.append (columns.get (i));
+        }
+        sql
+            .append (" FROM ")
+            .append (getTable ().getName ())
+            .append (" WHERE rowid > ? AND rowid <= ? ORDER BY rowid");
+
+        try {
+            statement = getConnection ().prepareStatement (sql.toString ());
+        }
+        catch (SQLException e) {
+            throw new MapperException (
+                    "Cannot create a statement for the generated keys.", e);
+        }
+
+        return putCached (key, statement);
+    }
+
+    /**
+     * Creates a statement that selects a page of entities.
+     *
+     * The entities are ordered by the given seek columns, which have to end
+     * with the primary key columns. A page following another one starts right
+     * after the given values by comparing the seek columns lexicographically,
+     * led by a range on the first column so an index on it can be used.
+     * NULL sorts first, like within SQLite.
+     *
+     * @param seekColumns the names of the columns to order by
+     * @param after the values of the seek columns of the previous page's last
+     *     entity or null for the first page
+     * @param limit the maximum number of entities to select
+     * @return the statement with all parameters bound
+     */
+    public PreparedStatement createPageStatement (
+            ArrayList<String> seekColumns, Object[] after, int limit)
+        throws MapperException
+    {
+        StringBuilder kind = new StringBuilder (KIND_PAGE);
+        for (int i = 0; i < seekColumns.size (); ++i) {
+            kind.append (' ').append (seekColumns.get (i));
+            if (after != null) kind.append (after[i] == null ? ":null" : ":after");
+        }
+
+        String key = createCacheKey (kind.toString (), null);
+        PreparedStatement statement = takeCached (key);
+
+        if (statement == null) {
+            EntityTable table = getTable ();
+            Select select = StatementBuilder.select ().from (table);
+
+            if (after != null) {
+                Condition alternatives = null;
+
+                for (int i = 0; i < seekColumns.size (); ++i) {
+                    Condition alternative = null;
+
+                    for (int j = 0; j <= i; ++j) {
+                        Condition part = j < i
+                            ? (after[j] == null
+                                ? Condition.isNull (table, seekColumns.get (j))
+                                : Condition.compare (table, seekColumns.get (j), "="))
+                            : (after[j] == null
+                                ? Condition.isNotNull (table, seekColumns.get (j))
+                                : Condition.compare (table, seekColumns.get (j), ">"));
+
+                        alternative = alternative == null ? part : alternative.and (part);
+                    }
+
+                    alternatives = alternatives == null ? alternative : alternatives.or (alternative);
+                }
+
+                if (seekColumns.size () > 1 && after[0] != null) {
+                    select.where (Condition.compare (table, seekColumns.get (0), ">="));
+                }
+                select.where (alternatives);
+            }
+
+            for (String column : seekColumns) {
+                select.orderBy (column, table);
+            }
+            select.limit ();
+
+            try {
+                statement = putCached (key, getConnection ().prepareStatement (select.toString ()));
+            }
+            catch (SQLException e) {
+                throw new MapperException (
+                        "Cannot create a statement for a page of entities.", e);
+            }
+        }
+
+        try {
+            int index = 1;
+
+            if (after != null) {
+                if (seekColumns.size () > 1 && after[0] != null) {
+                    statement.setObject (index++, after[0]);
+                }
+
+                for (int i = 0; i < seekColumns.size (); ++i) {
+                    for (int j = 0; j <= i; ++j) {
+                        if (after[j] != null) statement.setObject (index++, after[j]);
+                    }
+                }
+            }
+
+            statement.setInt (index, limit);
+        }
+        catch (SQLException e) {
+            try {
+                release (statement);
+            }
+            catch (SQLException ignored) {}
+
+            throw new MapperException (
+                    "Cannot bind the parameters of a page of entities.", e);
+        }
+
+        return statement;
+    }
+
     /**
      * Returns the primary key of the entity table.
      * @return the primary key of the entity table
      */
     protected EntityKey getPrimaryKey () throws MapperException
     { return getTable ().getPrimaryKey (); }
+
+    /**
+     * Creates the key of a statement within the statement cache.
+     * @param kind the kind of the statement
+     * @param where the key that the statement acts on or null
+     * @return the key of the statement within the statement cache
+     */
+    protected String createCacheKey (String kind, EntityKey where) throws MapperException
+    {
+        if ( ! hasStatementCache ()) return null;
+
+        StringBuilder key = new StringBuilder (getTable ().getName ());
+        key.append (' ').append (kind);
+
+        if (where != null) {
+            Iterator<Column> columns = where.getColumns ();
+            while (columns.hasNext ()) {
+                key.append (' ').append (columns.next ().getName ());
+            }
+        }
+
+        return key.toString ();
+    }
+
+    /**
+     * Takes the statement with the given key from the statement cache.
+     * @param key the key of the statement
+     * @return the cached statement or null if none is available
+     */
+    private PreparedStatement takeCached (String key)
+    {
+        if ( ! isCacheUsable ()) return null;
+
+        return getStatementCache ().take (key);
+    }
+
+    /**
+     * Adds the newly prepared statement to the statement cache.
+     * @param key the key of the statement
+     * @param statement the newly prepared statement
+     * @return the given statement
+     */
+    private PreparedStatement putCached (String key, PreparedStatement statement)
+    {
+        if (isCacheUsable ()) {
+            getStatementCache ().put (key, statement);
+        }
+
+        return statement;
+    }
+
+    /**
+     * Whether the statement cache belongs to the connection in use.
+     * @return whether the statement cache belongs to the connection in use
+     */
+    private boolean isCacheUsable ()
+    {
+        StatementCache cache = getStatementCache ();
+
+        try {
+            return cache != null && cache.getConnection () == getConnection ();
+        }
+        catch (MapperException e) {
+            return false;
+        }
+    }
 }
@@ -18,6 +18,8 @@
  */
 package ch.ffhs.dikka.brewmaster.mapper.base;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 
 import ch.ffhs.dikka.brewmaster.mapper.MapperException;
@@ -26,6 +28,12 @@ import ch.ffhs.dikka.brewmaster.mapper.MapperException;
  * A table that represents the structure of a table that represents
  * an entity or part of it.
  *
+ * Once the structure is complete, the table gets frozen: it cannot be
+ * changed any more and the ordinals of its key and value columns are
+ * computed once instead of on every statement. Rows of the table's select
+ * statement list the columns in the order they have been added, so values
+ * are read by ordinal (see getColumnIndex) rather than by name.
+ *
  * @author David Daniel <david.daniel@students.ffhs.ch>
  * @since 2012-12-04
  */
@@ -44,6 +52,18 @@ public class EntityTable
     /** Whether to include the primary key at update */
     private boolean whetherToIncludePKonUpdate = false;
 
+    /** Whether the structure of this table is fixed */
+    private boolean frozen = false;
+
+    /** The ordinals of the primary key columns or null if not computed yet */
+    private int[] keyOrdinals = null;
+
+    /** The ordinals of the columns that are no primary key columns or null if not computed yet */
+    private int[] valueOrdinals = null;
+
+    /** The ordinals of the columns by their names and aliases or null if not computed yet */
+    private HashMap<String, Integer> ordinals = null;
+
     /**
      * Creates a new entity table that takes its description from the given table.
      * @param name the name of the table to use
@@ -51,6 +71,109 @@ public class EntityTable
     public EntityTable (String name) throws MapperException
     { super (name); }
 
+    /**
+     * Fixes the structure of this table and computes its column layouts.
+     *
+     * Freezing a frozen table does nothing.
+     *
+     * @return this table
+     */
+    public EntityTable freeze ()
+    {
+        computeLayouts ();
+        frozen = true;
+
+        return this;
+    }
+
+    /**
+     * Whether the structure of this table is fixed.
+     * @return whether the structure of this table is fixed
+     */
+    public boolean isFrozen ()
+    { return frozen; }
+
+    /**
+     * Returns the ordinal of the given column within a row of this table.
+     * @param column the alias or name of the column
+     * @return the ordinal of the column, starting with 1
+     * @throws MapperException if the table has no such column
+     */
+    public int getColumnIndex (String column) throws MapperException
+    {
+        computeLayouts ();
+        Integer ordinal = ordinals.get (column);
+
+        if (ordinal == null) {
+            throw new MapperException (
+                    "The table '" + getName () + "' has no column '" + column + "'.");
+        }
+
+        return ordinal;
+    }
+
+    /**
+     * Returns the ordinals of the primary key columns.
+     * @return the ordinals of the primary key columns, starting with 1
+     */
+    public int[] getKeyColumnIndexes ()
+    {
+        computeLayouts ();
+        return keyOrdinals.clone ();
+    }
+
+    /**
+     * Returns the ordinals of the columns that are no primary key columns.
+     *
+     * The n-th value column is bound to the n-th parameter by loadEntityStatement.
+     *
+     * @return the ordinals of the value columns, starting with 1
+     */
+    public int[] getValueColumnIndexes ()
+    {
+        computeLayouts ();
+        return valueOrdinals.clone ();
+    }
+
+    /**
+     * Returns the value column of the given index.
+     * @param index the index of the value column, starting with 1
+     * @return the value column
+     * @throws MapperException if there is no such value column
+     */
+    public Column getValueColumn (int index) throws MapperException
+    {
+        computeLayouts ();
+
+        if (index < 1 || index > valueOrdinals.length) {
+            throw new MapperException (
+                    "The table '" + getName () + "' has no value column " + index + ".");
+        }
+
+        return columns.get (valueOrdinals[index - 1] - 1);
+    }
+
+    @Override
+    public Table setName (String name) throws MapperException
+    {
+        checkNotFrozen ();
+        return super.setName (name);
+    }
+
+    @Override
+    public Table addColumn (Column column)
+    {
+        checkNotFrozen ();
+        return super.addColumn (column);
+    }
+
+    @Override
+    public Table removeColumn (Column column)
+    {
+        checkNotFrozen ();
+        return super.removeColumn (column);
+    }
+
     /**
      * Sets the primary key of the table used mapping the entity.
      * @param primary the name of the primary key of the table used mapping the entity
@@ -66,6 +189,7 @@ public class EntityTable
      */
     public EntityTable setPrimaryKey (EntityKey primary) throws MapperException
     {
+        checkNotFrozen ();
         this.primaryKey = primary;
         return this;
     }
@@ -93,6 +217,7 @@ public class EntityTable
      */
     public EntityTable setAutoKeyGenerationActive (boolean autoGenerateKey)
     {
+        checkNotFrozen ();
         this.autoGenerateKey = autoGenerateKey;
         return this;
     }
@@ -111,6 +236,7 @@ public class EntityTable
      */
     public EntityTable setIncludePrimaryKeyAtInsert (boolean include)
     {
+        checkNotFrozen ();
         whetherToIncludePKAtInsert = include;
         return this;
     }
@@ -129,6 +255,7 @@ public class EntityTable
      */
     public EntityTable setIncludePrimaryKeyAtUpdate (boolean include)
     {
+        checkNotFrozen ();
         whetherToIncludePKonUpdate = include;
         return this;
     }
@@ -146,26 +273,8 @@ public class EntityTable
      */
     public int getPrimaryKeyColumnStartIndex ()
     {
-        if (primaryKey == null || primaryKey.size () < 1) return 0;
-        int index = 1;
-
-        for (Column column : columns) {
-            boolean found = false;
-            Iterator<Column> colIter = primaryKey.getColumns ();
-
-            while (colIter.hasNext ()) {
-                if (colIter.next ().getName ().equals (column.getName ())) {
-                    found = true;
-                    break;
-                }
-            }
-
-            if (found) return index;
-
-            ++index;
-        }
-
-        return 0;
+        computeLayouts ();
+        return keyOrdinals.length == 0 ? 0 : keyOrdinals[0];
     }
 
     /**
@@ -174,60 +283,98 @@ public class EntityTable
      */
     public int getValueColumnStartIndex ()
     {
+        computeLayouts ();
+
         if (columns.isEmpty ()) return 0;
-        int index = 1;
+        return valueOrdinals.length == 0 ? 0 : valueOrdinals[0];
+    }
+
+    /**
+     * Returns the number of colums used within an update statement.
+     * @return the number of colums used within an update statement
+     */
+    public int getUpdateColumnSize ()
+    {
+        if (includePrimaryKeyAtUpdate ()) return size ();
 
-        if (primaryKey == null || primaryKey.size () < 1) return index;
+        computeLayouts ();
+        return valueOrdinals.length;
+    }
+
+    /**
+     * Computes the column layouts unless they are computed already.
+     *
+     * The layouts of a table that is not frozen yet are dropped again by
+     * every change.
+     */
+    private void computeLayouts ()
+    {
+        if (keyOrdinals != null) return;
 
+        ArrayList<String> keyNames = new ArrayList<String> ();
+        if (primaryKey != null) {
+            Iterator<Column> keyColumns = primaryKey.getColumns ();
+            while (keyColumns.hasNext ()) {
+                keyNames.add (keyColumns.next ().getName ());
+            }
+        }
+
+        ArrayList<Integer> keys = new ArrayList<Integer> ();
+        ArrayList<Integer> values = new ArrayList<Integer> ();
+        HashMap<String, Integer> columnOrdinals = new HashMap<String, Integer> ();
+
+        int ordinal = 1;
         for (Column column : columns) {
-            boolean is_key = false;
-            Iterator<Column> colIter = primaryKey.getColumns ();
-
-            while (colIter.hasNext ()) {
-                if (colIter.next ().getName ().equals (column.getName ())) {
-                    is_key = true;
-                    break;
-                }
+            if (keyNames.contains (column.getName ())) {
+                keys.add (ordinal);
+            }
+            else {
+                values.add (ordinal);
             }
 
-            if ( ! is_key) {
-                return index;
+            // An alias wins over the name of another column
+            if ( ! columnOrdinals.containsKey (column.getName ())) {
+                columnOrdinals.put (column.getName (), ordinal);
+            }
+            if ( ! column.getAlias ().isEmpty ()) {
+                columnOrdinals.put (column.getAlias (), ordinal);
             }
-            ++index;
+            ++ordinal;
         }
 
-        return 0;
+        ordinals = columnOrdinals;
+        valueOrdinals = toArray (values);
+        keyOrdinals = toArray (keys);
     }
 
     /**
-     * Returns the number of colums used within an update statement.
-     * @return the number of colums used within an update statement
+     * Throws if the structure of this table is fixed, otherwise drops the
+     * computed layouts.
      */
-    public int getUpdateColumnSize ()
+    private void checkNotFrozen ()
     {
-        if (primaryKey == null || primaryKey.size () < 1) return size ();
-
-        if (includePrimaryKeyAtUpdate ()) {
-            size ();
+        if (frozen) {
+            throw new UnsupportedOperationException (
+                    "The table '" + getName () + "' is frozen and cannot be changed.");
         }
 
-        int size = 0;
-        for (Column col : columns) {
-            boolean skip = false;
-            Iterator<Column> colIter = primaryKey.getColumns ();
-
-            while (colIter.hasNext ()) {
-                if (colIter.next ().getName ().equals (col.getName ())) {
-                    skip = true;
-                    break;
-                }
-            }
-
-            if (skip) continue;
+        keyOrdinals = null;
+        valueOrdinals = null;
+        ordinals = null;
+    }
 
-            ++size;
+    /**
+     * Converts the given ordinals to an array.
+     * @param ordinals the ordinals to convert
+     * @return the ordinals as an array
+     */
+    private static int[] toArray (ArrayList<Integer> ordinals)
+    {
+        int[] array = new int[ordinals.size ()];
+        for (int i = 0; i < array.length; ++i) {
+            array[i] = ordinals.get (i);
         }
 
-        return size;
+        return array;
     }
 }
@@ -0,0 +1,115 @@
+/*
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.mapper.base;
+
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+
+/**
+ * Decides how long an entity registry holds its entities.
+ *
+ * A registry keeps up to a maximum number of recently used entities
+ * strongly. All other entities are only held by soft or weak references,
+ * so they stay registered - and unique - as long as anybody else still uses
+ * them, but may be reclaimed by the garbage collector afterwards. Dirty
+ * entities are always held strongly.
+ *
+ * Derive from this policy to change how entities are referenced.
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+public class EvictionPolicy
+{
+    /** The maximal number of entities held strongly */
+    private final int maxStrongEntries;
+
+    /** Whether entities beyond the strong ones are held by soft references */
+    private final boolean soft;
+
+    /**
+     * Constructs a new eviction policy.
+     * @param maxStrongEntries the maximal number of recently used entities held strongly
+     * @param soft whether all other entities are held by soft instead of weak references
+     */
+    public EvictionPolicy (int maxStrongEntries, boolean soft)
+    {
+        this.maxStrongEntries = maxStrongEntries < 0 ? 0 : maxStrongEntries;
+        this.soft = soft;
+    }
+
+    /**
+     * Creates a policy that holds all entities strongly and never evicts.
+     * @return a policy that holds all entities strongly
+     */
+    public static EvictionPolicy unbounded ()
+    { return new EvictionPolicy (Integer.MAX_VALUE, false); }
+
+    /**
+     * Creates a policy that holds the given number of recently used entities
+     * strongly and all others weakly.
+     * @param maxEntries the maximal number of entities held strongly
+     * @return a size bounded least recently used policy
+     */
+    public static EvictionPolicy leastRecentlyUsed (int maxEntries)
+    { return new EvictionPolicy (maxEntries, false); }
+
+    /**
+     * Creates a policy that holds all entities that are not dirty by soft references.
+     * @return a policy that holds entities by soft references
+     */
+    public static EvictionPolicy softReferences ()
+    { return new EvictionPolicy (0, true); }
+
+    /**
+     * Creates a policy that holds all entities that are not dirty by weak references.
+     * @return a policy that holds entities by weak references
+     */
+    public static EvictionPolicy weakReferences ()
+    { return new EvictionPolicy (0, false); }
+
+    /**
+     * Returns the maximal number of recently used entities held strongly.
+     * @return the maximal number of recently used entities held strongly
+     */
+    public int getMaxStrongEntries ()
+    { return maxStrongEntries; }
+
+    /**
+     * Whether this policy ever evicts an entity.
+     * @return whether this policy ever evicts an entity
+     */
+    public boolean isBounded ()
+    { return maxStrongEntries < Integer.MAX_VALUE; }
+
+    /**
+     * Creates the reference that holds an entity beyond the strongly held ones.
+     * @param entity the entity to reference
+     * @return a soft or weak reference to the entity
+     */
+    public <Entity> Reference<Entity> createReference (Entity entity)
+    {
+        if (soft) {
+            return new SoftReference<Entity> (entity);
+        }
+
+        return new WeakReference<Entity> (entity);
+    }
+}
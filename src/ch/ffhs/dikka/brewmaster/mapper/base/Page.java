@@ -0,0 +1,98 @@
+/* 
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.mapper.base;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import ch.ffhs.dikka.brewmaster.util.ReadOnlyIterator;
+
+/**
+ * A page of entities.
+ *
+ * E.g.
+ * @code
+ * Page<BrewingEvent> page = repository.events ().findFirstPage ("start", 50);
+ * show (page.getEntities ());
+ *
+ * while (page.hasNextPage ()) {
+ *     page = repository.events ().findNextPage (page.getNextPageKey (), 50);
+ *     show (page.getEntities ());
+ * }
+ * @endcode
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+public class Page<Entity>
+    implements Iterable<Entity>
+{
+    /** The entities of this page */
+    private ArrayList<Entity> entities;
+
+    /** The key of the next page or null if this is the last page */
+    private PageKey nextPageKey;
+
+    /**
+     * Constructs a new page.
+     * @param entities the entities of this page
+     * @param nextPageKey the key of the next page or null if this is the last page
+     */
+    public Page (ArrayList<Entity> entities, PageKey nextPageKey)
+    {
+        this.entities = entities;
+        this.nextPageKey = nextPageKey;
+    }
+
+    /**
+     * Returns the entities of this page.
+     * @return the entities of this page
+     */
+    public ArrayList<Entity> getEntities ()
+    { return new ArrayList<Entity> (entities); }
+
+    /**
+     * Returns the number of entities on this page.
+     * @return the number of entities on this page
+     */
+    public int size ()
+    { return entities.size (); }
+
+    /**
+     * Whether there is a page after this one.
+     * @return whether there is a page after this one
+     */
+    public boolean hasNextPage ()
+    { return nextPageKey != null; }
+
+    /**
+     * Returns the key of the next page.
+     * @return the key of the next page or null if this is the last page
+     */
+    public PageKey getNextPageKey ()
+    { return nextPageKey; }
+
+    /**
+     * Returns an iterator over the entities of this page.
+     * @return an iterator over the entities of this page
+     */
+    @Override
+    public Iterator<Entity> iterator ()
+    { return new ReadOnlyIterator<Entity> (entities.iterator ()); }
+}
@@ -0,0 +1,70 @@
+/* 
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.mapper.base;
+
+/**
+ * Marks where a page of entities ended.
+ *
+ * Holds the values of the sort column and the primary key of the last
+ * entity of a page. The next page continues right after these values, so
+ * it is found by an index seek instead of skipping all previous rows.
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+public class PageKey
+{
+    /** The name of the sort column or null if ordered by primary key */
+    private String sortColumn;
+
+    /** The values of the seek columns of the last entity */
+    private Object[] values;
+
+    /**
+     * Constructs a new page key.
+     * @param sortColumn the name of the sort column or null
+     * @param values the values of the sort column and the primary key columns
+     */
+    public PageKey (String sortColumn, Object[] values)
+    {
+        this.sortColumn = sortColumn;
+        this.values = values.clone ();
+    }
+
+    /**
+     * Returns the name of the sort column.
+     * @return the name of the sort column or null if ordered by primary key
+     */
+    public String getSortColumn ()
+    { return sortColumn; }
+
+    /**
+     * Whether the pages are ordered by a sort column.
+     * @return whether the pages are ordered by a sort column
+     */
+    public boolean hasSortColumn ()
+    { return sortColumn != null; }
+
+    /**
+     * Returns the values of the seek columns of the last entity.
+     * @return the values of the sort column followed by the primary key
+     */
+    public Object[] getValues ()
+    { return values.clone (); }
+}
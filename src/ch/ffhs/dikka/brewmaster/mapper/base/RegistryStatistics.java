@@ -0,0 +1,118 @@
+/*
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.mapper.base;
+
+/**
+ * A snapshot of the usage of an entity registry.
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+public class RegistryStatistics
+{
+    /** The number of registered entities */
+    private final int entries;
+
+    /** The number of strongly held entities */
+    private final int strongEntries;
+
+    /** The number of entities evicted from the strongly held ones */
+    private final long evictions;
+
+    /** The number of registered entities reclaimed by the garbage collector */
+    private final long collected;
+
+    /** The number of lookups served by the registry */
+    private final long hits;
+
+    /** The number of lookups not served by the registry */
+    private final long misses;
+
+    /**
+     * Constructs a new statistics snapshot.
+     * @param entries the number of registered entities
+     * @param strongEntries the number of strongly held entities
+     * @param evictions the number of entities evicted from the strongly held ones
+     * @param collected the number of entities reclaimed by the garbage collector
+     * @param hits the number of lookups served by the registry
+     * @param misses the number of lookups not served by the registry
+     */
+    public RegistryStatistics (
+            int entries, int strongEntries, long evictions, long collected, long hits, long misses)
+    {
+        this.entries = entries;
+        this.strongEntries = strongEntries;
+        this.evictions = evictions;
+        this.collected = collected;
+        this.hits = hits;
+        this.misses = misses;
+    }
+
+    /**
+     * Returns the number of registered entities.
+     * @return the number of registered entities
+     */
+    public int getEntries ()
+    { return entries; }
+
+    /**
+     * Returns the number of strongly held entities.
+     * @return the number of strongly held entities
+     */
+    public int getStrongEntries ()
+    { return strongEntries; }
+
+    /**
+     * Returns the number of entities evicted from the strongly held ones.
+     * @return the number of entities evicted from the strongly held ones
+     */
+    public long getEvictionCount ()
+    { return evictions; }
+
+    /**
+     * Returns the number of registered entities reclaimed by the garbage collector.
+     * @return the number of registered entities reclaimed by the garbage collector
+     */
+    public long getCollectedCount ()
+    { return collected; }
+
+    /**
+     * Returns the number of lookups served by the registry.
+     * @return the number of lookups served by the registry
+     */
+    public long getHitCount ()
+    { return hits; }
+
+    /**
+     * Returns the number of lookups not served by the registry.
+     * @return the number of lookups not served by the registry
+     */
+    public long getMissCount ()
+    { return misses; }
+
+    /**
+     * Returns the share of lookups served by the registry.
+     * @return the share of lookups served by the registry between 0 and 1
+     */
+    public double getHitRate ()
+    {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+}
@@ -0,0 +1,349 @@
+/* 
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.mapper.base;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the rows of entities shared by all repositories of a database.
+ *
+ * The registries of the mappers belong to one repository, so repositories
+ * on the same database would load the same rows twice. Mappers given a
+ * second level cache look up rows here before querying the database and
+ * add the rows they load. A cached row is an immutable copy of the column
+ * values of the entity table, keyed by the table name and the primary key,
+ * and is handed to the mappers as a read-only result set.
+ *
+ * The mappers evict the rows they write once the transaction is committed
+ * or rolled back. Every eviction increases the version of the table; rows
+ * loaded before are not added anymore, so a load racing a commit cannot
+ * bring back a stale row. Each table keeps its least recently used rows up
+ * to the configured capacity.
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+public class SecondLevelCache
+{
+    /** The default number of rows kept per table */
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    /** The caches shared within the process by the path of their database */
+    private static HashMap<String, SecondLevelCache> shared
+        = new HashMap<String, SecondLevelCache> ();
+
+    /** The cached rows of every table by its name */
+    private HashMap<String, Region> regions = new HashMap<String, Region> ();
+
+    /** The number of rows kept per table */
+    private int capacity;
+
+    /** Number of lookups served by a cached row */
+    private long hits = 0;
+
+    /** Number of lookups that found no cached row */
+    private long misses = 0;
+
+    /**
+     * Constructs a new cache keeping the default number of rows per table.
+     */
+    public SecondLevelCache ()
+    { this (DEFAULT_CAPACITY); }
+
+    /**
+     * Constructs a new cache.
+     * @param capacity the number of rows kept per table
+     */
+    public SecondLevelCache (int capacity)
+    { this.capacity = capacity < 1 ? 1 : capacity; }
+
+    /**
+     * Returns the cache shared within the process for the given database.
+     * @param path the path to the database
+     * @return the cache of the database
+     */
+    public static synchronized SecondLevelCache forDatabase (String path)
+    {
+        SecondLevelCache cache = shared.get (path);
+        if (cache == null) {
+            cache = new SecondLevelCache ();
+            shared.put (path, cache);
+        }
+
+        return cache;
+    }
+
+    /**
+     * Returns the cached row of the given key as a result set.
+     * @param table the name of the table
+     * @param key the primary key of the row
+     * @return the result set positioned on the row or null if not cached
+     */
+    public ResultSet get (String table, Object key)
+    {
+        Object[] values = getRegion (table).get (key);
+
+        synchronized (this) {
+            if (values == null) {
+                ++misses;
+                return null;
+            }
+            ++hits;
+        }
+
+        return (ResultSet) Proxy.newProxyInstance (
+                ResultSet.class.getClassLoader (),
+                new Class<?>[] { ResultSet.class },
+                new Row (values));
+    }
+
+    /**
+     * Returns the version of the given table to hand to put.
+     *
+     * Take it before querying the rows to add.
+     *
+     * @param table the name of the table
+     * @return the version of the table
+     */
+    public long getVersion (String table)
+    { return getRegion (table).getVersion (); }
+
+    /**
+     * Adds a copy of the current row of the given result set.
+     * @param table the name of the table
+     * @param key the primary key of the row
+     * @param result the result set positioned on the row
+     * @param columns the number of columns of the entity table
+     * @param version the version of the table taken before the query
+     * @throws SQLException if the result set cannot be read
+     */
+    public void put (String table, Object key, ResultSet result, int columns, long version)
+        throws SQLException
+    {
+        Object[] values = new Object[columns];
+        for (int i = 0; i < columns; ++i) {
+            values[i] = result.getObject (i + 1);
+        }
+
+        getRegion (table).put (key, values, version);
+    }
+
+    /**
+     * Evicts the rows of the given keys.
+     * @param table the name of the table
+     * @param keys the primary keys of the rows
+     */
+    public void evictAll (String table, Collection<?> keys)
+    { getRegion (table).evictAll (keys); }
+
+    /**
+     * Evicts all rows of the given table.
+     * @param table the name of the table
+     */
+    public void evictAll (String table)
+    { getRegion (table).clear (); }
+
+    /**
+     * Evicts all rows.
+     */
+    public synchronized void clear ()
+    {
+        for (Region region : regions.values ()) {
+            region.clear ();
+        }
+    }
+
+    /**
+     * Returns the number of lookups served by a cached row.
+     * @return the number of lookups served by a cached row
+     */
+    public synchronized long getHitCount ()
+    { return hits; }
+
+    /**
+     * Returns the number of lookups that found no cached row.
+     * @return the number of lookups that found no cached row
+     */
+    public synchronized long getMissCount ()
+    { return misses; }
+
+    /**
+     * Returns the cached rows of the given table.
+     * @param table the name of the table
+     * @return the cached rows of the table
+     */
+    private synchronized Region getRegion (String table)
+    {
+        Region region = regions.get (table);
+        if (region == null) {
+            region = new Region ();
+            regions.put (table, region);
+        }
+
+        return region;
+    }
+
+    /**
+     * The cached rows of one table.
+     */
+    private class Region
+    {
+        /** The rows by their key, the least recently used one first */
+        private LinkedHashMap<Object, Object[]> rows
+            = new LinkedHashMap<Object, Object[]> (16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry (Map.Entry<Object, Object[]> eldest)
+                { return size () > capacity; }
+            };
+
+        /** The number of evictions so far */
+        private long version = 0;
+
+        public synchronized Object[] get (Object key)
+        { return rows.get (key); }
+
+        public synchronized long getVersion ()
+        { return version; }
+
+        public synchronized void put (Object key, Object[] values, long loadedVersion)
+        {
+            if (loadedVersion == version) rows.put (key, values);
+        }
+
+        public synchronized void evictAll (Collection<?> keys)
+        {
+            ++version;
+            for (Object key : keys) {
+                rows.remove (key);
+            }
+        }
+
+        public synchronized void clear ()
+        {
+            ++version;
+            rows.clear ();
+        }
+    }
+
+    /**
+     * Serves the getters of a result set from a cached row.
+     *
+     * Only the getters by column index used to load entities are supported.
+     */
+    private static class Row
+        implements InvocationHandler
+    {
+        /** The column values of the row */
+        private Object[] values;
+
+        /** Whether the value read last was null */
+        private boolean wasNull = false;
+
+        /**
+         * Constructs a new row.
+         * @param values the column values of the row
+         */
+        public Row (Object[] values)
+        { this.values = values; }
+
+        @Override
+        public Object invoke (Object proxy, Method method, Object[] arguments)
+            throws SQLException
+        {
+            String name = method.getName ();
+
+            if (name.equals ("wasNull")) return wasNull;
+            if (name.equals ("next")) return Boolean.FALSE;
+            if (name.equals ("close")) return null;
+            if (name.equals ("isClosed")) return Boolean.FALSE;
+
+            if ( ! name.startsWith ("get") || arguments == null
+                    || arguments.length != 1 || ! (arguments[0] instanceof Integer)) {
+                throw new SQLException ("Not supported by a cached row: " + name);
+            }
+
+            int index = (Integer) arguments[0];
+            if (index < 1 || index > values.length) {
+                throw new SQLException ("No cached column with the index " + index);
+            }
+
+            Object value = values[index - 1];
+            wasNull = value == null;
+
+            return convert (value, method.getReturnType ());
+        }
+
+        /**
+         * Converts a column value like the driver does.
+         * @param value the column value
+         * @param type the type to convert the value to
+         * @return the converted value
+         */
+        private static Object convert (Object value, Class<?> type) throws SQLException
+        {
+            if (type == Object.class) return value;
+            if (type == String.class) return value == null ? null : value.toString ();
+
+            Number number = value == null ? 0
+                : value instanceof Number ? (Number) value
+                : parse (value.toString ());
+
+            if (type == int.class) return number.intValue ();
+            if (type == long.class) return number.longValue ();
+            if (type == double.class) return number.doubleValue ();
+            if (type == float.class) return number.floatValue ();
+            if (type == short.class) return number.shortValue ();
+            if (type == byte.class) return number.byteValue ();
+            if (type == boolean.class) return number.intValue () != 0;
+
+            if (value == null) return null;
+            if (type == java.sql.Date.class) return new java.sql.Date (number.longValue ());
+            if (type == java.sql.Time.class) return new java.sql.Time (number.longValue ());
+            if (type == java.sql.Timestamp.class) return new java.sql.Timestamp (number.longValue ());
+            if (type == byte[].class && value instanceof byte[]) return ((byte[]) value).clone ();
+
+            throw new SQLException ("Cannot read a cached column as " + type.getName ());
+        }
+
+        /**
+         * Parses a number stored as text.
+         * @param text the text of the number
+         * @return the number or zero if the text is not a number
+         */
+        private static Number parse (String text)
+        {
+            try {
+                return Double.valueOf (text.trim ());
+            }
+            catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+    }
+}
@@ -20,12 +20,14 @@ package ch.ffhs.dikka.brewmaster.mapper.base;
 
 import ch.ffhs.dikka.brewmaster.mapper.MapperException;
 
+import ch.ffhs.dikka.brewmaster.mapper.base.statement.Condition;
 import ch.ffhs.dikka.brewmaster.mapper.base.statement.Select;
 import ch.ffhs.dikka.brewmaster.mapper.base.statement.Insert;
 import ch.ffhs.dikka.brewmaster.mapper.base.statement.Update;
 import ch.ffhs.dikka.brewmaster.mapper.base.statement.Delete;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -49,6 +51,9 @@ abstract public class StatementBuilder
     protected HashMap<Table, ArrayList<EntityKey>> tableKeys
         = new HashMap<Table, ArrayList<EntityKey>> ();
 
+    /** All further conditions, joined by AND after the key columns */
+    protected ArrayList<String> conditions = new ArrayList<String> ();
+
     /** Whether key columns should be excluded from the statement. */
     private boolean excludeKeyColumns = false;
 
@@ -84,6 +89,23 @@ abstract public class StatementBuilder
     public static Delete delete (Table table) throws MapperException
     { return new Delete (table); }
 
+    /**
+     * Binds the given values to consecutive parameters, e.g. of an IN-list.
+     * @param statement the statement to bind the values to
+     * @param position the position of the first value
+     * @param values the values to bind
+     * @return the position following the last value
+     */
+    public static int bindAll (PreparedStatement statement, int position, Collection<?> values)
+        throws SQLException
+    {
+        for (Object value : values) {
+            statement.setObject (position++, value);
+        }
+
+        return position;
+    }
+
     /**
      * Sets the behaviour of excluding key columns within the statement.
      * @param exclude whether key columns should be excluded from the statement
@@ -148,6 +170,23 @@ abstract public class StatementBuilder
         return this;
     }
 
+    /**
+     * Adds a further condition.
+     *
+     * You may call this method more than once.
+     *
+     * @param condition the condition to add
+     * @return this StatementBuilder
+     */
+    protected StatementBuilder addCondition (Condition condition)
+    {
+        conditions.add (condition.isDisjunction ()
+                ? "(" + condition + ")"
+                : condition.toString ());
+
+        return this;
+    }
+
     /**
      * Returns a list of all key column names.
      * @return a list of all key column names
@@ -171,8 +210,8 @@ abstract public class StatementBuilder
     }
 
     /**
-     * Creates a where condition string containing all registered keys.
-     * @return a where condition string containing all registered keys
+     * Creates a where condition string containing all registered keys and conditions.
+     * @return a where condition string containing all registered keys and conditions
      */
     protected String createCondition ()
     {
@@ -204,6 +243,8 @@ abstract public class StatementBuilder
             }
         }
 
+        elements.addAll (conditions);
+
         if (elements.isEmpty ()) return "";
 
         return " WHERE " + implodeStringSequence (elements.iterator (), " AND ");
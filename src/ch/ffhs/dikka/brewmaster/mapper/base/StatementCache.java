@@ -0,0 +1,183 @@
+/*
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.mapper.base;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * Keeps prepared statements of one connection for reuse.
+ *
+ * Statements are identified by a key (usually the table name and the
+ * kind of statement) and handed out one at a time: while a cached statement
+ * is taken, the same key misses and the caller has to prepare its own
+ * statement which gets closed on release. Released statements get their
+ * parameters cleared so they can be taken again.
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+public class StatementCache
+{
+    /** The connection all cached statements belong to */
+    private Connection connection;
+
+    /** All cached statements */
+    private HashMap<String, PreparedStatement> statements
+        = new HashMap<String, PreparedStatement> ();
+
+    /** The cached statements that are currently taken */
+    private IdentityHashMap<PreparedStatement, String> taken
+        = new IdentityHashMap<PreparedStatement, String> ();
+
+    /** Whether this cache has been closed */
+    private boolean closed = false;
+
+    /** Number of requests served by a cached statement */
+    private long hits = 0;
+
+    /** Number of requests that needed a newly prepared statement */
+    private long misses = 0;
+
+    /**
+     * Constructs a new statement cache for the given connection.
+     * @param connection the connection all cached statements belong to
+     */
+    public StatementCache (Connection connection)
+    { this.connection = connection; }
+
+    /**
+     * Returns the connection all cached statements belong to.
+     * @return the connection all cached statements belong to
+     */
+    public Connection getConnection ()
+    { return connection; }
+
+    /**
+     * Takes the cached statement of the given key.
+     * @param key the key of the statement
+     * @return the cached statement or null if none is available
+     */
+    public PreparedStatement take (String key)
+    {
+        PreparedStatement statement = closed ? null : statements.get (key);
+
+        if (statement == null || taken.containsKey (statement)) {
+            ++misses;
+            return null;
+        }
+
+        taken.put (statement, key);
+        ++hits;
+
+        return statement;
+    }
+
+    /**
+     * Adds a newly prepared statement that is taken by the caller.
+     *
+     * If a statement is already cached for the given key, the given statement
+     * is not kept and will be closed on release.
+     *
+     * @param key the key of the statement
+     * @param statement the newly prepared statement
+     * @return this cache
+     */
+    public StatementCache put (String key, PreparedStatement statement)
+    {
+        if ( ! closed && ! statements.containsKey (key)) {
+            statements.put (key, statement);
+            taken.put (statement, key);
+        }
+
+        return this;
+    }
+
+    /**
+     * Gives a statement back.
+     *
+     * Cached statements are kept with cleared parameters, any other statement
+     * is closed.
+     *
+     * @param statement the statement to give back
+     * @throws SQLException if the statement cannot be reset or closed
+     */
+    public void release (PreparedStatement statement) throws SQLException
+    {
+        if (taken.remove (statement) != null) {
+            statement.clearParameters ();
+        }
+        else {
+            statement.close ();
+        }
+    }
+
+    /**
+     * Closes all cached statements.
+     *
+     * Statements that are taken at that moment are closed on release.
+     */
+    public void close ()
+    {
+        for (PreparedStatement statement : statements.values ()) {
+            try {
+                if ( ! taken.containsKey (statement)) {
+                    statement.close ();
+                }
+            }
+            catch (SQLException e) {}
+        }
+
+        statements.clear ();
+        taken.clear ();
+        closed = true;
+    }
+
+    /**
+     * Whether this cache has been closed.
+     * @return whether this cache has been closed
+     */
+    public boolean isClosed ()
+    { return closed; }
+
+    /**
+     * Returns the number of cached statements.
+     * @return the number of cached statements
+     */
+    public int size ()
+    { return statements.size (); }
+
+    /**
+     * Returns the number of requests served by a cached statement.
+     * @return the number of requests served by a cached statement
+     */
+    public long getHitCount ()
+    { return hits; }
+
+    /**
+     * Returns the number of requests that needed a newly prepared statement.
+     * @return the number of requests that needed a newly prepared statement
+     */
+    public long getMissCount ()
+    { return misses; }
+}
@@ -158,10 +158,16 @@ public class Table
 
     /**
      * Returns whether the name of this table equals the other tables name.
+     * @param object the other table to compare with
      * @return true if the name of this table equals the other tables name
      */
-    public boolean equals (Table other)
+    @Override
+    public boolean equals (Object object)
     {
+        if (this == object) return true;
+        if ( ! (object instanceof Table)) return false;
+
+        Table other = (Table) object;
         if ( ! name.equals (other.name)) return false;
         if ( ! columns.equals (other.columns)) return false;
 
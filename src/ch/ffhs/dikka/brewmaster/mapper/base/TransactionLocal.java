@@ -0,0 +1,70 @@
+/* 
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.mapper.base;
+
+import java.sql.Connection;
+
+import java.util.IdentityHashMap;
+
+/**
+ * Holds a value for every transaction, like a ThreadLocal for every thread.
+ *
+ * The transaction is told by the connection the current thread writes to,
+ * so all threads writing on the same connection share the value. Like the
+ * connection itself, they must not use it at the same time.
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+abstract public class TransactionLocal<T>
+{
+    /** The value of every transaction by its connection */
+    private IdentityHashMap<Connection, T> values = new IdentityHashMap<Connection, T> ();
+
+    /**
+     * Returns the value of the current transaction, created on first use.
+     * @return the value of the current transaction
+     */
+    public T get ()
+    {
+        Connection connection = getConnection ();
+
+        synchronized (values) {
+            T value = values.get (connection);
+            if (value == null) {
+                value = initialValue ();
+                values.put (connection, value);
+            }
+
+            return value;
+        }
+    }
+
+    /**
+     * Creates the value of a transaction.
+     * @return the initial value
+     */
+    abstract protected T initialValue ();
+
+    /**
+     * Returns the connection the current thread writes to.
+     * @return the connection of the current transaction or null if there is none
+     */
+    abstract protected Connection getConnection ();
+}
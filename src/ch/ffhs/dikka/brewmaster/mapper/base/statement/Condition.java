@@ -0,0 +1,223 @@
+/* 
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.mapper.base.statement;
+
+import ch.ffhs.dikka.brewmaster.mapper.MapperException;
+import ch.ffhs.dikka.brewmaster.mapper.base.Table;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A condition of a where clause with placeholders for its values.
+ *
+ * Columns are always qualified by their table, so conditions may refer to
+ * the tables of an enclosing statement as well (see exists). Conditions are
+ * immutable, combining them creates new ones.
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+public class Condition
+{
+    /** The operators a column may be compared with */
+    private static final List<String> OPERATORS
+        = Arrays.asList ("=", "<>", "<", "<=", ">", ">=", "LIKE");
+
+    /** The sql of the condition */
+    private final String sql;
+
+    /** Whether the condition consists of more than one part */
+    private final boolean composite;
+
+    /** Whether the condition is an alternative of parts */
+    private final boolean disjunction;
+
+    /**
+     * Constructs a new condition.
+     * @param sql the sql of the condition
+     * @param composite whether the condition consists of more than one part
+     * @param disjunction whether the condition is an alternative of parts
+     */
+    private Condition (String sql, boolean composite, boolean disjunction)
+    {
+        this.sql = sql;
+        this.composite = composite;
+        this.disjunction = disjunction;
+    }
+
+    /**
+     * Compares a column with a value.
+     * @param table the table of the column
+     * @param column the name of the column
+     * @param operator one of =, &lt;&gt;, &lt;, &lt;=, &gt;, &gt;= and LIKE
+     * @return the condition with one placeholder
+     * @throws MapperException if the operator is not supported
+     */
+    public static Condition compare (Table table, String column, String operator)
+        throws MapperException
+    {
+        if ( ! OPERATORS.contains (operator)) {
+            throw new MapperException ("Cannot compare a column with " + operator);
+        }
+
+        return simple (qualify (table, column) + " " + operator + " ?");
+    }
+
+    /**
+     * Checks a column to be within a range, including its begin but not its end.
+     * @param table the table of the column
+     * @param column the name of the column
+     * @return the condition with placeholders for the begin and the end
+     */
+    public static Condition range (Table table, String column)
+    {
+        String name = qualify (table, column);
+
+        return new Condition (name + " >= ? AND " + name + " < ?", true, false);
+    }
+
+    /**
+     * Checks a column to be one of the given number of values.
+     * @param table the table of the column
+     * @param column the name of the column
+     * @param count the number of values
+     * @return the condition with a placeholder for every value
+     * @throws MapperException if there are no values
+     */
+    public static Condition in (Table table, String column, int count)
+        throws MapperException
+    {
+        if (count < 1) {
+            throw new MapperException ("Cannot check a column against no values.");
+        }
+
+        StringBuilder placeholders = new StringBuilder ("?");
+        for (int i = 1; i < count; ++i) {
+            placeholders.append (", ?");
+        }
+
+        return simple (qualify (table, column) + " IN (" + placeholders + ")");
+    }
+
+    /**
+     * Checks a column to be null.
+     * @param table the table of the column
+     * @param column the name of the column
+     * @return the condition
+     */
+    public static Condition isNull (Table table, String column)
+    { return simple (qualify (table, column) + " IS NULL"); }
+
+    /**
+     * Checks a column not to be null.
+     * @param table the table of the column
+     * @param column the name of the column
+     * @return the condition
+     */
+    public static Condition isNotNull (Table table, String column)
+    { return simple (qualify (table, column) + " IS NOT NULL"); }
+
+    /**
+     * Checks a column to equal another one, e.g. to relate a subquery.
+     * @param table the table of the column
+     * @param column the name of the column
+     * @param otherTable the table of the other column
+     * @param otherColumn the name of the other column
+     * @return the condition
+     */
+    public static Condition sameAs (Table table, String column, Table otherTable, String otherColumn)
+    { return simple (qualify (table, column) + " = " + qualify (otherTable, otherColumn)); }
+
+    /**
+     * Checks the given subquery to find a row.
+     * @param subquery the subquery, its columns are ignored
+     * @return the condition with the placeholders of the subquery
+     */
+    public static Condition exists (Select subquery)
+    { return simple ("EXISTS (" + subquery.toExistsString () + ")"); }
+
+    /**
+     * Checks the given subquery not to find any row.
+     * @param subquery the subquery, its columns are ignored
+     * @return the condition with the placeholders of the subquery
+     */
+    public static Condition notExists (Select subquery)
+    { return simple ("NOT EXISTS (" + subquery.toExistsString () + ")"); }
+
+    /**
+     * Creates the condition that this and the given condition hold.
+     * @param other the other condition
+     * @return the combined condition, the placeholders of this one first
+     */
+    public Condition and (Condition other)
+    {
+        return new Condition (
+                (disjunction ? "(" + sql + ")" : sql)
+                + " AND "
+                + (other.disjunction ? "(" + other.sql + ")" : other.sql),
+                true, false);
+    }
+
+    /**
+     * Creates the condition that this or the given condition holds.
+     * @param other the other condition
+     * @return the combined condition, the placeholders of this one first
+     */
+    public Condition or (Condition other)
+    {
+        return new Condition (
+                (composite && ! disjunction ? "(" + sql + ")" : sql)
+                + " OR "
+                + (other.composite && ! other.disjunction ? "(" + other.sql + ")" : other.sql),
+                true, true);
+    }
+
+    /**
+     * Whether the condition is an alternative of parts.
+     * @return whether the condition has to be enclosed to be combined by AND
+     */
+    public boolean isDisjunction ()
+    { return disjunction; }
+
+    /**
+     * Returns the sql of the condition.
+     * @return the sql of the condition
+     */
+    @Override
+    public String toString ()
+    { return sql; }
+
+    /**
+     * Creates a condition of one part.
+     * @param sql the sql of the condition
+     * @return the condition
+     */
+    private static Condition simple (String sql)
+    { return new Condition (sql, false, false); }
+
+    /**
+     * Qualifies the given column by its table.
+     * @param table the table of the column
+     * @param column the name of the column
+     * @return the qualified name of the column
+     */
+    private static String qualify (Table table, String column)
+    { return table.getName () + "." + column; }
+}
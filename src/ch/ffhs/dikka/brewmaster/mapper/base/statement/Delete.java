@@ -58,6 +58,17 @@ public class Delete
         return this;
     }
 
+    /**
+     * Adds a condition.
+     * @param condition the condition
+     * @return this delete statement
+     */
+    public Delete where (Condition condition)
+    {
+        addCondition (condition);
+        return this;
+    }
+
     /**
      * Creates a delete statement sql string that represents this statement.
      * @return an delete statement sql string that represents this statement
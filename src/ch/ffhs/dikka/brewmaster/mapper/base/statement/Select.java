@@ -28,6 +28,15 @@ import java.util.ArrayList;
 public class Select
     extends StatementBuilder
 {
+    /** The columns to order by with their direction */
+    private ArrayList<String> order = new ArrayList<String> ();
+
+    /** Whether the number of rows is limited by a parameter */
+    private boolean limited = false;
+
+    /** Whether the first rows are skipped by a parameter */
+    private boolean offset = false;
+
     /**
      * Adds a table to select from.
      *
@@ -67,6 +76,74 @@ public class Select
         return this;
     }
 
+    /**
+     * Adds a condition.
+     * @param condition the condition
+     * @return this select statement
+     */
+    public Select where (Condition condition)
+    {
+        addCondition (condition);
+        return this;
+    }
+
+    /**
+     * Orders the rows ascending by the given column.
+     *
+     * You may call this method more than once.
+     *
+     * @param column the name of the column
+     * @param table the according table
+     * @return this select statement
+     */
+    public Select orderBy (String column, Table table)
+    { return orderBy (column, table, true); }
+
+    /**
+     * Orders the rows by the given column.
+     *
+     * You may call this method more than once.
+     *
+     * @param column the name of the column
+     * @param table the according table
+     * @param ascending whether the rows are ordered ascending
+     * @return this select statement
+     */
+    public Select orderBy (String column, Table table, boolean ascending)
+    {
+        order.add (table.getName () + "." + column + (ascending ? " ASC" : " DESC"));
+        return this;
+    }
+
+    /**
+     * Limits the number of rows by a parameter following all conditions.
+     * @return this select statement
+     */
+    public Select limit ()
+    {
+        limited = true;
+        return this;
+    }
+
+    /**
+     * Skips the first rows by a parameter following the limit.
+     * @return this select statement
+     */
+    public Select offset ()
+    {
+        offset = true;
+        return this;
+    }
+
+    /**
+     * Creates the sql string of this statement within an EXISTS condition.
+     * @return the sql string selecting a constant instead of the columns
+     */
+    String toExistsString ()
+    {
+        return "SELECT 1 FROM " + createTableStringSequence () + createCondition ();
+    }
+
     /**
      * Creates a select statement sql string that represents this statement.
      * @return a select statement sql string that represents this statement
@@ -84,6 +161,23 @@ public class Select
             .append (createTableStringSequence ())
             .append (createCondition ());
 
+        if ( ! order.isEmpty ()) {
+            selectSql
+                .append (" ORDER BY ")
+                .append (implodeStringSequence (order.iterator (), ", "));
+        }
+
+        if (limited) {
+            selectSql.append (" LIMIT ?");
+        }
+        else if (offset) {
+            selectSql.append (" LIMIT -1");
+        }
+
+        if (offset) {
+            selectSql.append (" OFFSET ?");
+        }
+
         return selectSql.toString ();
     }
 }
@@ -0,0 +1,148 @@
+/* 
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.mapper.migration;
+
+import ch.ffhs.dikka.brewmaster.mapper.MapperException;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * One step of the database schema.
+ *
+ * A migration executes the sql statements of its resource files, separated
+ * by semicolons. Lines starting with two dashes are comments.
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+public class Migration
+{
+    /** The schema version reached by this migration */
+    private int version;
+
+    /** What this migration does */
+    private String description;
+
+    /** The paths of the sql resource files */
+    private String[] resources;
+
+    /**
+     * Constructs a new migration.
+     * @param version the schema version reached by this migration, at least 1
+     * @param description what this migration does
+     * @param resources the paths of the sql resource files to execute in order
+     */
+    public Migration (int version, String description, String... resources)
+    {
+        this.version = version;
+        this.description = description;
+        this.resources = resources.clone ();
+    }
+
+    /**
+     * Returns the schema version reached by this migration.
+     * @return the schema version reached by this migration
+     */
+    public int getVersion ()
+    { return version; }
+
+    /**
+     * Returns what this migration does.
+     * @return what this migration does
+     */
+    public String getDescription ()
+    { return description; }
+
+    /**
+     * Executes this migration on the given connection.
+     *
+     * Committing is up to the caller.
+     *
+     * @param connection the connection to the database to migrate
+     */
+    public void apply (Connection connection) throws MapperException
+    {
+        for (String resource : resources) {
+            String content = readResource (resource);
+
+            try {
+                Statement statement = connection.createStatement ();
+                try {
+                    for (String command : content.split (";")) {
+                        if ( ! command.trim ().isEmpty ()) {
+                            statement.execute (command);
+                        }
+                    }
+                }
+                finally {
+                    statement.close ();
+                }
+            }
+            catch (SQLException e) {
+                throw new MapperException (
+                        "Cannot migrate to version " + version + " with '" + resource + "'.", e);
+            }
+        }
+    }
+
+    /**
+     * Reads the given resource file without its comments.
+     * @param path the path to the resource file
+     * @return the content of the resource file
+     */
+    private String readResource (String path) throws MapperException
+    {
+        InputStream stream = getClass ().getResourceAsStream ("/" + path.trim ());
+        if (stream == null) {
+            throw new MapperException (
+                    "Cannot open the requested resource file '" + path + "'");
+        }
+
+        StringBuilder builder = new StringBuilder ();
+        try {
+            BufferedReader reader = new BufferedReader (
+                    new InputStreamReader (stream, "UTF-8"));
+
+            String line;
+            while ((line = reader.readLine ()) != null) {
+                if (line.trim ().startsWith ("--")) continue;
+                builder.append (line).append ('\n');
+            }
+        }
+        catch (IOException e) {
+            throw new MapperException (
+                    "Cannot read the resource file '" + path + "'.", e);
+        }
+        finally {
+            try {
+                stream.close ();
+            }
+            catch (IOException e) {}
+        }
+
+        return builder.toString ();
+    }
+}
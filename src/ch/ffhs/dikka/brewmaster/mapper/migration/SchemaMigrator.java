@@ -0,0 +1,223 @@
+/* 
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.mapper.migration;
+
+import ch.ffhs.dikka.brewmaster.mapper.MapperException;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.ArrayList;
+
+/**
+ * Brings a database to the latest version of the schema.
+ *
+ * The version of a database is kept within its user_version. Every pending
+ * migration is applied within a transaction of its own together with the
+ * new version, so a failing migration leaves the database at the version
+ * before. Databases created before versioning have a schema but no version,
+ * they are taken as being at the first version.
+ * After migrating, the database gets analyzed so the query planner knows
+ * about the new indexes.
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+public class SchemaMigrator
+{
+    /** A table every versioned schema has */
+    private static final String BASELINE_TABLE = "journal";
+
+    /** The connection to the database to migrate */
+    private Connection connection;
+
+    /** All migrations ordered by version */
+    private ArrayList<Migration> migrations = new ArrayList<Migration> ();
+
+    /**
+     * Constructs a migrator with all migrations of the application.
+     * @param connection the connection to the database to migrate
+     */
+    public SchemaMigrator (Connection connection) throws MapperException
+    {
+        this.connection = connection;
+
+        addMigration (new Migration (
+                    1, "Creates the tables and imports the master data",
+                    "resources/db-schema.sql", "resources/master-data.sql"));
+        addMigration (new Migration (
+                    2, "Indexes the columns of the hydration and calendar queries",
+                    "resources/migrations/002-indexes.sql"));
+    }
+
+    /**
+     * Adds a migration.
+     * @param migration the migration to add
+     * @return this migrator
+     * @throws MapperException if the version of the migration does not follow the last one
+     */
+    public SchemaMigrator addMigration (Migration migration) throws MapperException
+    {
+        if (migration.getVersion () != getLatestVersion () + 1) {
+            throw new MapperException (
+                    "The migration to version " + migration.getVersion ()
+                    + " does not follow version " + getLatestVersion () + ".");
+        }
+        migrations.add (migration);
+
+        return this;
+    }
+
+    /**
+     * Returns the version reached by the last migration.
+     * @return the version reached by the last migration
+     */
+    public int getLatestVersion ()
+    { return migrations.size (); }
+
+    /**
+     * Returns the schema version of the database.
+     * @return the schema version of the database, 0 for an empty database
+     */
+    public int getVersion () throws MapperException
+    {
+        try {
+            Statement statement = connection.createStatement ();
+            try {
+                ResultSet result = statement.executeQuery ("PRAGMA user_version");
+                int version = result.next () ? result.getInt (1) : 0;
+                result.close ();
+
+                if (version == 0 && hasTable (BASELINE_TABLE)) {
+                    version = 1;
+                }
+
+                return version;
+            }
+            finally {
+                statement.close ();
+            }
+        }
+        catch (SQLException e) {
+            throw new MapperException ("Cannot read the schema version.", e);
+        }
+    }
+
+    /**
+     * Applies all pending migrations and analyzes the database afterwards.
+     * @return the number of applied migrations
+     * @throws MapperException if a migration fails or the database is newer than the application
+     */
+    public int migrate () throws MapperException
+    {
+        int version = getVersion ();
+
+        if (version > getLatestVersion ()) {
+            throw new MapperException (
+                    "The database has the unknown schema version " + version + ".");
+        }
+
+        int applied = 0;
+        try {
+            boolean autoCommit = connection.getAutoCommit ();
+            connection.setAutoCommit (false);
+
+            try {
+                for (Migration migration : migrations) {
+                    if (migration.getVersion () <= version) continue;
+
+                    apply (migration);
+                    ++applied;
+                }
+
+                if (applied > 0) {
+                    execute ("ANALYZE");
+                    connection.commit ();
+                }
+            }
+            finally {
+                connection.setAutoCommit (autoCommit);
+            }
+        }
+        catch (SQLException e) {
+            throw new MapperException ("Cannot migrate the database.", e);
+        }
+
+        return applied;
+    }
+
+    /**
+     * Applies the given migration and its version within one transaction.
+     * @param migration the migration to apply
+     */
+    private void apply (Migration migration) throws SQLException, MapperException
+    {
+        try {
+            migration.apply (connection);
+            execute ("PRAGMA user_version = " + migration.getVersion ());
+            connection.commit ();
+        }
+        catch (SQLException e) {
+            connection.rollback ();
+            throw e;
+        }
+        catch (MapperException e) {
+            connection.rollback ();
+            throw e;
+        }
+    }
+
+    /**
+     * Whether the database has a table of the given name.
+     * @param name the name of the table
+     * @return whether the database has a table of the given name
+     */
+    private boolean hasTable (String name) throws SQLException
+    {
+        PreparedStatement statement = connection.prepareStatement (
+                "SELECT count(*) FROM sqlite_master WHERE type = 'table' AND name = ?");
+        try {
+            statement.setString (1, name);
+            ResultSet result = statement.executeQuery ();
+
+            return result.next () && result.getInt (1) > 0;
+        }
+        finally {
+            statement.close ();
+        }
+    }
+
+    /**
+     * Executes the given sql command.
+     * @param sql the sql command to execute
+     */
+    private void execute (String sql) throws SQLException
+    {
+        Statement statement = connection.createStatement ();
+        try {
+            statement.execute (sql);
+        }
+        finally {
+            statement.close ();
+        }
+    }
+}
@@ -22,10 +22,13 @@ package ch.ffhs.dikka.brewmaster.ui.barrel;
 import ch.ffhs.dikka.brewmaster.Application;
 import ch.ffhs.dikka.brewmaster.core.Barrel;
 import ch.ffhs.dikka.brewmaster.core.BarrelType;
+import ch.ffhs.dikka.brewmaster.mapper.AsyncRepository;
 import ch.ffhs.dikka.brewmaster.mapper.BarrelTypeMapper;
 import ch.ffhs.dikka.brewmaster.mapper.MapperException;
+import ch.ffhs.dikka.brewmaster.mapper.Repository;
 import ch.ffhs.dikka.brewmaster.ui.common.AbstractFormLogic;
 import java.util.ArrayList;
+import java.util.function.BiConsumer;
 
 /**
  * This class represent the logic of a barrel form.
@@ -43,15 +46,34 @@ public class BarrelLogic extends AbstractFormLogic<Barrel>{
      *
      * @param app the application for access to the repository
      */
-    public BarrelLogic(Application app, Barrel obj) {
+    public BarrelLogic(Application app, final Barrel obj) {
         super(app);
-        try {
-            barrelTypeMapper = app.getRepository().barrelTypes();
-            allBarrelTypes = barrelTypeMapper.findAll();
-        } catch (MapperException ex) {
-            System.out.println(ex);
-        }
+        barrelTypeMapper = app.getRepository().barrelTypes();
+
+        app.getAsyncRepository().query(new AsyncRepository.Query<ArrayList<BarrelType>>() {
+            @Override
+            public ArrayList<BarrelType> execute(Repository repository) throws MapperException {
+                return barrelTypeMapper.findAll();
+            }
+        }).whenComplete(new BiConsumer<ArrayList<BarrelType>, Throwable>() {
+            @Override
+            public void accept(ArrayList<BarrelType> barrelTypes, Throwable ex) {
+                if (ex != null) {
+                    reportError("loading the barrel types", ex);
+                    return;
+                }
+                allBarrelTypes = barrelTypes;
+                showView(obj);
+            }
+        });
+    }
 
+    /**
+     * Creates and shows the view of the barrel.
+     *
+     * @param obj the barrel to show
+     */
+    private void showView(Barrel obj) {
         //create view
         BarrelView view = new BarrelView(obj, allBarrelTypes);
         //register logic on view
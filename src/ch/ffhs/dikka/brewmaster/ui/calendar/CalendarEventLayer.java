@@ -0,0 +1,259 @@
+/* 
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.ui.calendar;
+
+import ch.ffhs.dikka.brewmaster.core.BrewCalendar;
+import ch.ffhs.dikka.brewmaster.core.BrewingEvent;
+import ch.ffhs.dikka.brewmaster.ui.common.Interactable;
+import ch.ffhs.dikka.brewmaster.ui.common.ViewChange;
+import ch.ffhs.dikka.brewmaster.ui.common.ViewObserver;
+
+import java.util.ArrayList;
+
+import java.awt.Cursor;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.geom.RoundRectangle2D;
+
+import javax.swing.JComponent;
+import javax.swing.JMenuItem;
+import javax.swing.JPopupMenu;
+
+/**
+ * Draws all events of a calendar panel within a single component.
+ *
+ * Only the events within the clip get painted, clicks and popups are
+ * resolved by the grid of the calendar layout. The observers are notified
+ * like by an event box.
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+public class CalendarEventLayer
+    extends JComponent
+    implements Interactable
+{
+    public static final long serialVersionUID = 1L;
+
+    /** The cursor to indicate an event */
+    private static final Cursor eventCursor = new Cursor (Cursor.HAND_CURSOR);
+
+    /** The displayed calendar */
+    private BrewCalendar calendar;
+
+    /** The layout locating the events */
+    private CalendarLayout layout;
+
+    /** All view Observers */
+    private ArrayList<ViewObserver> viewObservers = new ArrayList<ViewObserver> ();
+
+    /** The popup menu for an event */
+    private JPopupMenu popupMenu;
+
+    /** The index of the event the popup menu has been opened for */
+    private int popupIndex = -1;
+
+    /** The shape reused for every painted event */
+    private RoundRectangle2D.Double shape = new RoundRectangle2D.Double ();
+
+    /** The clip reused for every painting */
+    private Rectangle clip = new Rectangle ();
+
+    /** The indexes of the events to paint */
+    private int[] visible = new int[0];
+
+    /**
+     * Resolves the clicked event and notifies about its selection or opens the popup menu.
+     */
+    private MouseAdapter mouseListener = new MouseAdapter ()
+    {
+        @Override
+        public void mousePressed (MouseEvent e)
+        {
+            int index = layout.findEventAt (e.getX (), e.getY ());
+            if (index < 0) return;
+
+            // doubleclick
+            if (e.getClickCount () > 1) {
+                notifyEventChange (index, CalendarChangeType.EVENT_SELECTED);
+            }
+            else {
+                attemptPopupMenu (e, index);
+            }
+        }
+
+        @Override
+        public void mouseReleased (MouseEvent e)
+        {
+            int index = layout.findEventAt (e.getX (), e.getY ());
+            if (index >= 0) {
+                attemptPopupMenu (e, index);
+            }
+        }
+
+        @Override
+        public void mouseMoved (MouseEvent e)
+        {
+            boolean onEvent = layout.findEventAt (e.getX (), e.getY ()) >= 0;
+            setCursor (onEvent ? eventCursor : null);
+        }
+    };
+
+    /**
+     * Constructs a new layer.
+     * @param calendar the displayed calendar
+     * @param layout the layout locating the events
+     */
+    public CalendarEventLayer (BrewCalendar calendar, CalendarLayout layout)
+    {
+        super ();
+        this.calendar = calendar;
+        this.layout = layout;
+        popupMenu = createPopupMenu ();
+
+        setOpaque (false);
+        addMouseListener (mouseListener);
+        addMouseMotionListener (mouseListener);
+    }
+
+    /**
+     * Paints the events within the clip.
+     * @param g the graphics to paint on
+     */
+    @Override
+    public void paintComponent (Graphics g)
+    {
+        super.paintComponent (g);
+
+        if (visible.length < calendar.size ()) {
+            visible = new int[calendar.size ()];
+        }
+
+        g.getClipBounds (clip);
+        if (clip.isEmpty ()) {
+            clip.setBounds (0, 0, getWidth (), getHeight ());
+        }
+
+        Graphics2D g2 = (Graphics2D) g;
+        int count = layout.findEventsIn (clip.x, clip.y, clip.width, clip.height, visible);
+
+        for (int i = 0; i < count; ++i) {
+            CalendarViewLocation location = layout.getLocation (visible[i]);
+            int x = location.getX ();
+            int y = location.getY () + EventBox.MARGIN;
+
+            g2.translate (x, y);
+            EventBox.paintEvent (g2, shape, calendar.eventAtIndex (visible[i]),
+                    location.getDimension ().width,
+                    location.getDimension ().height - 2 * EventBox.MARGIN);
+            g2.translate (-x, -y);
+        }
+    }
+
+    /**
+     * Add an observer.
+     * @param observer the observer to add
+     */
+    @Override
+    public void addObserver (ViewObserver observer)
+    { viewObservers.add (observer); }
+
+    /**
+     * Remove the given observer.
+     * @param observer the observer to remove
+     */
+    @Override
+    public void removeObserver (ViewObserver observer)
+    { viewObservers.remove (observer); }
+
+    @Override
+    public JComponent getViewableComponent ()
+    { return this; }
+
+    /**
+     * Opens the popup menu for the given event if a popup menu was desired.
+     * @param e the triggering mouse event
+     * @param index the index of the event under the mouse
+     */
+    protected void attemptPopupMenu (MouseEvent e, int index)
+    {
+        if (e.isPopupTrigger ()) {
+            popupIndex = index;
+            popupMenu.show (e.getComponent (), e.getX (), e.getY ());
+        }
+    }
+
+    /**
+     * Notifies the observers about the change of the event at the given index.
+     * @param index the index of the event
+     * @param type the type of the change
+     * @return this layer
+     */
+    protected CalendarEventLayer notifyEventChange (int index, CalendarChangeType type)
+    {
+        if (index < 0 || index >= calendar.size ()) return this;
+
+        ViewChange change = new ViewChange (index, index);
+        change.setExtra (type.ordinal ());
+        change.setSource (calendar.eventAtIndex (index));
+
+        for (ViewObserver o : viewObservers) {
+            if (type == CalendarChangeType.EVENT_DELETED) {
+                o.contentDropped (change);
+            }
+            else {
+                o.selectionChanged (change);
+            }
+        }
+
+        return this;
+    }
+
+    /**
+     * Creates the popup menu for the events.
+     * @return the popup menu for the events
+     */
+    protected JPopupMenu createPopupMenu ()
+    {
+        JPopupMenu menu = new JPopupMenu ("Event");
+
+        JMenuItem item = new JMenuItem ("Bearbeiten");
+        item.addActionListener (new ActionListener ()
+        {
+            public void actionPerformed (ActionEvent e)
+            { notifyEventChange (popupIndex, CalendarChangeType.EVENT_SELECTED); }
+        });
+        menu.add (item);
+
+        item = new JMenuItem ("Löschen");
+        item.addActionListener (new ActionListener ()
+        {
+            public void actionPerformed (ActionEvent e)
+            { notifyEventChange (popupIndex, CalendarChangeType.EVENT_DELETED); }
+        });
+        menu.add (item);
+
+        return menu;
+    }
+}
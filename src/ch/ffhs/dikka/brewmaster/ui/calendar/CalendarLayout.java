@@ -0,0 +1,361 @@
+/* 
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.ui.calendar;
+
+import ch.ffhs.dikka.brewmaster.core.BrewCalendar;
+import ch.ffhs.dikka.brewmaster.core.BrewingEvent;
+
+import java.awt.Component;
+import java.awt.Container;
+import java.awt.Dimension;
+import java.awt.LayoutManager;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+
+/**
+ * Lays out the event boxes of a calendar panel.
+ *
+ * The location of every event is computed once after the events, the range
+ * or the size of the panel have changed and kept until the next change,
+ * so painting and locating an event are plain lookups. Events share rows
+ * as long as they do not overlap in time, see EventLanes.
+ * The boxes of the events are indexed by a grid of square cells: finding
+ * the events at a point or within an area only tests the events of the
+ * cells touched.
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+public class CalendarLayout
+    implements LayoutManager
+{
+    /** The width and height of a cell of the grid */
+    private static final int CELL_SIZE = 64;
+
+    /** The laid out calendar */
+    private BrewCalendar calendar;
+
+    /** The panel displaying the calendar */
+    private CalendarPanel panel;
+
+    /** The lanes the events are displayed in */
+    private EventLanes lanes;
+
+    /** The location of the event at each index of the calendar */
+    private ArrayList<CalendarViewLocation> locations = new ArrayList<CalendarViewLocation> ();
+
+    /** The box of the event at each index: x, y, width and height */
+    private int[] boxes = new int[0];
+
+    /** The number of columns of the grid */
+    private int columns = 0;
+
+    /** The number of rows of the grid */
+    private int rows = 0;
+
+    /** The position of the first event index of each cell within cellEvents */
+    private int[] cellStarts = new int[1];
+
+    /** The event indexes of all cells one after the other */
+    private int[] cellEvents = new int[0];
+
+    /** The search each event has been found by last, to report it once per search */
+    private int[] searchMarks = new int[0];
+
+    /** The number of searches so far */
+    private int searches = 0;
+
+    /** Whether the events or the range have changed since the last computation */
+    private boolean dirty = true;
+
+    /** Whether the boxes have been placed at the computed locations */
+    private boolean applied = false;
+
+    /** The width of the panel at the last computation */
+    private int computedWidth = -1;
+
+    /** The height of the panel at the last computation */
+    private int computedHeight = -1;
+
+    /**
+     * Constructs a new layout.
+     * @param calendar the laid out calendar
+     * @param panel the panel displaying the calendar
+     */
+    public CalendarLayout (BrewCalendar calendar, CalendarPanel panel)
+    {
+        this.calendar = calendar;
+        this.panel = panel;
+        lanes = new EventLanes (calendar);
+    }
+
+    /**
+     * Returns the lanes the events are displayed in.
+     * @return the lanes the events are displayed in
+     */
+    public EventLanes getLanes ()
+    { return lanes; }
+
+    /**
+     * Marks the locations to be computed again, as the events or the range have changed.
+     */
+    public void invalidate ()
+    { dirty = true; }
+
+    /**
+     * Returns the location of the event at the given index of the calendar.
+     * @param index the index of the event
+     * @return the location of the event or null if there is no event at the given index
+     */
+    public CalendarViewLocation getLocation (int index)
+    {
+        update ();
+
+        if (index < 0 || index >= locations.size ()) return null;
+
+        return locations.get (index);
+    }
+
+    /**
+     * Returns the index of the event whose box contains the given point.
+     * @param x the x-coordinate within the panel
+     * @param y the y-coordinate within the panel
+     * @return the index of the event at the given point or -1 if there is none
+     */
+    public int findEventAt (int x, int y)
+    {
+        update ();
+
+        if (x < 0 || y < 0 || x / CELL_SIZE >= columns || y / CELL_SIZE >= rows) return -1;
+
+        final int cell = (y / CELL_SIZE) * columns + (x / CELL_SIZE);
+        for (int i = cellStarts[cell]; i < cellStarts[cell + 1]; ++i) {
+            final int index = cellEvents[i];
+            final int box = index * 4;
+
+            if (x >= boxes[box] && x < boxes[box] + boxes[box + 2]
+                && y >= boxes[box + 1] && y < boxes[box + 1] + boxes[box + 3]) {
+                return index;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Finds the events whose boxes intersect the given area.
+     * @param x the x-coordinate of the area
+     * @param y the y-coordinate of the area
+     * @param width the width of the area
+     * @param height the height of the area
+     * @param found receives the found event indexes, needs room for all events of the calendar
+     * @return the number of found events
+     */
+    public int findEventsIn (int x, int y, int width, int height, int[] found)
+    {
+        update ();
+
+        final int firstColumn = Math.max (0, x / CELL_SIZE);
+        final int lastColumn = Math.min (columns - 1, (x + width) / CELL_SIZE);
+        final int firstRow = Math.max (0, y / CELL_SIZE);
+        final int lastRow = Math.min (rows - 1, (y + height) / CELL_SIZE);
+        final int search = ++searches;
+        int count = 0;
+
+        for (int row = firstRow; row <= lastRow; ++row) {
+            for (int column = firstColumn; column <= lastColumn; ++column) {
+                final int cell = row * columns + column;
+
+                for (int i = cellStarts[cell]; i < cellStarts[cell + 1]; ++i) {
+                    final int index = cellEvents[i];
+                    if (searchMarks[index] == search) continue;
+
+                    searchMarks[index] = search;
+                    final int box = index * 4;
+                    if (boxes[box] < x + width && boxes[box] + boxes[box + 2] > x
+                        && boxes[box + 1] < y + height && boxes[box + 1] + boxes[box + 3] > y) {
+                        found[count++] = index;
+                    }
+                }
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Places every event box at the location of its event.
+     * @param parent the calendar panel
+     */
+    @Override
+    public void layoutContainer (Container parent)
+    {
+        if ( ! update () && applied) return;
+
+        for (int i = 0, count = parent.getComponentCount (); i < count; ++i) {
+            Component component = parent.getComponent (i);
+
+            if (component instanceof CalendarEventLayer) {
+                component.setBounds (0, 0, parent.getWidth (), parent.getHeight ());
+                continue;
+            }
+            if ( ! (component instanceof EventBox)) continue;
+
+            final int index = ((EventBox) component).getEventIndex ();
+            if (index < 0 || index >= locations.size ()) continue;
+
+            final int box = index * 4;
+            component.setBounds (boxes[box], boxes[box + 1], boxes[box + 2], boxes[box + 3]);
+        }
+
+        applied = true;
+    }
+
+    /**
+     * Nothing to do - the boxes are located by their events.
+     */
+    @Override
+    public void addLayoutComponent (String name, Component component)
+    { applied = false; }
+
+    /**
+     * Nothing to do - the boxes are located by their events.
+     */
+    @Override
+    public void removeLayoutComponent (Component component)
+    {}
+
+    /**
+     * The calendar takes the space it gets.
+     * @param parent the calendar panel
+     * @return the current size of the panel
+     */
+    @Override
+    public Dimension preferredLayoutSize (Container parent)
+    { return parent.getSize (); }
+
+    /**
+     * The calendar takes the space it gets.
+     * @param parent the calendar panel
+     * @return an empty size
+     */
+    @Override
+    public Dimension minimumLayoutSize (Container parent)
+    { return new Dimension (0, 0); }
+
+    /**
+     * Computes the locations if the calendar or the size of the panel have changed.
+     * @return true if the locations have been computed
+     */
+    private boolean update ()
+    {
+        final int width = panel.getWidth ();
+        final int height = panel.getHeight ();
+
+        if ( ! dirty && width == computedWidth && height == computedHeight) {
+            return false;
+        }
+
+        locations.clear ();
+
+        final int count = calendar.size ();
+        boxes = new int[count * 4];
+        final int legendHeight = panel.getLegendHeight ();
+        final int laneCount = lanes.getLaneCount ();
+        final int eventHeight = laneCount == 0 ? 0 : (height - legendHeight) / laneCount;
+        final Calendar cal = Calendar.getInstance ();
+
+        for (int index = 0; index < count; ++index) {
+            BrewingEvent event = calendar.eventAtIndex (index);
+
+            int startX = panel.getXByDate (event.getStart (), cal);
+            int endX = panel.getXByDate (event.getEnd (), cal);
+            int y = legendHeight + (Math.max (0, lanes.getLane (event)) * eventHeight);
+
+            locations.add (new CalendarViewLocation (
+                        startX, y,
+                        new Dimension (endX - startX, eventHeight)));
+
+            final int box = index * 4;
+            boxes[box] = startX;
+            boxes[box + 1] = y + EventBox.MARGIN;
+            boxes[box + 2] = Math.max (0, endX - startX);
+            boxes[box + 3] = Math.max (0, eventHeight - 2 * EventBox.MARGIN);
+        }
+
+        buildGrid (width, height, count);
+
+        computedWidth = width;
+        computedHeight = height;
+        dirty = false;
+        applied = false;
+
+        return true;
+    }
+
+    /**
+     * Indexes the boxes of all events by the cells of the grid they touch.
+     * @param width the width of the panel
+     * @param height the height of the panel
+     * @param count the number of events
+     */
+    private void buildGrid (int width, int height, int count)
+    {
+        columns = Math.max (1, (width + CELL_SIZE - 1) / CELL_SIZE);
+        rows = Math.max (1, (height + CELL_SIZE - 1) / CELL_SIZE);
+        cellStarts = new int[columns * rows + 1];
+        searchMarks = new int[count];
+        searches = 0;
+
+        // count the events of each cell first, then fill them in
+        for (int pass = 0; pass < 2; ++pass) {
+            int[] filled = pass == 0 ? null : new int[columns * rows];
+
+            for (int index = 0; index < count; ++index) {
+                final int box = index * 4;
+                if (boxes[box + 2] == 0 || boxes[box + 3] == 0) continue;
+
+                final int firstColumn = Math.max (0, boxes[box] / CELL_SIZE);
+                final int lastColumn = Math.min (columns - 1, (boxes[box] + boxes[box + 2] - 1) / CELL_SIZE);
+                final int firstRow = Math.max (0, boxes[box + 1] / CELL_SIZE);
+                final int lastRow = Math.min (rows - 1, (boxes[box + 1] + boxes[box + 3] - 1) / CELL_SIZE);
+
+                for (int row = firstRow; row <= lastRow; ++row) {
+                    for (int column = firstColumn; column <= lastColumn; ++column) {
+                        final int cell = row * columns + column;
+                        if (pass == 0) {
+                            ++cellStarts[cell + 1];
+                        }
+                        else {
+                            cellEvents[cellStarts[cell] + filled[cell]++] = index;
+                        }
+                    }
+                }
+            }
+
+            if (pass == 0) {
+                for (int cell = 0; cell < columns * rows; ++cell) {
+                    cellStarts[cell + 1] += cellStarts[cell];
+                }
+                cellEvents = new int[cellStarts[columns * rows]];
+            }
+        }
+    }
+}
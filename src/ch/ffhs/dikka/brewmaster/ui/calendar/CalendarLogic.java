@@ -20,8 +20,10 @@ package ch.ffhs.dikka.brewmaster.ui.calendar;
 
 import ch.ffhs.dikka.brewmaster.Application;
 
+import ch.ffhs.dikka.brewmaster.mapper.AsyncRepository;
 import ch.ffhs.dikka.brewmaster.mapper.EventMapper;
 import ch.ffhs.dikka.brewmaster.mapper.MapperException;
+import ch.ffhs.dikka.brewmaster.mapper.Repository;
 
 import ch.ffhs.dikka.brewmaster.core.BrewCalendar;
 import ch.ffhs.dikka.brewmaster.core.BrewingEvent;
@@ -31,6 +33,8 @@ import ch.ffhs.dikka.brewmaster.ui.common.ViewChange;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.function.Consumer;
 
 /**
  * Lets a view interact with the calendar.
@@ -44,9 +48,15 @@ public class CalendarLogic
     /** The calendar */
     private BrewCalendar calendar;
 
+    /** The key of the reload query, a newer reload supersedes it */
+    private static final String RELOAD_QUERY = "calendar-reload";
+
     /** The event mapper */
     private EventMapper eventMapper;
 
+    /** The events of recently shown months */
+    private CalendarWindowCache windowCache;
+
     /**
      * Constructs a new calendar logic.
      * @param application the application container
@@ -57,6 +67,7 @@ public class CalendarLogic
         this.application = application;
         this.calendar = calendar;
         this.eventMapper = application.getRepository ().events ();
+        this.windowCache = new CalendarWindowCache (application.getRepository ());
         reloadCalendar ();
     }
 
@@ -95,14 +106,28 @@ public class CalendarLogic
     public void contentDropped (ViewChange change)
     {
         if (change.getExtra () == CalendarChangeType.EVENT_DELETED.ordinal ()) {
+            final BrewingEvent event;
             try {
-                BrewingEvent event = calendar.eventAtIndex ((int) change.getBegin ());
-                eventMapper.remove (event);
-                application.getRepository ().flush ();
-                reloadCalendar ();
+                event = calendar.eventAtIndex ((int) change.getBegin ());
+            }
+            catch (IndexOutOfBoundsException e) {
+                return;
             }
-            catch (IndexOutOfBoundsException e) {}
-            catch (MapperException e) {}
+
+            application.getAsyncRepository ().write (new AsyncRepository.Query<Void> ()
+            {
+                @Override
+                public Void execute (Repository repository) throws MapperException
+                {
+                    repository.events ().remove (event);
+                    return null;
+                }
+            }).thenRun (new Runnable ()
+            {
+                @Override
+                public void run ()
+                { reloadCalendar (); }
+            });
         }
     }
 
@@ -122,12 +147,15 @@ public class CalendarLogic
     { application.getMain ().modifyEvent (e); }
 
     /**
-     * Unloads all events that are currently registered within the calendar.
+     * Unloads all events that are currently registered within the calendar
+     * unless they are held by the window cache.
      */
     protected void unloadAllCalendarEventsNotIn (ArrayList<BrewingEvent> list)
     {
+        HashSet<BrewingEvent> kept = new HashSet<BrewingEvent> (list);
+
         for (BrewingEvent event : calendar.getEvents ()) {
-            if (list.contains (event)) continue;
+            if (kept.contains (event) || windowCache.holds (event)) continue;
 
             eventMapper.unload (event);
         }
@@ -141,26 +169,43 @@ public class CalendarLogic
 
     /**
      * Reloads the calendar.
+     *
+     * The events are queried on the database thread, a newer reload
+     * supersedes an unfinished one.
+     *
      * @param begin the beginning of the calendar date range
      * @param end the end of the calendar date range
      * @return this logic
      */
-    protected CalendarLogic reloadCalendar (Date begin, Date end)
+    protected CalendarLogic reloadCalendar (final Date begin, final Date end)
     {
-        ArrayList<BrewingEvent> events;
-        try {
-            events = eventMapper.findAllEventsInBetween (begin, end);
-        }
-        catch (MapperException ex) {
-            return this;
-        }
+        application.getAsyncRepository ().query (RELOAD_QUERY,
+                new AsyncRepository.Query<ArrayList<BrewingEvent>> ()
+        {
+            @Override
+            public ArrayList<BrewingEvent> execute (Repository repository) throws MapperException
+            { return windowCache.findAllEventsInBetween (begin, end); }
+        }).thenAccept (new Consumer<ArrayList<BrewingEvent>> ()
+        {
+            @Override
+            public void accept (ArrayList<BrewingEvent> events)
+            { showEvents (begin, end, events); }
+        });
 
+        return this;
+    }
+
+    /**
+     * Shows the given events within the given date range.
+     * @param begin the beginning of the calendar date range
+     * @param end the end of the calendar date range
+     * @param events the events in between
+     */
+    protected void showEvents (Date begin, Date end, ArrayList<BrewingEvent> events)
+    {
         unloadAllCalendarEventsNotIn (events);
 
-        calendar.clearCalendar ();
         calendar.setDateRange (begin, end);
         calendar.setEvents (events);
-
-        return this;
     }
 }
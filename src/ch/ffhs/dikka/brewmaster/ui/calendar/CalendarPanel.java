@@ -109,8 +109,7 @@ public class CalendarPanel
      */
     public int getLegendHeight ()
     {
-        Graphics g = getGraphics ();
-        final int textHeight = g.getFontMetrics ().getHeight ();
+        final int textHeight = getFontMetrics (getFont ()).getHeight ();
 
         return (3 * textHeight) + (2 * EXTRA_MONTH_HEIGHT);
     }
@@ -137,8 +136,7 @@ public class CalendarPanel
      */
     public int getDayWidth ()
     {
-        final Dimension dimension = getSize ();
-        final double totalWidth = dimension.getWidth ();
+        final double totalWidth = getWidth ();
         final int nrOfDays = getDayCount ();
 
         return (int) (totalWidth / nrOfDays);
@@ -150,9 +148,8 @@ public class CalendarPanel
      */
     public int getVerticalPadding ()
     {
-        final Dimension dimension = getSize ();
         final int nrOfDays = getDayCount ();
-        final double totalWidth = dimension.getWidth ();
+        final double totalWidth = getWidth ();
         final int dayWidth = getDayWidth ();
         final int used = dayWidth * nrOfDays;
 
@@ -165,6 +162,15 @@ public class CalendarPanel
      * @return the x-coordinate for the given date
      */
     public int getXByDate (Date date)
+    { return getXByDate (date, Calendar.getInstance ()); }
+
+    /**
+     * Returns the x-coordinate for the given date.
+     * @param date the date of which the x-coordinate is requested
+     * @param cal the calendar to reuse for the computation
+     * @return the x-coordinate for the given date
+     */
+    public int getXByDate (Date date, Calendar cal)
     {
         Date begin = calendar.getStartingDate ();
 
@@ -174,7 +180,6 @@ public class CalendarPanel
 
         double realX = getVerticalPadding () + (days * dayWidth);
 
-        Calendar cal = Calendar.getInstance ();
         cal.setTime (date);
         final int hour = cal.get (Calendar.HOUR_OF_DAY);
 
@@ -29,6 +29,7 @@ import ch.ffhs.dikka.brewmaster.ui.common.ViewObserver;
 import ch.ffhs.dikka.brewmaster.util.DatePicker;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Date;
 import java.util.Calendar;
 import java.util.regex.Pattern;
@@ -37,7 +38,6 @@ import java.util.regex.Matcher;
 import java.text.SimpleDateFormat;
 import java.text.ParseException;
 
-import java.awt.Dimension;
 import java.awt.Color;
 import java.awt.BorderLayout;
 import java.awt.event.ActionEvent;
@@ -72,9 +72,28 @@ public class CalendarView
         BEGIN, END
     }
 
+    /**
+     * The ways to display the events.
+     */
+    public enum RenderMode {
+        /** Every event is a component of its own */
+        BOXES,
+        /** All events are drawn by one component, only the visible ones get painted */
+        VIRTUALIZED
+    }
+
     /** The mainPanel of this view */
     private CalendarPanel calendarPanel;
 
+    /** The layout of the event boxes */
+    private CalendarLayout calendarLayout;
+
+    /** How the events get displayed */
+    private RenderMode renderMode;
+
+    /** The component drawing all events if virtualized */
+    private CalendarEventLayer eventLayer = null;
+
     private JPanel mainPanel = null;
 
     /** The calendar */
@@ -83,9 +102,12 @@ public class CalendarView
     /** The date picker widget */
     private DatePicker datePicker = new DatePicker ();
 
-    /** All displayed events */ 
+    /** All displayed events ordered like the calendar */
     private ArrayList<EventBox> eventBoxes = new ArrayList<EventBox> ();
 
+    /** The box of every displayed event */
+    private HashMap<BrewingEvent, EventBox> boxesByEvent = new HashMap<BrewingEvent, EventBox> ();
+
     /** The background color of an input field for an invalid input */
     private static final Color FAULT_COLOR = new Color (255, 99, 71);
 
@@ -310,16 +332,42 @@ public class CalendarView
         }
 
     /**
-     * Constructs a new calendar view.
+     * Constructs a new calendar view displaying every event as a box.
      * @param calendar the calendar to display
      */
     public CalendarView (BrewCalendar calendar)
+    { this (calendar, RenderMode.BOXES); }
+
+    /**
+     * Constructs a new calendar view.
+     * @param calendar the calendar to display
+     * @param renderMode how the events get displayed
+     */
+    public CalendarView (BrewCalendar calendar, RenderMode renderMode)
     {
         this.calendar = calendar;
+        this.renderMode = renderMode;
         calendarPanel = new CalendarPanel (calendar);
+        calendarLayout = new CalendarLayout (calendar, calendarPanel);
+        calendarPanel.setLayout (calendarLayout);
+
+        if (renderMode == RenderMode.VIRTUALIZED) {
+            eventLayer = new CalendarEventLayer (calendar, calendarLayout);
+            eventLayer.addObserver (boxObserver);
+            calendarPanel.add (eventLayer);
+        }
+
         calendar.addListener (this);
+        eventsAdded (calendar.getEvents ());
     }
 
+    /**
+     * Returns how the events get displayed.
+     * @return how the events get displayed
+     */
+    public RenderMode getRenderMode ()
+    { return renderMode; }
+
     /**
      * Returns the main panel of this view.
      * @return this view
@@ -363,30 +411,94 @@ public class CalendarView
     }
 
     /**
-     * Triggered on every change of the calendar.
+     * Triggered on every change of the calendar after the detailed notifications.
      */
     @Override
     public void calendarChanged ()
     {
-        for (EventBox box : eventBoxes) {
+        if (eventLayer == null) {
+            orderBoxes ();
+        }
+
+        calendarLayout.invalidate ();
+        calendarPanel.repaint ();
+        calendarPanel.revalidate ();
+    }
+
+    /**
+     * Adds a box for every added event.
+     * @param events the added events
+     */
+    @Override
+    public void eventsAdded (ArrayList<BrewingEvent> events)
+    {
+        if (eventLayer != null) return;
+
+        for (BrewingEvent event : events) {
+            if (boxesByEvent.containsKey (event)) continue;
+
+            EventBox box = new EventBox (this, -1);
+            box.setEvent (event);
+            box.addObserver (boxObserver);
+
+            calendarPanel.add (box);
+            boxesByEvent.put (event, box);
+        }
+    }
+
+    /**
+     * Removes the boxes of the removed events.
+     * @param events the removed events
+     */
+    @Override
+    public void eventsRemoved (ArrayList<BrewingEvent> events)
+    {
+        if (eventLayer != null) return;
+
+        for (BrewingEvent event : events) {
+            EventBox box = boxesByEvent.remove (event);
+            if (box == null) continue;
+
+            box.removeObserver (boxObserver);
             calendarPanel.remove (box);
         }
+    }
+
+    /**
+     * The boxes of the changed events are ordered on calendarChanged.
+     * @param events the changed events
+     */
+    @Override
+    public void eventsChanged (ArrayList<BrewingEvent> events)
+    {}
+
+    /**
+     * The boxes are located relative to the range on the next painting.
+     * @param start the new starting date
+     * @param end the new ending date
+     */
+    @Override
+    public void rangeChanged (Date start, Date end)
+    {}
+
+    /**
+     * Orders the boxes like the events of the calendar and updates their indexes.
+     *
+     * Events without a box are skipped.
+     */
+    protected void orderBoxes ()
+    {
         eventBoxes.clear ();
 
         Iterator<BrewingEvent> eventIterator = calendar.iterator ();
 
         for (int index = 0; eventIterator.hasNext (); ++index) {
-            EventBox box = new EventBox (this, index);
+            EventBox box = boxesByEvent.get (eventIterator.next ());
+            if (box == null) continue;
 
-            box.setEvent (eventIterator.next ());
-            box.addObserver (boxObserver);
-
-            calendarPanel.add (box);
+            box.setEventIndex (index);
             eventBoxes.add (box);
         }
-
-        calendarPanel.repaint ();
-        calendarPanel.revalidate ();
     }
 
     /**
@@ -397,32 +509,21 @@ public class CalendarView
     @Override
     public CalendarViewLocation getViewLocation (BrewingEvent e)
     {
-        int index = 0;
-        for (EventBox box : eventBoxes) {
-            if (e.equals (box.getEvent ())) {
-                break;
-            }
-            ++index;
+        CalendarViewLocation location;
+        if (eventLayer != null) {
+            location = calendarLayout.getLocation (calendar.indexOfEvent (e));
+        }
+        else {
+            EventBox box = boxesByEvent.get (e);
+            location = box == null ? null : calendarLayout.getLocation (box.getEventIndex ());
         }
 
-        if (index >= eventBoxes.size ()) {
+        if (location == null) {
             throw new IllegalStateException (
                     "Cannot generate an event location for a non registered event.");
         }
 
-        final Dimension totalSize = calendarPanel.getSize ();
-        final int legendHeight = calendarPanel.getLegendHeight ();
-
-        final int eventHeight
-            = ((int) totalSize.getHeight () - legendHeight) / eventBoxes.size ();
-
-        final int startY = legendHeight + (index * eventHeight);
-
-        int startX = calendarPanel.getXByDate (e.getStart ());
-        int endX = calendarPanel.getXByDate (e.getEnd ());
-
-        return new CalendarViewLocation (
-                startX, startY, new Dimension (endX - startX, eventHeight));
+        return location;
     }
 
     /**
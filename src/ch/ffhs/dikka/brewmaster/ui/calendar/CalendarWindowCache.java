@@ -0,0 +1,418 @@
+/* 
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.ui.calendar;
+
+import ch.ffhs.dikka.brewmaster.core.BrewingEvent;
+
+import ch.ffhs.dikka.brewmaster.mapper.ConnectionPool;
+import ch.ffhs.dikka.brewmaster.mapper.EventMapper;
+import ch.ffhs.dikka.brewmaster.mapper.MapperException;
+import ch.ffhs.dikka.brewmaster.mapper.Repository;
+import ch.ffhs.dikka.brewmaster.mapper.base.CommitNotifyable;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the events of the calendar by month.
+ *
+ * A window is served from the months it covers: missing months are queried,
+ * and the months before and after the window are prefetched in the
+ * background, so paging the calendar rarely waits for the database.
+ * The cache forgets everything after a commit of the repository, and a
+ * month whose events are not managed by the event mapper anymore is
+ * queried again.
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+public class CalendarWindowCache
+    implements CommitNotifyable
+{
+    /** The default number of cached months */
+    public static final int DEFAULT_CAPACITY = 12;
+
+    /** Orders events by their start */
+    private static final Comparator<BrewingEvent> BY_START = new Comparator<BrewingEvent> ()
+    {
+        @Override
+        public int compare (BrewingEvent a, BrewingEvent b)
+        { return a.getStart ().compareTo (b.getStart ()); }
+    };
+
+    /** The repository to query and to observe */
+    private Repository repository;
+
+    /** The event mapper */
+    private EventMapper eventMapper;
+
+    /** The events of each cached month by the start of the month, least recently used first */
+    private LinkedHashMap<Long, ArrayList<BrewingEvent>> months;
+
+    /** The number of cached months holding each event */
+    private IdentityHashMap<BrewingEvent, Integer> holders
+        = new IdentityHashMap<BrewingEvent, Integer> ();
+
+    /** Counts the invalidations, so queries started before one are not cached */
+    private long generation = 0;
+
+    /** Number of months served from memory */
+    private long hits = 0;
+
+    /** Number of months queried */
+    private long misses = 0;
+
+    /** The thread prefetching neighbouring months */
+    private ExecutorService prefetcher = Executors.newSingleThreadExecutor (
+            new ThreadFactory ()
+            {
+                @Override
+                public Thread newThread (Runnable runnable)
+                {
+                    Thread thread = new Thread (runnable, "calendar-prefetch");
+                    thread.setDaemon (true);
+                    return thread;
+                }
+            });
+
+    /**
+     * Constructs a new cache of the default capacity.
+     * @param repository the repository to query and to observe
+     */
+    public CalendarWindowCache (Repository repository)
+    { this (repository, DEFAULT_CAPACITY); }
+
+    /**
+     * Constructs a new cache.
+     * @param repository the repository to query and to observe
+     * @param capacity the number of months to cache at most
+     */
+    public CalendarWindowCache (Repository repository, final int capacity)
+    {
+        this.repository = repository;
+        this.eventMapper = repository.events ();
+        this.months = new LinkedHashMap<Long, ArrayList<BrewingEvent>> (16, 0.75F, true)
+        {
+            public static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry (Map.Entry<Long, ArrayList<BrewingEvent>> eldest)
+            {
+                if (size () <= capacity) return false;
+
+                release (eldest.getValue ());
+                return true;
+            }
+        };
+
+        repository.addCommitObserver (this);
+    }
+
+    /**
+     * Returns the events in between the given dates like EventMapper::findAllEventsInBetween.
+     * @param begin the begin of the period
+     * @param end the end of the period
+     * @return the events in between the given dates ordered by start
+     * @throws MapperException if a month cannot be queried
+     */
+    public ArrayList<BrewingEvent> findAllEventsInBetween (Date begin, Date end)
+        throws MapperException
+    {
+        long first = monthOf (begin.getTime ());
+        long last = monthOf (end.getTime ());
+
+        IdentityHashMap<BrewingEvent, Boolean> found = new IdentityHashMap<BrewingEvent, Boolean> ();
+        ArrayList<BrewingEvent> events = new ArrayList<BrewingEvent> ();
+
+        for (long month = first; month <= last; month = nextMonth (month)) {
+            for (BrewingEvent event : getMonth (month)) {
+                if (isInBetween (event, begin.getTime (), end.getTime ())
+                    && found.put (event, Boolean.TRUE) == null) {
+                    events.add (event);
+                }
+            }
+        }
+        Collections.sort (events, BY_START);
+
+        prefetch (previousMonth (first));
+        prefetch (nextMonth (last));
+
+        return events;
+    }
+
+    /**
+     * Whether a cached month holds the given event.
+     * @param event the event in question
+     * @return true if a cached month holds the given event
+     */
+    public synchronized boolean holds (BrewingEvent event)
+    { return holders.containsKey (event); }
+
+    /**
+     * Whether the month of the given date is cached.
+     * @param date a date within the month in question
+     * @return true if the month of the given date is cached
+     */
+    public synchronized boolean isCached (Date date)
+    { return months.containsKey (monthOf (date.getTime ())); }
+
+    /**
+     * Forgets all cached months.
+     */
+    public synchronized void invalidate ()
+    {
+        months.clear ();
+        holders.clear ();
+        ++generation;
+    }
+
+    /**
+     * Forgets all cached months as any event may have changed.
+     */
+    @Override
+    public void afterCommit ()
+    { invalidate (); }
+
+    /**
+     * Nothing has been written, the cached months stay valid.
+     */
+    @Override
+    public void afterRollback ()
+    {}
+
+    /**
+     * Stops prefetching and observing the repository.
+     */
+    public void close ()
+    {
+        repository.removeCommitObserver (this);
+        prefetcher.shutdownNow ();
+        try {
+            prefetcher.awaitTermination (1, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread ().interrupt ();
+        }
+        invalidate ();
+    }
+
+    /**
+     * Returns the number of months served from memory.
+     * @return the number of months served from memory
+     */
+    public synchronized long getHitCount ()
+    { return hits; }
+
+    /**
+     * Returns the number of queried months.
+     * @return the number of queried months
+     */
+    public synchronized long getMissCount ()
+    { return misses; }
+
+    /**
+     * Returns the events of the given month, queried if not cached.
+     * @param month the start of the month
+     * @return the events of the given month
+     */
+    private ArrayList<BrewingEvent> getMonth (long month) throws MapperException
+    {
+        synchronized (this) {
+            ArrayList<BrewingEvent> events = months.get (month);
+            if (events != null && isManaged (events)) {
+                ++hits;
+                return events;
+            }
+            ++misses;
+        }
+
+        return loadMonth (month);
+    }
+
+    /**
+     * Queries the events of the given month and caches them.
+     * @param month the start of the month
+     * @return the events of the given month
+     */
+    private ArrayList<BrewingEvent> loadMonth (long month) throws MapperException
+    {
+        long startedGeneration;
+        synchronized (this) {
+            startedGeneration = generation;
+        }
+
+        ArrayList<BrewingEvent> events = eventMapper.findAllEventsInBetween (
+                new Date (month), new Date (nextMonth (month)));
+
+        synchronized (this) {
+            if (startedGeneration == generation) {
+                ArrayList<BrewingEvent> replaced = months.put (month, events);
+                if (replaced != null) {
+                    release (replaced);
+                }
+                for (BrewingEvent event : events) {
+                    Integer count = holders.get (event);
+                    holders.put (event, count == null ? 1 : count + 1);
+                }
+            }
+        }
+
+        return events;
+    }
+
+    /**
+     * Queries the given month in the background if it is not cached.
+     * @param month the start of the month
+     */
+    private void prefetch (final long month)
+    {
+        synchronized (this) {
+            if (months.containsKey (month) || prefetcher.isShutdown ()) return;
+        }
+
+        prefetcher.execute (new Runnable ()
+        {
+            @Override
+            public void run ()
+            {
+                synchronized (CalendarWindowCache.this) {
+                    if (months.containsKey (month)) return;
+                }
+
+                // a prefetch only reads the committed events from a reader,
+                // so it neither sees nor ends the transaction of another thread
+                ConnectionPool pool = repository.getConnectionPool ();
+                try {
+                    pool.beginCommittedRead ();
+                    try {
+                        loadMonth (month);
+                    }
+                    finally {
+                        pool.endRead ();
+                    }
+                }
+                catch (MapperException e) {
+                    // the month gets queried when it is requested
+                }
+            }
+        });
+    }
+
+    /**
+     * Forgets that the given events are held by a month.
+     * @param events the events of the month that is not cached anymore
+     */
+    private void release (ArrayList<BrewingEvent> events)
+    {
+        for (BrewingEvent event : events) {
+            Integer count = holders.remove (event);
+            if (count != null && count > 1) {
+                holders.put (event, count - 1);
+            }
+        }
+    }
+
+    /**
+     * Whether all given events are still managed by the event mapper.
+     * @param events the events in question
+     * @return true if all given events are managed by the event mapper
+     */
+    private boolean isManaged (ArrayList<BrewingEvent> events)
+    {
+        for (BrewingEvent event : events) {
+            if ( ! eventMapper.hasEntity (event)) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Whether the given event belongs to a window like EventMapper::findAllEventsInBetween.
+     * @param event the event in question
+     * @param begin the begin of the window
+     * @param end the end of the window
+     * @return true if the event starts or ends within the window
+     */
+    private static boolean isInBetween (BrewingEvent event, long begin, long end)
+    {
+        long start = event.getStart ().getTime ();
+        long finish = event.getEnd ().getTime ();
+
+        return (start >= begin && start < end) || (finish <= end && finish > begin);
+    }
+
+    /**
+     * Returns the start of the month of the given time.
+     * @param time the time in milliseconds
+     * @return the start of the month in milliseconds
+     */
+    private static long monthOf (long time)
+    {
+        Calendar calendar = Calendar.getInstance ();
+        calendar.setTimeInMillis (time);
+        calendar.set (Calendar.DAY_OF_MONTH, 1);
+        calendar.set (Calendar.HOUR_OF_DAY, 0);
+        calendar.set (Calendar.MINUTE, 0);
+        calendar.set (Calendar.SECOND, 0);
+        calendar.set (Calendar.MILLISECOND, 0);
+
+        return calendar.getTimeInMillis ();
+    }
+
+    /**
+     * Returns the start of the month after the given one.
+     * @param month the start of a month
+     * @return the start of the following month
+     */
+    private static long nextMonth (long month)
+    { return addMonths (month, 1); }
+
+    /**
+     * Returns the start of the month before the given one.
+     * @param month the start of a month
+     * @return the start of the preceding month
+     */
+    private static long previousMonth (long month)
+    { return addMonths (month, -1); }
+
+    /**
+     * Returns the start of the month the given number of months away.
+     * @param month the start of a month
+     * @param amount the number of months to add
+     * @return the start of the resulting month
+     */
+    private static long addMonths (long month, int amount)
+    {
+        Calendar calendar = Calendar.getInstance ();
+        calendar.setTimeInMillis (month);
+        calendar.add (Calendar.MONTH, amount);
+
+        return calendar.getTimeInMillis ();
+    }
+}
@@ -26,7 +26,6 @@ import ch.ffhs.dikka.brewmaster.ui.common.Interactable;
 import java.util.ArrayList;
 
 import java.awt.Graphics;
-import java.awt.Dimension;
 import java.awt.Graphics2D;
 import java.awt.Stroke;
 import java.awt.BasicStroke;
@@ -66,14 +65,20 @@ public class EventBox
     /** All view Observers */
     private ArrayList<ViewObserver> viewObservers = new ArrayList<ViewObserver> ();
 
+    /** The space between the box and the slot of its event */
+    public static final int MARGIN = 8;
+
     /** The border width */
     private static final float BORDER_WIDTH = 0.3F;
 
+    /** The shape of the box, adjusted to the bounds on painting */
+    private RoundRectangle2D.Double rectangle = new RoundRectangle2D.Double ();
+
     /** The popup menu for this event box */
     private JPopupMenu popupMenu;
 
     /** The border stroke */
-    private Stroke borderStroke
+    private static final Stroke borderStroke
         = new BasicStroke (BORDER_WIDTH, BasicStroke.CAP_BUTT, BasicStroke.JOIN_ROUND);
 
     /** The cursor to indicate the boxes interoperability */
@@ -158,6 +163,24 @@ public class EventBox
         return this;
     }
 
+    /**
+     * Sets the index of the represented event within the calendar.
+     * @param index the index of the represented event
+     * @return this event box
+     */
+    public EventBox setEventIndex (int index)
+    {
+        eventIndex = index;
+        return this;
+    }
+
+    /**
+     * Returns the index of the represented event within the calendar.
+     * @return the index of the represented event
+     */
+    public int getEventIndex ()
+    { return eventIndex; }
+
     /**
      * Returns the associated event if there was an event associated with this box.
      * @return the associated event or null if there is no assoctiated event
@@ -194,36 +217,41 @@ public class EventBox
 
     /**
      * Does the actual drawing of the event.
+     *
+     * The bounds of the box are set by the calendar layout.
+     *
      * @param g the graphics to paint on
      */
     protected void paintOnGraphics (Graphics2D g)
     {
         if (event == null) return;
 
-        CalendarViewLocation location = locator.getViewLocation (event);
-        Dimension d = location.getDimension ();
-
-        final int margin = 8;
-        final int x = location.getX ();
-        final int y = location.getY ();
-        final int width = (int) d.getWidth ();
-        final int height = (int) d.getHeight ();
-
-        setBounds (x, y + margin, width, height - 2 * margin);
+        paintEvent (g, rectangle, event, getWidth (), getHeight ());
+    }
 
-        RoundRectangle2D rectangle
-            = new RoundRectangle2D.Double (
-                    0, margin,
-                    width - 2 * BORDER_WIDTH,
-                    height - (3 * margin) - (2 * BORDER_WIDTH),
-                    32, 18);
+    /**
+     * Draws an event into a box at the origin of the given graphics.
+     * @param g the graphics to paint on
+     * @param shape the shape to reuse for the box
+     * @param event the event to draw
+     * @param width the width of the box
+     * @param height the height of the box
+     */
+    static void paintEvent (Graphics2D g, RoundRectangle2D.Double shape,
+            BrewingEvent event, int width, int height)
+    {
+        shape.setRoundRect (
+                0, MARGIN,
+                width - 2 * BORDER_WIDTH,
+                height - MARGIN - (2 * BORDER_WIDTH),
+                32, 18);
 
         g.setColor (Color.ORANGE);
-        g.fill (rectangle);
+        g.fill (shape);
 
         g.setColor (Color.BLACK);
         g.setStroke (borderStroke);
-        g.draw (rectangle);
+        g.draw (shape);
         g.drawString (event.getName (), 17, 17 + g.getFontMetrics ().getHeight ());
     }
 
@@ -0,0 +1,239 @@
+/* 
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.ui.calendar;
+
+import ch.ffhs.dikka.brewmaster.core.BrewCalendar;
+import ch.ffhs.dikka.brewmaster.core.BrewCalendarListener;
+import ch.ffhs.dikka.brewmaster.core.BrewingEvent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+/**
+ * Assigns the events of a calendar to as few lanes as possible.
+ *
+ * Events that overlap in time - touching included - never share a lane.
+ * All events are assigned by a sweep over the events ordered by start,
+ * giving each event the lowest lane freed by the events ended before it,
+ * which takes as many lanes as events run at the same time at most.
+ * A single added or changed event is placed into a free lane of the events
+ * it overlaps, the sweep only runs again if there is none.
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+public class EventLanes
+    implements BrewCalendarListener
+{
+    /** The calendar of the events */
+    private BrewCalendar calendar;
+
+    /** The lane of every event */
+    private HashMap<BrewingEvent, Integer> lanes = new HashMap<BrewingEvent, Integer> ();
+
+    /** The number of events within each lane */
+    private int[] laneSizes = new int[0];
+
+    /** The number of lanes in use */
+    private int laneCount = 0;
+
+    /**
+     * Constructs the lanes of the given calendar and keeps them up to date.
+     * @param calendar the calendar of the events
+     */
+    public EventLanes (BrewCalendar calendar)
+    {
+        this.calendar = calendar;
+        assignAll ();
+        calendar.addListener (this);
+    }
+
+    /**
+     * Returns the lane of the given event.
+     * @param event the event in question
+     * @return the lane of the event or -1 if the event is not within the calendar
+     */
+    public int getLane (BrewingEvent event)
+    {
+        Integer lane = lanes.get (event);
+
+        return lane == null ? -1 : lane;
+    }
+
+    /**
+     * Returns the number of lanes in use.
+     * @return the number of lanes in use
+     */
+    public int getLaneCount ()
+    { return laneCount; }
+
+    /**
+     * Assigns all events of the calendar to lanes again.
+     */
+    public void assignAll ()
+    {
+        lanes.clear ();
+        laneSizes = new int[0];
+        laneCount = 0;
+
+        // the running events ordered by their end, each as end and lane
+        PriorityQueue<long[]> running = new PriorityQueue<long[]> (11, new Comparator<long[]> ()
+        {
+            public int compare (long[] a, long[] b)
+            { return a[0] < b[0] ? -1 : (a[0] > b[0] ? 1 : 0); }
+        });
+        PriorityQueue<Integer> free = new PriorityQueue<Integer> ();
+
+        for (int index = 0, count = calendar.size (); index < count; ++index) {
+            BrewingEvent event = calendar.eventAtIndex (index);
+            final long start = event.getStart ().getTime ();
+
+            while ( ! running.isEmpty () && running.peek ()[0] < start) {
+                free.add ((int) running.poll ()[1]);
+            }
+
+            final int lane = free.isEmpty () ? laneCount : free.poll ();
+            assign (event, lane);
+            running.add (new long[] { event.getEnd ().getTime (), lane });
+        }
+    }
+
+    /**
+     * Does nothing - the lanes are kept up to date by the event notifications.
+     */
+    @Override
+    public void calendarChanged ()
+    {}
+
+    /**
+     * Places a single added event, more get assigned by a new sweep.
+     * @param events the added events
+     */
+    @Override
+    public void eventsAdded (ArrayList<BrewingEvent> events)
+    {
+        if (events.size () > 1) {
+            assignAll ();
+            return;
+        }
+
+        for (BrewingEvent event : events) {
+            unassign (event);
+            place (event);
+        }
+    }
+
+    /**
+     * Frees the lanes of the removed events.
+     * @param events the removed events
+     */
+    @Override
+    public void eventsRemoved (ArrayList<BrewingEvent> events)
+    {
+        for (BrewingEvent event : events) {
+            unassign (event);
+        }
+    }
+
+    /**
+     * Places a single changed event again, more get assigned by a new sweep.
+     * @param events the changed events
+     */
+    @Override
+    public void eventsChanged (ArrayList<BrewingEvent> events)
+    {
+        if (events.size () > 1) {
+            assignAll ();
+            return;
+        }
+
+        for (BrewingEvent event : events) {
+            unassign (event);
+            place (event);
+        }
+    }
+
+    /**
+     * Does nothing - events outside the range are notified as removed.
+     * @param start the new starting date
+     * @param end the new ending date
+     */
+    @Override
+    public void rangeChanged (Date start, Date end)
+    {}
+
+    /**
+     * Places an event into the lowest lane not taken by the events it overlaps.
+     * @param event the event to place
+     */
+    private void place (BrewingEvent event)
+    {
+        boolean[] taken = new boolean[laneCount];
+
+        for (BrewingEvent other : calendar.getEventsInBetween (event.getStart (), event.getEnd ())) {
+            Integer lane = other == event ? null : lanes.get (other);
+            if (lane != null) taken[lane] = true;
+        }
+
+        for (int lane = 0; lane < laneCount; ++lane) {
+            if ( ! taken[lane]) {
+                assign (event, lane);
+                return;
+            }
+        }
+
+        // every lane is taken here, the sweep decides whether another one is needed
+        assignAll ();
+    }
+
+    /**
+     * Puts an event into a lane.
+     * @param event the event
+     * @param lane the lane of the event
+     */
+    private void assign (BrewingEvent event, int lane)
+    {
+        if (lane >= laneSizes.length) {
+            laneSizes = Arrays.copyOf (laneSizes, Math.max (4, 2 * (lane + 1)));
+        }
+
+        lanes.put (event, lane);
+        ++laneSizes[lane];
+        laneCount = Math.max (laneCount, lane + 1);
+    }
+
+    /**
+     * Takes an event out of its lane and drops the empty lanes at the end.
+     * @param event the event
+     */
+    private void unassign (BrewingEvent event)
+    {
+        Integer lane = lanes.remove (event);
+        if (lane == null) return;
+
+        --laneSizes[lane];
+        while (laneCount > 0 && laneSizes[laneCount - 1] == 0) {
+            --laneCount;
+        }
+    }
+}
@@ -68,6 +68,24 @@ public abstract class AbstractFormLogic <Entity> implements LogicListener<Entity
 
     }
 
+    /**
+     * Reports an error of this logic to the user.
+     *
+     * @param action the failed action, e.g. "loading the barrel types"
+     * @param e the error that occured
+     */
+    protected void reportError(String action, Throwable e) {
+        System.err.println(
+                "Oops, an error occured - we are very sorry for your inconvenience! "
+                        + "Please contact dikka group and report the "
+                        + "following information.");
+
+        System.err.println("The following error occured while " + action + ":");
+        System.err.println(e.getMessage());
+        System.err.println("Stack Trace:");
+        e.printStackTrace();
+    }
+
     /**
      * An empty implementation of the LogicListener method.
      * So, that is no need to implement it in a Logic class.
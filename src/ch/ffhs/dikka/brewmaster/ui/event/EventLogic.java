@@ -22,12 +22,16 @@ import ch.ffhs.dikka.brewmaster.Application;
 import ch.ffhs.dikka.brewmaster.core.Barrel;
 import ch.ffhs.dikka.brewmaster.core.BrewingEvent;
 import ch.ffhs.dikka.brewmaster.core.EventBarrel;
+import ch.ffhs.dikka.brewmaster.mapper.AsyncRepository;
 import ch.ffhs.dikka.brewmaster.mapper.BarrelMapper;
 import ch.ffhs.dikka.brewmaster.mapper.EventBarrelMapper;
+import ch.ffhs.dikka.brewmaster.mapper.Repository;
 import ch.ffhs.dikka.brewmaster.ui.common.AbstractFormLogic;
 import ch.ffhs.dikka.brewmaster.ui.common.LogicListener;
 
 import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.function.BiConsumer;
 
 /**
  * This class represent the logic of a brew journal form.
@@ -46,6 +50,9 @@ public class EventLogic extends AbstractFormLogic<BrewingEvent> {
 
     private EventView view;
 
+    /** The key of the query loading the form, a newer form supersedes it */
+    private static final String FORM_QUERY = "event-form";
+
     /**
      * Creates a new logic for an existing event
      *
@@ -61,18 +68,45 @@ public class EventLogic extends AbstractFormLogic<BrewingEvent> {
 
     /**
      * Initializer used by the constructors
+     *
+     * The barrels are loaded on the database thread, the view is shown
+     * as soon as they are available. If loading fails, the error is
+     * reported and no view is shown.
      */
     private void initialize() {
 
         // Get the barrels
         this.barrelMapper = app.getRepository().barrels();
-        this.barrels = this.getAllBarrels();
-        this.freeBarrels = this.getFreeBarrels(this.entity);
         this.eventBarrelMapper = app.getRepository().eventsBarrels();
 
-        this.eventsBarrels = this.getEventsBarrels();
-
+        app.getAsyncRepository().query(FORM_QUERY, new AsyncRepository.Query<Void>() {
+            @Override
+            public Void execute(Repository repository) {
+                barrels = getAllBarrels();
+                freeBarrels = getFreeBarrels(repository, entity);
+                eventsBarrels = getEventsBarrels(repository, entity);
+                return null;
+            }
+        }).whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void value, Throwable ex) {
+                if (ex instanceof CancellationException) {
+                    // a newer form is loaded instead
+                    return;
+                }
+                if (ex != null) {
+                    reportError("loading the barrels of a BrewingEvent", ex);
+                    return;
+                }
+                showView();
+            }
+        });
+    }
 
+    /**
+     * Creates and shows the view of the event.
+     */
+    private void showView() {
         // create view
         view = new EventView(this.entity, freeBarrels, eventsBarrels);
         // register logic on view to be notified about events
@@ -143,13 +177,18 @@ public class EventLogic extends AbstractFormLogic<BrewingEvent> {
 
     /**
      * Get free barrels for a given event (with start and end dates)
-     * @return ArrayList<Barrel> all free barrels.
+     * @param repository the repository of the bookings
+     * @param event the event the barrels have to be free for
+     * @return ArrayList<Barrel> all free barrels. null if error
      */
-    private ArrayList<Barrel> getFreeBarrels(BrewingEvent event) {
-        ArrayList<Barrel> freeBarrels = new ArrayList<Barrel>();
-        //if (event == null) freeBarrels = getAllBarrels(); // dummy
-        freeBarrels = getAllBarrels();
-        return freeBarrels;
+    private ArrayList<Barrel> getFreeBarrels(Repository repository, BrewingEvent event) {
+        if (barrels == null) return null;
+
+        try {
+            return repository.barrelAvailability().findFreeBarrels(barrels, event);
+        } catch (Exception e) {
+            return null;
+        }
     }
 
     /**
@@ -165,12 +204,17 @@ public class EventLogic extends AbstractFormLogic<BrewingEvent> {
     }
 
     /**
-     * Get the barrels from the EventBarrelMapper
-     * @return ArrayList<EventBarrel> all eventsBarrels. null if error
+     * Get the barrels booked by the given event from the EventBarrelMapper
+     * @param repository the repository of the bookings
+     * @param event the event the bookings of are requested
+     * @return ArrayList<EventBarrel> the eventsBarrels of the event. null if error
      */
-    private ArrayList<EventBarrel> getEventsBarrels(){
+    private ArrayList<EventBarrel> getEventsBarrels(Repository repository, BrewingEvent event){
         try {
-            return this.eventBarrelMapper.findAll();
+            if (event == null || !repository.events().hasEntity(event)) {
+                return new ArrayList<EventBarrel>();
+            }
+            return this.eventBarrelMapper.findByEvent(repository.events().getEntityKey(event));
         } catch (Exception e) {
             return null;
         }
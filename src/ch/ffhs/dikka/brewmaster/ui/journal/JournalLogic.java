@@ -23,12 +23,15 @@ import ch.ffhs.dikka.brewmaster.core.BrewingJournal;
 import ch.ffhs.dikka.brewmaster.core.Ingredient;
 import ch.ffhs.dikka.brewmaster.core.ScaleUnit;
 import ch.ffhs.dikka.brewmaster.core.Task;
+import ch.ffhs.dikka.brewmaster.mapper.AsyncRepository;
 import ch.ffhs.dikka.brewmaster.mapper.MapperException;
+import ch.ffhs.dikka.brewmaster.mapper.Repository;
 import ch.ffhs.dikka.brewmaster.ui.common.AbstractFormLogic;
 
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.function.BiConsumer;
 
 /**
  * This class represent the logic of a brew journal form.
@@ -74,15 +77,33 @@ public class JournalLogic extends AbstractFormLogic<BrewingJournal>{
 
 
         
-        List<ScaleUnit> suList = new ArrayList<ScaleUnit>();
-        try {
-            suList = app.getRepository().scaleUnits().findAll();
-        } catch (MapperException e) {
-            //Exception Handling
-        }
-
+        final BrewingJournal journal = obj;
+        final JournalView journalView = view;
+        app.getAsyncRepository().query(new AsyncRepository.Query<List<ScaleUnit>>() {
+            @Override
+            public List<ScaleUnit> execute(Repository repository) throws MapperException {
+                return repository.scaleUnits().findAll();
+            }
+        }).whenComplete(new BiConsumer<List<ScaleUnit>, Throwable>() {
+            @Override
+            public void accept(List<ScaleUnit> suList, Throwable failure) {
+                if (failure != null) {
+                    reportError("loading the scale units", failure);
+                    suList = new ArrayList<ScaleUnit>();
+                }
+                setIngredientView(journalView, journal, suList);
+            }
+        });
+    }
 
-        
+    /**
+     * Adds the view of the ingredients to the view of the journal.
+     *
+     * @param view the view of the journal
+     * @param obj the journal
+     * @param suList the scale units to choose from
+     */
+    private void setIngredientView(JournalView view, BrewingJournal obj, List<ScaleUnit> suList) {
         List<Ingredient> ingredients = new ArrayList<Ingredient>();
         ingredientIterator = obj.getIngredients();
         while (ingredientIterator.hasNext()) {
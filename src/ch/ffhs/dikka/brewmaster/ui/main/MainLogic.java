@@ -66,7 +66,7 @@ public class MainLogic {
         if (calendarView == null) {
             BrewCalendar calendar = new BrewCalendar ();
 
-            calendarView = new CalendarView (calendar);
+            calendarView = new CalendarView (calendar, CalendarView.RenderMode.VIRTUALIZED);
             calendarLogic = new CalendarLogic (app, calendar);
 
             calendarView.addObserver (calendarLogic);
@@ -19,13 +19,12 @@
 package ch.ffhs.dikka.brewmaster;
 
 import ch.ffhs.dikka.brewmaster.mapper.ConnectionFactory;
+import ch.ffhs.dikka.brewmaster.mapper.ConnectionPool;
 import ch.ffhs.dikka.brewmaster.mapper.Repository;
 import ch.ffhs.dikka.brewmaster.mapper.MapperException;
-import ch.ffhs.dikka.brewmaster.util.InitDB;
+import ch.ffhs.dikka.brewmaster.mapper.migration.SchemaMigrator;
 import ch.ffhs.dikka.brewmaster.core.WorkingDirectory;
 
-import java.sql.Connection;
-import java.sql.SQLException;
 import java.io.File;
 import java.io.IOException;
 
@@ -35,13 +34,17 @@ import java.io.IOException;
  */
 public class TestRepository
 {
-    /** The database connection to use */
-    private static Connection connection = null;
+    /** The database connections to use */
+    private static ConnectionPool pool = null;
 
     /** The test repository */
     private static Repository repository = null;
 
     private static final String TEST_DATABASE_FILE = "brew-master-pro.test.sqlite";
+
+    /** The number of read-only connections */
+    private static final int TEST_READERS = 2;
+
     /**
      * Opens the test repository.
      * @return the test repository
@@ -50,10 +53,10 @@ public class TestRepository
      */
     public static Repository open () throws BrewMasterTestException
     {
-        if (connection == null) {
+        if (pool == null) {
             try {
-                connection = createConnection ();
-                repository = new Repository (connection);
+                pool = createPool ();
+                repository = new Repository (pool);
             }
             catch (BrewMasterException e) {
                 throw new BrewMasterTestException (
@@ -69,13 +72,13 @@ public class TestRepository
      */
     public static void close ()
     {
-        if (connection != null) {
+        if (pool != null) {
             try {
-                connection.close ();
+                repository.close ();
             }
-            catch (SQLException e) {}
+            catch (MapperException e) {}
             finally {
-                connection = null;
+                pool = null;
                 repository = null;
             }
         }
@@ -97,34 +100,30 @@ public class TestRepository
     }
 
     /**
-     * Creates a new connection.
-     * @return a new connection to a testing database
+     * Creates a new pool of connections.
+     * @return a new pool of connections to a testing database
      * @throws BrewMasterTestException if the database connection is not available
      *         and cannot be established.
      */
-    private static Connection createConnection () throws BrewMasterTestException
+    private static ConnectionPool createPool () throws BrewMasterTestException
     {
-        Connection dbConnection = null;
+        ConnectionPool dbPool = null;
 
         try {
 
             String testDbPath = WorkingDirectory.getFilePath (TEST_DATABASE_FILE);
             File testDbFile = new File (testDbPath);
-            boolean init = false;
 
             if (testDbFile.exists () && testDbFile.length () < 10) {
                 testDbFile.delete ();
             }
             if (!testDbFile.exists ()) {
                 testDbFile.createNewFile ();
-                init = true;
             }
 
-            dbConnection = ConnectionFactory.create (testDbPath);
+            dbPool = ConnectionFactory.createPool (testDbPath, TEST_READERS);
 
-            if (init) {
-                new InitDB (dbConnection);
-            }
+            new SchemaMigrator (dbPool.getWriter ()).migrate ();
         }
         catch (MapperException e) {
             throw new BrewMasterTestException ("Cannot create the database connection.");
@@ -137,6 +136,6 @@ public class TestRepository
                     "Cannot re-create the file for the database on the given path.");
         }
 
-        return dbConnection;
+        return dbPool;
     }
 }
@@ -0,0 +1,227 @@
+/* 
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.core;
+
+import java.util.ArrayList;
+import java.util.Date;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/*
+ * JUnit Test for the BrewCalendar
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+public class BrewCalendarTest
+{
+    /** One day in milliseconds */
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    /** The tested calendar */
+    private BrewCalendar calendar;
+
+    @Before
+    public void setUp ()
+    {
+        calendar = new BrewCalendar ();
+        calendar.setDateRange (day (0), day (100));
+    }
+
+    @Test
+    public void testEventsAreOrderedByStart ()
+    {
+        BrewingEvent late = event (50, 60);
+        BrewingEvent early = event (10, 20);
+        BrewingEvent outside = event (120, 130);
+
+        assertTrue (calendar.addEvent (late));
+        assertTrue (calendar.addEvent (early));
+        assertFalse (calendar.addEvent (early));
+        assertFalse (calendar.addEvent (outside));
+
+        assertEquals (2, calendar.size ());
+        assertSame (early, calendar.eventAtIndex (0));
+        assertEquals (1, calendar.indexOfEvent (late));
+        assertEquals (-1, calendar.indexOfEvent (outside));
+    }
+
+    @Test
+    public void testOverlapQueries ()
+    {
+        ArrayList<BrewingEvent> events = new ArrayList<BrewingEvent> ();
+        for (int i = 0; i < 90; ++i) {
+            events.add (event (i, i + (i % 7)));
+        }
+        calendar.setEvents (events);
+
+        for (int from = 0; from < 100; from += 3) {
+            for (int to = from; to < 100; to += 11) {
+                assertEquals (scan (events, from, to),
+                        calendar.getEventsInBetween (day (from), day (to)));
+            }
+            assertEquals (scan (events, from, from), calendar.getEventsAt (day (from)));
+        }
+    }
+
+    @Test
+    public void testNarrowingDropsEventsOutsideTheRange ()
+    {
+        BrewingEvent first = event (5, 10);
+        BrewingEvent running = event (8, 80);
+        BrewingEvent last = event (90, 95);
+        calendar.addEvent (first);
+        calendar.addEvent (running);
+        calendar.addEvent (last);
+
+        calendar.setStartingDate (day (20));
+        assertEquals (2, calendar.size ());
+        assertEquals (-1, calendar.indexOfEvent (first));
+
+        calendar.setEndingDate (day (85));
+        assertEquals (1, calendar.size ());
+        assertSame (running, calendar.eventAtIndex (0));
+    }
+
+    @Test
+    public void testSettingEventsNotifiesTheDifferenceOnly ()
+    {
+        BrewingEvent kept = event (10, 20);
+        BrewingEvent moved = event (30, 40);
+        BrewingEvent dropped = event (50, 60);
+        BrewingEvent added = event (70, 80);
+
+        ArrayList<BrewingEvent> events = new ArrayList<BrewingEvent> ();
+        events.add (kept);
+        events.add (moved);
+        events.add (dropped);
+        calendar.setEvents (events);
+
+        RecordingListener listener = new RecordingListener ();
+        calendar.addListener (listener);
+
+        moved.setStart (day (5));
+        events.remove (dropped);
+        events.add (added);
+        calendar.setEvents (events);
+
+        assertEquals (1, listener.added.size ());
+        assertSame (added, listener.added.get (0));
+        assertEquals (1, listener.removed.size ());
+        assertSame (dropped, listener.removed.get (0));
+        assertEquals (1, listener.changed.size ());
+        assertSame (moved, listener.changed.get (0));
+        assertEquals (1, listener.calendarChanges);
+        assertSame (moved, calendar.eventAtIndex (0));
+
+        calendar.setEvents (events);
+        assertEquals (1, listener.calendarChanges);
+    }
+
+    @Test
+    public void testSwappingEventsNotifiesEveryStageApplied ()
+    {
+        final BrewingEvent old = event (10, 20);
+        final BrewingEvent replacement = event (5, 15);
+        calendar.addEvent (old);
+
+        final ArrayList<String> failures = new ArrayList<String> ();
+        calendar.addListener (new RecordingListener () {
+            public void eventsRemoved (ArrayList<BrewingEvent> events)
+            {
+                super.eventsRemoved (events);
+                if (calendar.size () != 0 || calendar.indexOfEvent (replacement) != -1) {
+                    failures.add ("the added event is known on removal");
+                }
+            }
+
+            public void eventsAdded (ArrayList<BrewingEvent> events)
+            {
+                super.eventsAdded (events);
+                if (calendar.indexOfEvent (replacement) != 0) {
+                    failures.add ("the added event is unknown on adding");
+                }
+            }
+        });
+
+        ArrayList<BrewingEvent> events = new ArrayList<BrewingEvent> ();
+        events.add (replacement);
+        calendar.setEvents (events);
+
+        assertEquals (new ArrayList<String> (), failures);
+        assertEquals (1, calendar.size ());
+        assertSame (replacement, calendar.eventAtIndex (0));
+    }
+
+    /**
+     * Records the notifications of a calendar.
+     */
+    private static class RecordingListener
+        implements BrewCalendarListener
+    {
+        ArrayList<BrewingEvent> added = new ArrayList<BrewingEvent> ();
+        ArrayList<BrewingEvent> removed = new ArrayList<BrewingEvent> ();
+        ArrayList<BrewingEvent> changed = new ArrayList<BrewingEvent> ();
+        int calendarChanges = 0;
+
+        public void calendarChanged ()
+        { ++calendarChanges; }
+
+        public void eventsAdded (ArrayList<BrewingEvent> events)
+        { added.addAll (events); }
+
+        public void eventsRemoved (ArrayList<BrewingEvent> events)
+        { removed.addAll (events); }
+
+        public void eventsChanged (ArrayList<BrewingEvent> events)
+        { changed.addAll (events); }
+
+        public void rangeChanged (Date start, Date end)
+        {}
+    }
+
+    /**
+     * Returns the events overlapping the given days by checking every event.
+     */
+    private ArrayList<BrewingEvent> scan (ArrayList<BrewingEvent> events, int from, int to)
+    {
+        ArrayList<BrewingEvent> found = new ArrayList<BrewingEvent> ();
+        for (BrewingEvent event : events) {
+            if (event.getStart ().compareTo (day (to)) <= 0
+                && event.getEnd ().compareTo (day (from)) >= 0) {
+                found.add (event);
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * Creates an event lasting from one day to another.
+     */
+    private static BrewingEvent event (int from, int to)
+    { return new BrewingEvent ("Event", "", day (from), day (to)); }
+
+    /**
+     * Returns the date of the given day.
+     */
+    private static Date day (int day)
+    { return new Date (day * DAY); }
+}
@@ -0,0 +1,143 @@
+/* 
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.core;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Random;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/*
+ * JUnit Test for the EventIntervalIndex
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+public class EventIntervalIndexTest
+{
+    /** The tested index */
+    private EventIntervalIndex index;
+
+    @Before
+    public void setUp ()
+    {
+        index = new EventIntervalIndex ();
+    }
+
+    @Test
+    public void testEqualStartsKeepOrderOfAdding ()
+    {
+        BrewingEvent first = event (10, 20);
+        BrewingEvent second = event (10, 15);
+        BrewingEvent earlier = event (5, 6);
+
+        index.add (first);
+        index.add (second);
+        index.add (earlier);
+
+        assertSame (earlier, index.get (0));
+        assertSame (first, index.get (1));
+        assertSame (second, index.get (2));
+        assertEquals (2, index.indexOf (second));
+    }
+
+    @Test
+    public void testChangesMatchScan ()
+    {
+        Random random = new Random (42);
+        ArrayList<BrewingEvent> events = new ArrayList<BrewingEvent> ();
+
+        for (int step = 0; step < 2000; ++step) {
+            int action = random.nextInt (4);
+            if (action < 2 || events.isEmpty ()) {
+                long start = random.nextInt (1000);
+                BrewingEvent event = event (start, start + random.nextInt (50));
+                events.add (event);
+                assertTrue (index.add (event));
+            }
+            else if (action == 2) {
+                BrewingEvent event = events.remove (random.nextInt (events.size ()));
+                assertTrue (index.remove (event));
+            }
+            else {
+                BrewingEvent event = events.get (random.nextInt (events.size ()));
+                long start = random.nextInt (1000);
+                event.setStart (new Date (start));
+                event.setEnd (new Date (start + random.nextInt (50)));
+                assertTrue (index.isMoved (event));
+                assertTrue (index.update (event));
+                assertFalse (index.isMoved (event));
+            }
+
+            if (step % 100 == 0) {
+                assertConsistent (events);
+            }
+        }
+        assertConsistent (events);
+
+        ArrayList<BrewingEvent> kept = scan (index.toList (), 200, 600);
+        index.retainOverlapping (200, 600);
+        assertEquals (kept, index.toList ());
+        assertEquals (scan (kept, 300, 400), index.findOverlapping (300, 400));
+    }
+
+    /*
+     * Checks the order, the positions and the overlap queries against the given events.
+     */
+    private void assertConsistent (ArrayList<BrewingEvent> events)
+    {
+        assertEquals (events.size (), index.size ());
+
+        ArrayList<BrewingEvent> ordered = index.toList ();
+        for (int i = 0; i < ordered.size (); ++i) {
+            assertSame (ordered.get (i), index.get (i));
+            assertEquals (i, index.indexOf (ordered.get (i)));
+            if (i > 0) {
+                assertTrue (ordered.get (i - 1).getStart ().compareTo (ordered.get (i).getStart ()) <= 0);
+            }
+        }
+
+        for (long from = 0; from < 1050; from += 37) {
+            assertEquals (scan (ordered, from, from + 20), index.findOverlapping (from, from + 20));
+        }
+    }
+
+    /*
+     * Returns the given events overlapping the range in their order.
+     */
+    private static ArrayList<BrewingEvent> scan (ArrayList<BrewingEvent> events, long begin, long end)
+    {
+        ArrayList<BrewingEvent> found = new ArrayList<BrewingEvent> ();
+        for (BrewingEvent event : events) {
+            if (event.getStart ().getTime () <= end && event.getEnd ().getTime () >= begin) {
+                found.add (event);
+            }
+        }
+
+        return found;
+    }
+
+    /*
+     * Creates an event of the given times in milliseconds.
+     */
+    private static BrewingEvent event (long start, long end)
+    { return new BrewingEvent ("Event", "", new Date (start), new Date (end)); }
+}
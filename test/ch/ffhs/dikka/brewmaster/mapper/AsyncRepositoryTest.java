@@ -0,0 +1,239 @@
+/* 
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.mapper;
+
+import ch.ffhs.dikka.brewmaster.BrewMasterTestException;
+import ch.ffhs.dikka.brewmaster.TestRepository;
+import ch.ffhs.dikka.brewmaster.core.BrewingEvent;
+
+import java.awt.EventQueue;
+
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/*
+ * JUnit Test for the AsyncRepository
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+public class AsyncRepositoryTest
+{
+    /** The used testing repository */
+    private Repository repository;
+
+    /** The tested facade */
+    private AsyncRepository async;
+
+    /** Holds the database thread until released */
+    private CountDownLatch gate;
+
+    @Before
+    public void setUp () throws BrewMasterTestException
+    {
+        repository = TestRepository.open ();
+        async = new AsyncRepository (repository);
+        gate = new CountDownLatch (1);
+    }
+
+    @After
+    public void tearDown ()
+    {
+        gate.countDown ();
+        async.close ();
+        TestRepository.close ();
+        repository = null;
+    }
+
+    @Test
+    public void testQueryIsCompletedOnTheEventDispatchThread () throws Exception
+    {
+        final Thread caller = Thread.currentThread ();
+        holdDatabaseThread ();
+
+        CompletableFuture<Boolean> offCaller = async.query (new AsyncRepository.Query<Boolean> ()
+        {
+            @Override
+            public Boolean execute (Repository repository) throws MapperException
+            {
+                repository.events ().findAll ();
+                return Thread.currentThread () != caller;
+            }
+        });
+        CompletableFuture<Boolean> onEdt = offCaller.thenApply (
+                (Boolean value) -> EventQueue.isDispatchThread ());
+
+        gate.countDown ();
+
+        // waiting on offCaller itself would let this thread run its callbacks
+        assertTrue (onEdt.get (5, TimeUnit.SECONDS));
+        assertTrue (offCaller.get ());
+    }
+
+    @Test
+    public void testNewerQuerySupersedesUnfinishedOne () throws Exception
+    {
+        final AtomicInteger executions = new AtomicInteger ();
+        AsyncRepository.Query<Integer> counting = new AsyncRepository.Query<Integer> ()
+        {
+            @Override
+            public Integer execute (Repository repository)
+            { return executions.incrementAndGet (); }
+        };
+
+        holdDatabaseThread ();
+        CompletableFuture<Integer> first = async.query ("window", counting);
+        CompletableFuture<Integer> second = async.query ("window", counting);
+        gate.countDown ();
+
+        assertEquals (Integer.valueOf (1), second.get (5, TimeUnit.SECONDS));
+        assertTrue (first.isCancelled ());
+        assertEquals (1, executions.get ());
+    }
+
+    @Test
+    public void testWriteIsFlushed () throws Exception
+    {
+        final BrewingEvent event = new BrewingEvent (
+                "Reinigung", "", new Date (1356336000000L), new Date (1356343200000L));
+
+        async.write (new AsyncRepository.Query<Void> ()
+        {
+            @Override
+            public Void execute (Repository repository) throws MapperException
+            {
+                repository.events ().persist (event);
+                return null;
+            }
+        }).get (5, TimeUnit.SECONDS);
+
+        Integer id = repository.events ().getEntityKey (event);
+        repository.events ().unload (event);
+        assertEquals ("Reinigung", repository.events ().find (id).getName ());
+    }
+
+    @Test
+    public void testFailingWriteIsRolledBack () throws Exception
+    {
+        final AtomicReference<Integer> id = new AtomicReference<Integer> ();
+
+        CompletableFuture<Void> failing = async.write (new AsyncRepository.Query<Void> ()
+        {
+            @Override
+            public Void execute (Repository repository) throws MapperException
+            {
+                BrewingEvent event = new BrewingEvent (
+                        "Reinigung", "", new Date (1356336000000L), new Date (1356343200000L));
+                repository.events ().persist (event);
+                id.set (repository.events ().getEntityKey (event));
+
+                throw new MapperException ("Failing work.");
+            }
+        });
+        try {
+            failing.get (5, TimeUnit.SECONDS);
+            fail ("The failing work has been completed.");
+        }
+        catch (ExecutionException e) {
+            assertTrue (e.getCause () instanceof MapperException);
+        }
+
+        async.write (new AsyncRepository.Query<Void> ()
+        {
+            @Override
+            public Void execute (Repository repository) throws MapperException
+            {
+                repository.events ().findAll ();
+                return null;
+            }
+        }).get (5, TimeUnit.SECONDS);
+
+        repository.events ().unloadAll ();
+        assertNull (repository.events ().find (id.get ()));
+    }
+
+    @Test
+    public void testFailingQueryIsNotRolledBack () throws Exception
+    {
+        final BrewingEvent event = new BrewingEvent (
+                "Reinigung", "", new Date (1356336000000L), new Date (1356343200000L));
+
+        async.query (new AsyncRepository.Query<Void> ()
+        {
+            @Override
+            public Void execute (Repository repository) throws MapperException
+            {
+                repository.events ().persist (event);
+                return null;
+            }
+        }).get (5, TimeUnit.SECONDS);
+
+        CompletableFuture<Void> failing = async.query (new AsyncRepository.Query<Void> ()
+        {
+            @Override
+            public Void execute (Repository repository) throws MapperException
+            { throw new MapperException ("Failing query."); }
+        });
+        try {
+            failing.get (5, TimeUnit.SECONDS);
+            fail ("The failing query has been completed.");
+        }
+        catch (ExecutionException e) {
+            assertTrue (e.getCause () instanceof MapperException);
+        }
+
+        async.write (new AsyncRepository.Query<Void> ()
+        {
+            @Override
+            public Void execute (Repository repository)
+            { return null; }
+        }).get (5, TimeUnit.SECONDS);
+
+        Integer id = repository.events ().getEntityKey (event);
+        repository.events ().unload (event);
+        assertNotNull (repository.events ().find (id));
+    }
+
+    /**
+     * Keeps the database thread busy until the gate opens.
+     */
+    private void holdDatabaseThread ()
+    {
+        async.query (new AsyncRepository.Query<Void> ()
+        {
+            @Override
+            public Void execute (Repository repository)
+            {
+                try {
+                    gate.await ();
+                }
+                catch (InterruptedException e) {}
+                return null;
+            }
+        });
+    }
+}
@@ -0,0 +1,207 @@
+/* 
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.mapper;
+
+import ch.ffhs.dikka.brewmaster.BrewMasterTestException;
+import ch.ffhs.dikka.brewmaster.TestRepository;
+import ch.ffhs.dikka.brewmaster.core.Barrel;
+import ch.ffhs.dikka.brewmaster.core.BrewingEvent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/*
+ * JUnit Test for the BarrelAvailability
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+public class BarrelAvailabilityTest
+{
+    /** One hour in milliseconds */
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    /** The used testing repository */
+    private Repository repository;
+
+    /** The tested availability */
+    private BarrelAvailability availability;
+
+    /** The event booking barrel 2 */
+    private BrewingEvent event;
+
+    @Before
+    public void setUp () throws BrewMasterTestException, MapperException
+    {
+        repository = TestRepository.open ();
+        availability = repository.barrelAvailability ();
+        availability.afterRollback ();
+        event = repository.events ().find (1);
+    }
+
+    @After
+    public void tearDown ()
+    {
+        TestRepository.close ();
+        repository = null;
+    }
+
+    @Test
+    public void testBookedBarrelIsOnlyTakenWhileTheEventRuns () throws MapperException
+    {
+        final long start = event.getStart ().getTime ();
+        final long end = event.getEnd ().getTime ();
+
+        assertFalse (availability.isFree (2, new Date (start + HOUR), new Date (start + 2 * HOUR), -1));
+        assertFalse (availability.isFree (2, new Date (start - HOUR), new Date (end + HOUR), -1));
+        assertTrue (availability.isFree (2, new Date (start + HOUR), new Date (start + 2 * HOUR), 1));
+
+        assertTrue (availability.isFree (2, new Date (start - HOUR), new Date (start), -1));
+        assertTrue (availability.isFree (2, new Date (end), new Date (end + HOUR), -1));
+
+        // barrel 1 is linked to an event that does not exist
+        assertTrue (availability.isFree (1, new Date (start), new Date (end), -1));
+        assertTrue (availability.isFree (3, new Date (start), new Date (end), -1));
+    }
+
+    @Test
+    public void testFreeBarrelsOfAnEvent () throws MapperException
+    {
+        ArrayList<Barrel> barrels = repository.barrels ().findAll ();
+        Barrel booked = repository.barrels ().find (2);
+
+        BrewingEvent overlapping = new BrewingEvent ("Abfüllen", "",
+                new Date (event.getStart ().getTime () + HOUR),
+                new Date (event.getEnd ().getTime () + HOUR));
+
+        ArrayList<Barrel> free = availability.findFreeBarrels (barrels, overlapping);
+        assertEquals (barrels.size () - 1, free.size ());
+        assertFalse (free.contains (booked));
+
+        assertEquals (barrels.size (), availability.findFreeBarrels (barrels, event).size ());
+        assertEquals (barrels.size (), availability.findFreeBarrels (barrels, new BrewingEvent ()).size ());
+    }
+
+    @Test
+    public void testSavedEventDatesAreFollowed () throws MapperException
+    {
+        final Date start = event.getStart ();
+        final Date end = event.getEnd ();
+        assertFalse (availability.isFree (2, start, end, -1));
+
+        try {
+            event.setStart (new Date (start.getTime () + 100 * HOUR));
+            event.setEnd (new Date (end.getTime () + 100 * HOUR));
+            repository.events ().update (event);
+            repository.flush ();
+
+            assertTrue (availability.isFree (2, start, end, -1));
+            assertFalse (availability.isFree (2, event.getStart (), event.getEnd (), -1));
+        }
+        finally {
+            event.setStart (start);
+            event.setEnd (end);
+            repository.events ().update (event);
+            repository.flush ();
+        }
+
+        assertFalse (availability.isFree (2, start, end, -1));
+    }
+
+    @Test
+    public void testUncommittedBookingsCountForTheirTransactionOnly () throws Exception
+    {
+        final Date start = event.getStart ();
+        final Date end = event.getEnd ();
+        assertTrue (availability.isFree (3, start, end, -1));
+
+        // the shared connection must not read an older state than the units of work write
+        repository.flush ();
+
+        final boolean[] freeElsewhere = new boolean[1];
+        final ArrayList<Exception> failures = new ArrayList<Exception> ();
+        Thread other = new Thread (new Runnable ()
+        {
+            @Override
+            public void run ()
+            {
+                try {
+                    repository.beginUnitOfWork ();
+                    try {
+                        freeElsewhere[0] = availability.isFree (3, start, end, -1);
+                        repository.events ().update (event);
+                    }
+                    finally {
+                        repository.endUnitOfWork ();
+                    }
+                }
+                catch (MapperException e) {
+                    failures.add (e);
+                }
+            }
+        });
+
+        repository.beginUnitOfWork ();
+        try {
+            repository.eventsBarrels ().link (1, Collections.singletonList (3));
+            assertFalse (availability.isFree (3, start, end, -1));
+
+            // another transaction neither sees the booking nor drops it by its rollback
+            other.start ();
+            other.join ();
+            assertEquals (new ArrayList<Exception> (), failures);
+            assertTrue (freeElsewhere[0]);
+            assertFalse (availability.isFree (3, start, end, -1));
+
+            repository.flush ();
+        }
+        finally {
+            repository.endUnitOfWork ();
+        }
+
+        try {
+            assertFalse (availability.isFree (3, start, end, -1));
+        }
+        finally {
+            repository.eventsBarrels ().unlink (1, Collections.singletonList (3));
+            repository.flush ();
+        }
+
+        assertTrue (availability.isFree (3, start, end, -1));
+    }
+
+    @Test
+    public void testRolledBackBookingsAreDropped () throws MapperException
+    {
+        final Date start = event.getStart ();
+        final Date end = event.getEnd ();
+        assertTrue (availability.isFree (3, start, end, -1));
+
+        repository.eventsBarrels ().link (1, Collections.singletonList (3));
+        assertFalse (availability.isFree (3, start, end, -1));
+        assertTrue (repository.rollback ());
+
+        assertTrue (availability.isFree (3, start, end, -1));
+        assertFalse (availability.isFree (2, start, end, -1));
+    }
+}
@@ -27,6 +27,10 @@ import ch.ffhs.dikka.brewmaster.TestRepository;
 import java.util.ArrayList;
 import java.util.Date;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
 import org.junit.*;
 import static org.junit.Assert.*;
 
@@ -208,4 +212,211 @@ public class BrewingJournalMapperTest
 
         assertNull (notExistingJournal);
     }
+
+    @Test
+    public void testPersistManyTasksInBatches () throws MapperException
+    {
+        BrewingJournalMapper journalMapper = repository.journals ();
+        TaskMapper taskMapper = repository.tasks ();
+        BrewingJournal journal = persistSimpleJournal ();
+
+        for (int i = 0; i < 250; ++i) {
+            Task task = new Task ();
+            task.setName ("Batch-Task " + i).setDegree (i);
+            journal.addTask (task);
+        }
+
+        journalMapper.update (journal);
+        repository.flush ();
+
+        ArrayList<Integer> keys = new ArrayList<Integer> ();
+        java.util.Iterator<Task> tasks = journal.getTasks ();
+        while (tasks.hasNext ()) {
+            Task task = tasks.next ();
+            Integer key = taskMapper.getEntityKey (task);
+
+            assertFalse (keys.contains (key));
+            assertEquals (task.getName (), taskMapper.find (key).getName ());
+            keys.add (key);
+        }
+        assertEquals (251, keys.size ());
+
+        Task renamed = journal.getTasks ().next ();
+        renamed.setName ("Umbenannt");
+        journalMapper.update (journal);
+        repository.flush ();
+
+        Integer id = journalMapper.getEntityKey (journal);
+        taskMapper.unloadAll ();
+        journalMapper.unloadAll ();
+
+        BrewingJournal reloaded = journalMapper.find (id);
+        ArrayList<Task> reloadedTasks = taskMapper.findAllByJournal (reloaded);
+
+        assertEquals (251, reloadedTasks.size ());
+        assertEquals ("Umbenannt", taskMapper.find (keys.get (0)).getName ());
+    }
+
+    @Test
+    public void testFindAllHydratesSetBased () throws MapperException
+    {
+        BrewingJournalMapper journalMapper = repository.journals ();
+        Integer id = journalMapper.getEntityKey (persistSimpleJournal ());
+
+        journalMapper.unloadAll ();
+        repository.ingredients ().unloadAll ();
+        repository.tasks ().unloadAll ();
+        repository.events ().unloadAll ();
+        repository.scaleUnits ().unloadAll ();
+
+        ArrayList<BrewingJournal> journals = journalMapper.findAll ();
+        int chunks = (journals.size () + journalMapper.getBatchSize () - 1)
+            / journalMapper.getBatchSize ();
+
+        assertEquals (2 + 3 * chunks, journalMapper.getHydrationQueryCount ());
+
+        BrewingJournal journal = journalMapper.find (id);
+        int ingredients = 0;
+        java.util.Iterator<Ingredient> ingredientIterator = journal.getIngredients ();
+        while (ingredientIterator.hasNext ()) {
+            assertEquals ("kg", ingredientIterator.next ().getScaleUnit ().getShortName ());
+            ++ingredients;
+        }
+
+        assertEquals (12, ingredients);
+        assertEquals ("Probieren", journal.getTasks ().next ().getName ());
+        assertTrue (journal.getEvents ().hasNext ());
+    }
+
+    @Test
+    public void testSavingUnchangedJournalWritesNothing () throws MapperException, SQLException
+    {
+        BrewingJournalMapper journalMapper = repository.journals ();
+        Integer id = journalMapper.getEntityKey (persistSimpleJournal ());
+
+        journalMapper.unloadAll ();
+        repository.ingredients ().unloadAll ();
+        repository.tasks ().unloadAll ();
+
+        BrewingJournal journal = journalMapper.find (id);
+        int changes = getTotalChanges ();
+
+        journalMapper.update (journal);
+        repository.flush ();
+        assertEquals (changes, getTotalChanges ());
+
+        journal.setDescription ("Nur die Beschreibung");
+        journal.getTasks ().next ().setDegree (42);
+        journalMapper.update (journal);
+        repository.flush ();
+        assertEquals (changes + 2, getTotalChanges ());
+        assertFalse (journalMapper.hasChanges (journal));
+
+        journalMapper.unloadAll ();
+        repository.tasks ().unloadAll ();
+        journal = journalMapper.find (id);
+
+        assertEquals ("Nur die Beschreibung", journal.getDescription ());
+        assertEquals ("Gelb", journal.getExpectedColor ());
+        assertEquals (42, journal.getTasks ().next ().getDegree (), 0.001);
+        assertEquals (1, repository.tasks ().findAllByJournal (journal).size ());
+    }
+
+    @Test
+    public void testEventRelationsAreSavedByDifference () throws MapperException, SQLException
+    {
+        BrewingJournalMapper journalMapper = repository.journals ();
+        BrewingJournal journal = persistSimpleJournal ();
+        Integer id = journalMapper.getEntityKey (journal);
+        BrewingEvent first = journal.getEvents ().next ();
+
+        BrewingEvent second = new BrewingEvent (
+                "Abfüllen", "", first.getEnd (), new Date (first.getEnd ().getTime () + 3600000L));
+        repository.events ().persist (second);
+        repository.flush ();
+
+        int changes = getTotalChanges ();
+        journal.addEvent (second);
+        journalMapper.update (journal);
+        repository.flush ();
+        assertEquals (changes + 1, getTotalChanges ());
+
+        journal.removeEvent (first);
+        journalMapper.update (journal);
+        repository.flush ();
+        assertEquals (changes + 2, getTotalChanges ());
+
+        journalMapper.unloadAll ();
+        journal = journalMapper.find (id);
+        java.util.Iterator<BrewingEvent> events = journal.getEvents ();
+        assertSame (second, events.next ());
+        assertFalse (events.hasNext ());
+    }
+
+    @Test
+    public void testRemovedChildrenAreDeletedBySet () throws MapperException, SQLException
+    {
+        BrewingJournalMapper journalMapper = repository.journals ();
+        IngredientMapper ingredientMapper = repository.ingredients ();
+        BrewingJournal journal = persistSimpleJournal ();
+
+        Integer id = journalMapper.getEntityKey (journal);
+
+        ArrayList<Ingredient> removed = new ArrayList<Ingredient> ();
+        java.util.Iterator<Ingredient> ingredients = journal.getIngredients ();
+        for (int i = 0; i < 5; ++i) {
+            removed.add (ingredients.next ());
+        }
+        for (Ingredient ingredient : removed) {
+            journal.removeIngredient (ingredient);
+        }
+
+        // the last of three deletes is padded with nulls
+        ingredientMapper.setBatchSize (2);
+        int changes = getTotalChanges ();
+        journalMapper.update (journal);
+        repository.flush ();
+        ingredientMapper.setBatchSize (IngredientMapper.DEFAULT_BATCH_SIZE);
+        assertEquals (changes + 5, getTotalChanges ());
+
+        for (Ingredient ingredient : removed) {
+            assertFalse (ingredientMapper.hasEntity (ingredient));
+        }
+        assertEquals (7, ingredientMapper.findAllByJournal (journal).size ());
+
+        Ingredient kept = journal.getIngredients ().next ();
+        journalMapper.remove (journal);
+        repository.flush ();
+
+        assertFalse (ingredientMapper.hasEntity (kept));
+        assertEquals (0, countRows ("ingredient", id));
+        assertEquals (0, countRows ("task", id));
+    }
+
+    /*
+     * Returns the number of rows of the given table owned by a journal.
+     */
+    private int countRows (String table, int journalId) throws SQLException
+    {
+        Statement statement = repository.getConnection ().createStatement ();
+        ResultSet result = statement.executeQuery (
+                "SELECT COUNT(*) FROM " + table + " WHERE journal_id = " + journalId);
+        int count = result.getInt (1);
+        statement.close ();
+
+        return count;
+    }
+
+    /*
+     * Returns the number of rows changed on the connection written to.
+     */
+    private int getTotalChanges () throws SQLException
+    {
+        Statement statement = repository.getConnection ().createStatement ();
+        ResultSet result = statement.executeQuery ("SELECT total_changes ()");
+        int changes = result.getInt (1);
+        statement.close ();
+
+        return changes;
+    }
 }
@@ -0,0 +1,171 @@
+/* 
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.mapper;
+
+import ch.ffhs.dikka.brewmaster.BrewMasterTestException;
+import ch.ffhs.dikka.brewmaster.TestRepository;
+import ch.ffhs.dikka.brewmaster.core.BrewingEvent;
+
+import java.sql.Connection;
+import java.util.Date;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/*
+ * JUnit Test for the ConnectionPool
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+public class ConnectionPoolTest
+{
+    /** The used testing repository */
+    private Repository repository;
+
+    /** The pool of the testing repository */
+    private ConnectionPool pool;
+
+    @Before
+    public void setUp () throws BrewMasterTestException, MapperException
+    {
+        repository = TestRepository.open ();
+        pool = repository.getConnectionPool ();
+        repository.flush ();
+    }
+
+    @After
+    public void tearDown ()
+    {
+        TestRepository.close ();
+        repository = null;
+        pool = null;
+    }
+
+    @Test
+    public void testReadsUseReaders () throws MapperException
+    {
+        long acquisitions = pool.getStatistics ().getAcquisitionCount ();
+
+        Connection reader = pool.beginRead ();
+        assertNotSame (pool.getWriter (), reader);
+        assertSame (reader, pool.beginRead ());
+        assertSame (reader, pool.getReadConnection ());
+        assertEquals (1, pool.getStatistics ().getBusyReaders ());
+
+        pool.endRead ();
+        pool.endRead ();
+
+        assertSame (pool.getWriter (), pool.getReadConnection ());
+        assertEquals (0, pool.getStatistics ().getBusyReaders ());
+        assertEquals (acquisitions + 1, pool.getStatistics ().getAcquisitionCount ());
+    }
+
+    @Test
+    public void testReadsSeeUncommittedWrites () throws MapperException
+    {
+        EventMapper events = repository.events ();
+        BrewingEvent event = new BrewingEvent ();
+        event.setName ("Abfüllen");
+        event.setStart (new Date (1356109200000L));
+        event.setEnd (new Date (1356148800000L));
+        events.persist (event);
+        Integer id = events.getEntityKey (event);
+
+        assertTrue (pool.hasPendingWrites ());
+        long writerReads = pool.getStatistics ().getWriterReadCount ();
+
+        events.unload (event);
+        BrewingEvent found = events.find (id);
+        assertNotNull (found);
+        assertEquals ("Abfüllen", found.getName ());
+        assertTrue (pool.getStatistics ().getWriterReadCount () > writerReads);
+
+        repository.flush ();
+        assertFalse (pool.hasPendingWrites ());
+
+        events.unload (found);
+        assertNotNull (events.find (id));
+    }
+
+    @Test
+    public void testRollbackEndsPendingWrites () throws MapperException
+    {
+        EventMapper events = repository.events ();
+        BrewingEvent event = events.findAll ().get (0);
+        event.setName ("Umbenannt");
+        events.update (event);
+
+        assertFalse (pool.hasPendingWrites ());
+        events.writeChanges ();
+        assertTrue (pool.hasPendingWrites ());
+
+        assertTrue (repository.rollback ());
+        assertFalse (pool.hasPendingWrites ());
+
+        Connection reader = pool.beginRead ();
+        assertNotSame (pool.getWriter (), reader);
+        pool.endRead ();
+    }
+
+    @Test
+    public void testCommittedReadsLeaveChangesPending () throws MapperException
+    {
+        EventMapper events = repository.events ();
+        BrewingEvent event = events.findAll ().get (0);
+        event.setName ("Umbenannt");
+        events.update (event);
+
+        Connection reader = pool.beginCommittedRead ();
+        try {
+            assertNotSame (pool.getWriter (), reader);
+            assertTrue (pool.isReadingCommitted ());
+            events.findAll ();
+        }
+        finally {
+            pool.endRead ();
+        }
+
+        assertFalse (pool.isReadingCommitted ());
+        assertFalse (pool.hasPendingWrites ());
+
+        events.writeChanges ();
+        assertTrue (pool.hasPendingWrites ());
+
+        reader = pool.beginCommittedRead ();
+        assertNotSame (pool.getWriter (), reader);
+        pool.endRead ();
+
+        assertTrue (repository.rollback ());
+    }
+
+    @Test
+    public void testStatistics () throws MapperException
+    {
+        repository.events ().unloadAll ();
+        repository.events ().findAll ();
+
+        PoolStatistics statistics = pool.getStatistics ();
+        assertEquals (2, statistics.getReaders ());
+        assertTrue (statistics.getAcquisitionCount () > 0);
+        assertTrue (statistics.getUtilization () >= 0);
+        assertTrue (statistics.getUtilization () <= 1);
+        assertTrue (statistics.getMaxWaitMillis () >= statistics.getAverageWaitMillis ());
+    }
+}
@@ -0,0 +1,185 @@
+/* 
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.mapper;
+
+import ch.ffhs.dikka.brewmaster.BrewMasterTestException;
+import ch.ffhs.dikka.brewmaster.TestRepository;
+import ch.ffhs.dikka.brewmaster.core.BrewingEvent;
+import ch.ffhs.dikka.brewmaster.core.EventBarrel;
+import ch.ffhs.dikka.brewmaster.mapper.base.CompoundKey2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/*
+ * JUnit Test for the EventBarrelMapper
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+public class EventBarrelMapperTest
+{
+    /** The used testing repository */
+    private Repository repository;
+
+    /** The tested mapper */
+    private EventBarrelMapper links;
+
+    /** An event without bookings */
+    private BrewingEvent event;
+
+    /** The id of the event without bookings */
+    private int eventId;
+
+    @Before
+    public void setUp () throws BrewMasterTestException, MapperException
+    {
+        repository = TestRepository.open ();
+        links = repository.eventsBarrels ();
+
+        event = new BrewingEvent ("Abfüllen", "", new Date (1356300000000L), new Date (1356400000000L));
+        repository.events ().persist (event);
+        repository.flush ();
+        eventId = repository.events ().getEntityKey (event);
+    }
+
+    @After
+    public void tearDown () throws MapperException
+    {
+        links.unlink (eventId, Arrays.asList (1, 2, 3));
+        repository.events ().remove (event);
+        repository.flush ();
+
+        TestRepository.close ();
+        repository = null;
+    }
+
+    @Test
+    public void testBookingsAreFoundByTheirCompoundKey () throws MapperException
+    {
+        EventBarrel link = links.find (new CompoundKey2<Integer, Integer> (1, 2));
+
+        assertNotNull (link);
+        assertEquals (1, link.getEventID ());
+        assertEquals (2, link.getBarrelID ());
+        assertSame (link, links.find (new CompoundKey2<Integer, Integer> (1, 2)));
+        assertNull (links.find (new CompoundKey2<Integer, Integer> (2, 1)));
+    }
+
+    @Test
+    public void testBookingsAreLookedUpInBothDirections () throws MapperException
+    {
+        assertEquals (Arrays.asList (2), links.findBarrelIds (1));
+        assertEquals (Arrays.asList (3), links.findEventIds (1));
+        assertTrue (links.findBarrelIds (eventId).isEmpty ());
+        assertTrue (links.isLinked (1, 2));
+        assertFalse (links.isLinked (2, 1));
+
+        ArrayList<EventBarrel> bookings = links.findByEvent (1);
+        assertEquals (1, bookings.size ());
+        assertEquals (2, bookings.get (0).getBarrelID ());
+    }
+
+    @Test
+    public void testLinkAndUnlinkInBatches () throws MapperException
+    {
+        links.setBatchSize (1);
+        links.link (eventId, Arrays.asList (1, 3, 3));
+        repository.flush ();
+
+        assertEquals (Arrays.asList (1, 3), links.findBarrelIds (eventId));
+        assertEquals (Arrays.asList (3, eventId), links.findEventIds (1));
+        assertFalse (repository.barrelAvailability ().isFree (
+                    3, event.getStart (), event.getEnd (), -1));
+
+        links.unlink (eventId, Arrays.asList (1, 2, 3));
+        repository.flush ();
+        links.setBatchSize (EventBarrelMapper.DEFAULT_BATCH_SIZE);
+
+        assertTrue (links.findBarrelIds (eventId).isEmpty ());
+        assertNull (links.find (new CompoundKey2<Integer, Integer> (eventId, 1)));
+        assertTrue (repository.barrelAvailability ().isFree (
+                    3, event.getStart (), event.getEnd (), -1));
+    }
+
+    @Test
+    public void testRolledBackBookingsAreDropped () throws MapperException
+    {
+        assertFalse (links.isLinked (eventId, 2));
+
+        repository.beginUnitOfWork ();
+        try {
+            links.link (eventId, Arrays.asList (2));
+            assertTrue (links.isLinked (eventId, 2));
+        }
+        finally {
+            repository.endUnitOfWork ();
+        }
+
+        assertFalse (links.isLinked (eventId, 2));
+    }
+
+    @Test
+    public void testUncommittedBookingsCountForTheirTransactionOnly () throws Exception
+    {
+        assertFalse (links.isLinked (eventId, 2));
+
+        final boolean[] linkedElsewhere = new boolean[2];
+        final ArrayList<Exception> failures = new ArrayList<Exception> ();
+        Thread other = new Thread (new Runnable ()
+        {
+            @Override
+            public void run ()
+            {
+                try {
+                    linkedElsewhere[0] = links.isLinked (eventId, 2);
+                    linkedElsewhere[1] = links.findEventIds (2).contains (eventId);
+                }
+                catch (MapperException e) {
+                    failures.add (e);
+                }
+            }
+        });
+
+        repository.beginUnitOfWork ();
+        try {
+            links.link (eventId, Arrays.asList (2));
+            assertTrue (links.isLinked (eventId, 2));
+            assertEquals (Arrays.asList (2), links.findBarrelIds (eventId));
+
+            other.start ();
+            other.join ();
+            assertEquals (new ArrayList<Exception> (), failures);
+            assertFalse (linkedElsewhere[0]);
+            assertFalse (linkedElsewhere[1]);
+
+            repository.flush ();
+        }
+        finally {
+            repository.endUnitOfWork ();
+        }
+
+        assertTrue (links.isLinked (eventId, 2));
+        assertTrue (links.findEventIds (2).contains (eventId));
+    }
+}
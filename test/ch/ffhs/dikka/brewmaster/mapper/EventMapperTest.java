@@ -20,8 +20,14 @@ package ch.ffhs.dikka.brewmaster.mapper;
 
 import ch.ffhs.dikka.brewmaster.core.BrewingEvent;
 import ch.ffhs.dikka.brewmaster.TestRepository;
+import ch.ffhs.dikka.brewmaster.mapper.base.EntityCursor;
+import ch.ffhs.dikka.brewmaster.mapper.base.Page;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
 
 import org.junit.*;
 
@@ -99,6 +105,23 @@ public class EventMapperTest {
         assertEquals(new Date(1356152400000L), changedEvent.getEnd());
     }
 
+    @Test
+    public void testQuerySeesUnflushedUpdate() throws MapperException {
+        EventMapper events = this.repository.events();
+        BrewingEvent event = events.find(1);
+
+        // Generated with:  date "+%s" -d "2030-01-01 00:00:00 UTC"
+        event.setStart(new Date(1893456000000L));
+        event.setEnd(new Date(1893463200000L));
+        events.update(event);
+
+        ArrayList<BrewingEvent> found = events.findAllEventsInBetween(
+                new Date(1893369600000L), new Date(1893542400000L));
+        assertTrue(found.contains(event));
+        assertFalse(events.findAllEventsInBetween(
+                new Date(1356109200000L), new Date(1356148800000L)).contains(event));
+    }
+
     @Test
     public void testDeleteEvent() throws MapperException{
         EventMapper events = this.repository.events();
@@ -110,4 +133,108 @@ public class EventMapperTest {
         assertNull(noEvent);
     }
 
+    @Test
+    public void testCursorWithoutRegistration() throws MapperException {
+        EventMapper events = this.repository.events();
+        events.unloadAll();
+
+        EntityCursor<Integer, BrewingEvent> cursor = events.openCursor(1, false);
+        int count = 0;
+        try {
+            while (cursor.next()) {
+                assertNotNull(cursor.get().getName());
+                ++count;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        assertTrue(cursor.isClosed());
+        assertEquals(0, events.getRegistryStatistics().getEntries());
+        assertEquals(events.findAll().size(), count);
+    }
+
+    @Test
+    public void testCursorInBetween() throws MapperException {
+        EventMapper events = this.repository.events();
+        Date begin = new Date(0L);
+        Date end = new Date(Long.MAX_VALUE / 2);
+        ArrayList<BrewingEvent> found = events.findAllEventsInBetween(begin, end);
+        assertFalse(found.isEmpty());
+
+        EntityCursor<Integer, BrewingEvent> cursor
+            = events.openCursorInBetween(begin, end, 10, false);
+        try {
+            for (BrewingEvent event : found) {
+                assertTrue(cursor.next());
+                assertSame(event, cursor.get());
+            }
+            assertFalse(cursor.next());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void testPagesByPrimaryKey() throws MapperException {
+        EventMapper events = this.repository.events();
+        ArrayList<Integer> expected = new ArrayList<Integer>();
+        for (BrewingEvent event : events.findAll()) {
+            expected.add(events.getEntityKey(event));
+        }
+        Collections.sort(expected);
+
+        ArrayList<Integer> paged = new ArrayList<Integer>();
+        Page<BrewingEvent> page = events.findFirstPage(1);
+        while (true) {
+            assertTrue(page.size() <= 1);
+            for (BrewingEvent event : page) {
+                paged.add(events.getEntityKey(event));
+            }
+            if (!page.hasNextPage()) break;
+            page = events.findNextPage(page.getNextPageKey(), 1);
+        }
+
+        assertEquals(expected, paged);
+    }
+
+    @Test
+    public void testPagesByStart() throws MapperException {
+        final EventMapper events = this.repository.events();
+
+        BrewingEvent sameStart = new BrewingEvent();
+        sameStart.setName("Gleichzeitig");
+        sameStart.setStart(events.find(1).getStart());
+        sameStart.setEnd(events.find(1).getEnd());
+        events.persist(sameStart);
+        this.repository.flush();
+
+        final HashMap<BrewingEvent, Integer> ids = new HashMap<BrewingEvent, Integer>();
+        ArrayList<BrewingEvent> expected = events.findAll();
+        for (BrewingEvent event : expected) {
+            ids.put(event, events.getEntityKey(event));
+        }
+        Collections.sort(expected, new Comparator<BrewingEvent>() {
+            public int compare(BrewingEvent a, BrewingEvent b) {
+                int order = a.getStart().compareTo(b.getStart());
+                return order != 0 ? order : ids.get(a).compareTo(ids.get(b));
+            }
+        });
+
+        ArrayList<BrewingEvent> paged = new ArrayList<BrewingEvent>();
+        Page<BrewingEvent> page = events.findFirstPage("start", 2);
+        paged.addAll(page.getEntities());
+        while (page.hasNextPage()) {
+            page = events.findNextPage(page.getNextPageKey(), 2);
+            paged.addAll(page.getEntities());
+        }
+
+        assertEquals(expected, paged);
+    }
+
+    @Test(expected = MapperException.class)
+    public void testPagesByUnknownColumn() throws MapperException {
+        this.repository.events().findFirstPage("unknown", 10);
+    }
+
 }
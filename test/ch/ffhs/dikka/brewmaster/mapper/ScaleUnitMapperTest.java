@@ -145,6 +145,28 @@ public class ScaleUnitMapperTest
         }
     }
 
+    @Test
+    public void testReferenceDataAreRefreshedAfterCommit () throws MapperException
+    {
+        ReferenceData referenceData = repository.referenceData ();
+        ScaleUnitMapper scaleUnits = repository.scaleUnits ();
+
+        ScaleUnit kilogram = scaleUnits.findByShortName ("kg");
+        assertSame (kilogram, referenceData.getScaleUnit (scaleUnits.getEntityKey (kilogram)));
+
+        ScaleUnit unit = new ScaleUnit ("cl", "Zentiliter");
+        scaleUnits.persist (unit);
+        assertNull (referenceData.getScaleUnitByShortName ("cl"));
+
+        repository.flush ();
+        assertSame (unit, referenceData.getScaleUnitByShortName ("cl"));
+        assertSame (unit, referenceData.getScaleUnit (scaleUnits.getEntityKey (unit)));
+
+        removeUnit (unit);
+        assertNull (referenceData.getScaleUnitByShortName ("cl"));
+        assertSame (kilogram, referenceData.getScaleUnitByShortName ("kg"));
+    }
+
 
     protected void removeUnit (ScaleUnit unit) throws MapperException
     {
@@ -0,0 +1,246 @@
+/* 
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.mapper;
+
+import ch.ffhs.dikka.brewmaster.BrewMasterTestException;
+import ch.ffhs.dikka.brewmaster.TestRepository;
+import ch.ffhs.dikka.brewmaster.core.BrewingEvent;
+import ch.ffhs.dikka.brewmaster.mapper.base.CommitNotifyable;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/*
+ * JUnit Test for units of work of the Repository
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+public class UnitOfWorkTest
+{
+    /** The used testing repository */
+    private Repository repository;
+
+    @Before
+    public void setUp () throws BrewMasterTestException
+    {
+        repository = TestRepository.open ();
+    }
+
+    @After
+    public void tearDown ()
+    {
+        TestRepository.close ();
+        repository = null;
+    }
+
+    @Test
+    public void testUnitOfWorkUsesOwnConnection () throws MapperException
+    {
+        Connection writer = repository.getConnection ();
+
+        repository.beginUnitOfWork ();
+        try {
+            assertTrue (repository.hasUnitOfWork ());
+            assertNotSame (writer, repository.getConnection ());
+        }
+        finally {
+            repository.endUnitOfWork ();
+        }
+
+        assertFalse (repository.hasUnitOfWork ());
+        assertSame (writer, repository.getConnection ());
+    }
+
+    @Test
+    public void testParallelUnitsOfWork () throws Exception
+    {
+        final List<Integer> ids = Collections.synchronizedList (new ArrayList<Integer> ());
+        final List<Throwable> failures = Collections.synchronizedList (new ArrayList<Throwable> ());
+        final BrewingEvent shared = repository.events ().find (1);
+
+        ArrayList<Thread> threads = new ArrayList<Thread> ();
+        for (int i = 0; i < 4; ++i) {
+            final String name = "Import " + i;
+            threads.add (new Thread () {
+                @Override
+                public void run ()
+                {
+                    try {
+                        repository.beginUnitOfWork ();
+                        try {
+                            assertSame (shared, repository.events ().find (1));
+
+                            BrewingEvent event = new BrewingEvent ();
+                            event.setName (name);
+                            event.setStart (new Date (1356109200000L));
+                            event.setEnd (new Date (1356148800000L));
+                            repository.events ().persist (event);
+                            repository.flush ();
+
+                            ids.add (repository.events ().getEntityKey (event));
+                        }
+                        finally {
+                            repository.endUnitOfWork ();
+                        }
+                    }
+                    catch (Throwable e) {
+                        failures.add (e);
+                    }
+                }
+            });
+        }
+
+        for (Thread thread : threads) thread.start ();
+        for (Thread thread : threads) thread.join ();
+
+        assertTrue (failures.toString (), failures.isEmpty ());
+        assertEquals (4, ids.size ());
+
+        for (Integer id : ids) {
+            repository.events ().unload (repository.events ().find (id));
+            assertNotNull (repository.events ().find (id));
+        }
+    }
+
+    @Test
+    public void testEndingUnitOfWorkRollsBack () throws MapperException
+    {
+        repository.beginUnitOfWork ();
+        Integer id;
+        try {
+            BrewingEvent event = new BrewingEvent ();
+            event.setName ("Verworfen");
+            event.setStart (new Date (1356109200000L));
+            event.setEnd (new Date (1356148800000L));
+            repository.events ().persist (event);
+            id = repository.events ().getEntityKey (event);
+            repository.events ().unload (event);
+        }
+        finally {
+            repository.endUnitOfWork ();
+        }
+
+        assertNull (repository.events ().find (id));
+    }
+
+    @Test
+    public void testEndingReadOnlyUnitOfWorkNotifiesNoRollback () throws MapperException
+    {
+        final int[] rollbacks = new int[1];
+        CommitNotifyable observer = new CommitNotifyable () {
+            public void afterCommit ()
+            {}
+
+            public void afterRollback ()
+            { ++rollbacks[0]; }
+        };
+        repository.addCommitObserver (observer);
+
+        try {
+            repository.beginUnitOfWork ();
+            try {
+                repository.events ().findAll ();
+            }
+            finally {
+                repository.endUnitOfWork ();
+            }
+            assertEquals (0, rollbacks[0]);
+
+            repository.beginUnitOfWork ();
+            try {
+                BrewingEvent event = new BrewingEvent ();
+                event.setName ("Verworfen");
+                event.setStart (new Date (1356109200000L));
+                event.setEnd (new Date (1356148800000L));
+                repository.events ().persist (event);
+                repository.events ().unload (event);
+            }
+            finally {
+                repository.endUnitOfWork ();
+            }
+            assertEquals (1, rollbacks[0]);
+        }
+        finally {
+            repository.removeCommitObserver (observer);
+        }
+    }
+
+    @Test
+    public void testFlushOfSharedConnectionWritesOtherThreadsUpdates () throws Exception
+    {
+        final BrewingEvent event = repository.events ().find (1);
+        event.setName ("Generalversammlung");
+        repository.events ().update (event);
+
+        final List<Throwable> failures = Collections.synchronizedList (new ArrayList<Throwable> ());
+        Thread flushing = new Thread () {
+            @Override
+            public void run ()
+            {
+                try {
+                    repository.flush ();
+                }
+                catch (Throwable e) {
+                    failures.add (e);
+                }
+            }
+        };
+        flushing.start ();
+        flushing.join ();
+
+        assertTrue (failures.toString (), failures.isEmpty ());
+        assertFalse (repository.getConnectionPool ().hasPendingWrites ());
+        assertEquals ("Generalversammlung", queryEventName (1));
+    }
+
+    @Test
+    public void testReadWritesUpdatesOfOtherMappers () throws Exception
+    {
+        BrewingEvent event = repository.events ().find (1);
+        event.setName ("Generalversammlung");
+        repository.events ().update (event);
+
+        repository.journals ().findAll ();
+
+        assertEquals ("Generalversammlung", queryEventName (1));
+    }
+
+    /*
+     * Returns the name of the given event as stored on the connection written to.
+     */
+    private String queryEventName (int id) throws SQLException
+    {
+        Statement statement = repository.getConnection ().createStatement ();
+        ResultSet result = statement.executeQuery ("SELECT name FROM event WHERE id = " + id);
+        String name = result.getString (1);
+        statement.close ();
+
+        return name;
+    }
+}
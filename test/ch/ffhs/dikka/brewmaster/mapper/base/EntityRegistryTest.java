@@ -0,0 +1,89 @@
+/* 
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.mapper.base;
+
+import ch.ffhs.dikka.brewmaster.mapper.MapperException;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/*
+ * JUnit Test for the EntityRegistry
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+public class EntityRegistryTest
+{
+    @Test
+    public void testUnboundedRegistryKeepsEverything () throws MapperException
+    {
+        EntityRegistry<Integer, String> registry = new EntityRegistry<Integer, String> ();
+
+        for (int i = 0; i < 50; ++i) {
+            registry.register (i, "entity " + i);
+        }
+
+        assertEquals (50, registry.size ());
+        assertEquals (0, registry.getStatistics ().getEvictionCount ());
+        assertEquals ("entity 7", registry.getEntity (7));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvictionKeepsLiveInstances () throws MapperException
+    {
+        EntityRegistry<Integer, String> registry = new EntityRegistry<Integer, String> ();
+        registry.setEvictionPolicy (EvictionPolicy.leastRecentlyUsed (2));
+
+        String first = new String ("first");
+        String second = new String ("second");
+        String third = new String ("third");
+
+        registry.register (1, first).register (2, second).register (3, third);
+
+        RegistryStatistics statistics = registry.getStatistics ();
+        assertEquals (2, statistics.getStrongEntries ());
+        assertEquals (1, statistics.getEvictionCount ());
+
+        /* evicted but still in use - must still be the same instance */
+        assertSame (first, registry.lookup (1));
+        assertEquals (Integer.valueOf (1), registry.getEntityKey (first));
+        assertNull (registry.lookup (4));
+
+        assertEquals (0.5, registry.getStatistics ().getHitRate (), 0.0001);
+    }
+
+    @Test
+    public void testDirtyEntitiesAreNotReclaimed () throws MapperException
+    {
+        EntityRegistry<Integer, Object> registry = new EntityRegistry<Integer, Object> ();
+        registry.setEvictionPolicy (EvictionPolicy.weakReferences ());
+
+        registry.register (1, new Object ());
+        registry.markDirty (1);
+
+        System.gc ();
+
+        assertTrue (registry.hasEntity (1));
+        assertTrue (registry.isDirty (1));
+
+        registry.markClean (1);
+        assertFalse (registry.isDirty (1));
+    }
+}
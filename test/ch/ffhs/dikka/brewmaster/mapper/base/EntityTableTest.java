@@ -0,0 +1,94 @@
+/* 
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.mapper.base;
+
+import ch.ffhs.dikka.brewmaster.mapper.MapperException;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/*
+ * JUnit Test for the EntityTable
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+public class EntityTableTest
+{
+    /*
+     * Creates a table with the key in the middle of its columns.
+     */
+    private EntityTable createTable () throws MapperException
+    {
+        EntityTable table = new EntityTable ("thing");
+
+        table
+            .addColumn ("name   thing_name")
+            .addColumn ("id     thing_id")
+            .addColumn ("        owner_id")
+            .addColumn ("size   thing_size");
+
+        table.setPrimaryKey ("id");
+
+        return table;
+    }
+
+    @Test
+    public void testFrozenLayouts () throws MapperException
+    {
+        EntityTable table = createTable ().freeze ();
+
+        assertTrue (table.isFrozen ());
+        assertEquals (2, table.getPrimaryKeyColumnStartIndex ());
+        assertEquals (1, table.getValueColumnStartIndex ());
+        assertEquals (3, table.getUpdateColumnSize ());
+        assertArrayEquals (new int[] { 2 }, table.getKeyColumnIndexes ());
+        assertArrayEquals (new int[] { 1, 3, 4 }, table.getValueColumnIndexes ());
+        assertEquals ("size", table.getValueColumn (3).getName ());
+
+        assertEquals (1, table.getColumnIndex ("thing_name"));
+        assertEquals (1, table.getColumnIndex ("name"));
+        assertEquals (3, table.getColumnIndex ("owner_id"));
+        assertEquals (4, table.getColumnIndex ("thing_size"));
+    }
+
+    @Test
+    public void testLayoutsFollowChangesUntilFrozen () throws MapperException
+    {
+        EntityTable table = createTable ();
+        assertEquals (3, table.getUpdateColumnSize ());
+
+        table.addColumn ("weight thing_weight");
+        assertEquals (4, table.getUpdateColumnSize ());
+        assertEquals (5, table.getColumnIndex ("thing_weight"));
+
+        table.freeze ();
+        try {
+            table.addColumn ("color thing_color");
+            fail ("A frozen table must not accept new columns.");
+        }
+        catch (UnsupportedOperationException e) {}
+
+        assertEquals (5, table.size ());
+    }
+
+    @Test (expected = MapperException.class)
+    public void testUnknownColumn () throws MapperException
+    { createTable ().freeze ().getColumnIndex ("thing_color"); }
+}
@@ -0,0 +1,131 @@
+/* 
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.mapper.base;
+
+import ch.ffhs.dikka.brewmaster.BrewMasterTestException;
+import ch.ffhs.dikka.brewmaster.TestRepository;
+import ch.ffhs.dikka.brewmaster.core.BrewingEvent;
+import ch.ffhs.dikka.brewmaster.mapper.EventMapper;
+import ch.ffhs.dikka.brewmaster.mapper.MapperException;
+import ch.ffhs.dikka.brewmaster.mapper.Repository;
+
+import java.util.Date;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/*
+ * JUnit Test for the SecondLevelCache
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+public class SecondLevelCacheTest
+{
+    /** The used testing repository */
+    private Repository repository;
+
+    /** A second repository on the same database */
+    private Repository other;
+
+    /** The cache shared by both repositories */
+    private SecondLevelCache cache;
+
+    /** The event stored for the tests */
+    private BrewingEvent event;
+
+    @Before
+    public void setUp () throws BrewMasterTestException, MapperException
+    {
+        repository = TestRepository.open ();
+        other = new Repository (repository.getConnectionPool ());
+
+        cache = new SecondLevelCache ();
+        repository.setSecondLevelCache (cache);
+        other.setSecondLevelCache (cache);
+
+        event = new BrewingEvent (
+                "Zwischenspeicher", "", new Date (1000000L), new Date (2000000L));
+        repository.events ().persist (event);
+        repository.flush ();
+    }
+
+    @After
+    public void tearDown () throws MapperException
+    {
+        repository.events ().remove (event);
+        repository.flush ();
+        repository.setSecondLevelCache (null);
+
+        TestRepository.close ();
+        repository = null;
+        other = null;
+    }
+
+    @Test
+    public void testRowsAreSharedBetweenRepositories () throws MapperException
+    {
+        EventMapper events = repository.events ();
+        Integer id = events.getEntityKey (event);
+
+        events.unload (event);
+        BrewingEvent loaded = events.find (id);
+        assertEquals (1, cache.getMissCount ());
+
+        BrewingEvent shared = other.events ().find (id);
+        assertEquals (1, cache.getHitCount ());
+        assertNotSame (loaded, shared);
+        assertEquals ("Zwischenspeicher", shared.getName ());
+        assertEquals (loaded.getStart (), shared.getStart ());
+        assertEquals (loaded.getEnd (), shared.getEnd ());
+        assertFalse (other.events ().hasChanges (shared));
+
+        event = loaded;
+    }
+
+    @Test
+    public void testWrittenRowsAreEvictedAfterCommit () throws MapperException
+    {
+        Integer id = repository.events ().getEntityKey (event);
+
+        BrewingEvent shared = other.events ().find (id);
+        assertEquals (1, cache.getMissCount ());
+
+        shared.setName ("Geändert");
+        other.events ().update (shared);
+        other.flush ();
+
+        repository.events ().unload (event);
+        event = repository.events ().find (id);
+        assertEquals (2, cache.getMissCount ());
+        assertEquals ("Geändert", event.getName ());
+
+        other.events ().remove (shared);
+        other.flush ();
+
+        repository.events ().unload (event);
+        assertNull (repository.events ().find (id));
+        assertEquals (3, cache.getMissCount ());
+
+        event = new BrewingEvent (
+                "Zwischenspeicher", "", new Date (1000000L), new Date (2000000L));
+        repository.events ().persist (event);
+        repository.flush ();
+    }
+}
@@ -0,0 +1,98 @@
+/* 
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.mapper.base;
+
+import ch.ffhs.dikka.brewmaster.mapper.MapperException;
+import ch.ffhs.dikka.brewmaster.mapper.base.statement.Condition;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/*
+ * JUnit Test for the StatementBuilder
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+public class StatementBuilderTest
+{
+    /*
+     * Creates a table of events.
+     */
+    private Table createTable () throws MapperException
+    {
+        Table table = new Table ("event");
+
+        table
+            .addColumn ("id")
+            .addColumn ("start");
+
+        return table;
+    }
+
+    @Test
+    public void testRangesAndAlternatives () throws MapperException
+    {
+        Table table = createTable ();
+
+        assertEquals (
+                "SELECT id, start FROM event"
+                + " WHERE ((event.start >= ? AND event.start < ?) OR event.id IS NULL)"
+                + " AND event.id <> ?"
+                + " ORDER BY event.start ASC, event.id DESC LIMIT ? OFFSET ?",
+                StatementBuilder.select ()
+                    .from (table)
+                    .where (Condition.range (table, "start")
+                            .or (Condition.isNull (table, "id")))
+                    .where (Condition.compare (table, "id", "<>"))
+                    .orderBy ("start", table)
+                    .orderBy ("id", table, false)
+                    .limit ()
+                    .offset ()
+                    .toString ());
+    }
+
+    @Test
+    public void testInListsAndSubqueries () throws MapperException
+    {
+        Table table = createTable ();
+        Table journal = new Table ("journal");
+
+        assertEquals (
+                "SELECT id, start FROM event WHERE event.id IN (?, ?, ?)"
+                + " AND NOT EXISTS (SELECT 1 FROM journal WHERE journal.event_id = event.id)",
+                StatementBuilder.select ()
+                    .from (table)
+                    .where (Condition.in (table, "id", 3))
+                    .where (Condition.notExists (StatementBuilder.select ()
+                                .from (journal)
+                                .where (Condition.sameAs (journal, "event_id", table, "id"))))
+                    .toString ());
+
+        assertEquals (
+                "DELETE FROM event WHERE event.id IN (?)",
+                StatementBuilder.delete (table).where (Condition.in (table, "id", 1)).toString ());
+    }
+
+    @Test (expected = MapperException.class)
+    public void testUnknownOperatorIsRejected () throws MapperException
+    {
+        Condition.compare (createTable (), "id", "; DROP TABLE event");
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.mapper.base;
+
+import ch.ffhs.dikka.brewmaster.BrewMasterTestException;
+import ch.ffhs.dikka.brewmaster.TestRepository;
+import ch.ffhs.dikka.brewmaster.mapper.ConnectionPool;
+import ch.ffhs.dikka.brewmaster.mapper.MapperException;
+import ch.ffhs.dikka.brewmaster.mapper.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/*
+ * JUnit Test for the StatementCache
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+public class StatementCacheTest
+{
+    /** The used testing repository */
+    private Repository repository;
+
+    @Before
+    public void setUp () throws BrewMasterTestException
+    {
+        repository = TestRepository.open ();
+    }
+
+    @After
+    public void tearDown ()
+    {
+        TestRepository.close ();
+        repository = null;
+    }
+
+    @Test
+    public void testRepeatedLookupsReuseStatement () throws MapperException
+    {
+        ConnectionPool pool = repository.getConnectionPool ();
+        StatementCache cache = pool.getStatementCache (pool.beginRead ());
+        pool.endRead ();
+
+        repository.barrelTypes ().unloadAll ();
+        repository.barrelTypes ().find (1);
+        long misses = cache.getMissCount ();
+        long hits = cache.getHitCount ();
+
+        repository.barrelTypes ().unloadAll ();
+        repository.barrelTypes ().find (1);
+        repository.barrelTypes ().unloadAll ();
+        repository.barrelTypes ().find (2);
+
+        assertEquals (misses, cache.getMissCount ());
+        assertEquals (hits + 2, cache.getHitCount ());
+    }
+
+    @Test
+    public void testTakenStatementIsNotHandedOutTwice () throws SQLException
+    {
+        StatementCache cache = new StatementCache (repository.getConnection ());
+        PreparedStatement statement = repository.getConnection ().prepareStatement ("SELECT 1");
+
+        assertNull (cache.take ("one"));
+        cache.put ("one", statement);
+        assertNull (cache.take ("one"));
+
+        cache.release (statement);
+        assertSame (statement, cache.take ("one"));
+        assertEquals (1, cache.getHitCount ());
+        assertEquals (2, cache.getMissCount ());
+
+        cache.release (statement);
+        cache.close ();
+        assertNull (cache.take ("one"));
+    }
+}
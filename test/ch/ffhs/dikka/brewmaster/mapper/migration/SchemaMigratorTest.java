@@ -0,0 +1,124 @@
+/* 
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.mapper.migration;
+
+import ch.ffhs.dikka.brewmaster.mapper.ConnectionFactory;
+import ch.ffhs.dikka.brewmaster.mapper.MapperException;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/*
+ * JUnit Test for the SchemaMigrator
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+public class SchemaMigratorTest
+{
+    /** The file of the database to migrate */
+    private File dbFile;
+
+    /** The connection to the database to migrate */
+    private Connection connection;
+
+    @Before
+    public void setUp () throws IOException, MapperException
+    {
+        dbFile = File.createTempFile ("brew-master-migration", ".sqlite");
+        connection = ConnectionFactory.create (dbFile.getPath ());
+    }
+
+    @After
+    public void tearDown () throws SQLException
+    {
+        connection.close ();
+        dbFile.delete ();
+    }
+
+    @Test
+    public void testMigratesEmptyDatabase () throws MapperException, SQLException
+    {
+        SchemaMigrator migrator = new SchemaMigrator (connection);
+        boolean autoCommit = connection.getAutoCommit ();
+
+        assertEquals (0, migrator.getVersion ());
+        assertEquals (migrator.getLatestVersion (), migrator.migrate ());
+        assertEquals (migrator.getLatestVersion (), migrator.getVersion ());
+
+        assertEquals (5, count ("SELECT count(*) FROM scale_unit"));
+        assertEquals (1, count ("SELECT count(*) FROM sqlite_master WHERE name = 'task_journal_id_idx'"));
+        assertEquals (1, count ("SELECT count(*) FROM sqlite_master WHERE name = 'sqlite_stat1'"));
+
+        assertEquals (0, migrator.migrate ());
+        assertEquals (autoCommit, connection.getAutoCommit ());
+    }
+
+    @Test
+    public void testUnversionedDatabaseIsBaselined () throws MapperException, SQLException
+    {
+        new Migration (1, "Schema", "resources/db-schema.sql").apply (connection);
+        SchemaMigrator migrator = new SchemaMigrator (connection);
+
+        assertEquals (1, migrator.getVersion ());
+        assertEquals (1, migrator.migrate ());
+        assertEquals (0, count ("SELECT count(*) FROM scale_unit"));
+
+        ResultSet plan = connection.createStatement ().executeQuery (
+                "EXPLAIN QUERY PLAN SELECT * FROM task WHERE journal_id = 1");
+        StringBuilder details = new StringBuilder ();
+        while (plan.next ()) {
+            details.append (plan.getString (plan.getMetaData ().getColumnCount ()));
+        }
+        plan.close ();
+        assertTrue (details.toString (), details.toString ().contains ("task_journal_id_idx"));
+    }
+
+    @Test(expected=MapperException.class)
+    public void testMigrationsMustBeConsecutive () throws MapperException
+    {
+        new SchemaMigrator (connection).addMigration (
+                new Migration (4, "Gap", "resources/migrations/002-indexes.sql"));
+    }
+
+    /**
+     * Returns the single number selected by the given query.
+     * @param sql the query selecting one number
+     * @return the selected number
+     */
+    private int count (String sql) throws SQLException
+    {
+        Statement statement = connection.createStatement ();
+        try {
+            ResultSet result = statement.executeQuery (sql);
+            return result.next () ? result.getInt (1) : -1;
+        }
+        finally {
+            statement.close ();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/* 
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.ui.calendar;
+
+import ch.ffhs.dikka.brewmaster.core.BrewCalendar;
+import ch.ffhs.dikka.brewmaster.core.BrewingEvent;
+import ch.ffhs.dikka.brewmaster.ui.common.ViewChange;
+import ch.ffhs.dikka.brewmaster.ui.common.ViewObserver;
+
+import java.awt.event.MouseEvent;
+
+import java.util.ArrayList;
+import java.util.Date;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/*
+ * JUnit Test for the CalendarEventLayer
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+public class CalendarEventLayerTest
+{
+    /** One day in milliseconds */
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    @Test
+    public void testDoubleClickSelectsTheEventUnderTheMouse ()
+    {
+        BrewCalendar calendar = new BrewCalendar ();
+        calendar.setDateRange (new Date (0), new Date (29 * DAY));
+        calendar.addEvent (new BrewingEvent ("Brauen", "", new Date (2 * DAY), new Date (4 * DAY)));
+        BrewingEvent bottling
+            = new BrewingEvent ("Abfüllen", "", new Date (10 * DAY), new Date (12 * DAY));
+        calendar.addEvent (bottling);
+
+        CalendarPanel panel = new CalendarPanel (calendar);
+        panel.setSize (600, 400);
+        CalendarLayout layout = new CalendarLayout (calendar, panel);
+        panel.setLayout (layout);
+
+        CalendarEventLayer layer = new CalendarEventLayer (calendar, layout);
+        panel.add (layer);
+        panel.doLayout ();
+        assertEquals (600, layer.getWidth ());
+
+        final ArrayList<ViewChange> selections = new ArrayList<ViewChange> ();
+        layer.addObserver (new ViewObserver ()
+        {
+            public void selectionChanged (ViewChange change) { selections.add (change); }
+            public void contentChanged (ViewChange change) {}
+            public void contentDropped (ViewChange change) {}
+            public void contentAdded (ViewChange change) {}
+        });
+
+        CalendarViewLocation location = layout.getLocation (1);
+        int x = location.getX () + 5;
+        int y = location.getY () + location.getDimension ().height / 2;
+        layer.dispatchEvent (new MouseEvent (layer, MouseEvent.MOUSE_PRESSED,
+                    0, 0, x, y, 2, false, MouseEvent.BUTTON1));
+        layer.dispatchEvent (new MouseEvent (layer, MouseEvent.MOUSE_PRESSED,
+                    0, 0, 1, 1, 2, false, MouseEvent.BUTTON1));
+
+        assertEquals (1, selections.size ());
+        assertEquals (1, selections.get (0).getBegin ());
+        assertEquals (CalendarChangeType.EVENT_SELECTED.ordinal (), selections.get (0).getExtra ());
+        assertSame (bottling, selections.get (0).getSource ());
+    }
+}
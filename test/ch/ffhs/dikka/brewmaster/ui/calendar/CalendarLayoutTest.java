@@ -0,0 +1,138 @@
+/* 
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.ui.calendar;
+
+import ch.ffhs.dikka.brewmaster.core.BrewCalendar;
+import ch.ffhs.dikka.brewmaster.core.BrewingEvent;
+
+import java.util.Date;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/*
+ * JUnit Test for the CalendarLayout
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+public class CalendarLayoutTest
+{
+    /** One day in milliseconds */
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    /** The laid out calendar */
+    private BrewCalendar calendar;
+
+    /** The panel displaying the calendar */
+    private CalendarPanel panel;
+
+    /** The tested layout */
+    private CalendarLayout layout;
+
+    @Before
+    public void setUp ()
+    {
+        calendar = new BrewCalendar ();
+        calendar.setDateRange (new Date (0), new Date (29 * DAY));
+        calendar.addEvent (new BrewingEvent ("Brauen", "", new Date (2 * DAY), new Date (4 * DAY)));
+        calendar.addEvent (new BrewingEvent ("Abfüllen", "", new Date (10 * DAY), new Date (11 * DAY)));
+
+        panel = new CalendarPanel (calendar);
+        panel.setSize (600, 400);
+        layout = new CalendarLayout (calendar, panel);
+        panel.setLayout (layout);
+    }
+
+    @Test
+    public void testLocationsAreComputedOnceUntilAChange ()
+    {
+        CalendarViewLocation first = layout.getLocation (0);
+        CalendarViewLocation second = layout.getLocation (1);
+
+        assertNotNull (first);
+        assertNull (layout.getLocation (2));
+        assertTrue (first.getX () < second.getX ());
+        assertEquals (first.getY (), second.getY ());
+        assertSame (first, layout.getLocation (0));
+
+        panel.setSize (800, 400);
+        CalendarViewLocation resized = layout.getLocation (0);
+        assertNotSame (first, resized);
+        assertTrue (resized.getX () > first.getX ());
+
+        layout.invalidate ();
+        assertNotSame (resized, layout.getLocation (0));
+    }
+
+    @Test
+    public void testOnlyOverlappingEventsGetTheirOwnRow ()
+    {
+        CalendarViewLocation single = layout.getLocation (0);
+
+        calendar.addEvent (new BrewingEvent ("Gären", "", new Date (3 * DAY), new Date (8 * DAY)));
+        layout.invalidate ();
+
+        CalendarViewLocation first = layout.getLocation (0);
+        CalendarViewLocation overlapping = layout.getLocation (1);
+        CalendarViewLocation third = layout.getLocation (2);
+
+        assertEquals (2, layout.getLanes ().getLaneCount ());
+        assertEquals (first.getY (), third.getY ());
+        assertTrue (first.getY () < overlapping.getY ());
+        assertEquals (single.getDimension ().height / 2, first.getDimension ().height, 1);
+    }
+
+    @Test
+    public void testBoxesArePlacedAtTheirLocations ()
+    {
+        EventBox box = new EventBox (null, 1);
+        box.setEvent (calendar.eventAtIndex (1));
+        panel.add (box);
+
+        panel.doLayout ();
+
+        CalendarViewLocation location = layout.getLocation (1);
+        assertEquals (location.getX (), box.getX ());
+        assertEquals (location.getY () + EventBox.MARGIN, box.getY ());
+        assertEquals (location.getDimension ().width, box.getWidth ());
+    }
+
+    @Test
+    public void testGridFindsEventsAtPointsAndWithinAreas ()
+    {
+        for (int index = 0; index < 2; ++index) {
+            CalendarViewLocation location = layout.getLocation (index);
+            int x = location.getX () + location.getDimension ().width / 2;
+            int y = location.getY () + location.getDimension ().height / 2;
+
+            assertEquals (index, layout.findEventAt (x, y));
+        }
+        assertEquals (-1, layout.findEventAt (1, 1));
+        assertEquals (-1, layout.findEventAt (-5, 200));
+
+        int[] found = new int[2];
+        assertEquals (2, layout.findEventsIn (0, 0, 600, 400, found));
+
+        CalendarViewLocation second = layout.getLocation (1);
+        assertEquals (1, layout.findEventsIn (
+                    second.getX (), second.getY () + EventBox.MARGIN, 1, 1, found));
+        assertEquals (1, found[0]);
+    }
+}
@@ -0,0 +1,100 @@
+/* 
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.ui.calendar;
+
+import ch.ffhs.dikka.brewmaster.BrewMasterTestException;
+import ch.ffhs.dikka.brewmaster.TestRepository;
+import ch.ffhs.dikka.brewmaster.core.BrewingEvent;
+import ch.ffhs.dikka.brewmaster.mapper.MapperException;
+import ch.ffhs.dikka.brewmaster.mapper.Repository;
+
+import java.util.ArrayList;
+import java.util.Date;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/*
+ * JUnit Test for the CalendarWindowCache
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+public class CalendarWindowCacheTest
+{
+    /** 2012-12-01 */
+    private static final Date BEGIN = new Date (1354316400000L);
+
+    /** 2013-02-01 */
+    private static final Date END = new Date (1359673200000L);
+
+    /** The used testing repository */
+    private Repository repository;
+
+    /** The tested cache */
+    private CalendarWindowCache cache;
+
+    @Before
+    public void setUp () throws BrewMasterTestException
+    {
+        repository = TestRepository.open ();
+        cache = new CalendarWindowCache (repository);
+    }
+
+    @After
+    public void tearDown ()
+    {
+        cache.close ();
+        TestRepository.close ();
+        repository = null;
+    }
+
+    @Test
+    public void testRepeatedWindowIsServedFromMemory () throws MapperException
+    {
+        ArrayList<BrewingEvent> expected = repository.events ().findAllEventsInBetween (BEGIN, END);
+
+        assertEquals (expected, cache.findAllEventsInBetween (BEGIN, END));
+        long misses = cache.getMissCount ();
+
+        assertEquals (expected, cache.findAllEventsInBetween (BEGIN, END));
+        assertEquals (misses, cache.getMissCount ());
+        assertTrue (cache.getHitCount () > 0);
+        assertTrue (cache.isCached (BEGIN));
+    }
+
+    @Test
+    public void testCommitInvalidatesTheCache () throws MapperException
+    {
+        cache.findAllEventsInBetween (BEGIN, END);
+
+        // 2012-12-10 10:00 to 12:00
+        BrewingEvent event = new BrewingEvent (
+                "Abfüllen", "", new Date (1355130000000L), new Date (1355137200000L));
+        repository.events ().persist (event);
+        repository.flush ();
+
+        assertFalse (cache.isCached (BEGIN));
+        assertTrue (cache.findAllEventsInBetween (BEGIN, END).contains (event));
+
+        repository.events ().remove (event);
+        repository.flush ();
+        assertFalse (cache.findAllEventsInBetween (BEGIN, END).contains (event));
+    }
+}
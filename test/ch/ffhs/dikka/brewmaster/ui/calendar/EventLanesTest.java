@@ -0,0 +1,123 @@
+/* 
+ * LICENSE
+ *
+ * Copyright (C) 2012 DIKKA Group
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.ffhs.dikka.brewmaster.ui.calendar;
+
+import ch.ffhs.dikka.brewmaster.core.BrewCalendar;
+import ch.ffhs.dikka.brewmaster.core.BrewingEvent;
+
+import java.util.ArrayList;
+import java.util.Date;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/*
+ * JUnit Test for the EventLanes
+ *
+ * @author David Daniel <david.daniel@students.ffhs.ch>
+ * @since 2012-12-18
+ */
+public class EventLanesTest
+{
+    /** One day in milliseconds */
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    /** The calendar of the events */
+    private BrewCalendar calendar;
+
+    @Before
+    public void setUp ()
+    {
+        calendar = new BrewCalendar ();
+        calendar.setDateRange (new Date (0), new Date (59 * DAY));
+    }
+
+    /**
+     * Creates an event running from the given day to the other.
+     */
+    private static BrewingEvent event (int start, int end)
+    { return new BrewingEvent ("Brauen", "", new Date (start * DAY), new Date (end * DAY)); }
+
+    @Test
+    public void testSweepUsesAsManyLanesAsEventsRunAtOnce ()
+    {
+        ArrayList<BrewingEvent> events = new ArrayList<BrewingEvent> ();
+        events.add (event (1, 5));
+        events.add (event (2, 3));
+        events.add (event (4, 9));
+        events.add (event (6, 7));
+        events.add (event (10, 12));
+        calendar.setEvents (events);
+
+        EventLanes lanes = new EventLanes (calendar);
+
+        assertEquals (2, lanes.getLaneCount ());
+        assertEquals (0, lanes.getLane (events.get (0)));
+        assertEquals (1, lanes.getLane (events.get (1)));
+        assertEquals (1, lanes.getLane (events.get (2)));
+        assertEquals (0, lanes.getLane (events.get (3)));
+        assertEquals (0, lanes.getLane (events.get (4)));
+    }
+
+    @Test
+    public void testTouchingEventsDoNotShareALane ()
+    {
+        BrewingEvent first = event (1, 3);
+        BrewingEvent second = event (3, 5);
+        calendar.addEvent (first);
+        calendar.addEvent (second);
+
+        EventLanes lanes = new EventLanes (calendar);
+
+        assertEquals (2, lanes.getLaneCount ());
+        assertTrue (lanes.getLane (first) != lanes.getLane (second));
+    }
+
+    @Test
+    public void testSingleChangesAreFollowed ()
+    {
+        BrewingEvent first = event (1, 5);
+        BrewingEvent second = event (2, 8);
+        BrewingEvent third = event (10, 12);
+        calendar.addEvent (first);
+        calendar.addEvent (second);
+        calendar.addEvent (third);
+        EventLanes lanes = new EventLanes (calendar);
+        assertEquals (2, lanes.getLaneCount ());
+
+        BrewingEvent added = event (6, 9);
+        calendar.addEvent (added);
+        assertEquals (0, lanes.getLane (added));
+        assertEquals (2, lanes.getLaneCount ());
+
+        BrewingEvent crowded = event (3, 7);
+        calendar.addEvent (crowded);
+        assertEquals (3, lanes.getLaneCount ());
+
+        calendar.removeEvent (crowded);
+        calendar.removeEvent (second);
+        assertEquals (-1, lanes.getLane (second));
+        assertEquals (1, lanes.getLaneCount ());
+
+        third.setStart (new Date (4 * DAY));
+        calendar.updateEvent (third);
+        assertEquals (1, lanes.getLane (third));
+        assertEquals (2, lanes.getLaneCount ());
+    }
+}